@@ -0,0 +1,222 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.tqmall.search.canal.handle.CanalInstanceHandle;
+import com.tqmall.search.canal.handle.ParallelApplyHandle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Created by xing on 16/5/2.
+ * {@link CanalExecutor}中canal实例的并行处理, 一个{@link com.alibaba.otter.canal.protocol.Message}的数据按照
+ * schema.table + 主键hash分配到各个lane, 每个lane通过{@link ParallelApplyHandle#createLaneHandle(int)}创建的handle顺序处理
+ * 同一个主键的变更总是分配到同一个lane, 所以同一个主键的变更顺序不变, 不同lane之间没有顺序保证
+ * 主键通过{@link CanalEntry.Column#getIsKey()}确定, DELETE取修改之前的值, INSERT, UPDATE取修改之后的值, 没有主键的表整表分配到同一个lane
+ * 修改了主键的UPDATE(k1 -> k2)作为屏障: 之前分配的数据先全部处理完, 然后单独处理该行, 之后的数据再继续分配,
+ * 否则按照修改之后的主键分配, 可能先于k1之前的变更处理; 按照修改之前的主键分配, k2之后的变更又可能先于该行处理
+ * 所有lane都处理完之后{@link #apply()}才返回, 之后才能ack, 某个lane出现异常, 等待其他lane结束之后抛出
+ * 非线程安全, 只能canal实例线程调用
+ *
+ * @author xing
+ */
+class ApplyLanes {
+
+    private final CanalInstanceHandle[] laneHandles;
+
+    /**
+     * 每个lane待处理的数据, 依次为{@link CanalEntry.Header}, {@link CanalEntry.RowChange}
+     */
+    private final List<Object>[] laneEntries;
+
+    private final ExecutorService executor;
+
+    private final List<Future<?>> futures;
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    ApplyLanes(ParallelApplyHandle handle, int lanes, ThreadFactory threadFactory) {
+        if (lanes <= 1) throw new IllegalArgumentException("apply lanes: " + lanes + " should be greater than 1");
+        laneHandles = new CanalInstanceHandle[lanes];
+        laneEntries = new List[lanes];
+        for (int i = 0; i < lanes; i++) {
+            laneHandles[i] = createLaneHandle(handle, i);
+            laneEntries[i] = new ArrayList<>();
+        }
+        futures = new ArrayList<>(lanes);
+        executor = Executors.newFixedThreadPool(lanes, threadFactory);
+    }
+
+    /**
+     * 创建并校验lane使用的handle, {@link CanalExecutor#addInstanceHandle(ParallelApplyHandle, int)}时也会调用, 提前暴露错误
+     *
+     * @throws IllegalArgumentException 返回null或者handle本身
+     * @throws UnsupportedOperationException handle不支持创建lane handle, 比如子类没有覆盖
+     */
+    static CanalInstanceHandle createLaneHandle(ParallelApplyHandle handle, int lane) {
+        CanalInstanceHandle laneHandle = handle.createLaneHandle(lane);
+        if (laneHandle == null || laneHandle == handle) {
+            throw new IllegalArgumentException("canal instance: " + handle.instanceName() + " createLaneHandle(" + lane
+                    + ") should return a new handle");
+        }
+        return laneHandle;
+    }
+
+    int size() {
+        return laneHandles.length;
+    }
+
+    /**
+     * 将rowChange中的每行数据分配到对应的lane, 都在同一个lane时直接使用原对象, 不用重新构造
+     * 存在修改了主键的UPDATE时, 在该行处作为屏障, 见类注释, 屏障处理时出现异常直接抛出
+     */
+    void add(CanalEntry.Header header, CanalEntry.RowChange rowChange) {
+        final int rowCount = rowChange.getRowDatasCount();
+        if (rowCount == 0) return;
+        final int tableHash = 31 * header.getSchemaName().hashCode() + header.getTableName().hashCode();
+        if (rowChange.getEventType() == CanalEntry.EventType.UPDATE) {
+            int from = 0;
+            for (int i = 0; i < rowCount; i++) {
+                CanalEntry.RowData rowData = rowChange.getRowDatas(i);
+                if (!keyChanged(rowData)) continue;
+                if (i > from) addRows(header, rowChange, tableHash, from, i);
+                //屏障: 之前的都处理完, 再单独处理该行
+                apply();
+                addLaneEntry(laneOf(tableHash, rowData, true, laneHandles.length), header,
+                        rowChange.toBuilder().clearRowDatas().addRowDatas(rowData).build());
+                apply();
+                from = i + 1;
+            }
+            if (from > 0) {
+                if (from < rowCount) addRows(header, rowChange, tableHash, from, rowCount);
+                return;
+            }
+        }
+        addRows(header, rowChange, tableHash, 0, rowCount);
+    }
+
+    /**
+     * 分配rowChange中[from, to)的数据
+     */
+    private void addRows(CanalEntry.Header header, CanalEntry.RowChange rowChange, int tableHash, int from, int to) {
+        final int lanes = laneHandles.length;
+        final boolean useBefore = rowChange.getEventType() == CanalEntry.EventType.DELETE;
+        int[] rowLanes = new int[to - from];
+        boolean sameLane = true;
+        for (int i = from; i < to; i++) {
+            rowLanes[i - from] = laneOf(tableHash, rowChange.getRowDatas(i), useBefore, lanes);
+            if (rowLanes[i - from] != rowLanes[0]) sameLane = false;
+        }
+        if (sameLane && from == 0 && to == rowChange.getRowDatasCount()) {
+            addLaneEntry(rowLanes[0], header, rowChange);
+            return;
+        }
+        CanalEntry.RowChange.Builder[] builders = new CanalEntry.RowChange.Builder[lanes];
+        CanalEntry.RowChange.Builder prototype = rowChange.toBuilder().clearRowDatas();
+        for (int i = from; i < to; i++) {
+            int lane = rowLanes[i - from];
+            if (builders[lane] == null) builders[lane] = prototype.clone();
+            builders[lane].addRowDatas(rowChange.getRowDatas(i));
+        }
+        for (int lane = 0; lane < lanes; lane++) {
+            if (builders[lane] != null) addLaneEntry(lane, header, builders[lane].build());
+        }
+    }
+
+    /**
+     * UPDATE是否修改了主键, 依次比较修改之前, 之后的主键列的值, 没有修改之前的列则认为没有修改
+     */
+    static boolean keyChanged(CanalEntry.RowData rowData) {
+        List<CanalEntry.Column> before = rowData.getBeforeColumnsList();
+        if (before.isEmpty()) return false;
+        int j = 0;
+        for (CanalEntry.Column c : rowData.getAfterColumnsList()) {
+            if (!c.getIsKey()) continue;
+            while (j < before.size() && !before.get(j).getIsKey()) j++;
+            if (j == before.size() || !before.get(j).getValue().equals(c.getValue())) return true;
+            j++;
+        }
+        return false;
+    }
+
+    private void addLaneEntry(int lane, CanalEntry.Header header, CanalEntry.RowChange rowChange) {
+        laneEntries[lane].add(header);
+        laneEntries[lane].add(rowChange);
+    }
+
+    static int laneOf(int tableHash, CanalEntry.RowData rowData, boolean useBefore, int lanes) {
+        int h = tableHash;
+        for (CanalEntry.Column c : useBefore ? rowData.getBeforeColumnsList() : rowData.getAfterColumnsList()) {
+            if (c.getIsKey()) h = 31 * h + c.getValue().hashCode();
+        }
+        h ^= h >>> 16;
+        return (h & 0x7FFFFFFF) % lanes;
+    }
+
+    /**
+     * 并行处理所有lane的数据, 等待全部处理完成, 每个lane都会调用{@link CanalInstanceHandle#finishMessageHandle()}
+     * 存在异常的话, 所有lane都结束之后抛出第一个异常
+     */
+    void apply() {
+        try {
+            for (int i = 0; i < laneHandles.length; i++) {
+                if (laneEntries[i].isEmpty()) continue;
+                final CanalInstanceHandle laneHandle = laneHandles[i];
+                final List<Object> entries = laneEntries[i];
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0, size = entries.size(); j < size; j += 2) {
+                                if (laneHandle.startHandle((CanalEntry.Header) entries.get(j))) {
+                                    laneHandle.rowChangeHandle((CanalEntry.RowChange) entries.get(j + 1));
+                                }
+                            }
+                        } finally {
+                            laneHandle.finishMessageHandle();
+                        }
+                    }
+                }));
+            }
+            Throwable exception = null;
+            for (Future<?> f : futures) {
+                try {
+                    getUninterruptibly(f);
+                } catch (ExecutionException e) {
+                    if (exception == null) exception = e.getCause();
+                }
+            }
+            if (exception instanceof RuntimeException) throw (RuntimeException) exception;
+            if (exception instanceof Error) throw (Error) exception;
+            if (exception != null) throw new IllegalStateException(exception);
+        } finally {
+            futures.clear();
+            for (List<Object> entries : laneEntries) {
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * 必须等到lane结束, 否则ack, rollback时lane可能还在处理
+     */
+    private static void getUninterruptibly(Future<?> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -5,6 +5,10 @@ import com.alibaba.otter.canal.protocol.Message;
 import com.alibaba.otter.canal.protocol.exception.CanalClientException;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.tqmall.search.canal.handle.CanalInstanceHandle;
+import com.tqmall.search.canal.handle.MicroBatchHandle;
+import com.tqmall.search.canal.handle.ParallelApplyHandle;
+import com.tqmall.search.canal.handle.SelectiveDecodeHandle;
+import com.tqmall.search.commons.lang.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,6 +22,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 /**
  * Created by xing on 16/2/22.
  * 执行具体的{@link CanalInstanceHandle}, 一个canalInstance占用一个单独线程
+ * 对于{@link ParallelApplyHandle}, 可以通过{@link #addInstanceHandle(ParallelApplyHandle, int)}开启并行处理, 数据按照table + 主键分配到多个lane
+ * 对于{@link MicroBatchHandle}, 每次canal实例启动时{@link MicroBatchHandle#enableMicroBatch()}返回true, 则在
+ * {@link CanalInstanceHandle#finishMessageHandle()}之后才ack, handle还有缓存的数据则延迟ack, 缓存的数据处理完成之后再按照顺序ack之前所有的Message
  * 该类实例通过{@link Runtime#addShutdownHook(Thread)}添加的jvm退出回调hook, jvm退出时主动停止每个运行的canalInstance
  * 该类建议单例执行
  */
@@ -36,6 +43,20 @@ public class CanalExecutor {
      */
     private long retryFetchInterval = 2000L;
 
+    /**
+     * 流水线处理的缓冲区大小, 0表示不开启
+     *
+     * @see MessagePipeline
+     */
+    private int pipelineCapacity;
+
+    /**
+     * Entry并行解析, 所有canal实例共用, null表示不开启
+     *
+     * @see EntryDecoder
+     */
+    private volatile EntryDecoder entryDecoder;
+
     /**
      * 记录当前CanalExecutor对象实例个数, 每次创建, 在构造函数中增加1
      */
@@ -132,6 +153,35 @@ public class CanalExecutor {
         this.retryFetchInterval = retryFetchInterval;
     }
 
+    /**
+     * 开启流水线处理: 每个canal实例额外一个fetch线程预取{@link Message}, 与当前{@link Message}的解析, 处理并行,
+     * 两者之间通过capacity大小的环形缓冲区连接, ack依然按照batchId的顺序, 并且在{@link CanalInstanceHandle#finishMessageHandle()}之后
+     * 只对之后启动的canal实例有效
+     *
+     * @param pipelineCapacity 缓冲区大小, 即最多预取的{@link Message}个数, 0表示不开启, 默认不开启
+     * @see MessagePipeline
+     */
+    public void setPipelineCapacity(int pipelineCapacity) {
+        if (pipelineCapacity < 0) throw new IllegalArgumentException("pipelineCapacity: " + pipelineCapacity + " should not be negative");
+        this.pipelineCapacity = pipelineCapacity;
+    }
+
+    /**
+     * 开启Entry并行解析: 一个{@link Message}中待解析的数据总大小达到sizeThreshold时, 在所有canal实例共用的线程池中并行解析
+     * {@link CanalEntry.RowChange}, 依然按照原来的顺序交给{@link CanalInstanceHandle#rowChangeHandle(CanalEntry.RowChange)}处理
+     * 适合大批量更新时protobuf解析成为瓶颈的场景, 线程池通过{@link #threadFactory}创建, 空闲线程自动退出
+     * 对之后处理的Message生效, 之前设置的线程池会被关闭, 已经提交的解析任务继续执行完
+     *
+     * @param parallelism   线程池大小, 小于等于0表示关闭
+     * @param sizeThreshold 一个Message待解析的数据总大小阈值, 单位byte, 小于该值直接在canal实例线程解析
+     * @see EntryDecoder
+     */
+    public synchronized void setParallelDecode(int parallelism, int sizeThreshold) {
+        EntryDecoder pre = entryDecoder;
+        entryDecoder = parallelism <= 0 ? null : new EntryDecoder(parallelism, sizeThreshold, threadFactory);
+        if (pre != null) pre.shutdown();
+    }
+
     /**
      * 指定canal实例是否在运行
      *
@@ -167,11 +217,36 @@ public class CanalExecutor {
      * @param handle 实例处理对象
      */
     public void addInstanceHandle(CanalInstanceHandle handle) {
+        addInstanceHandle(handle, 1);
+    }
+
+    /**
+     * 新添加canal实例处理对象, 获取的数据按照table + 主键hash分配到applyLanes个lane并行处理, 同一个主键的变更顺序不变
+     * 所有lane都处理完成之后才ack, 每个lane单独一个线程, 通过{@link #threadFactory}创建
+     * 其他同{@link #addInstanceHandle(CanalInstanceHandle)}
+     *
+     * 添加时先为每个lane试着创建一次handle, 不能创建则直接抛出异常, 而不是等到canal实例线程启动之后才失败
+     *
+     * @param handle     实例处理对象, 每个lane通过{@link ParallelApplyHandle#createLaneHandle(int)}创建自己的handle
+     * @param applyLanes lane个数, 小于等于1则不并行
+     * @throws IllegalArgumentException      createLaneHandle返回null或者handle本身
+     * @throws UnsupportedOperationException handle不支持创建lane handle, 比如{@link com.tqmall.search.canal.handle.TableSectionHandle}
+     *                                       的子类没有覆盖createLaneHandle
+     * @see ApplyLanes
+     */
+    public void addInstanceHandle(ParallelApplyHandle handle, int applyLanes) {
+        for (int i = 0; applyLanes > 1 && i < applyLanes; i++) {
+            ApplyLanes.createLaneHandle(handle, i);
+        }
+        addInstanceHandle((CanalInstanceHandle) handle, applyLanes);
+    }
+
+    private void addInstanceHandle(CanalInstanceHandle handle, int applyLanes) {
         lock.writeLock().lock();
         try {
             CanalInstance canalInstance = canalInstanceMap.get(handle.instanceName());
             if (canalInstance == null || !canalInstance.runningSwitch) {
-                canalInstanceMap.put(handle.instanceName(), new CanalInstance(handle));
+                canalInstanceMap.put(handle.instanceName(), new CanalInstance(handle, applyLanes));
             } else {
                 throw new IllegalArgumentException("CanalInstanceHandle " + handle.instanceName() + " is running, you should stop it first");
             }
@@ -294,6 +369,11 @@ public class CanalExecutor {
         }
     }
 
+    /**
+     * 流水线处理时canal实例线程等待数据的超时时间, 超时之后检查是否停止, 单位ms
+     */
+    private static final long PIPELINE_TAKE_TIMEOUT = 200L;
+
     /**
      * 一个canal实例
      */
@@ -316,8 +396,41 @@ public class CanalExecutor {
          */
         boolean running;
 
-        public CanalInstance(CanalInstanceHandle handle) {
+        /**
+         * 并行处理的lane个数, 大于1才并行
+         */
+        final int applyLanes;
+
+        /**
+         * 并行处理时在{@link #run()}中创建, 只有canal实例线程访问
+         */
+        ApplyLanes lanes;
+
+        /**
+         * 流水线处理时在{@link #run()}中创建
+         */
+        MessagePipeline pipeline;
+
+        /**
+         * handle支持并且本次运行开启了跨Message批量处理时不为null, 在{@link #run()}中确定, 只有canal实例线程访问
+         */
+        MicroBatchHandle microBatchHandle;
+
+        /**
+         * 延迟ack的batchId, 按照获取的顺序, 只有canal实例线程访问
+         */
+        final List<Long> deferredBatchIds = new ArrayList<>();
+
+        /**
+         * 流水线处理时最后一个延迟的Message, 以及延迟的个数, 只有canal实例线程访问
+         */
+        Message deferredMessage;
+
+        int deferredCount;
+
+        public CanalInstance(CanalInstanceHandle handle, int applyLanes) {
             this.handle = handle;
+            this.applyLanes = applyLanes;
         }
 
         /**
@@ -338,6 +451,11 @@ public class CanalExecutor {
                 try {
                     handle.connect();
                     reconnectSucceed = true;
+                    if (microBatchHandle != null && pipeline == null) {
+                        //没有ack的Message重连之后canal server会重新推送, 缓存的数据丢掉
+                        microBatchHandle.discardPending();
+                        deferredBatchIds.clear();
+                    }
                     log.info("canal instance: " + handle.instanceName() + " reconnect succeed");
                 } catch (CanalClientException rc) {
                     log.warn("canal instance: " + handle.instanceName() + " reconnect server failed: " + rc.getMessage());
@@ -345,30 +463,144 @@ public class CanalExecutor {
             }
         }
 
+        /**
+         * 流水线处理, fetch线程获取数据, 当前线程处理, 直到canal实例停止
+         */
+        private void runPipeline(int capacity) {
+            pipeline = new MessagePipeline(handle, capacity) {
+                @Override
+                protected void reconnect() {
+                    CanalInstance.this.reconnect();
+                }
+
+                @Override
+                protected boolean isRunning() {
+                    return runningSwitch;
+                }
+            };
+            deferredMessage = null;
+            deferredCount = 0;
+            pipeline.start(threadFactory);
+            log.info("canal instance: " + handle.instanceName() + " run in pipeline mode, capacity: " + capacity);
+            while (runningSwitch) {
+                Message message = pipeline.take(PIPELINE_TAKE_TIMEOUT);
+                if (message == null) {
+                    if (deferredMessage != null && !microBatchHandle.flushExpired()) pipelineApplyDeferred();
+                    continue;
+                }
+                consumerMessage(message);
+                if (microBatchHandle != null && microBatchHandle.hasPending()) {
+                    deferredMessage = message;
+                    //缓冲区都是延迟的Message, fetch线程无法继续获取, 强制处理
+                    if (++deferredCount < pipeline.capacity()) continue;
+                    microBatchHandle.flushPending();
+                }
+                deferredMessage = message;
+                pipelineApplyDeferred();
+            }
+            if (deferredMessage != null) {
+                microBatchHandle.flushPending();
+                pipelineApplyDeferred();
+            }
+        }
+
+        /**
+         * 流水线处理时标记{@link #deferredMessage}以及之前延迟的Message处理完成
+         */
+        private void pipelineApplyDeferred() {
+            pipeline.applied(deferredMessage);
+            deferredMessage = null;
+            deferredCount = 0;
+        }
+
+        /**
+         * 串行处理时, handle还有缓存的数据则延迟ack, 否则按照顺序ack之前延迟的以及当前的batchId
+         */
+        private void ackOrDefer(long batchId) {
+            deferredBatchIds.add(batchId);
+            if (!microBatchHandle.hasPending()) ackDeferred();
+        }
+
+        private void ackDeferred() {
+            for (Long batchId : deferredBatchIds) {
+                handle.ack(batchId);
+            }
+            deferredBatchIds.clear();
+        }
+
+        /**
+         * 解析{@link CanalEntry.RowChange}, 解析失败返回null, {@link EntryDecoder}会在多个线程调用
+         * 对于{@link SelectiveDecodeHandle}, 表存在{@link SelectiveRowChangeDecoder}则只解析需要的列
+         */
+        private final Function<CanalEntry.Entry, CanalEntry.RowChange> rowChangeParser = new Function<CanalEntry.Entry, CanalEntry.RowChange>() {
+            @Override
+            public CanalEntry.RowChange apply(CanalEntry.Entry entry) {
+                try {
+                    SelectiveRowChangeDecoder decoder;
+                    if (handle instanceof SelectiveDecodeHandle
+                            && (decoder = ((SelectiveDecodeHandle) handle).selectiveDecoder(entry.getHeader())) != null) {
+                        return decoder.decode(entry.getStoreValue());
+                    }
+                    return CanalEntry.RowChange.parseFrom(entry.getStoreValue());
+                } catch (InvalidProtocolBufferException e) {
+                    log.error("canal instance: " + handle.instanceName() + " parse store value have exception: ", e);
+                    return null;
+                }
+            }
+        };
+
+        /**
+         * Entry是否需要处理, 不包括{@link CanalInstanceHandle#startHandle(CanalEntry.Header)}的判断
+         */
+        private boolean needHandle(CanalEntry.Entry e) {
+            if (e.getEntryType() != CanalEntry.EntryType.ROWDATA || !e.hasStoreValue()) return false;
+            CanalEntry.Header header = e.getHeader();
+            return header.getExecuteTime() >= startRtTime
+                    && header.getEventType().getNumber() <= CanalEntry.EventType.DELETE_VALUE;
+        }
+
+        /**
+         * 开启了并行解析, 并且数据量达到阈值, 提交并行解析, 否则返回null
+         */
+        private EntryDecoder.Batch parallelDecode(List<CanalEntry.Entry> entries) {
+            EntryDecoder decoder = entryDecoder;
+            if (decoder == null || entries.size() < 2) return null;
+            boolean[] decode = new boolean[entries.size()];
+            for (int i = 0; i < decode.length; i++) {
+                decode[i] = needHandle(entries.get(i));
+            }
+            return decoder.decode(entries, decode, rowChangeParser);
+        }
+
         /**
          * 消费当前消息
          */
         private void consumerMessage(Message message) {
             log.debug("canal instance: " + handle.instanceName() + " get message entry size " + message.getEntries().size());
+            List<CanalEntry.Entry> entries = message.getEntries();
+            EntryDecoder.Batch decodeBatch = parallelDecode(entries);
             try {
-                for (CanalEntry.Entry e : message.getEntries()) {
-                    if (e.getEntryType() != CanalEntry.EntryType.ROWDATA || !e.hasStoreValue()) continue;
+                for (int i = 0, size = entries.size(); i < size; i++) {
+                    CanalEntry.Entry e = entries.get(i);
+                    if (!needHandle(e)) continue;
                     CanalEntry.Header header = e.getHeader();
-                    if (header.getExecuteTime() < startRtTime
-                            || header.getEventType().getNumber() > CanalEntry.EventType.DELETE_VALUE
-                            || !handle.startHandle(header)) continue;
-                    try {
-                        CanalEntry.RowChange rowChange = CanalEntry.RowChange.parseFrom(e.getStoreValue());
-                        if (rowChange.getIsDdl()) continue;
+                    if (!handle.startHandle(header)) continue;
+                    CanalEntry.RowChange rowChange = decodeBatch == null ? rowChangeParser.apply(e) : decodeBatch.get(i);
+                    if (rowChange == null || rowChange.getIsDdl()) continue;
+                    if (lanes == null) {
                         handle.rowChangeHandle(rowChange);
-                    } catch (InvalidProtocolBufferException e1) {
-                        log.error("canal instance: " + handle.instanceName() + " parse store value have exception: ", e1);
+                    } else {
+                        lanes.add(header, rowChange);
                     }
                 }
-                handle.ack(message.getId());
+                if (lanes != null) lanes.apply();
+                //流水线处理由fetch线程ack, 跨Message批量处理在finishMessageHandle之后ack
+                if (pipeline == null && microBatchHandle == null) handle.ack(message.getId());
             } finally {
+                if (decodeBatch != null) decodeBatch.cancel();
                 handle.finishMessageHandle();
             }
+            if (pipeline == null && microBatchHandle != null) ackOrDefer(message.getId());
         }
 
         /**
@@ -384,10 +616,21 @@ public class CanalExecutor {
             }
             long lastBatchId = 0L;
             boolean connectSucceed = false;
+            deferredBatchIds.clear();
+            //setMicroBatch可能在两次启动之间修改, 每次启动重新判断
+            microBatchHandle = handle instanceof MicroBatchHandle && ((MicroBatchHandle) handle).enableMicroBatch()
+                    ? (MicroBatchHandle) handle : null;
             try {
                 //如果连接出现异常, 相关配置,变量还没有修改, 所以不用做任何处理,当前线程退出就行
                 handle.connect();
                 connectSucceed = true;
+                if (applyLanes > 1) {
+                    lanes = new ApplyLanes((ParallelApplyHandle) handle, applyLanes, threadFactory);
+                    log.info("canal instance: " + handle.instanceName() + " apply with " + applyLanes + " lanes");
+                }
+                if (pipelineCapacity > 0) {
+                    runPipeline(pipelineCapacity);
+                }
                 while (runningSwitch) {
                     Message message;
                     try {
@@ -403,7 +646,10 @@ public class CanalExecutor {
                     if (lastBatchId > 0 && !message.getEntries().isEmpty()) {
                         consumerMessage(message);
                     }
+                    if (!deferredBatchIds.isEmpty() && !microBatchHandle.flushExpired()) ackDeferred();
                     long sleepTime = nextFetchTime - System.currentTimeMillis();
+                    //有延迟处理的数据, 不能sleep太久
+                    if (!deferredBatchIds.isEmpty()) sleepTime = Math.min(sleepTime, PIPELINE_TAKE_TIMEOUT);
                     //超过20ms那我们就先sleep一下~~~
                     if (sleepTime > 20L) {
                         try {
@@ -412,18 +658,42 @@ public class CanalExecutor {
                         }
                     }
                 }
+                if (!deferredBatchIds.isEmpty()) {
+                    //正常停止, 缓存的数据处理完再ack
+                    microBatchHandle.flushPending();
+                    ackDeferred();
+                }
             } catch (RuntimeException e) {
                 runningSwitch = false;
                 log.error("canal instance: " + handle.instanceName() + " occurring a serious RuntimeException and lead to stop this canalInstance", e);
                 //既然处理失败了, 那就回滚呗~~~
-                if (lastBatchId > 0) {
+                if (pipeline != null) {
+                    //先停止fetch线程, 回滚所有没有ack的, 包括预取的
+                    pipeline.stop();
+                    pipeline = null;
+                    handle.rollback(0L);
+                } else if (!deferredBatchIds.isEmpty()) {
+                    //回滚所有延迟ack的
+                    deferredBatchIds.clear();
+                    handle.rollback(0L);
+                } else if (lastBatchId > 0) {
                     handle.rollback(lastBatchId);
                 }
+                if (microBatchHandle != null) microBatchHandle.discardPending();
             } finally {
+                if (pipeline != null) {
+                    //预取了但是没有处理的回滚, 下次启动重新获取
+                    if (pipeline.stop() && connectSucceed) handle.rollback(0L);
+                    pipeline = null;
+                }
                 synchronized (lock) {
                     running = false;
                     lock.notifyAll();
                 }
+                if (lanes != null) {
+                    lanes.shutdown();
+                    lanes = null;
+                }
                 if (connectSucceed) {
                     handle.disConnect();
                 }
@@ -433,7 +703,8 @@ public class CanalExecutor {
 
         @Override
         public String toString() {
-            return "CanalInstance{" + handle.instanceName() + ", running=" + runningSwitch + "startRtTime=" + startRtTime + '}';
+            return "CanalInstance{" + handle.instanceName() + ", running=" + runningSwitch + "startRtTime=" + startRtTime
+                    + ", applyLanes=" + applyLanes + '}';
         }
     }
 }
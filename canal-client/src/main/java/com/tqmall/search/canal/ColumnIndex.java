@@ -0,0 +1,94 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by xing on 16/5/4.
+ * 一张表的列序号索引, canal推送的{@link CanalEntry.RowData}中每行的列都是按照表结构的顺序排列的, 所以列名到序号的映射
+ * 每张表只需要计算一次, 之后{@link RowDataView}直接通过序号取列, 条件过滤时不用每行构造Map
+ * 表结构变化(DDL)之后列顺序可能变化, 通过{@link #matches(List)}校验, 不匹配则重新构建, 见{@link Schema.Table#getColumnIndex(List)}
+ * 不可修改, 线程安全
+ *
+ * @author xing
+ */
+public final class ColumnIndex {
+
+    private final String[] names;
+
+    private final Map<String, Integer> ordinals;
+
+    private ColumnIndex(String[] names) {
+        this.names = names;
+        ordinals = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ordinals.put(names[i], i);
+        }
+    }
+
+    /**
+     * 通过一行数据的列构建索引, 需要是完整的列, INSERT, UPDATE取修改之后的列, DELETE取修改之前的列
+     */
+    public static ColumnIndex build(List<CanalEntry.Column> columns) {
+        String[] names = new String[columns.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = columns.get(i).getName();
+        }
+        return new ColumnIndex(names);
+    }
+
+    /**
+     * 取rowChange第一行数据的列构建索引
+     *
+     * @return rowChange没有数据返回null
+     */
+    public static ColumnIndex build(CanalEntry.RowChange rowChange) {
+        List<CanalEntry.Column> columns = columnsOf(rowChange);
+        return columns == null ? null : build(columns);
+    }
+
+    /**
+     * @return rowChange第一行数据完整的列, 没有数据返回null
+     */
+    public static List<CanalEntry.Column> columnsOf(CanalEntry.RowChange rowChange) {
+        if (rowChange.getRowDatasCount() == 0) return null;
+        CanalEntry.RowData rowData = rowChange.getRowDatas(0);
+        return rowChange.getEventType() == CanalEntry.EventType.DELETE ? rowData.getBeforeColumnsList()
+                : rowData.getAfterColumnsList();
+    }
+
+    /**
+     * 列数以及每个序号的列名是否都一致
+     */
+    public boolean matches(List<CanalEntry.Column> columns) {
+        if (columns.size() != names.length) return false;
+        for (int i = 0; i < names.length; i++) {
+            if (!names[i].equals(columns.get(i).getName())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return 列的序号, 不存在返回-1
+     */
+    public int ordinal(String column) {
+        Integer ordinal = ordinals.get(column);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public String name(int ordinal) {
+        return names[ordinal];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public String toString() {
+        return ordinals.toString();
+    }
+}
@@ -0,0 +1,178 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.tqmall.search.commons.lang.Function;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Created by xing on 16/5/5.
+ * {@link com.alibaba.otter.canal.protocol.Message}中{@link CanalEntry.Entry}的并行解析, 所有canal实例共用一个线程池
+ * 一个Message中待解析的数据总大小达到{@link #sizeThreshold}才并行, 否则直接在canal实例线程解析
+ * 并行时待解析的Entry按照数据大小分成连续的若干段, 每段一个任务, canal实例线程按照原来的顺序通过{@link Batch#get(int)}获取解析结果,
+ * 如果对应的段还没有开始解析, 则由canal实例线程自己解析, 所以前面段的处理与后面段的解析是重叠的
+ * 线程池空闲线程60s之后退出, 被替换时通过{@link #shutdown()}关闭
+ *
+ * @author xing
+ * @see CanalExecutor#setParallelDecode(int, int)
+ */
+class EntryDecoder {
+
+    private final ThreadPoolExecutor executor;
+
+    private final int parallelism;
+
+    private final int sizeThreshold;
+
+    /**
+     * @param parallelism   线程池大小
+     * @param sizeThreshold 一个Message待解析的数据总大小达到该值才并行解析, 单位byte
+     */
+    EntryDecoder(int parallelism, int sizeThreshold, ThreadFactory threadFactory) {
+        if (parallelism <= 0) throw new IllegalArgumentException("decode parallelism: " + parallelism + " should be positive");
+        this.parallelism = parallelism;
+        this.sizeThreshold = sizeThreshold;
+        executor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param entries 一个Message的所有Entry
+     * @param decode  需要解析的位置为true
+     * @param parser  解析方法, 解析失败返回null, 会在多个线程调用
+     * @return 数据量没有达到{@link #sizeThreshold}返回null, 调用方自己解析
+     */
+    Batch decode(List<CanalEntry.Entry> entries, boolean[] decode, Function<CanalEntry.Entry, CanalEntry.RowChange> parser) {
+        long totalSize = 0L;
+        int count = 0;
+        for (int i = 0; i < decode.length; i++) {
+            if (decode[i]) {
+                totalSize += entries.get(i).getStoreValue().size();
+                count++;
+            }
+        }
+        if (count < 2 || totalSize < sizeThreshold) return null;
+        Batch batch = new Batch(entries, parser);
+        //每个线程平均两段, 尽量均衡
+        long segmentSize = Math.max(1L, totalSize / (parallelism * 2));
+        int start = -1;
+        long size = 0L;
+        for (int i = 0; i < decode.length; i++) {
+            if (!decode[i]) continue;
+            if (start < 0) start = i;
+            size += entries.get(i).getStoreValue().size();
+            if (size >= segmentSize) {
+                batch.addSegment(start, i + 1, decode);
+                start = -1;
+                size = 0L;
+            }
+        }
+        if (start >= 0) batch.addSegment(start, decode.length, decode);
+        //第一段由canal实例线程自己解析
+        for (int i = 1; i < batch.segments.size(); i++) {
+            try {
+                executor.execute(batch.segments.get(i));
+            } catch (RejectedExecutionException e) {
+                //线程池已经关闭, 没有提交的段在Batch#get(int)中由canal实例线程自己解析
+                break;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * 关闭线程池, 已经提交的段继续解析完, 之后提交的段由canal实例线程自己解析
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 一个Message的解析结果, 只能canal实例线程访问
+     */
+    static final class Batch {
+
+        private final List<CanalEntry.Entry> entries;
+
+        private final Function<CanalEntry.Entry, CanalEntry.RowChange> parser;
+
+        private final CanalEntry.RowChange[] rowChanges;
+
+        /**
+         * 每个Entry所在的段, -1表示不需要解析
+         */
+        private final int[] segmentIndexes;
+
+        private final List<FutureTask<Void>> segments = new ArrayList<>();
+
+        Batch(List<CanalEntry.Entry> entries, Function<CanalEntry.Entry, CanalEntry.RowChange> parser) {
+            this.entries = entries;
+            this.parser = parser;
+            rowChanges = new CanalEntry.RowChange[entries.size()];
+            segmentIndexes = new int[entries.size()];
+            Arrays.fill(segmentIndexes, -1);
+        }
+
+        private void addSegment(final int start, final int end, final boolean[] decode) {
+            int segment = segments.size();
+            for (int i = start; i < end; i++) {
+                segmentIndexes[i] = decode[i] ? segment : -1;
+            }
+            segments.add(new FutureTask<>(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = start; i < end; i++) {
+                        if (decode[i]) rowChanges[i] = parser.apply(entries.get(i));
+                    }
+                }
+            }, (Void) null));
+        }
+
+        /**
+         * 获取第i个Entry的解析结果, 对应的段没有开始则在当前线程解析, 已经开始则等待完成
+         *
+         * @return 解析失败返回null
+         */
+        CanalEntry.RowChange get(int i) {
+            int segment = segmentIndexes[i];
+            if (segment < 0) return parser.apply(entries.get(i));
+            FutureTask<Void> task = segments.get(segment);
+            //FutureTask已经开始或者完成时run()直接返回
+            task.run();
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        task.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+            CanalEntry.RowChange rowChange = rowChanges[i];
+            rowChanges[i] = null;
+            return rowChange;
+        }
+
+        /**
+         * 处理结束时调用, 出现异常时取消还没有开始的段
+         */
+        void cancel() {
+            for (FutureTask<Void> task : segments) {
+                task.cancel(false);
+            }
+        }
+    }
+}
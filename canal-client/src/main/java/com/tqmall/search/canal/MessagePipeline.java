@@ -0,0 +1,356 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.protocol.Message;
+import com.alibaba.otter.canal.protocol.exception.CanalClientException;
+import com.tqmall.search.canal.handle.CanalInstanceHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Created by xing on 16/5/3.
+ * canal实例的流水线处理: 单独的fetch线程预取{@link Message}, canal实例线程解析, 处理, 获取数据的网络耗时与处理耗时重叠
+ * 两者通过预分配的环形缓冲区连接, 缓冲区的每个slot依次经历: FREE -> FETCHED -> APPLYING -> APPLIED -> FREE, 对应三个游标:
+ * 1. fetchCursor: fetch线程写入下一个Message的slot, 该slot不是FREE则等待, 即缓冲区满了
+ * 2. applyCursor: canal实例线程{@link #take(long)}获取下一个待处理的slot
+ * 3. ackCursor: 下一个待ack的slot, 只有APPLIED才能ack, 所以ack严格按照获取的顺序, 即batchId的顺序
+ * {@link com.alibaba.otter.canal.client.CanalConnector}不是线程安全的, 所以ack也在fetch线程执行, canal实例线程只修改slot状态
+ * 获取数据或者ack异常时, 丢弃还没有处理的Message, 等待正在处理的完成, 之后重新连接, 未ack的Message重连之后canal server会重新推送
+ * 跨Message批量处理时延迟的Message也是正在处理的, 等待其缓存的数据处理完成
+ * fetch线程出现其他的RuntimeException则退出, 之后{@link #take(long)}抛出该异常, canal实例线程走异常回滚的流程
+ *
+ * @author xing
+ * @see CanalExecutor#setPipelineCapacity(int)
+ */
+abstract class MessagePipeline implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(MessagePipeline.class);
+
+    private static final byte FREE = 0;
+
+    private static final byte FETCHED = 1;
+
+    private static final byte APPLYING = 2;
+
+    private static final byte APPLIED = 3;
+
+    private final CanalInstanceHandle handle;
+
+    private final Message[] messages;
+
+    private final byte[] states;
+
+    private final int mask;
+
+    /**
+     * {@link #ackApplied()}使用, 只有fetch线程访问
+     */
+    private final long[] ackBatchIds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * slot状态变化都通过该condition通知, 等待方自己判断条件
+     */
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * 都是递增的序号, 对应slot为cursor & mask, 满足: ackCursor <= applyCursor <= fetchCursor <= ackCursor + capacity
+     */
+    private long fetchCursor, applyCursor, ackCursor;
+
+    private volatile boolean stopped;
+
+    /**
+     * fetch线程异常退出的原因, 修改需要获取{@link #lock}
+     */
+    private volatile RuntimeException fetchException;
+
+    private Thread fetchThread;
+
+    /**
+     * @param capacity 缓冲区大小, 调整为2的幂
+     */
+    MessagePipeline(CanalInstanceHandle handle, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("pipeline capacity: " + capacity + " should be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.handle = handle;
+        messages = new Message[size];
+        states = new byte[size];
+        ackBatchIds = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * 获取数据异常之后重新连接, 在fetch线程调用, 调用时没有正在处理的Message
+     */
+    protected abstract void reconnect();
+
+    /**
+     * canal实例是否还在运行
+     */
+    protected abstract boolean isRunning();
+
+    void start(ThreadFactory threadFactory) {
+        fetchThread = threadFactory.newThread(this);
+        fetchThread.start();
+    }
+
+    /**
+     * fetch线程
+     */
+    @Override
+    public void run() {
+        log.info("canal instance: " + handle.instanceName() + " pipeline fetch thread start, capacity: " + messages.length);
+        try {
+            while (!stopped && isRunning()) {
+                try {
+                    ackApplied();
+                    if (!awaitFreeSlot()) break;
+                    Message message = handle.getWithoutAck();
+                    long nextFetchTime = System.currentTimeMillis() + handle.fetchInterval();
+                    if (message.getId() > 0 && !message.getEntries().isEmpty()) {
+                        publish(message);
+                    }
+                    awaitUntil(nextFetchTime);
+                } catch (CanalClientException e) {
+                    log.error("canal instance: " + handle.instanceName() + " pipeline fetch or ack have exception", e);
+                    discardAndDrain();
+                    reconnect();
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("canal instance: " + handle.instanceName() + " pipeline fetch thread have unexpected exception", e);
+            lock.lock();
+            try {
+                fetchException = e;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            log.info("canal instance: " + handle.instanceName() + " pipeline fetch thread stopped");
+        }
+    }
+
+    /**
+     * 等待fetchCursor对应的slot空闲, 等待期间ack处理完成的Message
+     *
+     * @return false 表示已经停止
+     */
+    private boolean awaitFreeSlot() {
+        while (!stopped) {
+            lock.lock();
+            try {
+                if (states[(int) (fetchCursor & mask)] == FREE) return true;
+                if (states[(int) (ackCursor & mask)] != APPLIED) {
+                    changed.await(100L, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                log.warn("canal instance: " + handle.instanceName() + " pipeline fetch thread interrupted");
+            } finally {
+                lock.unlock();
+            }
+            ackApplied();
+        }
+        return false;
+    }
+
+    /**
+     * fetchInterval内不再获取数据, 期间ack处理完成的Message
+     */
+    private void awaitUntil(long time) {
+        long remain;
+        while (!stopped && (remain = time - System.currentTimeMillis()) > 0) {
+            lock.lock();
+            try {
+                if (states[(int) (ackCursor & mask)] != APPLIED) {
+                    changed.await(remain, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            ackApplied();
+        }
+    }
+
+    private void publish(Message message) {
+        lock.lock();
+        try {
+            int slot = (int) (fetchCursor & mask);
+            messages[slot] = message;
+            states[slot] = FETCHED;
+            fetchCursor++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按照顺序ack所有已经处理完成的Message, 只在fetch线程或者fetch线程结束之后调用
+     * canal server要求按照获取的顺序逐个ack, 所以每个batchId都要ack
+     */
+    private void ackApplied() {
+        int count = 0;
+        lock.lock();
+        try {
+            int slot;
+            while (ackCursor < applyCursor && states[slot = (int) (ackCursor & mask)] == APPLIED) {
+                ackBatchIds[count++] = messages[slot].getId();
+                messages[slot] = null;
+                states[slot] = FREE;
+                ackCursor++;
+            }
+            if (count > 0) changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < count; i++) {
+            handle.ack(ackBatchIds[i]);
+        }
+    }
+
+    /**
+     * 丢弃还没有开始处理的Message, 等待正在处理的完成, 处理完成但是没有ack的也丢弃, 重连之后canal server会重新推送
+     */
+    private void discardAndDrain() {
+        lock.lock();
+        try {
+            for (long c = applyCursor; c < fetchCursor; c++) {
+                int slot = (int) (c & mask);
+                messages[slot] = null;
+                states[slot] = FREE;
+            }
+            fetchCursor = applyCursor;
+            while (ackCursor < applyCursor) {
+                int slot = (int) (ackCursor & mask);
+                if (states[slot] == APPLYING) {
+                    try {
+                        changed.await(100L, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                    if (stopped) return;
+                    continue;
+                }
+                messages[slot] = null;
+                states[slot] = FREE;
+                ackCursor++;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * canal实例线程获取下一个待处理的Message, 处理完成必须调用{@link #applied(Message)}
+     *
+     * @return 超时或者已经停止返回null
+     * @throws IllegalStateException fetch线程异常退出, cause为fetch线程的异常
+     */
+    Message take(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        lock.lock();
+        try {
+            long remain;
+            while (true) {
+                if (fetchException != null) {
+                    throw new IllegalStateException("canal instance: " + handle.instanceName() + " pipeline fetch thread failed",
+                            fetchException);
+                }
+                if (applyCursor != fetchCursor) break;
+                if (stopped || (remain = deadline - System.currentTimeMillis()) <= 0) return null;
+                try {
+                    changed.await(remain, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            int slot = (int) (applyCursor & mask);
+            states[slot] = APPLYING;
+            applyCursor++;
+            return messages[slot];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 标记{@link #take(long)}获取的Message以及之前所有正在处理的Message处理完成, 由fetch线程ack
+     * 跨Message批量处理时, 之前延迟的Message一直是APPLYING状态, 直到之后的某个Message处理完成
+     */
+    void applied(Message message) {
+        lock.lock();
+        try {
+            long cursor = applyCursor - 1;
+            int slot;
+            while (cursor >= ackCursor && messages[slot = (int) (cursor & mask)] != message) {
+                cursor--;
+            }
+            if (cursor < ackCursor || states[slot = (int) (cursor & mask)] != APPLYING) {
+                throw new IllegalStateException("message: " + message.getId() + " is not the applying message");
+            }
+            for (long c = ackCursor; c <= cursor; c++) {
+                if (states[slot = (int) (c & mask)] == APPLYING) states[slot] = APPLIED;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 缓冲区大小, 即最多同时获取没有ack的Message个数
+     */
+    int capacity() {
+        return messages.length;
+    }
+
+    /**
+     * 停止fetch线程并等待其退出, 然后ack已经处理完成的Message
+     *
+     * @return 是否存在获取了但是没有处理完成的Message, 存在的话需要回滚
+     */
+    boolean stop() {
+        stopped = true;
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (fetchThread != null) {
+            boolean interrupted = false;
+            while (fetchThread.isAlive()) {
+                try {
+                    fetchThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            fetchThread = null;
+        }
+        try {
+            ackApplied();
+        } catch (CanalClientException e) {
+            log.warn("canal instance: " + handle.instanceName() + " pipeline ack when stopping failed: " + e.getMessage());
+            return true;
+        }
+        lock.lock();
+        try {
+            return ackCursor != fetchCursor;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.tqmall.search.canal;
+
+import java.util.*;
+
+/**
+ * Created by xing on 16/5/6.
+ * 同一张表的一批{@link RowChangedData}中, 按照主键合并同一行数据的多次变更, 只保留最终结果, 这样action的处理次数与主键个数成正比,
+ * 并且处理结果与依次处理每个变更一致, 合并规则:
+ * 1. INSERT + UPDATE -> INSERT, 值为UPDATE之后的值
+ * 2. INSERT + DELETE -> 抵消, 都不需要处理
+ * 3. UPDATE + UPDATE -> UPDATE, 修改之前为第一次UPDATE之前的值, 修改之后为最后一次UPDATE之后的值, 任意一次有改动即为有改动
+ * 4. UPDATE + DELETE -> DELETE
+ * 5. DELETE + INSERT -> UPDATE, 修改之前为DELETE的值, 修改之后为INSERT的值
+ * 其他组合不合并, 按照原来的顺序保留. 修改了主键的UPDATE也不合并, 并且该UPDATE之后新旧主键的变更重新开始合并
+ * 合并之后的结果在该主键第一次出现的位置, 不同主键之间的顺序不保证与原来一致, 同一个主键的变更顺序不变
+ * 主键值取不到(没有在需要的列中)的数据不合并
+ *
+ * @author xing
+ * @see Schemas.TableBuilder#coalesce(String...)
+ */
+public final class RowChangeCoalescer {
+
+    private RowChangeCoalescer() {
+    }
+
+    /**
+     * 合并dataList, 直接修改dataList
+     *
+     * @param dataList   同一张表的变更数据, 按照变更顺序
+     * @param keyColumns 主键列
+     * @return 合并掉的数据条数
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static int coalesce(List<RowChangedData> dataList, List<String> keyColumns) {
+        int size = dataList.size();
+        if (size < 2) return 0;
+        List<RowChangedData> result = new ArrayList<>(size);
+        //主键 -> 该主键当前合并结果在result中的位置
+        Map<List<String>, Integer> keyPositions = new HashMap<>(size * 2);
+        int removed = 0;
+        for (RowChangedData data : dataList) {
+            List<String> key = keyOf(data, keyColumns, false);
+            Integer position;
+            if (key == null) {
+                result.add(data);
+                continue;
+            }
+            if (data instanceof RowChangedData.Update && !key.equals(keyOf(data, keyColumns, true))) {
+                //修改了主键, 新旧主键都重新开始
+                keyPositions.remove(key);
+                keyPositions.remove(keyOf(data, keyColumns, true));
+                result.add(data);
+                continue;
+            }
+            if ((position = keyPositions.get(key)) == null) {
+                keyPositions.put(key, result.size());
+                result.add(data);
+                continue;
+            }
+            RowChangedData merged = merge(result.get(position), data);
+            if (merged == null) {
+                //抵消
+                result.set(position, null);
+                keyPositions.remove(key);
+                removed += 2;
+            } else if (merged == NOT_MERGED) {
+                keyPositions.put(key, result.size());
+                result.add(data);
+            } else {
+                result.set(position, merged);
+                removed++;
+            }
+        }
+        if (removed == 0) return 0;
+        dataList.clear();
+        for (RowChangedData data : result) {
+            if (data != null) dataList.add(data);
+        }
+        return removed;
+    }
+
+    /**
+     * @param after 对于UPDATE, true取修改之后的主键, false取修改之前的
+     * @return 主键值, 任意一列取不到返回null
+     */
+    private static List<String> keyOf(RowChangedData data, List<String> keyColumns, boolean after) {
+        String[] values = new String[keyColumns.size()];
+        for (int i = 0; i < values.length; i++) {
+            String column = keyColumns.get(i);
+            if (data instanceof RowChangedData.Update) {
+                values[i] = after ? ((RowChangedData.Update) data).getAfter(column) : ((RowChangedData.Update) data).getBefore(column);
+            } else {
+                values[i] = ((RowChangedData.StrRowChangedData) data).apply(column);
+            }
+            if (values[i] == null) return null;
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * {@link #merge(RowChangedData, RowChangedData)}不能合并时返回
+     */
+    private static final RowChangedData NOT_MERGED = new RowChangedData.Insert();
+
+    /**
+     * @return null表示抵消, {@link #NOT_MERGED}表示不能合并
+     */
+    private static RowChangedData merge(RowChangedData prev, RowChangedData next) {
+        if (prev instanceof RowChangedData.Insert) {
+            if (next instanceof RowChangedData.Update) {
+                RowChangedData.Insert insert = new RowChangedData.Insert();
+                insert.fieldValueMap.putAll(((RowChangedData.Insert) prev).fieldValueMap);
+                for (Map.Entry<String, RowChangedData.Pair> e : ((RowChangedData.Update) next).fieldValueMap.entrySet()) {
+                    insert.fieldValueMap.put(e.getKey(), e.getValue().getAfter());
+                }
+                return insert;
+            } else if (next instanceof RowChangedData.Delete) {
+                return null;
+            }
+        } else if (prev instanceof RowChangedData.Update) {
+            Map<String, RowChangedData.Pair> prevMap = ((RowChangedData.Update) prev).fieldValueMap;
+            if (next instanceof RowChangedData.Update) {
+                Map<String, RowChangedData.Pair> dataMap = new HashMap<>(prevMap);
+                for (Map.Entry<String, RowChangedData.Pair> e : ((RowChangedData.Update) next).fieldValueMap.entrySet()) {
+                    RowChangedData.Pair p = prevMap.get(e.getKey()), n = e.getValue();
+                    dataMap.put(e.getKey(), p == null ? n : new RowChangedData.Pair(p.getBefore(), n.getAfter(),
+                            p.isChanged() || n.isChanged()));
+                }
+                return new RowChangedData.Update(dataMap);
+            } else if (next instanceof RowChangedData.Delete) {
+                return next;
+            }
+        } else if (prev instanceof RowChangedData.Delete && next instanceof RowChangedData.Insert) {
+            Map<String, String> beforeMap = ((RowChangedData.Delete) prev).fieldValueMap;
+            Map<String, RowChangedData.Pair> dataMap = new HashMap<>();
+            for (Map.Entry<String, String> e : ((RowChangedData.Insert) next).fieldValueMap.entrySet()) {
+                String before = beforeMap.get(e.getKey());
+                dataMap.put(e.getKey(), new RowChangedData.Pair(before, e.getValue(), !Objects.equals(before, e.getValue())));
+            }
+            return new RowChangedData.Update(dataMap);
+        }
+        return NOT_MERGED;
+    }
+}
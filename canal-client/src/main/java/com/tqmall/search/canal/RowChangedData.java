@@ -282,22 +282,34 @@ public abstract class RowChangedData<V> implements Function<String, V>, Serializ
      * @return 如果事件类型不对, 则返回null
      */
     public static List<RowChangedData> build(CanalEntry.RowChange rowChange, Set<String> interestedColumns) {
-        List<RowChangedData> resultList = new ArrayList<>(rowChange.getRowDatasCount());
-        switch (rowChange.getEventType()) {
+        return build(rowChange.getEventType(), rowChange.getRowDatasList(), interestedColumns);
+    }
+
+    /**
+     * 通过指定的行数据构造{@link RowChangedData}, 可以先通过{@link RowDataView}过滤掉不需要的行, 再构造
+     *
+     * @param eventType 事件类型
+     * @param rowDatas  行数据
+     * @return 如果事件类型不对, 则返回null
+     */
+    public static List<RowChangedData> build(CanalEntry.EventType eventType, List<CanalEntry.RowData> rowDatas,
+                                             Set<String> interestedColumns) {
+        List<RowChangedData> resultList = new ArrayList<>(rowDatas.size());
+        switch (eventType) {
             case INSERT:
-                for (CanalEntry.RowData r : rowChange.getRowDatasList()) {
+                for (CanalEntry.RowData r : rowDatas) {
                     resultList.add(new Insert(r, interestedColumns));
                 }
                 break;
             case DELETE:
-                for (CanalEntry.RowData r : rowChange.getRowDatasList()) {
+                for (CanalEntry.RowData r : rowDatas) {
                     resultList.add(new Delete(r, interestedColumns));
                 }
                 break;
             case UPDATE: {
                 final Map<String, Pair> dataMap = new HashMap<>();
                 final boolean isEmpty = CommonsUtils.isEmpty(interestedColumns);
-                for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+                for (CanalEntry.RowData rowData : rowDatas) {
                     if (isEmpty) {
                         for (CanalEntry.Column c : rowData.getAfterColumnsList()) {
                             dataMap.put(c.getName(), new Pair(null, c.getIsNull() ? null : c.getValue(), c.getUpdated()));
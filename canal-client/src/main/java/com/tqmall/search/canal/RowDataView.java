@@ -0,0 +1,440 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.tqmall.search.commons.lang.Function;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Created by xing on 16/5/4.
+ * 一行数据改动的只读视图, 直接引用{@link CanalEntry.RowData}, 通过{@link ColumnIndex}按照序号取列, 不像{@link RowChangedData}
+ * 那样每行都构造Map, 只有取值的列才会读取
+ * 注意: action接收的依然是{@link RowChangedData}, 该视图目前只用于{@link com.tqmall.search.canal.handle.ActionableInstanceHandle}中
+ * INSERT, DELETE的条件过滤, 省掉的只是没有通过条件的行构造Map的开销, 通过条件的行依然每行一个Map, UPDATE每列一个{@link RowChangedData.Pair}
+ * 需要完全避免每行构造Map的, 自定义{@link com.tqmall.search.canal.handle.CanalInstanceHandle}, 通过{@link #build(CanalEntry.RowChange, ColumnIndex)}直接处理视图
+ * 作为{@link Function}时返回列的当前值: INSERT, UPDATE为修改之后的值, DELETE为修改之前的值, 可以直接用于
+ * {@link com.tqmall.search.commons.condition.ConditionContainer#verify(Function)}
+ * 如果RowData中的列不完整(binlog_row_image不是FULL), 列数与{@link ColumnIndex}不一致, 则按照列名查找
+ * 类型化的取值{@link #getLong(int)}, {@link #getInt(int)}, {@link #getBigDecimal(int)}, {@link #getEpochMillis(int)}针对列的当前值,
+ * 根据canal提供的{@link CanalEntry.Column#getSqlType()}解析, 第一次取值时解析并缓存, 之后直接返回缓存, 所以非线程安全
+ * 与{@link com.tqmall.search.commons.utils.StrValueConverts}一致, 值为null或者解析失败返回默认值0或者null, 通过{@link #isNull(int)}区分
+ * 类型化取值同样只有自定义handle才能使用, action拿到的是{@link RowChangedData}, 见上面的说明
+ *
+ * @author xing
+ * @see Schema.Table#getColumnIndex(List)
+ */
+public class RowDataView implements Function<String, String> {
+
+    /**
+     * 类型化取值的时区, 与canal输出的时间字符串一致, 即JVM默认时区
+     */
+    private static final TimeZone TIME_ZONE = TimeZone.getDefault();
+
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+    private static final byte LONG_PARSED = 1;
+
+    private static final byte EPOCH_PARSED = 2;
+
+    private final CanalEntry.EventType eventType;
+
+    private final ColumnIndex columnIndex;
+
+    private final CanalEntry.RowData rowData;
+
+    /**
+     * 每列的解析状态, 第一次类型化取值时创建
+     */
+    private byte[] parsed;
+
+    /**
+     * 解析后的long值, 根据{@link #parsed}确定是数值还是时间戳
+     */
+    private long[] longValues;
+
+    private BigDecimal[] decimalValues;
+
+    public RowDataView(CanalEntry.EventType eventType, ColumnIndex columnIndex, CanalEntry.RowData rowData) {
+        this.eventType = eventType;
+        this.columnIndex = columnIndex;
+        this.rowData = rowData;
+    }
+
+    /**
+     * rowChange中每行数据构造视图
+     *
+     * @param columnIndex 为null则通过rowChange构建
+     */
+    public static List<RowDataView> build(CanalEntry.RowChange rowChange, ColumnIndex columnIndex) {
+        int rowCount = rowChange.getRowDatasCount();
+        List<RowDataView> views = new ArrayList<>(rowCount);
+        if (rowCount == 0) return views;
+        if (columnIndex == null) columnIndex = ColumnIndex.build(rowChange);
+        CanalEntry.EventType eventType = rowChange.getEventType();
+        for (int i = 0; i < rowCount; i++) {
+            views.add(new RowDataView(eventType, columnIndex, rowChange.getRowDatas(i)));
+        }
+        return views;
+    }
+
+    public final CanalEntry.EventType getEventType() {
+        return eventType;
+    }
+
+    public final ColumnIndex getColumnIndex() {
+        return columnIndex;
+    }
+
+    public final CanalEntry.RowData getRowData() {
+        return rowData;
+    }
+
+    /**
+     * @return 修改之前的列, 不存在返回null
+     */
+    public final CanalEntry.Column getBeforeColumn(int ordinal) {
+        return column(rowData.getBeforeColumnsList(), ordinal);
+    }
+
+    public final CanalEntry.Column getBeforeColumn(String column) {
+        return getBeforeColumn(columnIndex.ordinal(column));
+    }
+
+    /**
+     * @return 修改之后的列, 不存在返回null
+     */
+    public final CanalEntry.Column getAfterColumn(int ordinal) {
+        return column(rowData.getAfterColumnsList(), ordinal);
+    }
+
+    public final CanalEntry.Column getAfterColumn(String column) {
+        return getAfterColumn(columnIndex.ordinal(column));
+    }
+
+    /**
+     * @return 列的当前值对应的列, INSERT, UPDATE为修改之后的列, DELETE为修改之前的列
+     */
+    public final CanalEntry.Column getColumn(int ordinal) {
+        return eventType == CanalEntry.EventType.DELETE ? getBeforeColumn(ordinal) : getAfterColumn(ordinal);
+    }
+
+    public final CanalEntry.Column getColumn(String column) {
+        return getColumn(columnIndex.ordinal(column));
+    }
+
+    /**
+     * 列数相同时先按下标取, 名称一致才返回, 列数相同但是顺序不同, 或者被选择性解析过滤了部分列时按照名称查找
+     */
+    private CanalEntry.Column column(List<CanalEntry.Column> columns, int ordinal) {
+        if (ordinal < 0 || columns.isEmpty()) return null;
+        String name = columnIndex.name(ordinal);
+        if (columns.size() == columnIndex.size()) {
+            CanalEntry.Column c = columns.get(ordinal);
+            if (name.equals(c.getName())) return c;
+        }
+        for (CanalEntry.Column c : columns) {
+            if (name.equals(c.getName())) return c;
+        }
+        return null;
+    }
+
+    static String valueOf(CanalEntry.Column c) {
+        return c == null || c.getIsNull() ? null : c.getValue();
+    }
+
+    public final String getBefore(int ordinal) {
+        return valueOf(getBeforeColumn(ordinal));
+    }
+
+    public final String getBefore(String column) {
+        return getBefore(columnIndex.ordinal(column));
+    }
+
+    public final String getAfter(int ordinal) {
+        return valueOf(getAfterColumn(ordinal));
+    }
+
+    public final String getAfter(String column) {
+        return getAfter(columnIndex.ordinal(column));
+    }
+
+    /**
+     * @return 列的当前值, INSERT, UPDATE为修改之后的值, DELETE为修改之前的值
+     */
+    public final String get(int ordinal) {
+        return valueOf(getColumn(ordinal));
+    }
+
+    public final String get(String column) {
+        return get(columnIndex.ordinal(column));
+    }
+
+    @Override
+    public final String apply(String column) {
+        return get(column);
+    }
+
+    /**
+     * 修改之后的列是否有改动, 即{@link CanalEntry.Column#getUpdated()}, DELETE没有修改之后的列, 返回false
+     */
+    public final boolean isChanged(int ordinal) {
+        CanalEntry.Column c = getAfterColumn(ordinal);
+        return c != null && c.getUpdated();
+    }
+
+    public final boolean isChanged(String column) {
+        return isChanged(columnIndex.ordinal(column));
+    }
+
+    /**
+     * 列的当前值是否为null, 直接取{@link CanalEntry.Column#getIsNull()}, 列不存在也返回true
+     */
+    public final boolean isNull(int ordinal) {
+        CanalEntry.Column c = getColumn(ordinal);
+        return c == null || c.getIsNull();
+    }
+
+    public final boolean isNull(String column) {
+        return isNull(columnIndex.ordinal(column));
+    }
+
+    /**
+     * 列的当前值转换为long, DECIMAL等小数类型舍去小数部分, 时间类型为{@link #getEpochMillis(int)}
+     * 超出long范围的值, 比如大于{@link Long#MAX_VALUE}的BIGINT UNSIGNED, 作为解析失败, 需要通过{@link #getBigDecimal(int)}取值
+     *
+     * @return 值为null, 解析失败或者超出long范围返回0
+     */
+    public final long getLong(int ordinal) {
+        if (ordinal < 0) return 0L;
+        ensureCache();
+        if (parsed[ordinal] != LONG_PARSED) {
+            CanalEntry.Column c = getColumn(ordinal);
+            longValues[ordinal] = c == null || c.getIsNull() ? 0L : parseLong(c);
+            parsed[ordinal] = LONG_PARSED;
+        }
+        return longValues[ordinal];
+    }
+
+    public final long getLong(String column) {
+        return getLong(columnIndex.ordinal(column));
+    }
+
+    /**
+     * @return 值为null, 解析失败或者超出int范围返回0
+     * @see #getLong(int)
+     */
+    public final int getInt(int ordinal) {
+        long value = getLong(ordinal);
+        return value > Integer.MAX_VALUE || value < Integer.MIN_VALUE ? 0 : (int) value;
+    }
+
+    public final int getInt(String column) {
+        return getInt(columnIndex.ordinal(column));
+    }
+
+    /**
+     * @return 值为null或者解析失败返回null
+     */
+    public final BigDecimal getBigDecimal(int ordinal) {
+        if (ordinal < 0) return null;
+        ensureCache();
+        if (decimalValues == null) decimalValues = new BigDecimal[parsed.length];
+        BigDecimal value = decimalValues[ordinal];
+        if (value == null) {
+            CanalEntry.Column c = getColumn(ordinal);
+            if (c == null || c.getIsNull()) return null;
+            value = parseDecimal(c.getValue());
+            if (value == null) return null;
+            decimalValues[ordinal] = value;
+        }
+        return value;
+    }
+
+    public final BigDecimal getBigDecimal(String column) {
+        return getBigDecimal(columnIndex.ordinal(column));
+    }
+
+    /**
+     * 时间类型(DATE, DATETIME, TIMESTAMP)的列转换为毫秒时间戳, 格式为canal输出的yyyy-MM-dd[ HH:mm:ss[.SSS]]
+     * 数值类型的列认为本身就是毫秒时间戳
+     *
+     * @return 值为null或者解析失败, 包括mysql的0000-00-00, 返回0
+     */
+    public final long getEpochMillis(int ordinal) {
+        if (ordinal < 0) return 0L;
+        ensureCache();
+        if (parsed[ordinal] != EPOCH_PARSED) {
+            CanalEntry.Column c = getColumn(ordinal);
+            long value;
+            if (c == null || c.getIsNull()) {
+                value = 0L;
+            } else if (isTimeType(c.getSqlType())) {
+                value = parseEpochMillis(c.getValue());
+            } else {
+                value = parseLong(c);
+            }
+            longValues[ordinal] = value;
+            parsed[ordinal] = EPOCH_PARSED;
+        }
+        return longValues[ordinal];
+    }
+
+    public final long getEpochMillis(String column) {
+        return getEpochMillis(columnIndex.ordinal(column));
+    }
+
+    private void ensureCache() {
+        if (parsed == null) {
+            int size = columnIndex.size();
+            parsed = new byte[size];
+            longValues = new long[size];
+        }
+    }
+
+    private static boolean isTimeType(int sqlType) {
+        return sqlType == Types.TIMESTAMP || sqlType == Types.DATE || sqlType == Types.TIME;
+    }
+
+    private static boolean isDecimalType(int sqlType) {
+        return sqlType == Types.DECIMAL || sqlType == Types.NUMERIC || sqlType == Types.DOUBLE
+                || sqlType == Types.FLOAT || sqlType == Types.REAL;
+    }
+
+    private static long parseLong(CanalEntry.Column c) {
+        int sqlType = c.getSqlType();
+        if (isTimeType(sqlType)) return parseEpochMillis(c.getValue());
+        String value = c.getValue();
+        if (!isDecimalType(sqlType)) {
+            long v = parseDecimalDigits(value);
+            if (v != Long.MIN_VALUE) return v;
+        }
+        BigDecimal decimal = parseDecimal(value);
+        if (decimal == null) return 0L;
+        //BigDecimal.longValue()超出范围时只保留低64位, 不能直接用
+        BigInteger integer = decimal.toBigInteger();
+        return integer.bitLength() > 63 ? 0L : integer.longValue();
+    }
+
+    /**
+     * 不抛异常的十进制整数解析, 不是整数或者溢出返回{@link Long#MIN_VALUE}
+     */
+    private static long parseDecimalDigits(String str) {
+        int len = str.length();
+        if (len == 0 || len > 19) return Long.MIN_VALUE;
+        int i = 0;
+        boolean negative = false;
+        char first = str.charAt(0);
+        if (first == '-' || first == '+') {
+            if (len == 1) return Long.MIN_VALUE;
+            negative = first == '-';
+            i = 1;
+        }
+        long value = 0L;
+        for (; i < len; i++) {
+            int d = str.charAt(i) - '0';
+            if (d < 0 || d > 9) return Long.MIN_VALUE;
+            value = value * 10 + d;
+            if (value < 0) return Long.MIN_VALUE;
+        }
+        return negative ? -value : value;
+    }
+
+    private static BigDecimal parseDecimal(String str) {
+        if (str == null || str.isEmpty()) return null;
+        try {
+            return new BigDecimal(str);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static long parseEpochMillis(String str) {
+        return parseEpochMillis(str, TIME_ZONE);
+    }
+
+    /**
+     * 解析yyyy-MM-dd[ HH:mm:ss[.S...]]或者HH:mm:ss[.S...], 按照timeZone转换为毫秒时间戳, 毫秒之后的小数位直接舍去, 格式不对返回0
+     * TIME类型的日期为1970-01-01
+     */
+    static long parseEpochMillis(String str, TimeZone timeZone) {
+        int len = str.length();
+        int year = 1970, month = 1, day = 1, hour = 0, minute = 0, second = 0, millis = 0;
+        int pos = 0;
+        if (len >= 10 && str.charAt(4) == '-' && str.charAt(7) == '-') {
+            year = digits(str, 0, 4);
+            month = digits(str, 5, 7);
+            day = digits(str, 8, 10);
+            if (year <= 0 || month <= 0 || day <= 0) return 0L;
+            pos = 11;
+            if (len == 10) return toEpochMillis(year, month, day, 0, 0, 0, 0, timeZone);
+            if (len < 19 || str.charAt(10) != ' ') return 0L;
+        }
+        if (len < pos + 8 || str.charAt(pos + 2) != ':' || str.charAt(pos + 5) != ':') return 0L;
+        hour = digits(str, pos, pos + 2);
+        minute = digits(str, pos + 3, pos + 5);
+        second = digits(str, pos + 6, pos + 8);
+        if (hour < 0 || minute < 0 || second < 0) return 0L;
+        pos += 8;
+        if (pos < len) {
+            if (str.charAt(pos) != '.') return 0L;
+            int end = Math.min(len, pos + 4);
+            millis = digits(str, pos + 1, end);
+            if (millis < 0) return 0L;
+            for (int i = end - pos - 1; i < 3; i++) millis *= 10;
+        }
+        return toEpochMillis(year, month, day, hour, minute, second, millis, timeZone);
+    }
+
+    /**
+     * @return 非数字返回-1
+     */
+    private static int digits(String str, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int d = str.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static long toEpochMillis(int year, int month, int day, int hour, int minute, int second, int millis,
+                                      TimeZone timeZone) {
+        //公历日期到1970-01-01的天数
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long epochDay = era * 146097 + doe - 719468;
+        long local = ((epochDay * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+        //前后一天的offset, 不同则附近有切换
+        int before = timeZone.getOffset(local - DAY_MILLIS), after = timeZone.getOffset(local + DAY_MILLIS);
+        if (before == after) return local - before;
+        boolean beforeValid = timeZone.getOffset(local - before) == before;
+        boolean afterValid = timeZone.getOffset(local - after) == after;
+        if (beforeValid != afterValid) return local - (beforeValid ? before : after);
+        //切换时跳过的时间(都不满足)以及重复的时间(都满足), 与Calendar一致取较小的offset
+        return local - Math.min(before, after);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(eventType.toString()).append(":{");
+        for (int i = 0, size = columnIndex.size(); i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(columnIndex.name(i)).append('=');
+            if (eventType == CanalEntry.EventType.UPDATE) {
+                sb.append(getBefore(i)).append(',').append(getAfter(i)).append(',').append(isChanged(i));
+            } else {
+                sb.append(get(i));
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -82,7 +82,7 @@ public class Schema<T extends Actionable> implements Iterable<Schema<T>.Table> {
     @SuppressWarnings({"rawtypes", "unchecked"})
     Schema<T> addTable(Schemas.TableBuilder builder) {
         tableMap.put(builder.tableName, new Table(builder.tableName, (T) builder.action,
-                builder.columns, builder.columnCondition, builder.forbidEventType));
+                builder.columns, builder.columnCondition, builder.forbidEventType, builder.coalesceKeys));
         return this;
     }
 
@@ -114,7 +114,27 @@ public class Schema<T extends Actionable> implements Iterable<Schema<T>.Table> {
          */
         private final byte forbidEventType;
 
-        Table(String tableName, T action, Collection<String> columns, ConditionContainer columnCondition, byte forbidEventType) {
+        /**
+         * 列序号索引, 第一次处理该表的数据时构建, 表结构变化之后重新构建
+         *
+         * @see #getColumnIndex(List)
+         */
+        private volatile ColumnIndex columnIndex;
+
+        /**
+         * 只解析{@link #rowDataColumns}的解码器, 没有指定列则为null
+         */
+        private final SelectiveRowChangeDecoder selectiveDecoder;
+
+        /**
+         * 合并同一行数据变更的主键列, null表示不合并
+         *
+         * @see RowChangeCoalescer
+         */
+        private final List<String> coalesceKeys;
+
+        Table(String tableName, T action, Collection<String> columns, ConditionContainer columnCondition, byte forbidEventType,
+              List<String> coalesceKeys) {
             Objects.requireNonNull(action);
             Objects.requireNonNull(tableName);
             this.tableName = tableName;
@@ -126,14 +146,18 @@ public class Schema<T extends Actionable> implements Iterable<Schema<T>.Table> {
             } else {
                 Set<String> columnSet = new HashSet<>(columns);
                 this.columns = Collections.unmodifiableSet(columnSet);
-                if (columnCondition == null) {
+                if (columnCondition == null && coalesceKeys == null) {
                     this.rowDataColumns = this.columns;
                 } else {
                     columnSet = new HashSet<>(columnSet);
-                    columnSet.addAll(columnCondition.fields());
+                    if (columnCondition != null) columnSet.addAll(columnCondition.fields());
+                    //合并需要主键的值
+                    if (coalesceKeys != null) columnSet.addAll(coalesceKeys);
                     this.rowDataColumns = Collections.unmodifiableSet(columnSet);
                 }
             }
+            this.coalesceKeys = coalesceKeys == null ? null : Collections.unmodifiableList(new ArrayList<>(coalesceKeys));
+            this.selectiveDecoder = rowDataColumns == null ? null : new SelectiveRowChangeDecoder(rowDataColumns);
             if ((forbidEventType & 7) == 7) {
                 throw new IllegalArgumentException("forbidEventType: " + Integer.toBinaryString(forbidEventType)
                         + " should not contain all types of UPDATE, INSERT, DELETE");
@@ -175,6 +199,37 @@ public class Schema<T extends Actionable> implements Iterable<Schema<T>.Table> {
             return forbidEventType;
         }
 
+        /**
+         * 合并同一行数据变更的主键列, 不可修改, 没有开启合并返回null
+         *
+         * @see Schemas.TableBuilder#coalesce(String...)
+         * @see RowChangeCoalescer
+         */
+        public final List<String> getCoalesceKeys() {
+            return coalesceKeys;
+        }
+
+        /**
+         * 只解析{@link #getRowDataColumns()}以及主键列的解码器, 没有指定列, 即需要所有列时返回null
+         */
+        public final SelectiveRowChangeDecoder getSelectiveDecoder() {
+            return selectiveDecoder;
+        }
+
+        /**
+         * 获取该表的列序号索引, 缓存的索引与columns不匹配(表结构有变化)则重新构建
+         * 每个{@link CanalEntry.RowChange}调用一次即可, 同一个RowChange中每行数据的列都一样
+         *
+         * @param columns 一行数据完整的列
+         */
+        public final ColumnIndex getColumnIndex(List<CanalEntry.Column> columns) {
+            ColumnIndex index = columnIndex;
+            if (index == null || !index.matches(columns)) {
+                columnIndex = index = ColumnIndex.build(columns);
+            }
+            return index;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -157,6 +157,7 @@ public final class Schemas {
         Set<String> columns = new HashSet<>();
         ConditionContainer columnCondition;
         byte forbidEventType;
+        List<String> coalesceKeys;
 
         TableBuilder(String tableName) {
             this.tableName = tableName;
@@ -193,6 +194,20 @@ public final class Schemas {
             return this;
         }
 
+        /**
+         * 开启同一行数据变更的合并, 一次处理的数据中同一主键的多次变更合并为最终结果之后再交给action,
+         * 如INSERT + UPDATE合并为INSERT, UPDATE + DELETE合并为DELETE, 多次UPDATE合并为一次
+         * 主键列会自动添加到需要的列中
+         *
+         * @param keyColumns 主键列, 可以是联合主键
+         * @see RowChangeCoalescer
+         */
+        public TableBuilder coalesce(String... keyColumns) {
+            if (keyColumns.length == 0) throw new IllegalArgumentException("coalesce keyColumns should not be empty");
+            coalesceKeys = Arrays.asList(keyColumns);
+            return this;
+        }
+
         /**
          * 添加需要排除的事件类型
          */
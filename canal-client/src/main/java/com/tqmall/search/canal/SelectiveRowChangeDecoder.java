@@ -0,0 +1,201 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Created by xing on 16/5/5.
+ * 只解析感兴趣列的{@link CanalEntry.RowChange}解码器, 替代{@link CanalEntry.RowChange#parseFrom(ByteString)}
+ * 通过{@link CodedInputStream}逐个字段读取, 每个{@link CanalEntry.Column}先只扫描name, isKey字段, 列名直接以UTF-8字节比较,
+ * 只有感兴趣的列或者主键列才构造Column对象, 其他列直接跳过, 不创建任何对象, 所以宽表只关注少数列时可以节省大部分解析开销
+ * 主键列总是保留, {@link ApplyLanes}需要通过主键分配lane
+ * 不可修改, 线程安全
+ *
+ * @author xing
+ * @see Schema.Table#getSelectiveDecoder()
+ */
+public final class SelectiveRowChangeDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int WIRE_VARINT = 0;
+
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private static final int ROW_CHANGE_TABLE_ID_TAG = tag(CanalEntry.RowChange.TABLEID_FIELD_NUMBER, WIRE_VARINT);
+
+    private static final int ROW_CHANGE_EVENT_TYPE_TAG = tag(CanalEntry.RowChange.EVENTTYPE_FIELD_NUMBER, WIRE_VARINT);
+
+    private static final int ROW_CHANGE_IS_DDL_TAG = tag(CanalEntry.RowChange.ISDDL_FIELD_NUMBER, WIRE_VARINT);
+
+    private static final int ROW_CHANGE_SQL_TAG = tag(CanalEntry.RowChange.SQL_FIELD_NUMBER, WIRE_LENGTH_DELIMITED);
+
+    private static final int ROW_CHANGE_ROW_DATAS_TAG = tag(CanalEntry.RowChange.ROWDATAS_FIELD_NUMBER, WIRE_LENGTH_DELIMITED);
+
+    private static final int ROW_CHANGE_PROPS_TAG = tag(CanalEntry.RowChange.PROPS_FIELD_NUMBER, WIRE_LENGTH_DELIMITED);
+
+    private static final int ROW_CHANGE_DDL_SCHEMA_NAME_TAG = tag(CanalEntry.RowChange.DDLSCHEMANAME_FIELD_NUMBER, WIRE_LENGTH_DELIMITED);
+
+    private static final int ROW_DATA_BEFORE_COLUMNS_TAG = tag(CanalEntry.RowData.BEFORECOLUMNS_FIELD_NUMBER, WIRE_LENGTH_DELIMITED);
+
+    private static final int ROW_DATA_AFTER_COLUMNS_TAG = tag(CanalEntry.RowData.AFTERCOLUMNS_FIELD_NUMBER, WIRE_LENGTH_DELIMITED);
+
+    private static final int ROW_DATA_PROPS_TAG = tag(CanalEntry.RowData.PROPS_FIELD_NUMBER, WIRE_LENGTH_DELIMITED);
+
+    private static final int COLUMN_NAME_TAG = tag(CanalEntry.Column.NAME_FIELD_NUMBER, WIRE_LENGTH_DELIMITED);
+
+    private static final int COLUMN_IS_KEY_TAG = tag(CanalEntry.Column.ISKEY_FIELD_NUMBER, WIRE_VARINT);
+
+    /**
+     * 感兴趣列名的UTF-8字节, 按照hash分桶
+     */
+    private final byte[][][] buckets;
+
+    private final int mask;
+
+    /**
+     * @param columns 感兴趣的列, 不能为空
+     */
+    public SelectiveRowChangeDecoder(Collection<String> columns) {
+        if (columns == null || columns.isEmpty()) throw new IllegalArgumentException("columns should not be empty");
+        int size = Integer.highestOneBit(columns.size() * 2 - 1) << 1;
+        buckets = new byte[size][][];
+        mask = size - 1;
+        for (String c : columns) {
+            byte[] name = c.getBytes(UTF_8);
+            int index = hash(name, 0, name.length) & mask;
+            byte[][] bucket = buckets[index];
+            if (bucket == null) {
+                bucket = new byte[][]{name};
+            } else {
+                bucket = Arrays.copyOf(bucket, bucket.length + 1);
+                bucket[bucket.length - 1] = name;
+            }
+            buckets[index] = bucket;
+        }
+    }
+
+    private static int tag(int fieldNumber, int wireType) {
+        return fieldNumber << 3 | wireType;
+    }
+
+    private static int hash(byte[] buf, int offset, int length) {
+        int h = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean interested(byte[] buf, int offset, int length) {
+        byte[][] bucket = buckets[hash(buf, offset, length) & mask];
+        if (bucket == null) return false;
+        for (byte[] name : bucket) {
+            if (name.length != length) continue;
+            int i = 0;
+            while (i < length && name[i] == buf[offset + i]) i++;
+            if (i == length) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 解码, 结果中每行数据只包含感兴趣的列以及主键列, 列的顺序不变
+     *
+     * @param storeValue {@link CanalEntry.Entry#getStoreValue()}
+     * @throws InvalidProtocolBufferException 数据格式错误
+     */
+    public CanalEntry.RowChange decode(ByteString storeValue) throws InvalidProtocolBufferException {
+        byte[] buf = storeValue.toByteArray();
+        CodedInputStream in = CodedInputStream.newInstance(buf);
+        CanalEntry.RowChange.Builder builder = CanalEntry.RowChange.newBuilder();
+        try {
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                if (tag == ROW_CHANGE_ROW_DATAS_TAG) {
+                    builder.addRowDatas(readRowData(in, buf));
+                } else if (tag == ROW_CHANGE_EVENT_TYPE_TAG) {
+                    CanalEntry.EventType eventType = CanalEntry.EventType.valueOf(in.readEnum());
+                    if (eventType != null) builder.setEventType(eventType);
+                } else if (tag == ROW_CHANGE_TABLE_ID_TAG) {
+                    builder.setTableId(in.readInt64());
+                } else if (tag == ROW_CHANGE_IS_DDL_TAG) {
+                    builder.setIsDdl(in.readBool());
+                } else if (tag == ROW_CHANGE_SQL_TAG) {
+                    builder.setSql(in.readString());
+                } else if (tag == ROW_CHANGE_PROPS_TAG) {
+                    builder.addProps(CanalEntry.Pair.parseFrom(in.readBytes()));
+                } else if (tag == ROW_CHANGE_DDL_SCHEMA_NAME_TAG) {
+                    builder.setDdlSchemaName(in.readString());
+                } else {
+                    in.skipField(tag);
+                }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            //byte数组读取, 不会有其他IOException
+            throw new InvalidProtocolBufferException(e.getMessage());
+        }
+        return builder.build();
+    }
+
+    private CanalEntry.RowData readRowData(CodedInputStream in, byte[] buf) throws IOException {
+        int limit = in.pushLimit(in.readRawVarint32());
+        CanalEntry.RowData.Builder builder = CanalEntry.RowData.newBuilder();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == ROW_DATA_AFTER_COLUMNS_TAG) {
+                CanalEntry.Column c = readColumn(in, buf);
+                if (c != null) builder.addAfterColumns(c);
+            } else if (tag == ROW_DATA_BEFORE_COLUMNS_TAG) {
+                CanalEntry.Column c = readColumn(in, buf);
+                if (c != null) builder.addBeforeColumns(c);
+            } else if (tag == ROW_DATA_PROPS_TAG) {
+                builder.addProps(CanalEntry.Pair.parseFrom(in.readBytes()));
+            } else {
+                in.skipField(tag);
+            }
+        }
+        in.popLimit(limit);
+        return builder.build();
+    }
+
+    /**
+     * 先扫描name, isKey字段判断是否需要, 需要的话再通过原始字节构造Column
+     *
+     * @return 不需要的列返回null
+     */
+    private CanalEntry.Column readColumn(CodedInputStream in, byte[] buf) throws IOException {
+        int length = in.readRawVarint32();
+        int start = in.getTotalBytesRead();
+        int limit = in.pushLimit(length);
+        boolean need = false;
+        int tag;
+        //字段按照序号顺序序列化, name在isKey之前
+        while (!need && (tag = in.readTag()) != 0) {
+            if (tag == COLUMN_NAME_TAG) {
+                int nameLength = in.readRawVarint32();
+                if (nameLength < 0 || nameLength > in.getBytesUntilLimit()) {
+                    throw new InvalidProtocolBufferException("invalid column name length: " + nameLength);
+                }
+                need = interested(buf, in.getTotalBytesRead(), nameLength);
+                in.skipRawBytes(nameLength);
+            } else if (tag == COLUMN_IS_KEY_TAG) {
+                need = in.readBool();
+            } else {
+                in.skipField(tag);
+            }
+        }
+        in.skipRawBytes(in.getBytesUntilLimit());
+        in.popLimit(limit);
+        return need ? CanalEntry.Column.newBuilder().mergeFrom(buf, start, length).build() : null;
+    }
+}
@@ -6,6 +6,7 @@ import com.alibaba.otter.canal.protocol.CanalEntry;
 import com.alibaba.otter.canal.protocol.Message;
 import com.tqmall.search.canal.CanalExecutor;
 import com.tqmall.search.canal.RowChangedData;
+import com.tqmall.search.commons.lang.Supplier;
 import com.tqmall.search.commons.utils.CommonsUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +42,21 @@ public abstract class AbstractCanalInstanceHandle implements CanalInstanceHandle
      * @see #fetchInterval()
      */
     private long fetchInterval = 500L;
+
+    /**
+     * 自适应获取策略, 设置之后替代固定的{@link #messageBatchSize}, {@link #messageTimeout}和{@link #fetchInterval}
+     *
+     * @see #setFetchPolicy(AdaptiveFetchPolicy)
+     */
+    private AdaptiveFetchPolicy fetchPolicy;
+
+    /**
+     * 创建{@link CanalConnector}, null则连接{@link #address}对应的canal server
+     *
+     * @see #setConnectorSupplier(Supplier)
+     */
+    private Supplier<CanalConnector> connectorSupplier;
+
     /**
      * @param address     canal服务器地址
      * @param destination canal实例名称
@@ -67,6 +83,13 @@ public abstract class AbstractCanalInstanceHandle implements CanalInstanceHandle
      */
     protected abstract boolean exceptionHandle(RuntimeException exception, boolean inFinishHandle);
 
+    /**
+     * @return canal服务器地址
+     */
+    protected final SocketAddress getAddress() {
+        return address;
+    }
+
     @Override
     public final String instanceName() {
         return instanceName;
@@ -75,8 +98,9 @@ public abstract class AbstractCanalInstanceHandle implements CanalInstanceHandle
     @Override
     public final void connect() {
         log.info("canal instance: " + instanceName + " start connect");
+        Supplier<CanalConnector> supplier = connectorSupplier;
         //canal中对于Connector中的用户名和密码不做校验, 所以设置也没有意义
-        canalConnector = CanalConnectors.newSingleConnector(address, instanceName, null, null);
+        canalConnector = supplier == null ? CanalConnectors.newSingleConnector(address, instanceName, null, null) : supplier.get();
         doConnect();
         log.info("canal instance: " + instanceName + " connect succeed");
     }
@@ -100,10 +124,19 @@ public abstract class AbstractCanalInstanceHandle implements CanalInstanceHandle
      * <p/>
      * canal 会记住此 client 最新的position。 <br/>
      * 如果是第一次 fetch，则会从 canal 中保存的最老一条数据开始输出。
+     * 设置了{@link #fetchPolicy}则使用其batchSize以及超时时间, 并将获取结果反馈给它
      */
     @Override
     public Message getWithoutAck() {
-        return canalConnector.getWithoutAck(messageBatchSize, messageTimeout, TimeUnit.MILLISECONDS);
+        AdaptiveFetchPolicy policy = fetchPolicy;
+        if (policy == null) {
+            return canalConnector.getWithoutAck(messageBatchSize, messageTimeout, TimeUnit.MILLISECONDS);
+        }
+        int batchSize = policy.batchSize();
+        long startTime = System.nanoTime();
+        Message message = canalConnector.getWithoutAck(batchSize, policy.timeout(), TimeUnit.MILLISECONDS);
+        policy.onFetch(message, batchSize, System.nanoTime() - startTime);
+        return message;
     }
 
     /**
@@ -185,8 +218,37 @@ public abstract class AbstractCanalInstanceHandle implements CanalInstanceHandle
         this.fetchInterval = fetchInterval;
     }
 
+    /**
+     * 设置自适应获取策略, 设置之后{@link #setMessageBatchSize(int)}, {@link #setMessageTimeout(Long)}, {@link #setFetchInterval(long)}不再生效
+     * 批量大小, 超时时间和轮询间隔根据获取到的数据量动态调整, 具体见{@link AdaptiveFetchPolicy}
+     *
+     * @param fetchPolicy 为null则恢复使用固定的messageBatchSize, messageTimeout和fetchInterval
+     */
+    public void setFetchPolicy(AdaptiveFetchPolicy fetchPolicy) {
+        this.fetchPolicy = fetchPolicy;
+    }
+
+    /**
+     * 自定义{@link CanalConnector}的创建, 每次{@link #connect()}都会调用, 比如通过
+     * {@link com.tqmall.search.canal.replay.ReplayCanalConnector}离线回放数据, 不需要canal server
+     * 对之后的{@link #connect()}生效
+     *
+     * @param connectorSupplier 为null则恢复连接canal server
+     */
+    public void setConnectorSupplier(Supplier<CanalConnector> connectorSupplier) {
+        this.connectorSupplier = connectorSupplier;
+    }
+
+    /**
+     * @return 自适应获取策略, 可以读取获取次数, 数据延迟等统计, 没有设置返回null
+     */
+    public AdaptiveFetchPolicy getFetchPolicy() {
+        return fetchPolicy;
+    }
+
     @Override
     public long fetchInterval() {
-        return fetchInterval;
+        AdaptiveFetchPolicy policy = fetchPolicy;
+        return policy == null ? fetchInterval : policy.fetchInterval();
     }
 }
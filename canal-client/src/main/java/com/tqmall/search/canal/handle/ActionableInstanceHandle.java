@@ -2,8 +2,11 @@ package com.tqmall.search.canal.handle;
 
 import com.alibaba.otter.canal.client.CanalConnector;
 import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.tqmall.search.canal.ColumnIndex;
 import com.tqmall.search.canal.RowChangedData;
+import com.tqmall.search.canal.RowDataView;
 import com.tqmall.search.canal.Schema;
+import com.tqmall.search.canal.SelectiveRowChangeDecoder;
 import com.tqmall.search.canal.action.ActionFactory;
 import com.tqmall.search.canal.action.Actionable;
 import com.tqmall.search.canal.action.CurrentHandleTable;
@@ -14,7 +17,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.SocketAddress;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -23,7 +26,8 @@ import java.util.List;
  *
  * @see #actionFactory
  */
-public abstract class ActionableInstanceHandle<T extends Actionable> extends AbstractCanalInstanceHandle {
+public abstract class ActionableInstanceHandle<T extends Actionable> extends AbstractCanalInstanceHandle
+        implements SelectiveDecodeHandle, MicroBatchHandle {
 
     private static final Logger log = LoggerFactory.getLogger(ActionableInstanceHandle.class);
 
@@ -51,6 +55,42 @@ public abstract class ActionableInstanceHandle<T extends Actionable> extends Abs
 
     private boolean userLocalTableFilter = true;
 
+    /**
+     * 是否只解析{@link Schema.Table#getRowDataColumns()}以及主键列, 默认开启
+     *
+     * @see #selectiveDecoder(CanalEntry.Header)
+     */
+    private volatile boolean selectiveDecode = true;
+
+    /**
+     * 跨Message批量处理的最大数据条数, 小于等于0表示不开启
+     *
+     * @see #setMicroBatch(int, long)
+     */
+    private volatile int microBatchRows;
+
+    /**
+     * 跨Message批量处理的最大延迟, 单位ms
+     */
+    private volatile long microBatchDelay;
+
+    /**
+     * canal实例本次运行生效的跨Message批量处理配置, 在{@link #enableMicroBatch()}中确定, 只有canal实例线程访问
+     */
+    private int activeMicroBatchRows;
+
+    private long activeMicroBatchDelay;
+
+    /**
+     * 第一次延迟处理的时间, 0表示没有延迟处理的数据
+     */
+    private long firstDeferTime;
+
+    /**
+     * {@link #flushPending()}时强制处理
+     */
+    private boolean forceFinish;
+
     /**
      * @param address       canal服务器地址
      * @param destination   canal实例名称
@@ -63,6 +103,18 @@ public abstract class ActionableInstanceHandle<T extends Actionable> extends Abs
 
     protected abstract HandleExceptionContext buildHandleExceptionContext(RuntimeException exception);
 
+    /**
+     * 复制异常处理相关的配置到lane使用的handle, 见{@link ParallelApplyHandle#createLaneHandle(int)}
+     */
+    protected final <H extends ActionableInstanceHandle<T>> H copyHandleConfig(H laneHandle) {
+        ActionableInstanceHandle<T> handle = laneHandle;
+        handle.handleExceptionFunction = handleExceptionFunction;
+        handle.ignoreHandleException = ignoreHandleException;
+        handle.userLocalTableFilter = userLocalTableFilter;
+        handle.selectiveDecode = selectiveDecode;
+        return laneHandle;
+    }
+
     @Override
     protected void doConnect() {
         canalConnector.connect();
@@ -84,28 +136,32 @@ public abstract class ActionableInstanceHandle<T extends Actionable> extends Abs
     /**
      * {@link Schema.Table#columns}有值, 则对于UPDATE操作过滤更改的字段是否包含在{@link Schema.Table#columns}
      * DELETE, INSERT事件执行条件过滤, 对于UPDATE的过滤不在这做, 比较复杂, 由子类自己实现过滤
+     * 条件过滤通过{@link RowDataView}直接在{@link CanalEntry.RowData}上做, 没有通过的行不用构造{@link RowChangedData},
+     * 通过的行以及UPDATE的所有行依然通过{@link RowChangedData#build(CanalEntry.EventType, List, java.util.Set)}每行构造Map
      *
      * @param rowChange 更改的数据
      * @return 解析结果
      */
-    @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
     protected final List<RowChangedData> changedDataParse(CanalEntry.RowChange rowChange) {
-        List<RowChangedData> dataList = RowChangedData.build(rowChange, currentTable.getRowDataColumns());
-        if (CommonsUtils.isEmpty(dataList)) return null;
+        List<CanalEntry.RowData> rowDatas = rowChange.getRowDatasList();
+        if (rowDatas.isEmpty()) return null;
         ConditionContainer columnCondition;
         if (currentEventType != CanalEntry.EventType.UPDATE
                 && (columnCondition = currentTable.getColumnCondition()) != null) {
             //对于INSERT类型的记录更新, 如果条件判断没有通过, 可以认为该更新事件没有发生~~~~
             //对于DELETE类型的记录更新, 如果条件判断没有通过, 可以认为该数据删除之前就不关心, 那这次删除我们更不关心了~~~
-            Iterator<RowChangedData> it = dataList.iterator();
-            while (it.hasNext()) {
-                if (!columnCondition.verify(it.next())) {
-                    it.remove();
+            ColumnIndex columnIndex = currentTable.getColumnIndex(ColumnIndex.columnsOf(rowChange));
+            List<CanalEntry.RowData> verifiedRowDatas = new ArrayList<>(rowDatas.size());
+            for (CanalEntry.RowData r : rowDatas) {
+                if (columnCondition.verify(new RowDataView(currentEventType, columnIndex, r))) {
+                    verifiedRowDatas.add(r);
                 }
             }
+            rowDatas = verifiedRowDatas;
         }
-        return dataList;
+        List<RowChangedData> dataList = RowChangedData.build(rowChange.getEventType(), rowDatas, currentTable.getRowDataColumns());
+        return CommonsUtils.isEmpty(dataList) ? null : dataList;
     }
 
     @Override
@@ -153,6 +209,111 @@ public abstract class ActionableInstanceHandle<T extends Actionable> extends Abs
         this.userLocalTableFilter = userLocalTableFilter;
     }
 
+    /**
+     * 是否只解析{@link Schema.Table#getRowDataColumns()}以及主键列, 默认开启
+     * {@link #changedDataParse(CanalEntry.RowChange)}只使用这些列, 所以开启之后处理结果不变, 只是跳过了其他列的解析
+     */
+    public void setSelectiveDecode(boolean selectiveDecode) {
+        this.selectiveDecode = selectiveDecode;
+    }
+
+    /**
+     * 开启跨Message批量处理: {@link #finishMessageHandle()}时缓存的数据少于maxRows, 并且第一次延迟处理到现在不超过maxDelay,
+     * 则暂不处理, 对应的Message延迟ack, 见{@link MicroBatchHandle}
+     * 只对当前handle有效, 并行处理时lane使用的handle不延迟处理
+     * 对之后启动的canal实例生效, 见{@link #enableMicroBatch()}
+     *
+     * @param maxRows  最大缓存数据条数, 小于等于0表示关闭
+     * @param maxDelay 最大延迟, 单位ms
+     */
+    public void setMicroBatch(int maxRows, long maxDelay) {
+        if (maxRows > 0 && maxDelay <= 0) throw new IllegalArgumentException("microBatch maxDelay: " + maxDelay + " should be positive");
+        this.microBatchRows = maxRows;
+        this.microBatchDelay = maxDelay;
+    }
+
+    @Override
+    public boolean enableMicroBatch() {
+        activeMicroBatchDelay = microBatchDelay;
+        activeMicroBatchRows = microBatchRows;
+        firstDeferTime = 0L;
+        return activeMicroBatchRows > 0;
+    }
+
+    /**
+     * 子类在{@link #doFinishHandle()}中调用, 判断是否延迟处理缓存的数据
+     *
+     * @param pendingRows 当前缓存的数据条数
+     * @return true 暂不处理
+     */
+    protected final boolean deferFinish(int pendingRows) {
+        if (forceFinish || activeMicroBatchRows <= 0 || pendingRows == 0 || pendingRows >= activeMicroBatchRows) {
+            firstDeferTime = 0L;
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (firstDeferTime == 0L) {
+            firstDeferTime = now;
+        } else if (now - firstDeferTime >= activeMicroBatchDelay) {
+            firstDeferTime = 0L;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 缓存的还没有处理的数据条数, 支持跨Message批量处理的子类需要覆盖
+     */
+    protected int pendingRows() {
+        return 0;
+    }
+
+    /**
+     * 丢弃缓存的数据, 支持跨Message批量处理的子类需要覆盖
+     */
+    protected void discardPendingRows() {
+    }
+
+    @Override
+    public boolean hasPending() {
+        return pendingRows() > 0;
+    }
+
+    @Override
+    public boolean flushExpired() {
+        if (pendingRows() > 0 && System.currentTimeMillis() - firstDeferTime >= activeMicroBatchDelay) {
+            flushPending();
+        }
+        return hasPending();
+    }
+
+    @Override
+    public void flushPending() {
+        if (pendingRows() == 0) return;
+        forceFinish = true;
+        try {
+            finishMessageHandle();
+        } finally {
+            forceFinish = false;
+        }
+    }
+
+    @Override
+    public void discardPending() {
+        discardPendingRows();
+        firstDeferTime = 0L;
+    }
+
+    /**
+     * 只读取{@link #actionFactory}, 没有副作用
+     */
+    @Override
+    public SelectiveRowChangeDecoder selectiveDecoder(CanalEntry.Header header) {
+        if (!selectiveDecode) return null;
+        Schema<T>.Table table = actionFactory.getTable(header.getSchemaName(), header.getTableName());
+        return table == null ? null : table.getSelectiveDecoder();
+    }
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
     public boolean startHandle(CanalEntry.Header header) {
@@ -0,0 +1,218 @@
+package com.tqmall.search.canal.handle;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.Message;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by xing on 16/5/3.
+ * 自适应的获取数据策略, 根据每次{@link CanalInstanceHandle#getWithoutAck()}的结果调整下次获取的batchSize, 超时时间和时间间隔,
+ * 替代固定的messageBatchSize, messageTimeout和fetchInterval:
+ * 1. 拿满了batchSize: 还有积压, 立即再次获取, 并且batchSize翻倍, 直到{@link #maxBatchSize}, 超时时间为{@link #minInterval},
+ * 积压时拿不满说明快追上了, 不必为了凑满batchSize等待
+ * 2. 没有拿满: 已经追上了, 以{@link #minInterval}间隔获取, batchSize拿到的数据不到1/4时减半, 直到{@link #minBatchSize}, 超时时间同上
+ * 3. 没有数据: 间隔指数退避, 每次翻倍, 直到{@link #maxInterval}; 超时时间同样翻倍, 直到{@link #maxTimeout}, 即空闲时长轮询等待新数据
+ * 同时统计获取次数, 数据量, 获取耗时以及数据延迟, 延迟为最后一条数据的{@link CanalEntry.Header#getExecuteTime()}到获取时的时间差
+ * 只有canal获取数据的线程调用{@link #onFetch(Message, int, long)}, 统计数据可以在其他线程读取
+ *
+ * @author xing
+ * @see AbstractCanalInstanceHandle#setFetchPolicy(AdaptiveFetchPolicy)
+ */
+public class AdaptiveFetchPolicy {
+
+    private final int minBatchSize;
+
+    private final int maxBatchSize;
+
+    private final long minInterval;
+
+    private final long maxInterval;
+
+    private final long maxTimeout;
+
+    private volatile int batchSize;
+
+    private volatile long interval;
+
+    private volatile long timeout;
+
+    private volatile long fetchCount, emptyFetchCount, fullFetchCount, entryCount, fetchNanos;
+
+    private volatile long lastLag, maxLag;
+
+    /**
+     * 默认batchSize在[100, 5000]之间调整, 获取间隔在[10ms, 1000ms]之间调整, 超时时间在[10ms, 1000ms]之间调整
+     */
+    public AdaptiveFetchPolicy() {
+        this(100, 5000, 10L, 1000L);
+    }
+
+    /**
+     * 超时时间最大为1000ms, 同{@link AbstractCanalInstanceHandle#setMessageTimeout(Long)}的默认值
+     *
+     * @see #AdaptiveFetchPolicy(int, int, long, long, long)
+     */
+    public AdaptiveFetchPolicy(int minBatchSize, int maxBatchSize, long minInterval, long maxInterval) {
+        this(minBatchSize, maxBatchSize, minInterval, maxInterval, Math.max(minInterval, 1000L));
+    }
+
+    /**
+     * @param minBatchSize 最小batchSize, 也是初始值
+     * @param maxBatchSize 最大batchSize
+     * @param minInterval  追上之后的获取间隔, 也是退避的初始值, 同时也是最小的超时时间以及超时时间的初始值, 单位ms
+     * @param maxInterval  退避的最大间隔, 单位ms
+     * @param maxTimeout   没有数据时超时时间退避的最大值, 单位ms
+     */
+    public AdaptiveFetchPolicy(int minBatchSize, int maxBatchSize, long minInterval, long maxInterval, long maxTimeout) {
+        if (minBatchSize <= 0 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("invalid batchSize range: [" + minBatchSize + ", " + maxBatchSize + ']');
+        }
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("invalid interval range: [" + minInterval + ", " + maxInterval + ']');
+        }
+        if (maxTimeout < minInterval) {
+            throw new IllegalArgumentException("maxTimeout: " + maxTimeout + " should not be less than minInterval: " + minInterval);
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.maxTimeout = maxTimeout;
+        this.batchSize = minBatchSize;
+        this.interval = minInterval;
+        this.timeout = minInterval;
+    }
+
+    /**
+     * 根据本次获取结果调整下次的batchSize和间隔
+     *
+     * @param message   获取的数据
+     * @param batchSize 本次获取使用的batchSize
+     * @param nanos     本次获取的耗时, 单位ns
+     */
+    public void onFetch(Message message, int batchSize, long nanos) {
+        fetchCount++;
+        fetchNanos += nanos;
+        List<CanalEntry.Entry> entries = message.getEntries();
+        int size = message.getId() <= 0 ? 0 : entries.size();
+        if (size == 0) {
+            emptyFetchCount++;
+            //刚刚拿满过, 从minInterval开始退避
+            interval = interval == 0L ? minInterval : Math.min(maxInterval, interval << 1);
+            timeout = Math.min(maxTimeout, timeout << 1);
+            return;
+        }
+        timeout = minInterval;
+        entryCount += size;
+        long lag = System.currentTimeMillis() - entries.get(size - 1).getHeader().getExecuteTime();
+        if (lag < 0) lag = 0;
+        lastLag = lag;
+        if (lag > maxLag) maxLag = lag;
+        if (size >= batchSize) {
+            fullFetchCount++;
+            this.batchSize = Math.min(maxBatchSize, batchSize << 1);
+            interval = 0L;
+        } else {
+            if (size < (batchSize >> 2)) this.batchSize = Math.max(minBatchSize, batchSize >> 1);
+            interval = minInterval;
+        }
+    }
+
+    /**
+     * @return 下次获取的batchSize
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return 下次获取的超时时间, 即{@link com.alibaba.otter.canal.client.CanalConnector#getWithoutAck(int, Long, TimeUnit)}
+     * 的timeout参数, 单位ms, 总是大于0
+     */
+    public long timeout() {
+        return timeout;
+    }
+
+    /**
+     * @return 距离下次获取的时间间隔, 单位ms, 为0表示立即获取
+     */
+    public long fetchInterval() {
+        return interval;
+    }
+
+    public long getFetchCount() {
+        return fetchCount;
+    }
+
+    public long getEmptyFetchCount() {
+        return emptyFetchCount;
+    }
+
+    /**
+     * @return 拿满batchSize的次数
+     */
+    public long getFullFetchCount() {
+        return fullFetchCount;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return 平均每次获取的耗时, 单位ms
+     */
+    public double getMeanFetchMillis() {
+        long count = fetchCount;
+        return count == 0 ? 0.0 : fetchNanos / 1e6 / count;
+    }
+
+    /**
+     * @return 最近一次获取到的数据的延迟, 单位ms
+     */
+    public long getLastLag() {
+        return lastLag;
+    }
+
+    /**
+     * @return 最大的数据延迟, 单位ms, 可以通过{@link #resetStats()}重置
+     */
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * 重置统计数据, 不影响batchSize和间隔
+     */
+    public void resetStats() {
+        fetchCount = emptyFetchCount = fullFetchCount = entryCount = fetchNanos = 0L;
+        lastLag = maxLag = 0L;
+    }
+
+    /**
+     * 统计数据, 方便输出到监控接口
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("batchSize", batchSize);
+        map.put("fetchInterval", fetchInterval());
+        map.put("timeout", timeout);
+        map.put("fetchCount", fetchCount);
+        map.put("emptyFetchCount", emptyFetchCount);
+        map.put("fullFetchCount", fullFetchCount);
+        map.put("entryCount", entryCount);
+        map.put("meanFetchMillis", getMeanFetchMillis());
+        map.put("lastLag", lastLag);
+        map.put("maxLag", maxLag);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveFetchPolicy" + stats();
+    }
+}
@@ -1,6 +1,7 @@
 package com.tqmall.search.canal.handle;
 
 import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.tqmall.search.canal.RowChangeCoalescer;
 import com.tqmall.search.canal.RowChangedData;
 import com.tqmall.search.canal.Schema;
 import com.tqmall.search.canal.action.ActionFactory;
@@ -20,11 +21,12 @@ import java.util.ListIterator;
  * Created by xing on 16/2/23.
  * 基于表级别, 每个事件如果
  * 连续的事件更新, 发现不同schema, table, eventType 则处理掉
+ * 表开启了{@link Schema.Table#getCoalesceKeys()}时, 连续的UPDATE先按照主键合并, 见{@link RowChangeCoalescer}
  *
  * @see #runLastRowChangeAction()
  * @see EventTypeAction
  */
-public class EventTypeSectionHandle extends ActionableInstanceHandle<EventTypeAction> {
+public class EventTypeSectionHandle extends ActionableInstanceHandle<EventTypeAction> implements ParallelApplyHandle {
 
     private static final Logger log = LoggerFactory.getLogger(EventTypeSectionHandle.class);
     /**
@@ -80,6 +82,14 @@ public class EventTypeSectionHandle extends ActionableInstanceHandle<EventTypeAc
      */
     private void runLastRowChangeAction() {
         if (rowChangedDataList.isEmpty()) return;
+        List<String> coalesceKeys;
+        if (lastEventType == CanalEntry.EventType.UPDATE && (coalesceKeys = lastTable.getCoalesceKeys()) != null) {
+            //同一事件类型只有多次UPDATE能够合并, 合并之后再做条件过滤
+            int removed = RowChangeCoalescer.coalesce(rowChangedDataList, coalesceKeys);
+            if (removed > 0 && log.isDebugEnabled()) {
+                log.debug("canal instance: " + instanceName + " coalesce " + removed + " updated data, table: " + lastTable);
+            }
+        }
         ConditionContainer columnCondition;
         if (lastEventType == CanalEntry.EventType.UPDATE && (columnCondition = lastTable.getColumnCondition()) != null) {
             ListIterator<RowChangedData> it = rowChangedDataList.listIterator();
@@ -173,9 +183,38 @@ public class EventTypeSectionHandle extends ActionableInstanceHandle<EventTypeAc
 
     @Override
     protected void doFinishHandle() {
+        if (deferFinish(rowChangedDataList.size())) return;
         runLastRowChangeAction();
     }
 
+    @Override
+    protected int pendingRows() {
+        return rowChangedDataList.size();
+    }
+
+    @Override
+    protected void discardPendingRows() {
+        for (RowChangedData data : rowChangedDataList) {
+            data.close();
+        }
+        rowChangedDataList.clear();
+    }
+
+    /**
+     * 创建的是{@link EventTypeSectionHandle}本身, 子类覆盖的方法在lane中不会生效, 所以子类并行处理时必须覆盖该方法,
+     * 创建子类对象并通过{@link #copyHandleConfig(ActionableInstanceHandle)}复制配置, 没有覆盖则抛出异常, 避免静默丢失子类的逻辑
+     *
+     * @throws UnsupportedOperationException 子类没有覆盖该方法
+     */
+    @Override
+    public CanalInstanceHandle createLaneHandle(int lane) {
+        if (getClass() != EventTypeSectionHandle.class) {
+            throw new UnsupportedOperationException("canal instance: " + instanceName + " handle: " + getClass().getName()
+                    + " should override createLaneHandle to create lane handle of its own class");
+        }
+        return copyHandleConfig(new EventTypeSectionHandle(getAddress(), instanceName, actionFactory));
+    }
+
     @Override
     protected HandleExceptionContext buildHandleExceptionContext(RuntimeException exception) {
         return HandleExceptionContext.build(exception)
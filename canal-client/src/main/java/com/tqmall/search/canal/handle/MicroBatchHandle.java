@@ -0,0 +1,48 @@
+package com.tqmall.search.canal.handle;
+
+import com.alibaba.otter.canal.protocol.Message;
+
+/**
+ * Created by xing on 16/5/6.
+ * 支持跨{@link Message}批量处理的{@link CanalInstanceHandle}: {@link #finishMessageHandle()}时缓存的数据量不大, 等待时间也不长,
+ * 则暂不处理, 等待后续Message的数据一起处理, 减少action的调用次数
+ * {@link com.tqmall.search.canal.CanalExecutor}在{@link #finishMessageHandle()}之后通过{@link #hasPending()}判断,
+ * 还有缓存的数据则延迟ack, 等到缓存的数据处理完成之后再按照顺序ack
+ * 每次canal实例启动时通过{@link #enableMicroBatch()}确定本次运行是否开启, 没有开启则按照普通的handle处理, 每个Message处理完立即ack
+ * 所有方法都只在canal实例线程调用
+ *
+ * @author xing
+ * @see ActionableInstanceHandle#setMicroBatch(int, long)
+ */
+public interface MicroBatchHandle extends CanalInstanceHandle {
+
+    /**
+     * canal实例启动时调用, 确定本次运行是否跨Message批量处理, 运行过程中配置的修改在下次启动时生效
+     * 返回false时本次运行{@link #finishMessageHandle()}不能缓存数据, 其他方法也不会被调用
+     *
+     * @return 本次运行是否开启跨Message批量处理
+     */
+    boolean enableMicroBatch();
+
+    /**
+     * @return 是否还有缓存的, 没有处理的数据
+     */
+    boolean hasPending();
+
+    /**
+     * 缓存的数据等待时间超过了最大延迟, 则处理掉, 没有获取到新的Message时也会定期调用
+     *
+     * @return 调用之后是否还有缓存的数据
+     */
+    boolean flushExpired();
+
+    /**
+     * 立即处理所有缓存的数据, canal实例停止之前调用
+     */
+    void flushPending();
+
+    /**
+     * 丢弃所有缓存的数据, 重新连接之后canal server会重新推送没有ack的Message
+     */
+    void discardPending();
+}
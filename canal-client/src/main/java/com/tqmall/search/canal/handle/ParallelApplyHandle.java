@@ -0,0 +1,24 @@
+package com.tqmall.search.canal.handle;
+
+/**
+ * Created by xing on 16/5/2.
+ * 支持并行处理的{@link CanalInstanceHandle}, 配合{@link com.tqmall.search.canal.CanalExecutor#addInstanceHandle(ParallelApplyHandle, int)}使用
+ * 同一个{@link com.alibaba.otter.canal.protocol.Message}的数据按照table + 主键hash分配到多个lane, 每个lane使用自己的handle并行处理,
+ * 同一个主键的变更总是在同一个lane中按顺序处理
+ * 注: 多个lane的handle共用同一批action, 所以action需要线程安全, {@link com.tqmall.search.canal.action.CurrentHandleTable}
+ * 需要使用{@link com.tqmall.search.canal.action.MultiThreadCurrentHandleTable}
+ *
+ * @author xing
+ */
+public interface ParallelApplyHandle extends CanalInstanceHandle {
+
+    /**
+     * 创建一个lane使用的handle, 只会调用{@link #startHandle(com.alibaba.otter.canal.protocol.CanalEntry.Header)},
+     * {@link #rowChangeHandle(com.alibaba.otter.canal.protocol.CanalEntry.RowChange)}, {@link #finishMessageHandle()},
+     * 不会连接canal server, 也不会ack
+     *
+     * @param lane lane序号, 从0开始
+     * @return 新的handle, 不能返回this
+     */
+    CanalInstanceHandle createLaneHandle(int lane);
+}
@@ -0,0 +1,23 @@
+package com.tqmall.search.canal.handle;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.tqmall.search.canal.SelectiveRowChangeDecoder;
+
+/**
+ * Created by xing on 16/5/5.
+ * 支持只解析感兴趣列的{@link CanalInstanceHandle}, {@link com.tqmall.search.canal.CanalExecutor}解析
+ * {@link CanalEntry.RowChange}时先通过{@link #selectiveDecoder(CanalEntry.Header)}获取对应表的解码器, 没有则完整解析
+ *
+ * @author xing
+ * @see SelectiveRowChangeDecoder
+ */
+public interface SelectiveDecodeHandle extends CanalInstanceHandle {
+
+    /**
+     * 获取表对应的解码器, 开启并行解析时会在多个线程调用, 所以实现不能有副作用, 并且线程安全
+     *
+     * @param header Entry的header
+     * @return 不需要选择列, 需要完整解析时返回null
+     */
+    SelectiveRowChangeDecoder selectiveDecoder(CanalEntry.Header header);
+}
@@ -1,6 +1,7 @@
 package com.tqmall.search.canal.handle;
 
 import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.tqmall.search.canal.RowChangeCoalescer;
 import com.tqmall.search.canal.RowChangedData;
 import com.tqmall.search.canal.Schema;
 import com.tqmall.search.canal.action.ActionFactory;
@@ -19,11 +20,12 @@ import java.util.ListIterator;
  * Created by xing on 16/2/24.
  * table处理级别的{@link CanalInstanceHandle}
  * 连续的事件更新, 发现不同schema, table则处理掉
+ * 表开启了{@link Schema.Table#getCoalesceKeys()}时, 处理之前先合并同一主键的多次变更, 见{@link RowChangeCoalescer}
  *
  * @see #runLastRowChangeAction()
  * @see TableAction
  */
-public class TableSectionHandle extends ActionableInstanceHandle<TableAction> {
+public class TableSectionHandle extends ActionableInstanceHandle<TableAction> implements ParallelApplyHandle {
 
     private static final Logger log = LoggerFactory.getLogger(TableSectionHandle.class);
     /**
@@ -47,6 +49,14 @@ public class TableSectionHandle extends ActionableInstanceHandle<TableAction> {
             log.debug("canal instance: " + instanceName + " need handle data size: " + rowChangedDataList.size() + ", table: " + lastTable);
         }
         if (rowChangedDataList.isEmpty()) return;
+        List<String> coalesceKeys = lastTable.getCoalesceKeys();
+        if (coalesceKeys != null) {
+            int removed = RowChangeCoalescer.coalesce(rowChangedDataList, coalesceKeys);
+            if (removed > 0 && log.isDebugEnabled()) {
+                log.debug("canal instance: " + instanceName + " coalesce " + removed + " changed data, table: " + lastTable);
+            }
+            if (rowChangedDataList.isEmpty()) return;
+        }
         lastTable.getAction().onAction(rowChangedDataList);
         for (RowChangedData data : rowChangedDataList) {
             data.close();
@@ -128,6 +138,35 @@ public class TableSectionHandle extends ActionableInstanceHandle<TableAction> {
 
     @Override
     protected void doFinishHandle() {
+        if (deferFinish(rowChangedDataList.size())) return;
         runLastRowChangeAction();
     }
+
+    @Override
+    protected int pendingRows() {
+        return rowChangedDataList.size();
+    }
+
+    @Override
+    protected void discardPendingRows() {
+        for (RowChangedData data : rowChangedDataList) {
+            data.close();
+        }
+        rowChangedDataList.clear();
+    }
+
+    /**
+     * 创建的是{@link TableSectionHandle}本身, 子类覆盖的方法在lane中不会生效, 所以子类并行处理时必须覆盖该方法,
+     * 创建子类对象并通过{@link #copyHandleConfig(ActionableInstanceHandle)}复制配置, 没有覆盖则抛出异常, 避免静默丢失子类的逻辑
+     *
+     * @throws UnsupportedOperationException 子类没有覆盖该方法
+     */
+    @Override
+    public CanalInstanceHandle createLaneHandle(int lane) {
+        if (getClass() != TableSectionHandle.class) {
+            throw new UnsupportedOperationException("canal instance: " + instanceName + " handle: " + getClass().getName()
+                    + " should override createLaneHandle to create lane handle of its own class");
+        }
+        return copyHandleConfig(new TableSectionHandle(getAddress(), instanceName, actionFactory));
+    }
 }
@@ -0,0 +1,77 @@
+package com.tqmall.search.canal.replay;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.Message;
+
+import java.io.*;
+
+/**
+ * Created by xing on 16/5/7.
+ * 录制{@link CanalEntry.Entry}到文件, 之后通过{@link RecordedEntrySource}回放
+ * 可以录制线上canal server获取到的{@link Message}, 也可以保存{@link SyntheticBinlogGenerator}生成的数据, 保证多次压测的数据一致
+ *
+ * @author xing
+ */
+public class EntryRecorder implements Closeable, Flushable {
+
+    private final OutputStream out;
+
+    private long count;
+
+    public EntryRecorder(File file) throws FileNotFoundException {
+        this(new FileOutputStream(file));
+    }
+
+    public EntryRecorder(OutputStream out) {
+        this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 64 * 1024);
+    }
+
+    public void write(CanalEntry.Entry entry) throws IOException {
+        entry.writeDelimitedTo(out);
+        count++;
+    }
+
+    public void write(Message message) throws IOException {
+        for (CanalEntry.Entry e : message.getEntries()) {
+            write(e);
+        }
+    }
+
+    /**
+     * 录制source中的数据, 直到结束或者达到maxEntries
+     *
+     * @param maxEntries 最多录制的Entry个数, 小于等于0表示不限制, source没有结束的话必须限制
+     * @return 录制的个数
+     */
+    public long write(EntrySource source, long maxEntries) throws IOException {
+        long written = 0L;
+        while (maxEntries <= 0 || written < maxEntries) {
+            CanalEntry.Entry entry = source.next();
+            if (entry == null) {
+                if (source.exhausted()) break;
+                Thread.yield();
+                continue;
+            }
+            write(entry);
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * @return 已经录制的Entry个数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,24 @@
+package com.tqmall.search.canal.replay;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+/**
+ * Created by xing on 16/5/7.
+ * {@link ReplayCanalConnector}的数据来源, 只在调用{@link ReplayCanalConnector}的线程访问, 不需要线程安全
+ *
+ * @author xing
+ * @see RecordedEntrySource
+ * @see SyntheticBinlogGenerator
+ */
+public interface EntrySource {
+
+    /**
+     * @return 下一个Entry, 暂时没有数据(比如限速)或者已经结束返回null
+     */
+    CanalEntry.Entry next();
+
+    /**
+     * @return 是否已经结束, 之后不会再有数据
+     */
+    boolean exhausted();
+}
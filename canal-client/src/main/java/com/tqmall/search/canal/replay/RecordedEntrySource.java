@@ -0,0 +1,51 @@
+package com.tqmall.search.canal.replay;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.exception.CanalClientException;
+
+import java.io.*;
+
+/**
+ * Created by xing on 16/5/7.
+ * 读取{@link EntryRecorder}录制的文件, 文件中每个{@link CanalEntry.Entry}以长度前缀的protobuf格式依次存储
+ * 读到文件结尾即结束, 读取异常抛出{@link CanalClientException}, 与连接canal server异常一样处理
+ *
+ * @author xing
+ */
+public class RecordedEntrySource implements EntrySource, Closeable {
+
+    private final InputStream in;
+
+    private boolean exhausted;
+
+    public RecordedEntrySource(File file) throws FileNotFoundException {
+        this(new FileInputStream(file));
+    }
+
+    public RecordedEntrySource(InputStream in) {
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 64 * 1024);
+    }
+
+    @Override
+    public CanalEntry.Entry next() {
+        if (exhausted) return null;
+        CanalEntry.Entry entry;
+        try {
+            entry = CanalEntry.Entry.parseDelimitedFrom(in);
+        } catch (IOException e) {
+            throw new CanalClientException("read recorded entry failed", e);
+        }
+        if (entry == null) exhausted = true;
+        return entry;
+    }
+
+    @Override
+    public boolean exhausted() {
+        return exhausted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
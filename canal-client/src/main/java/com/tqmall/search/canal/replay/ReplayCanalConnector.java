@@ -0,0 +1,232 @@
+package com.tqmall.search.canal.replay;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.Message;
+import com.alibaba.otter.canal.protocol.exception.CanalClientException;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Created by xing on 16/5/7.
+ * 进程内的{@link CanalConnector}, 数据来自{@link EntrySource}, 不需要mysql以及canal server, 通过
+ * {@link com.tqmall.search.canal.handle.AbstractCanalInstanceHandle#setConnectorSupplier(com.tqmall.search.commons.lang.Supplier)}
+ * 替换真实的连接, 整个{@link com.tqmall.search.canal.CanalExecutor} -> handle -> action的处理流程不变
+ * 与canal server保持一致的语义:
+ * 1. {@link #getWithoutAck(int, Long, TimeUnit)} 拿够batchSize个Entry或者超时返回, timeout为null不等待, 小于等于0一直等到拿够
+ * 2. ack必须按照获取的顺序, 只能ack第一个没有ack的batchId, 否则抛出{@link CanalClientException}
+ * 3. rollback回滚所有没有ack的batch, 之后重新获取这些数据, batchId重新分配, {@link #subscribe()}时也会回滚, 即重连之后没有ack的数据重新推送
+ * 4. 没有连接或者没有订阅时获取数据抛出{@link CanalClientException}
+ * {@link #subscribe(String)}的filter与canal一样, 逗号分隔的schema.table正则表达式
+ * 所有方法都是同步的, 可以在重连之后继续使用同一个对象, 所以{@link com.tqmall.search.commons.lang.Supplier}应该每次返回同一个对象
+ *
+ * @author xing
+ * @see SyntheticBinlogGenerator
+ * @see RecordedEntrySource
+ */
+public class ReplayCanalConnector implements CanalConnector {
+
+    private final EntrySource source;
+
+    /**
+     * 回滚之后需要重新推送的Entry, 按照原来的顺序
+     */
+    private final Deque<CanalEntry.Entry> redeliveries = new ArrayDeque<>();
+
+    /**
+     * 没有ack的batch, 按照batchId顺序
+     */
+    private final LinkedHashMap<Long, List<CanalEntry.Entry>> unackedBatches = new LinkedHashMap<>();
+
+    private long nextBatchId = 1L;
+
+    private boolean connected;
+
+    private boolean subscribed;
+
+    /**
+     * null表示不过滤
+     */
+    private Pattern[] filters;
+
+    private long ackedBatches, ackedEntries, rollbackTimes;
+
+    public ReplayCanalConnector(EntrySource source) {
+        this.source = source;
+    }
+
+    @Override
+    public synchronized void connect() {
+        connected = true;
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        connected = false;
+        subscribed = false;
+    }
+
+    @Override
+    public synchronized boolean checkValid() {
+        return connected;
+    }
+
+    @Override
+    public synchronized void subscribe(String filter) {
+        checkConnected();
+        if (filter == null || filter.trim().isEmpty()) {
+            filters = null;
+        } else {
+            String[] array = filter.split(",");
+            List<Pattern> list = new ArrayList<>(array.length);
+            for (String s : array) {
+                if (!(s = s.trim()).isEmpty()) list.add(Pattern.compile(s));
+            }
+            filters = list.isEmpty() ? null : list.toArray(new Pattern[list.size()]);
+        }
+        subscribed = true;
+        //同canal client, 重新订阅之后从上次ack的位置开始
+        rollback();
+    }
+
+    @Override
+    public void subscribe() {
+        subscribe(null);
+    }
+
+    @Override
+    public synchronized void unsubscribe() {
+        checkConnected();
+        subscribed = false;
+    }
+
+    @Override
+    public Message get(int batchSize) {
+        return get(batchSize, null, null);
+    }
+
+    @Override
+    public synchronized Message get(int batchSize, Long timeout, TimeUnit unit) {
+        Message message = getWithoutAck(batchSize, timeout, unit);
+        if (message.getId() > 0) ack(message.getId());
+        return message;
+    }
+
+    @Override
+    public Message getWithoutAck(int batchSize) {
+        return getWithoutAck(batchSize, null, null);
+    }
+
+    @Override
+    public synchronized Message getWithoutAck(int batchSize, Long timeout, TimeUnit unit) {
+        checkSubscribed();
+        if (batchSize <= 0) batchSize = 1000;
+        //null不等待, 小于等于0一直等到拿够batchSize
+        long deadline = timeout == null ? 0L : (timeout <= 0 ? Long.MAX_VALUE
+                : System.nanoTime() + (unit == null ? TimeUnit.MILLISECONDS : unit).toNanos(timeout));
+        List<CanalEntry.Entry> entries = new ArrayList<>(Math.min(batchSize, 1024));
+        while (entries.size() < batchSize) {
+            CanalEntry.Entry entry = redeliveries.pollFirst();
+            if (entry == null && (entry = source.next()) == null) {
+                if (source.exhausted() || timeout == null || System.nanoTime() >= deadline) break;
+                //限速等暂时没有数据, 稍等一下
+                try {
+                    wait(1L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            if (accept(entry)) entries.add(entry);
+        }
+        if (entries.isEmpty()) return new Message(-1L, entries);
+        long batchId = nextBatchId++;
+        unackedBatches.put(batchId, entries);
+        return new Message(batchId, entries);
+    }
+
+    private boolean accept(CanalEntry.Entry entry) {
+        if (filters == null) return true;
+        CanalEntry.Header header = entry.getHeader();
+        String name = header.getSchemaName() + '.' + header.getTableName();
+        for (Pattern p : filters) {
+            if (p.matcher(name).matches()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void ack(long batchId) {
+        checkSubscribed();
+        Iterator<Map.Entry<Long, List<CanalEntry.Entry>>> it = unackedBatches.entrySet().iterator();
+        if (!it.hasNext()) throw new CanalClientException("batchId: " + batchId + " is not exist, there is no unacked batch");
+        Map.Entry<Long, List<CanalEntry.Entry>> first = it.next();
+        if (first.getKey() != batchId) {
+            throw new CanalClientException("batchId: " + batchId + " is not the firstly: " + first.getKey());
+        }
+        ackedBatches++;
+        ackedEntries += first.getValue().size();
+        it.remove();
+    }
+
+    /**
+     * 同canal server, 回滚所有没有ack的batch
+     */
+    @Override
+    public void rollback(long batchId) {
+        rollback();
+    }
+
+    @Override
+    public synchronized void rollback() {
+        if (unackedBatches.isEmpty()) return;
+        List<CanalEntry.Entry> entries = new ArrayList<>();
+        for (List<CanalEntry.Entry> list : unackedBatches.values()) {
+            entries.addAll(list);
+        }
+        unackedBatches.clear();
+        //放在之前回滚但是还没有重新推送的前面
+        for (ListIterator<CanalEntry.Entry> it = entries.listIterator(entries.size()); it.hasPrevious(); ) {
+            redeliveries.addFirst(it.previous());
+        }
+        rollbackTimes++;
+    }
+
+    private void checkConnected() {
+        if (!connected) throw new CanalClientException("replay connector is not connected");
+    }
+
+    private void checkSubscribed() {
+        checkConnected();
+        if (!subscribed) throw new CanalClientException("replay connector is not subscribed");
+    }
+
+    /**
+     * @return 所有数据是否都已经获取并且ack
+     */
+    public synchronized boolean isDrained() {
+        return source.exhausted() && redeliveries.isEmpty() && unackedBatches.isEmpty();
+    }
+
+    public synchronized long getAckedBatches() {
+        return ackedBatches;
+    }
+
+    public synchronized long getAckedEntries() {
+        return ackedEntries;
+    }
+
+    public synchronized long getRollbackTimes() {
+        return rollbackTimes;
+    }
+
+    /**
+     * @return 没有ack的batch个数
+     */
+    public synchronized int getUnackedBatches() {
+        return unackedBatches.size();
+    }
+}
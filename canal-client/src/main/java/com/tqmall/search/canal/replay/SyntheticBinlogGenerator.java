@@ -0,0 +1,348 @@
+package com.tqmall.search.canal.replay;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.ByteString;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Created by xing on 16/5/7.
+ * 合成的binlog数据, 按照配置的表, 行大小, 事件类型比例以及速率生成{@link CanalEntry.Entry}, 同样的配置以及seed生成的数据相同
+ * 每张表的列为: id(主键, bigint), ts(生成时间, bigint, 单位ms), c1...cN(varchar), 通过ts列可以计算数据从生成到action处理的延迟
+ * INSERT的id依次递增, UPDATE, DELETE随机选择已经INSERT过的id, UPDATE修改ts以及随机一个c列
+ * 通过{@link #build()}创建
+ *
+ * @author xing
+ * @see ReplayCanalConnector
+ */
+public class SyntheticBinlogGenerator implements EntrySource {
+
+    /**
+     * id列名
+     */
+    public static final String ID_COLUMN = "id";
+
+    /**
+     * 生成时间列名
+     */
+    public static final String TS_COLUMN = "ts";
+
+    private static final String LOG_FILE_NAME = "mysql-bin.000001";
+
+    private static final char[] CHARS = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    /**
+     * 每张表预先生成的varchar值个数, 生成数据时从中随机选取, 避免逐个字符随机的开销掩盖被测流程
+     */
+    private static final int VALUE_POOL_SIZE = 1024;
+
+    private final SyntheticTable[] tables;
+
+    /**
+     * 表权重的前缀和
+     */
+    private final int[] tableWeights;
+
+    private final int insertWeight, updateWeight, deleteWeight;
+
+    private final int rowsPerEntry;
+
+    private final long rowsPerSecond;
+
+    private final long totalRows;
+
+    private final Random random;
+
+    private long generatedRows;
+
+    private long logfileOffset = 4L;
+
+    /**
+     * 第一次{@link #next()}的时间, 限速使用, 单位ns
+     */
+    private long startTime;
+
+    private SyntheticBinlogGenerator(Builder builder) {
+        if (builder.tables.isEmpty()) throw new IllegalArgumentException("synthetic binlog tables should not be empty");
+        tables = new SyntheticTable[builder.tables.size()];
+        tableWeights = new int[tables.length];
+        int sum = 0;
+        for (int i = 0; i < tables.length; i++) {
+            //每次创建都是新的对象, 各自记录id
+            tables[i] = new SyntheticTable(builder.tables.get(i), i + 1);
+            sum += tables[i].weight;
+            tableWeights[i] = sum;
+        }
+        random = new Random(builder.seed);
+        for (SyntheticTable t : tables) {
+            t.initValuePool(random);
+        }
+        insertWeight = builder.insertWeight;
+        updateWeight = builder.updateWeight;
+        deleteWeight = builder.deleteWeight;
+        if (insertWeight <= 0) throw new IllegalArgumentException("insert weight should be positive, otherwise nothing to update or delete");
+        rowsPerEntry = builder.rowsPerEntry;
+        rowsPerSecond = builder.rowsPerSecond;
+        totalRows = builder.totalRows;
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    @Override
+    public CanalEntry.Entry next() {
+        if (exhausted()) return null;
+        int rows = totalRows > 0 ? (int) Math.min(rowsPerEntry, totalRows - generatedRows) : rowsPerEntry;
+        if (rowsPerSecond > 0) {
+            long now = System.nanoTime();
+            if (startTime == 0L) startTime = now;
+            //还没有到生成这些数据的时间
+            if ((generatedRows + rows) * 1e9 > (double) (now - startTime) * rowsPerSecond) return null;
+        }
+        SyntheticTable table = tables[0];
+        if (tables.length > 1) {
+            int w = random.nextInt(tableWeights[tableWeights.length - 1]);
+            for (int i = 0; i < tableWeights.length; i++) {
+                if (w < tableWeights[i]) {
+                    table = tables[i];
+                    break;
+                }
+            }
+        }
+        CanalEntry.EventType eventType = CanalEntry.EventType.INSERT;
+        if (table.nextId > 1L) {
+            int w = random.nextInt(insertWeight + updateWeight + deleteWeight);
+            if (w >= insertWeight + updateWeight) {
+                eventType = CanalEntry.EventType.DELETE;
+            } else if (w >= insertWeight) {
+                eventType = CanalEntry.EventType.UPDATE;
+            }
+        }
+        long executeTime = System.currentTimeMillis();
+        CanalEntry.RowChange.Builder rowChange = CanalEntry.RowChange.newBuilder()
+                .setTableId(table.tableId)
+                .setEventType(eventType);
+        for (int i = 0; i < rows; i++) {
+            rowChange.addRowDatas(table.rowData(random, eventType, executeTime));
+        }
+        generatedRows += rows;
+        ByteString storeValue = rowChange.build().toByteString();
+        CanalEntry.Header header = CanalEntry.Header.newBuilder()
+                .setLogfileName(LOG_FILE_NAME)
+                .setLogfileOffset(logfileOffset)
+                .setServerId(1L)
+                .setServerenCode("UTF-8")
+                .setExecuteTime(executeTime)
+                .setSourceType(CanalEntry.Type.MYSQL)
+                .setSchemaName(table.schemaName)
+                .setTableName(table.tableName)
+                .setEventLength(storeValue.size())
+                .setEventType(eventType)
+                .build();
+        logfileOffset += storeValue.size();
+        return CanalEntry.Entry.newBuilder()
+                .setHeader(header)
+                .setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setStoreValue(storeValue)
+                .build();
+    }
+
+    @Override
+    public boolean exhausted() {
+        return totalRows > 0 && generatedRows >= totalRows;
+    }
+
+    /**
+     * @return 已经生成的数据行数
+     */
+    public long getGeneratedRows() {
+        return generatedRows;
+    }
+
+    private static String randomValue(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = CHARS[random.nextInt(CHARS.length)];
+        }
+        return new String(chars);
+    }
+
+    private static final class SyntheticTable {
+
+        final String schemaName;
+
+        final String tableName;
+
+        final int valueColumns;
+
+        final int valueLength;
+
+        final int weight;
+
+        final long tableId;
+
+        /**
+         * 下一个INSERT的id
+         */
+        long nextId = 1L;
+
+        String[] valuePool;
+
+        SyntheticTable(String schemaName, String tableName, int valueColumns, int valueLength, int weight, long tableId) {
+            this.schemaName = schemaName;
+            this.tableName = tableName;
+            this.valueColumns = valueColumns;
+            this.valueLength = valueLength;
+            this.weight = weight;
+            this.tableId = tableId;
+        }
+
+        SyntheticTable(SyntheticTable config, long tableId) {
+            this(config.schemaName, config.tableName, config.valueColumns, config.valueLength, config.weight, tableId);
+        }
+
+        void initValuePool(Random random) {
+            valuePool = new String[VALUE_POOL_SIZE];
+            for (int i = 0; i < valuePool.length; i++) {
+                valuePool[i] = randomValue(random, valueLength);
+            }
+        }
+
+        CanalEntry.RowData rowData(Random random, CanalEntry.EventType eventType, long executeTime) {
+            CanalEntry.RowData.Builder builder = CanalEntry.RowData.newBuilder();
+            if (eventType == CanalEntry.EventType.INSERT) {
+                addColumns(builder, random, false, nextId++, executeTime, -1, true);
+                return builder.build();
+            }
+            long id = 1L + (long) (random.nextDouble() * (nextId - 1L));
+            if (eventType == CanalEntry.EventType.DELETE) {
+                addColumns(builder, random, true, id, executeTime, -1, false);
+            } else {
+                addColumns(builder, random, true, id, executeTime - 1L, -1, false);
+                addColumns(builder, random, false, id, executeTime, valueColumns == 0 ? -1 : random.nextInt(valueColumns), false);
+            }
+            return builder.build();
+        }
+
+        /**
+         * @param before        是否为修改之前的列
+         * @param updatedColumn 修改之后的列中修改了的c列下标, UPDATE时有效
+         * @param allUpdated    INSERT时所有列都是修改了的
+         */
+        private void addColumns(CanalEntry.RowData.Builder builder, Random random, boolean before, long id, long ts,
+                                int updatedColumn, boolean allUpdated) {
+            boolean updateAfter = !before && !allUpdated;
+            add(builder, before, 0, ID_COLUMN, Types.BIGINT, "bigint(20)", true, allUpdated, Long.toString(id));
+            add(builder, before, 1, TS_COLUMN, Types.BIGINT, "bigint(20)", false, allUpdated || updateAfter, Long.toString(ts));
+            for (int i = 0; i < valueColumns; i++) {
+                add(builder, before, i + 2, "c" + (i + 1), Types.VARCHAR, "varchar(" + valueLength + ')', false,
+                        allUpdated || (updateAfter && i == updatedColumn), valuePool[random.nextInt(VALUE_POOL_SIZE)]);
+            }
+        }
+
+        private void add(CanalEntry.RowData.Builder builder, boolean before, int index, String name, int sqlType,
+                         String mysqlType, boolean isKey, boolean updated, String value) {
+            CanalEntry.Column column = CanalEntry.Column.newBuilder()
+                    .setIndex(index)
+                    .setSqlType(sqlType)
+                    .setName(name)
+                    .setIsKey(isKey)
+                    .setUpdated(updated)
+                    .setIsNull(false)
+                    .setValue(value)
+                    .setLength(value.length())
+                    .setMysqlType(mysqlType)
+                    .build();
+            if (before) {
+                builder.addBeforeColumns(column);
+            } else {
+                builder.addAfterColumns(column);
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private final List<SyntheticTable> tables = new ArrayList<>();
+
+        private int insertWeight = 1, updateWeight = 1, deleteWeight = 0;
+
+        private int rowsPerEntry = 1;
+
+        private long rowsPerSecond;
+
+        private long totalRows;
+
+        private long seed = 17L;
+
+        Builder() {
+        }
+
+        /**
+         * 添加一张表
+         *
+         * @param valueColumns 除了id, ts之外的varchar列个数
+         * @param valueLength  每个varchar列值的长度, 与valueColumns一起决定行大小
+         * @param weight       多张表时, 该表数据占的比重
+         */
+        public Builder table(String schemaName, String tableName, int valueColumns, int valueLength, int weight) {
+            if (valueColumns < 0 || valueLength < 0 || weight <= 0) {
+                throw new IllegalArgumentException("invalid synthetic table config, valueColumns: " + valueColumns
+                        + ", valueLength: " + valueLength + ", weight: " + weight);
+            }
+            tables.add(new SyntheticTable(schemaName, tableName, valueColumns, valueLength, weight, 0L));
+            return this;
+        }
+
+        /**
+         * 事件类型比例, 默认INSERT, UPDATE各一半, 没有DELETE
+         */
+        public Builder eventMix(int insertWeight, int updateWeight, int deleteWeight) {
+            if (insertWeight < 0 || updateWeight < 0 || deleteWeight < 0) {
+                throw new IllegalArgumentException("event weight should not be negative");
+            }
+            this.insertWeight = insertWeight;
+            this.updateWeight = updateWeight;
+            this.deleteWeight = deleteWeight;
+            return this;
+        }
+
+        /**
+         * 每个Entry, 即每个{@link CanalEntry.RowChange}包含的行数, 对应一条sql修改的行数, 默认1
+         */
+        public Builder rowsPerEntry(int rowsPerEntry) {
+            if (rowsPerEntry <= 0) throw new IllegalArgumentException("rowsPerEntry: " + rowsPerEntry + " should be positive");
+            this.rowsPerEntry = rowsPerEntry;
+            return this;
+        }
+
+        /**
+         * 每秒生成的行数, 小于等于0不限速, 默认不限速
+         */
+        public Builder rowsPerSecond(long rowsPerSecond) {
+            this.rowsPerSecond = rowsPerSecond;
+            return this;
+        }
+
+        /**
+         * 总共生成的行数, 达到之后结束, 小于等于0表示不结束, 默认不结束
+         */
+        public Builder totalRows(long totalRows) {
+            this.totalRows = totalRows;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public SyntheticBinlogGenerator create() {
+            return new SyntheticBinlogGenerator(this);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Created by xing on 16/5/7.
+ * 离线回放: 不依赖mysql以及canal server, 在进程内提供{@link com.alibaba.otter.canal.client.CanalConnector},
+ * 数据来自录制的文件或者合成的binlog, 用于action的压测以及整个处理流程的benchmark
+ *
+ * @author xing
+ */
+package com.tqmall.search.canal.replay;
@@ -0,0 +1,133 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.Message;
+import com.tqmall.search.canal.handle.CanalInstanceHandle;
+import com.tqmall.search.canal.handle.ParallelApplyHandle;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Created by xing on 16/5/8.
+ * {@link ApplyLanes}分配数据的顺序
+ *
+ * @author xing
+ */
+public class ApplyLanesTest {
+
+    /**
+     * 所有lane处理的数据, 记录"修改之前的id->修改之后的id"
+     */
+    private final List<String> applied = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void keyChangedUpdateTest() {
+        ApplyLanes lanes = new ApplyLanes(new RecordHandle(), 4, Executors.defaultThreadFactory());
+        try {
+            CanalEntry.Header header = CanalEntry.Header.newBuilder()
+                    .setSchemaName("test")
+                    .setTableName("t")
+                    .setEventType(CanalEntry.EventType.UPDATE)
+                    .build();
+            CanalEntry.RowChange rowChange = CanalEntry.RowChange.newBuilder()
+                    .setEventType(CanalEntry.EventType.UPDATE)
+                    .addRowDatas(updateRow(1, 1))
+                    .addRowDatas(updateRow(3, 3))
+                    .addRowDatas(updateRow(5, 5))
+                    .addRowDatas(updateRow(1, 2))
+                    .addRowDatas(updateRow(2, 2))
+                    .addRowDatas(updateRow(3, 3))
+                    .build();
+            Assert.assertFalse(ApplyLanes.keyChanged(updateRow(1, 1)));
+            Assert.assertTrue(ApplyLanes.keyChanged(updateRow(1, 2)));
+            lanes.add(header, rowChange);
+            lanes.apply();
+            Assert.assertEquals(6, applied.size());
+            //修改主键的UPDATE作为屏障, 之前的都在其之前处理, 之后的都在其之后处理
+            int barrier = applied.indexOf("1->2");
+            Assert.assertEquals(3, barrier);
+            Assert.assertTrue(applied.subList(0, barrier).containsAll(Arrays.asList("1->1", "3->3", "5->5")));
+            Assert.assertTrue(applied.subList(barrier + 1, applied.size()).containsAll(Arrays.asList("2->2", "3->3")));
+        } finally {
+            lanes.shutdown();
+        }
+    }
+
+    private static CanalEntry.RowData updateRow(long beforeId, long afterId) {
+        return CanalEntry.RowData.newBuilder()
+                .addBeforeColumns(column(true, Long.toString(beforeId)))
+                .addBeforeColumns(column(false, "before"))
+                .addAfterColumns(column(true, Long.toString(afterId)))
+                .addAfterColumns(column(false, "after"))
+                .build();
+    }
+
+    private static CanalEntry.Column column(boolean isKey, String value) {
+        return CanalEntry.Column.newBuilder()
+                .setName(isKey ? "id" : "name")
+                .setIsKey(isKey)
+                .setValue(value)
+                .build();
+    }
+
+    private class RecordHandle implements ParallelApplyHandle {
+
+        @Override
+        public CanalInstanceHandle createLaneHandle(int lane) {
+            return new RecordHandle();
+        }
+
+        @Override
+        public String instanceName() {
+            return "apply-lanes-test";
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disConnect() {
+        }
+
+        @Override
+        public Message getWithoutAck() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void ack(long batchId) {
+        }
+
+        @Override
+        public long fetchInterval() {
+            return 0L;
+        }
+
+        @Override
+        public void rollback(long batchId) {
+        }
+
+        @Override
+        public boolean startHandle(CanalEntry.Header header) {
+            return true;
+        }
+
+        @Override
+        public void rowChangeHandle(CanalEntry.RowChange rowChange) {
+            for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+                applied.add(rowData.getBeforeColumns(0).getValue() + "->" + rowData.getAfterColumns(0).getValue());
+            }
+        }
+
+        @Override
+        public void finishMessageHandle() {
+        }
+    }
+}
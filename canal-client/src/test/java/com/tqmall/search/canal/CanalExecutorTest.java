@@ -0,0 +1,279 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.alibaba.otter.canal.protocol.Message;
+import com.tqmall.search.canal.action.ActionFactory;
+import com.tqmall.search.canal.action.SingleSchemaActionFactory;
+import com.tqmall.search.canal.action.TableAction;
+import com.tqmall.search.canal.handle.TableSectionHandle;
+import com.tqmall.search.canal.replay.ReplayCanalConnector;
+import com.tqmall.search.canal.replay.SyntheticBinlogGenerator;
+import com.tqmall.search.commons.lang.Supplier;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by xing on 16/5/8.
+ * 通过{@link ReplayCanalConnector}测试{@link CanalExecutor}获取, 处理, ack以及异常回滚的流程, 不需要canal server
+ *
+ * @author xing
+ */
+public class CanalExecutorTest {
+
+    private final static String SCHEMA_NAME = "test";
+
+    private final static String TABLE_NAME = "t";
+
+    private final static SocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 11111);
+
+    private final static long WAIT_MILLIS = 10000L;
+
+    private final AtomicLong appliedRows = new AtomicLong();
+
+    private final AtomicInteger actionCalls = new AtomicInteger();
+
+    /**
+     * action调用次数达到该值时抛出异常, 小于等于0不抛出
+     */
+    private volatile int failActionCalls;
+
+    private static SyntheticBinlogGenerator generator(long totalRows) {
+        return SyntheticBinlogGenerator.build()
+                .table(SCHEMA_NAME, TABLE_NAME, 2, 8, 1)
+                .rowsPerEntry(10)
+                .totalRows(totalRows)
+                .create();
+    }
+
+    private ActionFactory<TableAction> actionFactory() {
+        return new SingleSchemaActionFactory<>(Schemas.buildSchema(SCHEMA_NAME, TableAction.class)
+                .addTable(Schemas.buildTable(TABLE_NAME)
+                        .action(new TableAction() {
+                            @Override
+                            public void onAction(List<? extends RowChangedData> changedData) {
+                                int calls = actionCalls.incrementAndGet();
+                                if (failActionCalls > 0 && calls >= failActionCalls) {
+                                    throw new IllegalStateException("injected action exception");
+                                }
+                                appliedRows.addAndGet(changedData.size());
+                            }
+                        })
+                        .columns(SyntheticBinlogGenerator.ID_COLUMN, "c1"))
+                .create());
+    }
+
+    private TableSectionHandle createHandle(String instanceName, final CanalConnector connector) {
+        TableSectionHandle handle = new TableSectionHandle(ADDRESS, instanceName, actionFactory());
+        handle.setConnectorSupplier(new Supplier<CanalConnector>() {
+            @Override
+            public CanalConnector get() {
+                return connector;
+            }
+        });
+        handle.setMessageBatchSize(10);
+        handle.setMessageTimeout(10L);
+        handle.setFetchInterval(0L);
+        return handle;
+    }
+
+    private static void awaitStopped(CanalExecutor executor, String instanceName, CanalConnector connector)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while ((executor.isRunning(instanceName) || connector.checkValid()) && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+        Assert.assertFalse("canal instance: " + instanceName + " should stop", executor.isRunning(instanceName));
+    }
+
+    private static void awaitDrained(ReplayCanalConnector connector) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!connector.isDrained() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+        Assert.assertTrue("replay connector should be drained", connector.isDrained());
+    }
+
+    /**
+     * ack不是按照获取的顺序则抛出非{@link com.alibaba.otter.canal.protocol.exception.CanalClientException}的异常,
+     * canal实例停止, 所以数据全部处理完说明ack的顺序正确
+     */
+    private static ReplayCanalConnector orderedAckConnector(long totalRows) {
+        return new ReplayCanalConnector(generator(totalRows)) {
+
+            private long lastAckedBatchId;
+
+            @Override
+            public synchronized void ack(long batchId) {
+                if (batchId <= lastAckedBatchId) {
+                    throw new IllegalStateException("batchId: " + batchId + " acked after: " + lastAckedBatchId);
+                }
+                super.ack(batchId);
+                lastAckedBatchId = batchId;
+            }
+        };
+    }
+
+    /**
+     * 没有调用{@link TableSectionHandle#setMicroBatch(int, long)}, 每个Message的数据单独处理, 立即ack
+     */
+    @Test
+    public void microBatchDisabledTest() throws InterruptedException {
+        ReplayCanalConnector connector = orderedAckConnector(2000L);
+        TableSectionHandle handle = createHandle("micro-batch-disabled", connector);
+        CanalExecutor executor = new CanalExecutor();
+        executor.addInstanceHandle(handle);
+        executor.startInstance(handle.instanceName());
+        try {
+            awaitDrained(connector);
+        } finally {
+            executor.stopInstance(handle.instanceName());
+        }
+        Assert.assertEquals(0L, connector.getRollbackTimes());
+        Assert.assertTrue(actionCalls.get() >= connector.getAckedBatches());
+    }
+
+    /**
+     * 串行处理时开启跨Message批量处理, 延迟的Message在缓存的数据处理完成之后按照顺序ack
+     */
+    @Test
+    public void microBatchSerialAckTest() throws InterruptedException {
+        ReplayCanalConnector connector = orderedAckConnector(10000L);
+        TableSectionHandle handle = createHandle("micro-batch-serial", connector);
+        handle.setMicroBatch(500, 1000L);
+        CanalExecutor executor = new CanalExecutor();
+        executor.addInstanceHandle(handle);
+        executor.startInstance(handle.instanceName());
+        try {
+            awaitDrained(connector);
+        } finally {
+            executor.stopInstance(handle.instanceName());
+        }
+        Assert.assertEquals(0L, connector.getRollbackTimes());
+        Assert.assertEquals(0, connector.getUnackedBatches());
+        //多个Message的数据一起处理
+        Assert.assertTrue(actionCalls.get() < connector.getAckedBatches());
+    }
+
+    /**
+     * 跨Message批量处理时action异常, 回滚所有延迟ack的Message
+     */
+    @Test
+    public void microBatchRollbackTest() throws InterruptedException {
+        ReplayCanalConnector connector = new ReplayCanalConnector(generator(10000L));
+        TableSectionHandle handle = createHandle("micro-batch-rollback", connector);
+        handle.setMicroBatch(500, 1000L);
+        handle.setIgnoreHandleException(false);
+        failActionCalls = 3;
+        CanalExecutor executor = new CanalExecutor();
+        executor.addInstanceHandle(handle);
+        executor.startInstance(handle.instanceName());
+        awaitStopped(executor, handle.instanceName(), connector);
+        Assert.assertFalse(connector.isDrained());
+        Assert.assertEquals(0, connector.getUnackedBatches());
+        Assert.assertTrue(connector.getRollbackTimes() > 0);
+        Assert.assertEquals(failActionCalls, actionCalls.get());
+    }
+
+    /**
+     * 流水线处理并且开启跨Message批量处理, 延迟的Message由之后的Message一起标记处理完成, fetch线程依然按照顺序ack
+     */
+    @Test
+    public void pipelineMicroBatchAckOrderTest() throws InterruptedException {
+        ReplayCanalConnector connector = orderedAckConnector(10000L);
+        TableSectionHandle handle = createHandle("pipeline-micro-batch", connector);
+        handle.setMicroBatch(500, 1000L);
+        CanalExecutor executor = new CanalExecutor();
+        executor.setPipelineCapacity(4);
+        executor.addInstanceHandle(handle);
+        executor.startInstance(handle.instanceName());
+        try {
+            awaitDrained(connector);
+        } finally {
+            executor.stopInstance(handle.instanceName());
+        }
+        Assert.assertEquals(0L, connector.getRollbackTimes());
+        Assert.assertEquals(0, connector.getUnackedBatches());
+        Assert.assertTrue(actionCalls.get() < connector.getAckedBatches());
+    }
+
+    /**
+     * 运行过程中替换并行解析的线程池, 之前的线程池被关闭, 数据依然全部处理
+     */
+    @Test
+    public void replaceParallelDecodeTest() throws InterruptedException {
+        ReplayCanalConnector connector = new ReplayCanalConnector(generator(20000L));
+        TableSectionHandle handle = createHandle("replace-parallel-decode", connector);
+        CanalExecutor executor = new CanalExecutor();
+        executor.setParallelDecode(2, 0);
+        executor.addInstanceHandle(handle);
+        executor.startInstance(handle.instanceName());
+        try {
+            executor.setParallelDecode(3, 0);
+            executor.setParallelDecode(0, 0);
+            executor.setParallelDecode(2, 0);
+            awaitDrained(connector);
+        } finally {
+            executor.stopInstance(handle.instanceName());
+        }
+        Assert.assertEquals(0, connector.getUnackedBatches());
+        Assert.assertEquals(0L, connector.getRollbackTimes());
+        Assert.assertTrue(appliedRows.get() > 0);
+    }
+
+    /**
+     * 子类没有覆盖createLaneHandle, 添加时就抛出异常, 不会等到canal实例启动
+     */
+    @Test
+    public void laneHandleCheckTest() {
+        TableSectionHandle base = new TableSectionHandle(ADDRESS, "lane-handle-check", actionFactory());
+        TableSectionHandle subHandle = new TableSectionHandle(ADDRESS, "lane-handle-check", actionFactory()) {
+        };
+        CanalExecutor executor = new CanalExecutor();
+        try {
+            executor.addInstanceHandle(subHandle, 4);
+            Assert.fail("handle subclass without createLaneHandle should be rejected");
+        } catch (UnsupportedOperationException ignore) {
+        }
+        Assert.assertEquals(0, executor.allCanalInstance().length);
+        executor.addInstanceHandle(base, 4);
+        //不并行时不需要创建lane handle
+        executor.addInstanceHandle(subHandle, 1);
+        Assert.assertEquals(1, executor.allCanalInstance().length);
+    }
+
+    /**
+     * 流水线fetch线程出现非{@link com.alibaba.otter.canal.protocol.exception.CanalClientException}的异常,
+     * canal实例停止并回滚所有没有ack的数据
+     */
+    @Test
+    public void pipelineFetchExceptionTest() throws InterruptedException {
+        ReplayCanalConnector connector = new ReplayCanalConnector(generator(10000L)) {
+
+            private int fetchCount;
+
+            @Override
+            public synchronized Message getWithoutAck(int batchSize, Long timeout, TimeUnit unit) {
+                //存在没有ack的batch时才抛出, 验证回滚
+                if (++fetchCount >= 5 && getUnackedBatches() > 0) throw new IllegalStateException("injected fetch exception");
+                return super.getWithoutAck(batchSize, timeout, unit);
+            }
+        };
+        TableSectionHandle handle = createHandle("pipeline-fetch-exception", connector);
+        CanalExecutor executor = new CanalExecutor();
+        executor.setPipelineCapacity(4);
+        executor.addInstanceHandle(handle);
+        executor.startInstance(handle.instanceName());
+        awaitStopped(executor, handle.instanceName(), connector);
+        Assert.assertFalse(connector.isDrained());
+        Assert.assertEquals(0, connector.getUnackedBatches());
+        Assert.assertTrue(connector.getRollbackTimes() > 0);
+        Assert.assertTrue(appliedRows.get() > 0);
+    }
+}
@@ -0,0 +1,218 @@
+package com.tqmall.search.canal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by xing on 16/5/8.
+ * {@link RowChangeCoalescer}的合并规则以及合并之后同一主键的变更顺序
+ *
+ * @author xing
+ */
+public class RowChangeCoalescerTest {
+
+    private static final List<String> KEY = Arrays.asList("id");
+
+    /**
+     * @param kvs 列名, 值交替
+     */
+    private static RowChangedData.Insert insert(String... kvs) {
+        RowChangedData.Insert insert = new RowChangedData.Insert();
+        for (int i = 0; i < kvs.length; i += 2) {
+            insert.fieldValueMap.put(kvs[i], kvs[i + 1]);
+        }
+        return insert;
+    }
+
+    private static RowChangedData.Delete delete(String... kvs) {
+        RowChangedData.Delete delete = new RowChangedData.Delete();
+        for (int i = 0; i < kvs.length; i += 2) {
+            delete.fieldValueMap.put(kvs[i], kvs[i + 1]);
+        }
+        return delete;
+    }
+
+    /**
+     * @param kvs 列名, 修改之前的值, 修改之后的值依次出现, 两个值不同即为有改动
+     */
+    private static RowChangedData.Update update(String... kvs) {
+        Map<String, RowChangedData.Pair> dataMap = new HashMap<>();
+        for (int i = 0; i < kvs.length; i += 3) {
+            dataMap.put(kvs[i], new RowChangedData.Pair(kvs[i + 1], kvs[i + 2], !kvs[i + 1].equals(kvs[i + 2])));
+        }
+        return new RowChangedData.Update(dataMap);
+    }
+
+    private static List<RowChangedData> list(RowChangedData... data) {
+        return new ArrayList<>(Arrays.asList(data));
+    }
+
+    @Test
+    public void insertUpdateTest() {
+        List<RowChangedData> dataList = list(insert("id", "1", "name", "a", "price", "1"),
+                update("id", "1", "1", "name", "a", "b", "price", "1", "1"),
+                update("id", "1", "1", "name", "b", "c", "price", "1", "1"));
+        Assert.assertEquals(2, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(1, dataList.size());
+        RowChangedData.Insert insert = (RowChangedData.Insert) dataList.get(0);
+        Assert.assertEquals("1", insert.apply("id"));
+        Assert.assertEquals("c", insert.apply("name"));
+        Assert.assertEquals("1", insert.apply("price"));
+    }
+
+    @Test
+    public void insertDeleteTest() {
+        List<RowChangedData> dataList = list(insert("id", "1", "name", "a"),
+                insert("id", "2", "name", "b"),
+                delete("id", "1", "name", "a"));
+        Assert.assertEquals(2, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(1, dataList.size());
+        Assert.assertEquals("2", ((RowChangedData.Insert) dataList.get(0)).apply("id"));
+        //抵消之后同一主键再次INSERT重新开始
+        dataList = list(insert("id", "1", "name", "a"),
+                delete("id", "1", "name", "a"),
+                insert("id", "1", "name", "b"));
+        Assert.assertEquals(2, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(1, dataList.size());
+        Assert.assertEquals("b", ((RowChangedData.Insert) dataList.get(0)).apply("name"));
+    }
+
+    @Test
+    public void updateUpdateTest() {
+        List<RowChangedData> dataList = list(update("id", "1", "1", "name", "a", "b", "price", "1", "1"),
+                update("id", "1", "1", "name", "b", "b", "price", "1", "2"),
+                update("id", "1", "1", "name", "b", "b", "price", "2", "3"));
+        Assert.assertEquals(2, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(1, dataList.size());
+        RowChangedData.Update update = (RowChangedData.Update) dataList.get(0);
+        Assert.assertEquals("a", update.getBefore("name"));
+        Assert.assertEquals("b", update.getAfter("name"));
+        Assert.assertTrue(update.isChanged("name"));
+        Assert.assertEquals("1", update.getBefore("price"));
+        Assert.assertEquals("3", update.getAfter("price"));
+        Assert.assertTrue(update.isChanged("price"));
+        Assert.assertFalse(update.isChanged("id"));
+    }
+
+    @Test
+    public void updateDeleteTest() {
+        List<RowChangedData> dataList = list(update("id", "1", "1", "name", "a", "b"),
+                delete("id", "1", "name", "b"));
+        Assert.assertEquals(1, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(1, dataList.size());
+        RowChangedData.Delete delete = (RowChangedData.Delete) dataList.get(0);
+        Assert.assertEquals("1", delete.apply("id"));
+        Assert.assertEquals("b", delete.apply("name"));
+    }
+
+    @Test
+    public void deleteInsertTest() {
+        List<RowChangedData> dataList = list(delete("id", "1", "name", "a", "price", "1"),
+                insert("id", "1", "name", "b", "price", "1"));
+        Assert.assertEquals(1, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(1, dataList.size());
+        RowChangedData.Update update = (RowChangedData.Update) dataList.get(0);
+        Assert.assertEquals("a", update.getBefore("name"));
+        Assert.assertEquals("b", update.getAfter("name"));
+        Assert.assertTrue(update.isChanged("name"));
+        Assert.assertEquals("1", update.getAfter("price"));
+        Assert.assertFalse(update.isChanged("price"));
+        Assert.assertFalse(update.isChanged("id"));
+    }
+
+    /**
+     * 修改主键的UPDATE不合并, 并且新旧主键之前的变更不能与之后的变更合并
+     */
+    @Test
+    public void keyChangedTest() {
+        RowChangedData.Update keyChanged = update("id", "1", "2", "name", "a", "b");
+        List<RowChangedData> dataList = list(update("id", "1", "1", "name", "x", "a"),
+                update("id", "2", "2", "name", "y", "z"),
+                keyChanged,
+                update("id", "1", "1", "name", "c", "d"),
+                update("id", "2", "2", "name", "b", "c"),
+                update("id", "2", "2", "name", "c", "e"));
+        Assert.assertEquals(1, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(5, dataList.size());
+        Assert.assertEquals("x", ((RowChangedData.Update) dataList.get(0)).getBefore("name"));
+        Assert.assertEquals("y", ((RowChangedData.Update) dataList.get(1)).getBefore("name"));
+        Assert.assertSame(keyChanged, dataList.get(2));
+        Assert.assertEquals("c", ((RowChangedData.Update) dataList.get(3)).getBefore("name"));
+        RowChangedData.Update update = (RowChangedData.Update) dataList.get(4);
+        Assert.assertEquals("b", update.getBefore("name"));
+        Assert.assertEquals("e", update.getAfter("name"));
+    }
+
+    /**
+     * 主键值取不到的数据不合并, 按照原来的顺序保留
+     */
+    @Test
+    public void missingKeyTest() {
+        RowChangedData.Update noKey = update("name", "a", "b");
+        RowChangedData.Delete nullKey = delete("id", null, "name", "b");
+        List<RowChangedData> dataList = list(noKey,
+                update("id", "1", "1", "name", "a", "b"),
+                nullKey,
+                update("id", "1", "1", "name", "b", "c"));
+        Assert.assertEquals(1, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(3, dataList.size());
+        Assert.assertSame(noKey, dataList.get(0));
+        Assert.assertEquals("c", ((RowChangedData.Update) dataList.get(1)).getAfter("name"));
+        Assert.assertSame(nullKey, dataList.get(2));
+    }
+
+    /**
+     * 联合主键, 只有所有主键列都相同才合并
+     */
+    @Test
+    public void compositeKeyTest() {
+        List<String> keys = Arrays.asList("shop_id", "goods_id");
+        List<RowChangedData> dataList = list(insert("shop_id", "1", "goods_id", "1", "stock", "10"),
+                insert("shop_id", "1", "goods_id", "2", "stock", "20"),
+                insert("shop_id", "2", "goods_id", "1", "stock", "30"),
+                update("shop_id", "1", "1", "goods_id", "1", "1", "stock", "10", "9"),
+                delete("shop_id", "2", "goods_id", "1", "stock", "30"),
+                update("shop_id", "1", "1", "goods_id", "2", "2", "stock", "20", "19"));
+        Assert.assertEquals(4, RowChangeCoalescer.coalesce(dataList, keys));
+        Assert.assertEquals(2, dataList.size());
+        RowChangedData.Insert first = (RowChangedData.Insert) dataList.get(0);
+        Assert.assertEquals("1", first.apply("goods_id"));
+        Assert.assertEquals("9", first.apply("stock"));
+        RowChangedData.Insert second = (RowChangedData.Insert) dataList.get(1);
+        Assert.assertEquals("2", second.apply("goods_id"));
+        Assert.assertEquals("19", second.apply("stock"));
+    }
+
+    /**
+     * 不能合并的组合按照原来的顺序保留, 之后的变更与最后一个合并, 同一主键的变更顺序不变
+     */
+    @Test
+    public void orderTest() {
+        RowChangedData.Insert insert1 = insert("id", "1", "name", "a");
+        RowChangedData.Insert insert1Again = insert("id", "1", "name", "b");
+        List<RowChangedData> dataList = list(insert1,
+                update("id", "2", "2", "name", "a", "b"),
+                insert1Again,
+                delete("id", "3", "name", "c"),
+                update("id", "2", "2", "name", "b", "c"),
+                update("id", "1", "1", "name", "b", "c"));
+        Assert.assertEquals(2, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(4, dataList.size());
+        //INSERT + INSERT不能合并, 后面的UPDATE合并到第二个INSERT
+        Assert.assertSame(insert1, dataList.get(0));
+        Assert.assertEquals("c", ((RowChangedData.Update) dataList.get(1)).getAfter("name"));
+        RowChangedData.Insert merged = (RowChangedData.Insert) dataList.get(2);
+        Assert.assertEquals("c", merged.apply("name"));
+        Assert.assertEquals("3", ((RowChangedData.Delete) dataList.get(3)).apply("id"));
+        //没有可以合并的数据, 不修改dataList
+        dataList = list(insert("id", "1"), insert("id", "2"));
+        Assert.assertEquals(0, RowChangeCoalescer.coalesce(dataList, KEY));
+        Assert.assertEquals(2, dataList.size());
+    }
+}
@@ -0,0 +1,166 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Created by xing on 16/5/8.
+ * {@link RowDataView}类型化取值, 数值与{@link Long#parseLong(String)}对比, 时间与{@link SimpleDateFormat}对比
+ *
+ * @author xing
+ */
+public class RowDataViewTest {
+
+    /**
+     * 一行INSERT数据, 每个值一列, 列名为c0, c1...
+     */
+    private static RowDataView row(int sqlType, String... values) {
+        CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+        for (int i = 0; i < values.length; i++) {
+            CanalEntry.Column.Builder c = CanalEntry.Column.newBuilder()
+                    .setIndex(i)
+                    .setName("c" + i)
+                    .setSqlType(sqlType)
+                    .setIsNull(values[i] == null);
+            if (values[i] != null) c.setValue(values[i]);
+            rowData.addAfterColumns(c);
+        }
+        CanalEntry.RowChange rowChange = CanalEntry.RowChange.newBuilder()
+                .setEventType(CanalEntry.EventType.INSERT)
+                .addRowDatas(rowData)
+                .build();
+        return RowDataView.build(rowChange, null).get(0);
+    }
+
+    private static long parse(String pattern, TimeZone timeZone, String value) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(timeZone);
+        return format.parse(value).getTime();
+    }
+
+    @Test
+    public void longTest() {
+        String[] values = new String[]{"0", "-0", "+5", "0012", "123456789", "-123456789",
+                "922337203685477580", "999999999999999999", "9223372036854775807", "-9223372036854775807",
+                "-9223372036854775808"};
+        RowDataView view = row(Types.BIGINT, values);
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertEquals(values[i], Long.parseLong(values[i]), view.getLong(i));
+            //第二次取缓存
+            Assert.assertEquals(values[i], Long.parseLong(values[i]), view.getLong("c" + i));
+        }
+    }
+
+    /**
+     * 超出long范围以及格式错误的值返回0, BIGINT UNSIGNED通过getBigDecimal取精确值
+     */
+    @Test
+    public void invalidLongTest() {
+        String[] values = new String[]{"9223372036854775808", "9999999999999999999", "-9223372036854775809",
+                "18446744073709551615", "99999999999999999999999", "", "-", "+", "12a", "1.5.1", null};
+        RowDataView view = row(Types.BIGINT, values);
+        for (int i = 0; i < values.length; i++) {
+            try {
+                Long.parseLong(values[i]);
+                Assert.fail(values[i] + " should not be parsed by Long.parseLong");
+            } catch (NumberFormatException ignore) {
+            }
+            Assert.assertEquals(values[i], 0L, view.getLong(i));
+        }
+        Assert.assertEquals(new BigDecimal("18446744073709551615"), view.getBigDecimal(3));
+        Assert.assertNull(view.getBigDecimal(5));
+        Assert.assertNull(view.getBigDecimal(10));
+        Assert.assertTrue(view.isNull(10));
+        Assert.assertFalse(view.isNull(5));
+        Assert.assertTrue(view.isNull("notExist"));
+        Assert.assertEquals(0L, view.getLong("notExist"));
+    }
+
+    @Test
+    public void decimalTest() {
+        RowDataView view = row(Types.DECIMAL, "12.9", "-12.9", "1e3", "1e30", "18446744073709551615.5", "0.001");
+        Assert.assertEquals(12L, view.getLong(0));
+        Assert.assertEquals(-12L, view.getLong(1));
+        Assert.assertEquals(1000L, view.getLong(2));
+        Assert.assertEquals(0L, view.getLong(3));
+        Assert.assertEquals(0L, view.getLong(4));
+        Assert.assertEquals(0L, view.getLong(5));
+        Assert.assertEquals(new BigDecimal("-12.9"), view.getBigDecimal(1));
+        Assert.assertEquals(new BigDecimal("18446744073709551615.5"), view.getBigDecimal(4));
+        //超出int范围
+        view = row(Types.BIGINT, "2147483647", "2147483648", "-2147483648", "-2147483649");
+        Assert.assertEquals(Integer.MAX_VALUE, view.getInt(0));
+        Assert.assertEquals(0, view.getInt(1));
+        Assert.assertEquals(Integer.MIN_VALUE, view.getInt(2));
+        Assert.assertEquals(0, view.getInt(3));
+    }
+
+    @Test
+    public void epochMillisTest() throws ParseException {
+        TimeZone timeZone = TimeZone.getDefault();
+        RowDataView view = row(Types.TIMESTAMP, "2016-05-08 12:34:56", "2016-05-08 12:34:56.5", "2016-05-08 12:34:56.123456",
+                "2016-02-29 00:00:00", "1900-01-01 08:00:00", "9999-12-31 23:59:59");
+        Assert.assertEquals(parse("yyyy-MM-dd HH:mm:ss", timeZone, "2016-05-08 12:34:56"), view.getEpochMillis(0));
+        Assert.assertEquals(parse("yyyy-MM-dd HH:mm:ss", timeZone, "2016-05-08 12:34:56") + 500L, view.getEpochMillis(1));
+        Assert.assertEquals(parse("yyyy-MM-dd HH:mm:ss.SSS", timeZone, "2016-05-08 12:34:56.123"), view.getEpochMillis(2));
+        for (int i = 3; i < 6; i++) {
+            String value = view.get(i);
+            Assert.assertEquals(value, parse("yyyy-MM-dd HH:mm:ss", timeZone, value), view.getEpochMillis(i));
+            //时间类型的getLong也是时间戳
+            Assert.assertEquals(value, view.getEpochMillis(i), view.getLong(i));
+        }
+        view = row(Types.DATE, "2016-05-08", "1970-01-01");
+        Assert.assertEquals(parse("yyyy-MM-dd", timeZone, "2016-05-08"), view.getEpochMillis(0));
+        Assert.assertEquals(parse("yyyy-MM-dd", timeZone, "1970-01-01"), view.getEpochMillis(1));
+        view = row(Types.TIME, "12:34:56", "00:00:00", "23:59:59.25");
+        Assert.assertEquals(parse("HH:mm:ss", timeZone, "12:34:56"), view.getEpochMillis(0));
+        Assert.assertEquals(parse("HH:mm:ss", timeZone, "00:00:00"), view.getEpochMillis(1));
+        Assert.assertEquals(parse("HH:mm:ss", timeZone, "23:59:59") + 250L, view.getEpochMillis(2));
+        //数值类型本身就是时间戳
+        view = row(Types.BIGINT, "1462682096000");
+        Assert.assertEquals(1462682096000L, view.getEpochMillis(0));
+    }
+
+    /**
+     * mysql的零值日期以及格式不对的值返回0
+     */
+    @Test
+    public void invalidEpochMillisTest() {
+        RowDataView view = row(Types.TIMESTAMP, "0000-00-00 00:00:00", "0000-00-00", "2016-00-08 12:00:00", "2016-05-00",
+                "2016-05-08T12:34:56", "2016-05-08 12:34", "2016-05-08 12:34:56,5", "abc", "", "838:59:59", "-01:00:00", null);
+        for (int i = 0; i < 12; i++) {
+            Assert.assertEquals(view.get(i), 0L, view.getEpochMillis(i));
+        }
+    }
+
+    /**
+     * 夏令时切换前后每15分钟一个时间点, 包括不存在以及重复的时间, 与{@link SimpleDateFormat}的结果一致
+     */
+    @Test
+    public void dstTest() throws ParseException {
+        String[][] days = new String[][]{
+                {"America/New_York", "2016-03-13"},
+                {"America/New_York", "2016-11-06"},
+                {"Europe/London", "2016-03-27"},
+                {"Europe/London", "2016-10-30"},
+                {"Asia/Shanghai", "1988-04-10"},
+                {"Asia/Shanghai", "1988-09-11"},
+                {"Australia/Lord_Howe", "2016-04-03"}
+        };
+        for (String[] day : days) {
+            TimeZone timeZone = TimeZone.getTimeZone(day[0]);
+            for (int minutes = 0; minutes < 24 * 60; minutes += 15) {
+                String value = String.format("%s %02d:%02d:00", day[1], minutes / 60, minutes % 60);
+                Assert.assertEquals(day[0] + ' ' + value, parse("yyyy-MM-dd HH:mm:ss", timeZone, value),
+                        RowDataView.parseEpochMillis(value, timeZone));
+            }
+        }
+    }
+}
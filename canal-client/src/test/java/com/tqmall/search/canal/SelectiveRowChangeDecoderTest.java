@@ -0,0 +1,163 @@
+package com.tqmall.search.canal;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Created by xing on 16/5/8.
+ * {@link SelectiveRowChangeDecoder}的解码结果与{@link CanalEntry.RowChange#parseFrom(ByteString)}之后只保留感兴趣的列以及主键列一致
+ *
+ * @author xing
+ */
+public class SelectiveRowChangeDecoderTest {
+
+    private static final List<String> INTERESTED_COLUMNS = Arrays.asList("name", "价格", "remark");
+
+    private static CanalEntry.Column column(int index, String name, boolean isKey, boolean updated, String value) {
+        CanalEntry.Column.Builder builder = CanalEntry.Column.newBuilder()
+                .setIndex(index)
+                .setSqlType(Types.VARCHAR)
+                .setName(name)
+                .setIsKey(isKey)
+                .setUpdated(updated)
+                .setIsNull(value == null)
+                .setMysqlType("varchar(64)");
+        if (value != null) {
+            builder.setValue(value).setLength(value.length());
+        }
+        return builder.build();
+    }
+
+    private static CanalEntry.Pair pair(String key, String value) {
+        return CanalEntry.Pair.newBuilder().setKey(key).setValue(value).build();
+    }
+
+    /**
+     * 主键列, 不感兴趣的列, null值, 多字节UTF-8列名以及列的props都包含
+     */
+    private static void addColumns(CanalEntry.RowData.Builder builder, boolean before, long id, String suffix) {
+        CanalEntry.Column[] columns = new CanalEntry.Column[]{
+                column(0, "id", true, false, Long.toString(id)),
+                column(1, "name", false, !before, "name" + suffix),
+                column(2, "ignored", false, !before, "ignored" + suffix),
+                column(3, "价格", false, false, before ? null : "12.5" + suffix),
+                column(4, "价格备注", false, true, "不关注" + suffix),
+                column(5, "remark", false, false, null).toBuilder().addProps(pair("charset", "utf8mb4")).build(),
+                column(6, "namex", false, true, "prefix" + suffix)
+        };
+        for (CanalEntry.Column c : columns) {
+            if (before) {
+                builder.addBeforeColumns(c);
+            } else {
+                builder.addAfterColumns(c);
+            }
+        }
+    }
+
+    private static CanalEntry.RowChange rowChange(CanalEntry.EventType eventType, int rows) {
+        CanalEntry.RowChange.Builder builder = CanalEntry.RowChange.newBuilder()
+                .setTableId(7L)
+                .setEventType(eventType)
+                .setIsDdl(false)
+                .addProps(pair("rowsCount", Integer.toString(rows)));
+        for (int i = 0; i < rows; i++) {
+            CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+            if (eventType != CanalEntry.EventType.INSERT) addColumns(rowData, true, i + 1, "-" + i);
+            if (eventType != CanalEntry.EventType.DELETE) addColumns(rowData, false, i + 1, "+" + i);
+            if (i % 2 == 0) rowData.addProps(pair("row", Integer.toString(i)));
+            builder.addRowDatas(rowData);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 期望的解码结果: 完整解析之后过滤掉不感兴趣并且不是主键的列
+     */
+    private static CanalEntry.RowChange expected(ByteString bytes, Set<String> columns) throws InvalidProtocolBufferException {
+        CanalEntry.RowChange.Builder builder = CanalEntry.RowChange.parseFrom(bytes).toBuilder();
+        for (int i = 0; i < builder.getRowDatasCount(); i++) {
+            CanalEntry.RowData rowData = builder.getRowDatas(i);
+            CanalEntry.RowData.Builder filtered = rowData.toBuilder().clearBeforeColumns().clearAfterColumns();
+            for (CanalEntry.Column c : rowData.getBeforeColumnsList()) {
+                if (c.getIsKey() || columns.contains(c.getName())) filtered.addBeforeColumns(c);
+            }
+            for (CanalEntry.Column c : rowData.getAfterColumnsList()) {
+                if (c.getIsKey() || columns.contains(c.getName())) filtered.addAfterColumns(c);
+            }
+            builder.setRowDatas(i, filtered);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void decodeTest() throws InvalidProtocolBufferException {
+        SelectiveRowChangeDecoder decoder = new SelectiveRowChangeDecoder(INTERESTED_COLUMNS);
+        Set<String> columns = new HashSet<>(INTERESTED_COLUMNS);
+        for (CanalEntry.EventType eventType : Arrays.asList(CanalEntry.EventType.INSERT, CanalEntry.EventType.UPDATE,
+                CanalEntry.EventType.DELETE)) {
+            for (int rows : new int[]{0, 1, 5}) {
+                ByteString bytes = rowChange(eventType, rows).toByteString();
+                CanalEntry.RowChange rowChange = decoder.decode(bytes);
+                Assert.assertEquals(eventType + ", rows: " + rows, expected(bytes, columns), rowChange);
+                Assert.assertEquals(rows, rowChange.getRowDatasCount());
+                for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+                    //id, name, 价格, remark
+                    if (eventType != CanalEntry.EventType.INSERT) Assert.assertEquals(4, rowData.getBeforeColumnsCount());
+                    if (eventType != CanalEntry.EventType.DELETE) Assert.assertEquals(4, rowData.getAfterColumnsCount());
+                }
+            }
+        }
+    }
+
+    /**
+     * 感兴趣的列只有主键, 主键之外的列全部跳过; 主键没有标记isKey, 按照列名保留
+     */
+    @Test
+    public void keyColumnTest() throws InvalidProtocolBufferException {
+        ByteString bytes = rowChange(CanalEntry.EventType.UPDATE, 3).toByteString();
+        CanalEntry.RowChange rowChange = new SelectiveRowChangeDecoder(Arrays.asList("id")).decode(bytes);
+        Assert.assertEquals(expected(bytes, new HashSet<>(Arrays.asList("id"))), rowChange);
+        CanalEntry.RowData rowData = rowChange.getRowDatas(1);
+        Assert.assertEquals(1, rowData.getBeforeColumnsCount());
+        Assert.assertEquals("2", rowData.getAfterColumns(0).getValue());
+
+        CanalEntry.RowChange noKey = CanalEntry.RowChange.newBuilder()
+                .setEventType(CanalEntry.EventType.INSERT)
+                .addRowDatas(CanalEntry.RowData.newBuilder()
+                        .addAfterColumns(column(0, "id", false, true, "1"))
+                        .addAfterColumns(column(1, "name", false, true, null)))
+                .build();
+        bytes = noKey.toByteString();
+        Assert.assertEquals(expected(bytes, new HashSet<>(Arrays.asList("name"))),
+                new SelectiveRowChangeDecoder(Arrays.asList("name")).decode(bytes));
+    }
+
+    /**
+     * DDL以及sql等RowChange字段原样保留
+     */
+    @Test
+    public void ddlTest() throws InvalidProtocolBufferException {
+        CanalEntry.RowChange ddl = CanalEntry.RowChange.newBuilder()
+                .setEventType(CanalEntry.EventType.ALTER)
+                .setIsDdl(true)
+                .setSql("alter table t add column `价格` decimal(10,2)")
+                .setDdlSchemaName("test")
+                .build();
+        Assert.assertEquals(ddl, new SelectiveRowChangeDecoder(INTERESTED_COLUMNS).decode(ddl.toByteString()));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void truncatedTest() throws InvalidProtocolBufferException {
+        byte[] bytes = rowChange(CanalEntry.EventType.UPDATE, 2).toByteArray();
+        new SelectiveRowChangeDecoder(INTERESTED_COLUMNS).decode(ByteString.copyFrom(bytes, 0, bytes.length - 3));
+    }
+}
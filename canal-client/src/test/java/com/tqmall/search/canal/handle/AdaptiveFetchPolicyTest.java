@@ -0,0 +1,53 @@
+package com.tqmall.search.canal.handle;
+
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.alibaba.otter.canal.protocol.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by xing on 16/5/8.
+ * {@link AdaptiveFetchPolicy}的batchSize, 超时时间以及间隔调整
+ *
+ * @author xing
+ */
+public class AdaptiveFetchPolicyTest {
+
+    private static Message message(int size) {
+        List<CanalEntry.Entry> entries = new ArrayList<>(size);
+        CanalEntry.Entry entry = CanalEntry.Entry.newBuilder()
+                .setHeader(CanalEntry.Header.newBuilder().setExecuteTime(System.currentTimeMillis()))
+                .build();
+        for (int i = 0; i < size; i++) {
+            entries.add(entry);
+        }
+        return new Message(size == 0 ? -1L : 1L, entries);
+    }
+
+    @Test
+    public void timeoutTest() {
+        AdaptiveFetchPolicy policy = new AdaptiveFetchPolicy(10, 40, 10L, 100L, 50L);
+        Assert.assertEquals(10L, policy.timeout());
+        //积压: batchSize翻倍, 立即获取, 超时时间保持最小
+        policy.onFetch(message(10), 10, 0L);
+        Assert.assertEquals(20, policy.batchSize());
+        Assert.assertEquals(0L, policy.fetchInterval());
+        Assert.assertEquals(10L, policy.timeout());
+        //没有数据: 间隔以及超时时间都退避
+        policy.onFetch(message(0), 20, 0L);
+        Assert.assertEquals(10L, policy.fetchInterval());
+        Assert.assertEquals(20L, policy.timeout());
+        policy.onFetch(message(0), 20, 0L);
+        policy.onFetch(message(0), 20, 0L);
+        Assert.assertEquals(40L, policy.fetchInterval());
+        Assert.assertEquals(50L, policy.timeout());
+        //又有数据了, 恢复最小的超时时间
+        policy.onFetch(message(15), 20, 0L);
+        Assert.assertEquals(10L, policy.fetchInterval());
+        Assert.assertEquals(10L, policy.timeout());
+        Assert.assertEquals(10L, policy.stats().get("timeout"));
+    }
+}
@@ -0,0 +1,212 @@
+package com.tqmall.search.canal.replay;
+
+import com.alibaba.otter.canal.client.CanalConnector;
+import com.tqmall.search.canal.CanalExecutor;
+import com.tqmall.search.canal.RowChangedData;
+import com.tqmall.search.canal.Schemas;
+import com.tqmall.search.canal.action.EventTypeAction;
+import com.tqmall.search.canal.action.TableAction;
+import com.tqmall.search.canal.action.SingleSchemaActionFactory;
+import com.tqmall.search.canal.handle.ActionableInstanceHandle;
+import com.tqmall.search.canal.handle.EventTypeSectionHandle;
+import com.tqmall.search.canal.handle.TableSectionHandle;
+import com.tqmall.search.commons.lang.Supplier;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by xing on 16/5/7.
+ * 离线benchmark: {@link SyntheticBinlogGenerator}生成数据, 通过{@link ReplayCanalConnector}走完整的
+ * {@link CanalExecutor} -> handle -> action流程, 输出每秒处理的行数以及数据从生成到action处理的延迟
+ * 不需要mysql以及canal server, 需要时手动执行
+ *
+ * @see #tableSectionBenchmark()
+ * @see #eventTypeSectionBenchmark()
+ * @see #recordedReplayBenchmark()
+ */
+public class CanalReplayBenchmark {
+
+    private final static String SCHEMA_NAME = "benchmark";
+
+    private final static String TABLE_NAME = "db_goods";
+
+    /**
+     * 回放不会真正连接, 随便一个地址
+     */
+    private final static SocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 11111);
+
+    private final static long TOTAL_ROWS = 1000000L;
+
+    private static SyntheticBinlogGenerator.Builder generatorBuilder() {
+        return SyntheticBinlogGenerator.build()
+                .table(SCHEMA_NAME, TABLE_NAME, 20, 32, 1)
+                .eventMix(5, 4, 1)
+                .rowsPerEntry(10)
+                .totalRows(TOTAL_ROWS);
+    }
+
+    /**
+     * 不限速, 测试最大吞吐
+     */
+    @Test
+    @Ignore
+    public void tableSectionBenchmark() {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        TableSectionHandle handle = new TableSectionHandle(ADDRESS, "benchmark-table-section",
+                new SingleSchemaActionFactory<>(Schemas.buildSchema(SCHEMA_NAME, TableAction.class)
+                        .addTable(Schemas.buildTable(TABLE_NAME)
+                                .action(new TableAction() {
+                                    @Override
+                                    public void onAction(List<? extends RowChangedData> changedData) {
+                                        recorder.record(changedData);
+                                    }
+                                })
+                                .columns(SyntheticBinlogGenerator.ID_COLUMN, SyntheticBinlogGenerator.TS_COLUMN, "c1"))
+                        .create()));
+        runBenchmark(handle, new ReplayCanalConnector(generatorBuilder().create()), recorder);
+    }
+
+    /**
+     * 限速每秒5w行, 开启跨Message批量处理, 关注延迟
+     */
+    @Test
+    @Ignore
+    public void eventTypeSectionBenchmark() {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        EventTypeSectionHandle handle = new EventTypeSectionHandle(ADDRESS, "benchmark-event-type-section",
+                new SingleSchemaActionFactory<>(Schemas.buildSchema(SCHEMA_NAME, EventTypeAction.class)
+                        .addTable(Schemas.buildTable(TABLE_NAME)
+                                .action(new EventTypeAction() {
+                                    @Override
+                                    public void onUpdateAction(List<RowChangedData.Update> updatedData) {
+                                        recorder.record(updatedData);
+                                    }
+
+                                    @Override
+                                    public void onInsertAction(List<RowChangedData.Insert> insertedData) {
+                                        recorder.record(insertedData);
+                                    }
+
+                                    @Override
+                                    public void onDeleteAction(List<RowChangedData.Delete> deletedData) {
+                                        recorder.record(deletedData);
+                                    }
+                                })
+                                .columns(SyntheticBinlogGenerator.ID_COLUMN, SyntheticBinlogGenerator.TS_COLUMN, "c1"))
+                        .create()));
+        handle.setMicroBatch(2000, 50L);
+        runBenchmark(handle, new ReplayCanalConnector(generatorBuilder().rowsPerSecond(50000L).totalRows(500000L).create()),
+                recorder);
+    }
+
+    /**
+     * 先录制到内存, 再回放, 排除数据生成的开销, 数据都在内存中, 行数少一些
+     */
+    @Test
+    @Ignore
+    public void recordedReplayBenchmark() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EntryRecorder entryRecorder = new EntryRecorder(out)) {
+            entryRecorder.write(generatorBuilder().totalRows(TOTAL_ROWS / 5).create(), 0L);
+        }
+        final LatencyRecorder recorder = new LatencyRecorder();
+        TableSectionHandle handle = new TableSectionHandle(ADDRESS, "benchmark-recorded-replay",
+                new SingleSchemaActionFactory<>(Schemas.buildSchema(SCHEMA_NAME, TableAction.class)
+                        .addTable(Schemas.buildTable(TABLE_NAME)
+                                .action(new TableAction() {
+                                    @Override
+                                    public void onAction(List<? extends RowChangedData> changedData) {
+                                        recorder.record(changedData);
+                                    }
+                                })
+                                .columns(SyntheticBinlogGenerator.ID_COLUMN, SyntheticBinlogGenerator.TS_COLUMN, "c1"))
+                        .create()));
+        //录制的数据ts是录制时的时间, 延迟没有意义, 只看吞吐
+        runBenchmark(handle, new ReplayCanalConnector(new RecordedEntrySource(new ByteArrayInputStream(out.toByteArray()))),
+                recorder);
+    }
+
+    private static void runBenchmark(ActionableInstanceHandle<?> handle, final ReplayCanalConnector connector,
+                                     LatencyRecorder recorder) {
+        handle.setConnectorSupplier(new Supplier<CanalConnector>() {
+            @Override
+            public CanalConnector get() {
+                return connector;
+            }
+        });
+        handle.setMessageBatchSize(200);
+        handle.setMessageTimeout(10L);
+        handle.setFetchInterval(0L);
+        CanalExecutor executor = new CanalExecutor();
+        executor.addInstanceHandle(handle);
+        long startTime = System.nanoTime();
+        executor.startInstance(handle.instanceName());
+        try {
+            while (!connector.isDrained()) {
+                TimeUnit.MILLISECONDS.sleep(10L);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long costNanos = System.nanoTime() - startTime;
+        executor.stopInstance(handle.instanceName());
+        System.out.println(handle.instanceName() + ": acked entries: " + connector.getAckedEntries() + ", batches: "
+                + connector.getAckedBatches() + ", rollback: " + connector.getRollbackTimes());
+        System.out.println(handle.instanceName() + ": " + recorder.report(costNanos));
+    }
+
+    /**
+     * action处理的行数以及延迟分布, 延迟按照ms分桶
+     */
+    private static class LatencyRecorder {
+
+        private final long[] buckets = new long[10001];
+
+        private long rows, calls;
+
+        synchronized void record(List<? extends RowChangedData> changedData) {
+            long now = System.currentTimeMillis();
+            calls++;
+            for (RowChangedData data : changedData) {
+                rows++;
+                String ts = data instanceof RowChangedData.Update
+                        ? ((RowChangedData.Update) data).getAfter(SyntheticBinlogGenerator.TS_COLUMN)
+                        : ((RowChangedData.StrRowChangedData) data).apply(SyntheticBinlogGenerator.TS_COLUMN);
+                if (ts == null) continue;
+                long latency = Math.max(0L, now - Long.parseLong(ts));
+                buckets[(int) Math.min(latency, buckets.length - 1)]++;
+            }
+        }
+
+        private long percentile(long count, double p) {
+            long target = (long) Math.ceil(count * p), sum = 0L;
+            for (int i = 0; i < buckets.length; i++) {
+                if ((sum += buckets[i]) >= target) return i;
+            }
+            return buckets.length - 1;
+        }
+
+        synchronized String report(long costNanos) {
+            long count = 0L;
+            for (long b : buckets) count += b;
+            StringBuilder sb = new StringBuilder();
+            sb.append("rows: ").append(rows).append(", action calls: ").append(calls)
+                    .append(", cost: ").append(TimeUnit.NANOSECONDS.toMillis(costNanos)).append("ms")
+                    .append(", rows/sec: ").append(rows * 1000000000L / Math.max(1L, costNanos));
+            if (count > 0) {
+                sb.append(", latency p50: ").append(percentile(count, 0.5)).append("ms")
+                        .append(", p99: ").append(percentile(count, 0.99)).append("ms")
+                        .append(", p999: ").append(percentile(count, 0.999)).append("ms");
+            }
+            return sb.toString();
+        }
+    }
+}
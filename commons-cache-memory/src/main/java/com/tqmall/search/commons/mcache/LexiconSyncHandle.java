@@ -0,0 +1,223 @@
+package com.tqmall.search.commons.mcache;
+
+import com.tqmall.search.commons.analyzer.CjkLexicon;
+import com.tqmall.search.commons.analyzer.LexiconDelta;
+import com.tqmall.search.commons.analyzer.TokenType;
+import com.tqmall.search.commons.lang.HostInfo;
+import com.tqmall.search.commons.lang.Supplier;
+import com.tqmall.search.commons.mcache.receive.RtCacheSlaveHandle;
+import com.tqmall.search.commons.utils.CommonsUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Created by xing on 16/5/1.
+ * 通过master-slave通知分发{@link CjkLexicon}的用户词库, slave机器不用各自解析词库文件, 也不需要外部程序逐台推送
+ * master机器通过{@link #publish(Map, Collection)}修改用户词库, 修改先在本地应用, 然后编码为{@link LexiconDelta}通知给所有slave,
+ * slave机器在{@link #onSlaveHandle(List)}中解码并通过{@link CjkLexicon#applyOverlayDelta(LexiconDelta)}整体替换用户词库
+ * 编码后的字符串按照{@link #setChunkSize(int)}切分成多个key传输, 接收时按顺序拼接
+ * 增量依赖版本连续, slave重启或者漏掉某次通知之后增量都会被拒绝, 所以每发布{@link #setSnapshotInterval(int)}次发送一次完整的快照,
+ * 也可以随时通过{@link #publishSnapshot()}发送
+ * 通知失败时抛出异常, 此时本地已经修改, slave落后一个版本, 之后的发布改为发送快照, 直到快照发送成功, 见{@link #isSnapshotPending()}
+ * 注: 只同步用户词库, 基础词库依然各自从词库文件加载
+ * 词库可以热更新的话通过{@link #LexiconSyncHandle(Supplier, HostInfo)}传入{@link com.tqmall.search.commons.analyzer.ReloadableCjkLexicon},
+ * 每次都操作当前的词库, 重新加载时用户词库以及版本都会继承到新的词库
+ *
+ * @author xing
+ * @see LexiconDelta
+ */
+public class LexiconSyncHandle implements RtCacheSlaveHandle {
+
+    private static final Logger log = LoggerFactory.getLogger(LexiconSyncHandle.class);
+
+    private final Supplier<CjkLexicon> lexiconSupplier;
+
+    private final HostInfo masterHost;
+
+    private int chunkSize = 1024;
+
+    private int snapshotInterval = 16;
+
+    private int publishCount;
+
+    /**
+     * 上次通知失败, slave的版本落后, 下次发布需要发送快照
+     */
+    private volatile boolean snapshotPending;
+
+    private volatile long appliedCount, rejectedCount;
+
+    /**
+     * 最近一次收到的增量被拒绝, 等待下一次快照
+     */
+    private volatile boolean waitSnapshot;
+
+    public LexiconSyncHandle(CjkLexicon lexicon, HostInfo masterHost) {
+        this(fixedLexicon(lexicon), masterHost);
+    }
+
+    /**
+     * @param lexiconSupplier 每次同步都通过其获取当前的词库, 比如{@link com.tqmall.search.commons.analyzer.ReloadableCjkLexicon}
+     */
+    public LexiconSyncHandle(Supplier<CjkLexicon> lexiconSupplier, HostInfo masterHost) {
+        Objects.requireNonNull(lexiconSupplier);
+        this.lexiconSupplier = lexiconSupplier;
+        this.masterHost = masterHost;
+        RtCacheManager.INSTANCE.getReceive().registerHandler(this);
+    }
+
+    private static Supplier<CjkLexicon> fixedLexicon(final CjkLexicon lexicon) {
+        Objects.requireNonNull(lexicon);
+        return new Supplier<CjkLexicon>() {
+            @Override
+            public CjkLexicon get() {
+                return lexicon;
+            }
+        };
+    }
+
+    /**
+     * master机器调用, 修改用户词库并通知slave
+     *
+     * @param puts    添加, 修改的词, 可以为null
+     * @param removes 删除的词, 可以为null
+     * @return 发布的变更, 没有变更则为null
+     * @throws IllegalStateException 本地词库的版本被其他地方修改; 或者本地已经修改, 但是通知slave失败, 下次发布改为发送快照,
+     *                               也可以直接调用{@link #publishSnapshot()}重试
+     */
+    public synchronized LexiconDelta publish(Map<String, TokenType> puts, Collection<String> removes) {
+        if (CommonsUtils.isEmpty(puts) && CommonsUtils.isEmpty(removes)) return null;
+        CjkLexicon lexicon = lexiconSupplier.get();
+        long version = lexicon.getOverlayVersion();
+        LexiconDelta delta = LexiconDelta.delta(version, version + 1, puts, removes);
+        if (!lexicon.applyOverlayDelta(delta)) {
+            //其他地方同时在修改版本
+            throw new IllegalStateException("apply " + delta + " to local lexicon failed, version changed");
+        }
+        boolean snapshot = snapshotInterval > 0 && ++publishCount % snapshotInterval == 0;
+        send(snapshot || snapshotPending ? lexicon.overlaySnapshot() : delta);
+        return delta;
+    }
+
+    /**
+     * master机器调用, 发送当前用户词库的完整快照, 比如slave机器重启之后
+     *
+     * @throws IllegalStateException 通知slave失败
+     */
+    public synchronized LexiconDelta publishSnapshot() {
+        LexiconDelta snapshot = lexiconSupplier.get().overlaySnapshot();
+        send(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 失败时标记{@link #snapshotPending}并抛出异常, 快照发送成功之后清除标记
+     */
+    private void send(LexiconDelta delta) {
+        String data = delta.encodeToString();
+        List<String> keys = new ArrayList<>(data.length() / chunkSize + 1);
+        for (int i = 0; i < data.length(); i += chunkSize) {
+            keys.add(data.substring(i, Math.min(data.length(), i + chunkSize)));
+        }
+        boolean notified;
+        try {
+            notified = RtCacheManager.INSTANCE.getNotify().notify(this, keys);
+        } catch (RuntimeException e) {
+            snapshotPending = true;
+            log.error("notify lexicon " + delta + " have exception, next publish will send snapshot", e);
+            throw new IllegalStateException("notify lexicon " + delta + " failed", e);
+        }
+        if (!notified) {
+            snapshotPending = true;
+            log.error("notify lexicon " + delta + " failed, next publish will send snapshot");
+            throw new IllegalStateException("notify lexicon " + delta + " failed");
+        }
+        if (delta.isSnapshot()) snapshotPending = false;
+        log.info("notify lexicon " + delta + ", encode length: " + data.length() + ", chunks: " + keys.size());
+    }
+
+    @Override
+    public HostInfo getMasterHost() {
+        return masterHost;
+    }
+
+    @Override
+    public boolean initialized() {
+        return true;
+    }
+
+    @Override
+    public boolean onSlaveHandle(List<String> keys) {
+        if (CommonsUtils.isEmpty(keys)) return false;
+        StringBuilder sb = new StringBuilder(keys.size() * chunkSize);
+        for (String k : keys) {
+            sb.append(k);
+        }
+        LexiconDelta delta;
+        try {
+            delta = LexiconDelta.decode(sb.toString());
+        } catch (IllegalArgumentException e) {
+            log.error("decode lexicon delta failed, length: " + sb.length(), e);
+            rejectedCount++;
+            return false;
+        }
+        boolean applied = lexiconSupplier.get().applyOverlayDelta(delta);
+        if (applied) {
+            appliedCount++;
+            waitSnapshot = false;
+            log.info("apply lexicon " + delta + " succeed");
+        } else {
+            rejectedCount++;
+            waitSnapshot = true;
+        }
+        return applied;
+    }
+
+    /**
+     * @return 当前的词库
+     */
+    public CjkLexicon getLexicon() {
+        return lexiconSupplier.get();
+    }
+
+    public long getAppliedCount() {
+        return appliedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * master机器使用
+     *
+     * @return 上次通知是否失败, 下次发布发送快照
+     */
+    public boolean isSnapshotPending() {
+        return snapshotPending;
+    }
+
+    /**
+     * @return 是否存在被拒绝的增量, 本地用户词库落后, 等待下一次快照
+     */
+    public boolean isWaitSnapshot() {
+        return waitSnapshot;
+    }
+
+    /**
+     * 每个key的最大长度, 默认1024, Http GET通知时所有的key拼接在url中, 太大的变更建议配置POST
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize: " + chunkSize + " must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 每发布多少次改为发送完整快照, 默认16, 小于等于0则只发送增量
+     */
+    public synchronized void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+}
@@ -0,0 +1,156 @@
+package com.tqmall.search.commons.mcache;
+
+import com.tqmall.search.commons.analyzer.CjkLexicon;
+import com.tqmall.search.commons.analyzer.LexiconDelta;
+import com.tqmall.search.commons.analyzer.TokenType;
+import com.tqmall.search.commons.lang.HostInfoObj;
+import com.tqmall.search.commons.trie.RootNodeType;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by xing on 16/5/8.
+ * {@link LexiconSyncHandle}的分块传输以及通知失败之后的快照补发, 通知通过{@link RecordRtCacheManager}记录, 不发送http请求
+ *
+ * @author xing
+ */
+public class LexiconSyncHandleTest {
+
+    private static Path lexiconPath;
+
+    private RecordRtCacheManager.RecordNotify notify;
+
+    private CjkLexicon masterLexicon, slaveLexicon;
+
+    private LexiconSyncHandle master, slave;
+
+    @BeforeClass
+    public static void initLexiconFile() throws Exception {
+        lexiconPath = Files.createTempFile("cjk-lexicon", ".txt");
+        Files.write(lexiconPath, Arrays.asList("研究", "生命"), StandardCharsets.UTF_8);
+    }
+
+    @AfterClass
+    public static void deleteLexiconFile() throws Exception {
+        Files.deleteIfExists(lexiconPath);
+    }
+
+    @Before
+    public void init() {
+        notify = RecordRtCacheManager.recordNotify();
+        notify.setFail(false);
+        HostInfoObj masterHost = new HostInfoObj();
+        masterHost.setIp("127.0.0.1");
+        masterHost.setPort(8080);
+        masterLexicon = new CjkLexicon(RootNodeType.NORMAL, lexiconPath);
+        slaveLexicon = new CjkLexicon(RootNodeType.NORMAL, lexiconPath);
+        master = new LexiconSyncHandle(masterLexicon, masterHost);
+        slave = new LexiconSyncHandle(slaveLexicon, masterHost);
+    }
+
+    private static Map<String, TokenType> words(String prefix, int count) {
+        Map<String, TokenType> words = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            words.put(prefix + i, i % 2 == 0 ? TokenType.CN : TokenType.UNKNOWN);
+        }
+        return words;
+    }
+
+    /**
+     * 超过chunkSize的增量切分成多个key, slave按顺序拼接之后得到同样的增量
+     */
+    @Test
+    public void chunkTest() {
+        master.setChunkSize(16);
+        Map<String, TokenType> puts = words("生命周期", 100);
+        LexiconDelta delta = master.publish(puts, null);
+        List<String> keys = notify.lastKeys();
+        Assert.assertTrue(keys.size() > 1);
+        StringBuilder sb = new StringBuilder();
+        for (String k : keys) {
+            Assert.assertTrue(k.length() <= 16);
+            sb.append(k);
+        }
+        Assert.assertEquals(delta.encodeToString(), sb.toString());
+        LexiconDelta decoded = LexiconDelta.decode(sb.toString());
+        Assert.assertEquals(delta.getPuts(), decoded.getPuts());
+        Assert.assertEquals(delta.getVersion(), decoded.getVersion());
+
+        Assert.assertTrue(slave.onSlaveHandle(keys));
+        Assert.assertEquals(1L, slave.getAppliedCount());
+        Assert.assertEquals(masterLexicon.getOverlayWords(), slaveLexicon.getOverlayWords());
+        Assert.assertEquals(masterLexicon.getOverlayVersion(), slaveLexicon.getOverlayVersion());
+
+        //顺序错乱的分块无法解码或者版本不对, 被拒绝
+        master.publish(null, words("生命周期", 10).keySet());
+        List<String> reversed = new ArrayList<>(notify.lastKeys());
+        Assert.assertTrue(reversed.size() > 1);
+        Collections.reverse(reversed);
+        Assert.assertFalse(slave.onSlaveHandle(reversed));
+        Assert.assertEquals(1L, slave.getRejectedCount());
+        Assert.assertTrue(slave.onSlaveHandle(notify.lastKeys()));
+        Assert.assertEquals(masterLexicon.getOverlayWords(), slaveLexicon.getOverlayWords());
+    }
+
+    /**
+     * 通知失败时抛出异常, 本地已经修改, 下次发布发送快照, slave通过快照追上
+     */
+    @Test
+    public void notifyFailureTest() {
+        master.setSnapshotInterval(0);
+        Assert.assertNotNull(master.publish(words("研究生", 3), null));
+        Assert.assertTrue(slave.onSlaveHandle(notify.lastKeys()));
+        int notifyCount = notify.notifyCount();
+
+        notify.setFail(true);
+        try {
+            master.publish(words("生命力", 2), null);
+            Assert.fail("notify failure should be thrown");
+        } catch (IllegalStateException ignore) {
+        }
+        Assert.assertTrue(master.isSnapshotPending());
+        Assert.assertEquals(notifyCount, notify.notifyCount());
+        //本地已经修改
+        Assert.assertEquals(2L, masterLexicon.getOverlayVersion());
+        Assert.assertTrue(masterLexicon.getOverlayWords().containsKey("生命力0"));
+        Assert.assertEquals(1L, slaveLexicon.getOverlayVersion());
+
+        //下次发布发送快照
+        notify.setFail(false);
+        master.publish(null, Collections.singletonList("研究生0"));
+        Assert.assertFalse(master.isSnapshotPending());
+        LexiconDelta sent = LexiconDelta.decode(join(notify.lastKeys()));
+        Assert.assertTrue(sent.isSnapshot());
+        Assert.assertEquals(3L, sent.getVersion());
+        Assert.assertTrue(slave.onSlaveHandle(notify.lastKeys()));
+        Assert.assertEquals(masterLexicon.getOverlayWords(), slaveLexicon.getOverlayWords());
+        Assert.assertEquals(3L, slaveLexicon.getOverlayVersion());
+
+        //快照发送成功之后恢复发送增量
+        master.publish(words("研究所", 1), null);
+        Assert.assertFalse(LexiconDelta.decode(join(notify.lastKeys())).isSnapshot());
+        Assert.assertTrue(slave.onSlaveHandle(notify.lastKeys()));
+        Assert.assertEquals(masterLexicon.getOverlayWords(), slaveLexicon.getOverlayWords());
+    }
+
+    private static String join(List<String> keys) {
+        StringBuilder sb = new StringBuilder();
+        for (String k : keys) {
+            sb.append(k);
+        }
+        return sb.toString();
+    }
+}
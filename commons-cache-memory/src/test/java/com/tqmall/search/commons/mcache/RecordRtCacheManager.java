@@ -0,0 +1,54 @@
+package com.tqmall.search.commons.mcache;
+
+import com.tqmall.search.commons.mcache.notify.HttpRtCacheNotify;
+import com.tqmall.search.commons.mcache.receive.HttpRtCacheReceive;
+import com.tqmall.search.commons.mcache.receive.RtCacheSlaveHandle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by xing on 16/5/8.
+ * 测试使用的{@link RtCacheManager}, 通过META-INF/services加载, 记录每次通知的key, 不发送http请求, 可以模拟通知失败
+ *
+ * @author xing
+ */
+public class RecordRtCacheManager extends RtCacheManager {
+
+    public RecordRtCacheManager() {
+        super(new RecordNotify(), new HttpRtCacheReceive());
+    }
+
+    public static RecordNotify recordNotify() {
+        return (RecordNotify) INSTANCE.getNotify();
+    }
+
+    public static class RecordNotify extends HttpRtCacheNotify {
+
+        private final List<List<String>> notifiedKeys = new ArrayList<>();
+
+        private volatile boolean fail;
+
+        @Override
+        public synchronized boolean notify(RtCacheSlaveHandle slaveCache, List<String> keys) {
+            if (fail) throw new IllegalStateException("injected notify exception");
+            notifiedKeys.add(new ArrayList<>(keys));
+            return true;
+        }
+
+        /**
+         * @return 最近一次通知的key, 没有返回null
+         */
+        public synchronized List<String> lastKeys() {
+            return notifiedKeys.isEmpty() ? null : notifiedKeys.get(notifiedKeys.size() - 1);
+        }
+
+        public synchronized int notifyCount() {
+            return notifiedKeys.size();
+        }
+
+        public void setFail(boolean fail) {
+            this.fail = fail;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.tqmall.search.commons.ac;
+
+import com.tqmall.search.commons.match.CharMapping;
+import com.tqmall.search.commons.match.CharMappings;
+import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.match.HitHandle;
+import com.tqmall.search.commons.match.MatchBinaryReverseTrie;
+import com.tqmall.search.commons.nlp.NlpUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created by xing on 16/4/20.
+ * 逆向Aho-Corasick 模式匹配树, 只有一个逆向前缀树{@link MatchBinaryReverseTrie}, 其节点为{@link AcNormalNode}, 在其上构建failed字段,
+ * 同一份数据同时支持全匹配{@link #match(char[], int, int)}, 最大匹配{@link #maxMatch(char[], int, int)}以及最小匹配{@link #minMatch(char[], int, int)}
+ * <p/>
+ * 全匹配时将文本逆向之后通过{@link AcBinaryTrie}匹配, 逆向文本中的所有匹配结果就是原文本中的所有匹配结果, 匹配结果转换回正向位置, 并且有序
+ * 最大, 最小匹配同{@link MatchBinaryReverseTrie}, 不会用到failed字段
+ * 注: {@link #prefixSearch(String)}同{@link MatchBinaryReverseTrie#prefixSearch(String)}, 是逆向的前缀查询
+ *
+ * @author xing
+ * @see MatchBinaryReverseTrie
+ * @see AcBinaryTrie
+ */
+public class AcBinaryReverseTrie<V> extends AbstractAcTrie<V> {
+
+    private final MatchBinaryReverseTrie<V> reverseTrie;
+
+    /**
+     * 共享{@link #reverseTrie}的节点, 负责failed字段的构建以及全匹配
+     */
+    private final AcBinaryTrie<V> acTrie;
+
+    /**
+     * @param reverseTrie 其nodeFactory必须是AcTrieNodeFactory的实例, 词最好提前加载好, 构造时会构建failed字段
+     */
+    public AcBinaryReverseTrie(MatchBinaryReverseTrie<V> reverseTrie) {
+        super(reverseTrie);
+        this.reverseTrie = reverseTrie;
+        this.acTrie = new AcBinaryTrie<>(reverseTrie);
+    }
+
+    /**
+     * 添加的词要生效, 必须重新{@link #buildFailed()}
+     */
+    @Override
+    public boolean put(String key, V value) {
+        return acTrie.put(key, value);
+    }
+
+    @Override
+    public boolean buildFailed() {
+        return acTrie.buildFailed();
+    }
+
+    /**
+     * @see AcBinaryTrie#getOutputCount()
+     */
+    public int getOutputCount() {
+        return acTrie.getOutputCount();
+    }
+
+    /**
+     * 全匹配, 返回结果根据{@link Hit#compareTo(Hit)}有序
+     */
+    @Override
+    public List<Hit<V>> match(char[] text, int off, int len) {
+        return match(text, off, len, (CharMapping) null);
+    }
+
+    /**
+     * 归一化全匹配, 文本逆向拷贝时同时做字符映射, 不修改text
+     *
+     * @param charMapping 字符映射, 可以为null
+     */
+    public List<Hit<V>> match(char[] text, int off, int len, CharMapping charMapping) {
+        final int endPos = off + len;
+        NlpUtils.arrayIndexCheck(text, off, endPos);
+        if (len == 0) return null;
+        char[] array = CharMappings.reverseCopy(text, off, len, charMapping);
+        List<Hit<V>> hits = acTrie.match(array, 0, len);
+        for (Hit<V> h : hits) {
+            h.changePosition(endPos - h.getEnd(), endPos - h.getStart());
+        }
+        //逆向文本中, 按照结束位置递增, 同一结束位置由长到短, 反转之后就是正向的有序结果了
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    /**
+     * 全匹配, 每个匹配结果回调handle, 位置为正向文本中的位置, 不创建{@link Hit}对象
+     * 回调顺序为: 开始位置递减, 同一开始位置由长到短, 即回调某个开始位置的结果时, 所有开始位置在其之后的结果都已经回调过了,
+     * 从后往前的动态规划可以直接在回调中完成
+     *
+     * @param handle 结果回调, 返回false则终止匹配
+     */
+    public void match(char[] text, int off, int len, HitHandle<V> handle) {
+        match(text, off, len, null, handle);
+    }
+
+    /**
+     * 同{@link #match(char[], int, int, HitHandle)}, 文本逆向拷贝时同时做字符映射
+     *
+     * @param charMapping 字符映射, 可以为null
+     */
+    public void match(char[] text, int off, int len, CharMapping charMapping, final HitHandle<V> handle) {
+        final int endPos = off + len;
+        NlpUtils.arrayIndexCheck(text, off, endPos);
+        if (len == 0) return;
+        char[] array = CharMappings.reverseCopy(text, off, len, charMapping);
+        acTrie.match(array, 0, len, new HitHandle<V>() {
+            @Override
+            public boolean onHit(int start, int end, V value) {
+                return handle.onHit(endPos - end, endPos - start, value);
+            }
+        });
+    }
+
+    public List<Hit<V>> maxMatch(String text) {
+        return reverseTrie.maxMatch(text);
+    }
+
+    public List<Hit<V>> maxMatch(char[] text, int off, int len) {
+        return reverseTrie.maxMatch(text, off, len);
+    }
+
+    public List<Hit<V>> minMatch(String text) {
+        return reverseTrie.minMatch(text);
+    }
+
+    public List<Hit<V>> minMatch(char[] text, int off, int len) {
+        return reverseTrie.minMatch(text, off, len);
+    }
+
+    public List<Hit<V>> maxMatch(char[] text, int off, int len, CharMapping charMapping) {
+        return reverseTrie.maxMatch(text, off, len, charMapping);
+    }
+
+    public List<Hit<V>> minMatch(char[] text, int off, int len, CharMapping charMapping) {
+        return reverseTrie.minMatch(text, off, len, charMapping);
+    }
+
+}
@@ -1,12 +1,15 @@
 package com.tqmall.search.commons.ac;
 
+import com.tqmall.search.commons.match.CharMapping;
 import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.match.HitHandle;
 import com.tqmall.search.commons.nlp.NlpUtils;
 import com.tqmall.search.commons.trie.BinaryTrie;
 import com.tqmall.search.commons.trie.Node;
 import com.tqmall.search.commons.trie.NodeChildHandle;
 
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -27,6 +30,11 @@ public class AcBinaryTrie<V> extends AbstractAcTrie<V> {
 
     private final Node<V> trieRoot;
 
+    /**
+     * 接收节点的个数, 即{@link AcNormalNode#getOutputId()}的上界, 构建failed时统计
+     */
+    private volatile int outputCount;
+
     /**
      * @param trie 其nodeFactory必须是AcTrieNodeFactory的实例
      */
@@ -65,11 +73,12 @@ public class AcBinaryTrie<V> extends AbstractAcTrie<V> {
         buildingFailed = true;
         try {
             final List<AcNormalNode<V>> rootChildNodes = new ArrayList<>();
+            final int[] outputCounter = {0};
             trieRoot.childHandle(new NodeChildHandle<V>() {
                 @Override
                 public boolean onHandle(final Node<V> child) {
                     AcNormalNode<V> acNode = (AcNormalNode<V>) child;
-                    acNode.initRootChildNode(trieRoot);
+                    acNode.initRootChildNode(trieRoot, outputCounter);
                     rootChildNodes.add(acNode);
                     return true;
                 }
@@ -77,6 +86,7 @@ public class AcBinaryTrie<V> extends AbstractAcTrie<V> {
             for (AcNormalNode<V> acNode : rootChildNodes) {
                 acNode.buildFailed(trieRoot);
             }
+            outputCount = outputCounter[0];
             return true;
         } finally {
             failedRwLock.writeLock().unlock();
@@ -86,16 +96,54 @@ public class AcBinaryTrie<V> extends AbstractAcTrie<V> {
 
     @Override
     public final List<Hit<V>> match(char[] text, final int off, final int len) {
+        return match(text, off, len, (CharMapping) null);
+    }
+
+    /**
+     * 归一化全匹配, 遍历时字符先通过charMapping映射, 不修改text, 匹配结果的位置为text中的位置
+     *
+     * @param charMapping 字符映射, 可以为null
+     */
+    public final List<Hit<V>> match(char[] text, final int off, final int len, CharMapping charMapping) {
+        NlpUtils.arrayIndexCheck(text, off, off + len);
+        if (len == 0) return null;
+        final List<Hit<V>> hits = new LinkedList<>();
+        match(text, off, len, charMapping, new HitHandle<V>() {
+            @Override
+            public boolean onHit(int start, int end, V value) {
+                hits.add(Hit.valueOf(start, end, value));
+                return true;
+            }
+        });
+        return hits;
+    }
+
+    /**
+     * 全匹配, 每个匹配结果回调handle, 回调顺序同{@link #match(char[], int, int)}的结果顺序:
+     * 结束位置递增, 同一结束位置由长到短
+     *
+     * @param handle 结果回调, 返回false则终止匹配
+     */
+    public final void match(char[] text, final int off, final int len, HitHandle<V> handle) {
+        match(text, off, len, null, handle);
+    }
+
+    /**
+     * 同{@link #match(char[], int, int, HitHandle)}, 遍历时字符先通过charMapping映射
+     *
+     * @param charMapping 字符映射, 可以为null
+     */
+    public final void match(char[] text, final int off, final int len, CharMapping charMapping, HitHandle<V> handle) {
         final int endPos = off + len;
         NlpUtils.arrayIndexCheck(text, off, endPos);
-        if (len == 0) return null;
+        if (len == 0) return;
         failedRwLock.readLock().lock();
         try {
-            List<Hit<V>> hits = new LinkedList<>();
             Node<V> currentNode = trieRoot;
             int cursor = off;
             while (cursor < endPos) {
-                AcNormalNode<V> nextNode = (AcNormalNode<V>) currentNode.getChild(text[cursor]);
+                final char c = charMapping == null ? text[cursor] : charMapping.map(text[cursor]);
+                AcNormalNode<V> nextNode = (AcNormalNode<V>) currentNode.getChild(c);
                 if (nextNode == null) {
                     if (currentNode == trieRoot) {
                         //当前节点已经是rootNode, 则不匹配
@@ -108,29 +156,66 @@ public class AcBinaryTrie<V> extends AbstractAcTrie<V> {
                 } else {
                     //匹配到了
                     cursor++;
-                    if (nextNode.accept()) {
-                        //匹配到, 将所有结果添加进来
-                        hits.add(Hit.valueOf(cursor, nextNode));
-                        if (nextNode.getFailed() instanceof AcNormalNode) {
-                            AcNormalNode<V> failedNode = (AcNormalNode<V>) nextNode.getFailed();
-                            if (failedNode.accept()) {
-                                hits.add(Hit.valueOf(cursor, failedNode));
+                    //匹配到, 沿着failed链将所有结果添加进来, 从长到短, 直到root节点
+                    Node<V> outputNode = nextNode;
+                    while (outputNode instanceof AcNormalNode) {
+                        if (outputNode.accept()) {
+                            AcNormalNode<V> acNode = (AcNormalNode<V>) outputNode;
+                            if (!handle.onHit(cursor - acNode.getSingleOutput().length(), cursor, acNode.getValue())) {
+                                return;
                             }
                         }
+                        outputNode = ((AcNormalNode<V>) outputNode).getFailed();
                     }
                     currentNode = nextNode;
                 }
             }
-            return hits;
         } finally {
             failedRwLock.readLock().unlock();
         }
     }
 
+    /**
+     * @return 接收节点的个数, 接收节点的编号{@link AcNormalNode#getOutputId()}都小于该值
+     */
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * 根节点, 供同一个包下的{@link AcReplacer}逐字符遍历
+     */
+    final Node<V> root() {
+        return trieRoot;
+    }
+
+    /**
+     * 匹配的读锁, 构建failed字段时不能遍历
+     */
+    final Lock matchLock() {
+        return failedRwLock.readLock();
+    }
+
     public static <V> Builder<V> build() {
         return new Builder<>();
     }
 
+    /**
+     * 预先排好序的词通过该builder构建, 不需要{@link Builder}的TreeMap暂存所有的词
+     *
+     * @param nodeFactory 节点构造工厂
+     * @see SortedBuilder
+     * @see BinaryTrie.SortedBuilder
+     */
+    public static <V> SortedBuilder<V> sortedBuild(AcTrieNodeFactory<V> nodeFactory) {
+        return new SortedBuilder<>(nodeFactory);
+    }
+
+    /**
+     * 词的顺序任意, 所有的词都先放到TreeMap中, 词库较大时构建期间内存占用较多, 如果词已经有序, 建议使用{@link SortedBuilder}
+     *
+     * @see SortedBuilder
+     */
     public static class Builder<V> {
 
         private TreeMap<String, V> dataMap = new TreeMap<>();
@@ -161,4 +246,30 @@ public class AcBinaryTrie<V> extends AbstractAcTrie<V> {
         }
 
     }
+
+    /**
+     * 词必须按照{@link String#compareTo(String)}递增添加, 通过{@link BinaryTrie.SortedBuilder}一次线性构建trie
+     *
+     * @see BinaryTrie.SortedBuilder
+     */
+    public static class SortedBuilder<V> {
+
+        private final BinaryTrie.SortedBuilder<V> trieBuilder;
+
+        SortedBuilder(AcTrieNodeFactory<V> nodeFactory) {
+            trieBuilder = BinaryTrie.sortedBuild(nodeFactory);
+        }
+
+        /**
+         * 添加的词比前一个词小, 抛出{@link IllegalArgumentException}
+         */
+        public SortedBuilder<V> put(String key, V value) {
+            trieBuilder.put(key, value);
+            return this;
+        }
+
+        public AcBinaryTrie<V> create() {
+            return new AcBinaryTrie<>(trieBuilder.create());
+        }
+    }
 }
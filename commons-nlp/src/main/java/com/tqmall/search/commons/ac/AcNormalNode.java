@@ -27,6 +27,17 @@ public class AcNormalNode<V> extends NormalNode<V> {
      */
     private String singleOutput;
 
+    /**
+     * 节点深度, 即root到该节点的字符数, 深度为1的节点为1, 构建failed时初始化
+     */
+    private int depth;
+
+    /**
+     * 接收节点的编号, 构建failed时按照深度优先的顺序从0开始连续编号, 非接收节点为-1
+     * 可以作为数组下标, 比如统计每个词的匹配次数
+     */
+    private int outputId = -1;
+
     /**
      * 普通节点构造
      *
@@ -68,20 +79,25 @@ public class AcNormalNode<V> extends NormalNode<V> {
      *
      * @param root 根节点对象
      */
-    void initRootChildNode(final Node<V> root) {
+    void initRootChildNode(final Node<V> root, int[] outputCounter) {
         //深度为1的节点需要单独设定
         this.failed = root;
-        initChildParent(new StringBuilder().append(c));
+        initChildParent(new StringBuilder().append(c), outputCounter);
     }
 
     /**
      * 初始化节点parent
      *
-     * @param outputSb 当前节点的字符c已经添加
+     * @param outputSb      当前节点的字符c已经添加
+     * @param outputCounter 接收节点计数, 用于编号
      */
-    private void initChildParent(StringBuilder outputSb) {
+    private void initChildParent(StringBuilder outputSb, int[] outputCounter) {
+        depth = outputSb.length();
         if (accept()) {
             this.singleOutput = outputSb.toString();
+            this.outputId = outputCounter[0]++;
+        } else {
+            this.outputId = -1;
         }
         if (children != null) {
             for (int i = 0; i < childCount; i++) {
@@ -89,12 +105,26 @@ public class AcNormalNode<V> extends NormalNode<V> {
                 acNode.parent = this;
                 acNode.failed = null;
                 outputSb.append(acNode.c);
-                acNode.initChildParent(outputSb);
+                acNode.initChildParent(outputSb, outputCounter);
                 outputSb.deleteCharAt(outputSb.length() - 1);
             }
         }
     }
 
+    /**
+     * @return 节点深度, 构建failed之前为0
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return 接收节点的编号, 非接收节点或者还没有构建failed为-1
+     */
+    public int getOutputId() {
+        return outputId;
+    }
+
     public String getSingleOutput() {
         return singleOutput;
     }
@@ -109,6 +139,8 @@ public class AcNormalNode<V> extends NormalNode<V> {
         failed = null;
         parent = null;
         singleOutput = null;
+        depth = 0;
+        outputId = -1;
     }
 
     /**
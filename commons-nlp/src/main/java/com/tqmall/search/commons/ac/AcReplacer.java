@@ -0,0 +1,321 @@
+package com.tqmall.search.commons.ac;
+
+import com.tqmall.search.commons.lang.Function;
+import com.tqmall.search.commons.trie.Node;
+
+import java.io.*;
+import java.nio.CharBuffer;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Created by xing on 16/4/28.
+ * 基于{@link AcBinaryTrie}的流式关键词替换, 比如评论中的敏感词屏蔽, 边读边匹配边输出, 不需要先拿到所有的{@link com.tqmall.search.commons.match.Hit}再重新拼接字符串
+ * 重叠的匹配结果按照最左最长(leftmost-longest)处理: 开始位置最小的词优先, 同一开始位置取最长的词, 替换的词之间不重叠
+ * 只缓存还可能属于某个词的字符, 缓存大小与词库中最长的词有关, 与文本长度无关, 确定不会再被替换的字符立即输出
+ * 替换方式见{@link Policy}: 掩码字符, 替换为value对应的文本, 或者直接删除
+ * 用法:
+ * <pre>
+ *     AcReplacer&lt;String&gt; replacer = new AcReplacer&lt;&gt;(acTrie, AcReplacer.&lt;String&gt;mask('*'));
+ *     String result = replacer.replace(text);
+ *     //或者流式处理
+ *     replacer.replace(reader, writer);
+ *     //或者分多次输入
+ *     AcReplacer.Session session = replacer.open(writer);
+ *     session.write(chunk);
+ *     session.finish();
+ * </pre>
+ * AcReplacer本身线程安全, {@link Session}非线程安全
+ *
+ * @author xing
+ * @see AcBinaryTrie
+ */
+public class AcReplacer<V> {
+
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private final AcBinaryTrie<V> acTrie;
+
+    private final Policy<V> policy;
+
+    /**
+     * @param acTrie 正向的AC自动机, {@link AcBinaryReverseTrie}的节点是逆向的, 不能用
+     * @param policy 匹配到的词的替换方式
+     */
+    public AcReplacer(AcBinaryTrie<V> acTrie, Policy<V> policy) {
+        Objects.requireNonNull(acTrie);
+        Objects.requireNonNull(policy);
+        this.acTrie = acTrie;
+        this.policy = policy;
+    }
+
+    /**
+     * 开始一次流式替换, 结果输出到out
+     */
+    public Session open(Writer out) {
+        Objects.requireNonNull(out);
+        return new Session(out);
+    }
+
+    /**
+     * 从in读取全部文本, 替换之后写入out, 不关闭in和out
+     */
+    public void replace(Reader in, Writer out) throws IOException {
+        Session session = open(out);
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            session.write(buffer, 0, n);
+        }
+        session.finish();
+    }
+
+    /**
+     * 读取in中剩余的字符, 替换之后写入out
+     */
+    public void replace(CharBuffer in, Writer out) throws IOException {
+        Session session = open(out);
+        session.write(in);
+        session.finish();
+    }
+
+    public String replace(String text) {
+        if (text == null || text.isEmpty()) return text;
+        StringWriter out = new StringWriter(text.length());
+        try {
+            replace(CharBuffer.wrap(text), out);
+        } catch (IOException e) {
+            //StringWriter不会有IOException
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * 一次流式替换的状态, 可以多次{@link #write(char[], int, int)}, 最后必须调用{@link #finish()}输出缓存的字符
+     * 缓存中[flushed, size)为还没有输出的字符, cursor之前的字符已经在自动机中走过了
+     */
+    public final class Session {
+
+        private final Writer out;
+
+        private final Node<V> root = acTrie.root();
+
+        private char[] buf = new char[64];
+
+        private int size;
+
+        /**
+         * 该位置之前的字符都已经输出
+         */
+        private int flushed;
+
+        /**
+         * 下一个需要在自动机中处理的字符
+         */
+        private int cursor;
+
+        private Node<V> state = root;
+
+        /**
+         * 当前待定的最左最长匹配, candStart < 0表示没有
+         */
+        private int candStart = -1, candEnd;
+
+        private V candValue;
+
+        private Session(Writer out) {
+            this.out = out;
+        }
+
+        public void write(char[] text, int off, int len) throws IOException {
+            Lock lock = acTrie.matchLock();
+            lock.lock();
+            try {
+                for (int i = off, end = off + len; i < end; i++) {
+                    append(text[i]);
+                    process();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void write(CharBuffer text) throws IOException {
+            Lock lock = acTrie.matchLock();
+            lock.lock();
+            try {
+                while (text.hasRemaining()) {
+                    append(text.get());
+                    process();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 输入结束, 处理待定的匹配, 输出所有缓存的字符, 之后Session可以继续使用, 相当于新的输入
+         */
+        public void finish() throws IOException {
+            Lock lock = acTrie.matchLock();
+            lock.lock();
+            try {
+                while (candStart >= 0) {
+                    //已经没有后续输入了, 待定的匹配就是最终结果
+                    commit();
+                    process();
+                }
+                if (size > flushed) out.write(buf, flushed, size - flushed);
+                size = flushed = cursor = 0;
+                state = root;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void append(char c) {
+            if (size == buf.length) {
+                if (flushed > 0) {
+                    //已经输出的字符不再需要, 前移
+                    System.arraycopy(buf, flushed, buf, 0, size - flushed);
+                    size -= flushed;
+                    cursor -= flushed;
+                    if (candStart >= 0) {
+                        candStart -= flushed;
+                        candEnd -= flushed;
+                    }
+                    flushed = 0;
+                } else {
+                    char[] newBuf = new char[buf.length << 1];
+                    System.arraycopy(buf, 0, newBuf, 0, size);
+                    buf = newBuf;
+                }
+            }
+            buf[size++] = c;
+        }
+
+        private void process() throws IOException {
+            while (cursor < size) {
+                step(buf[cursor++]);
+                int aliveStart = state == root ? cursor : cursor - ((AcNormalNode<V>) state).getDepth();
+                if (candStart >= 0 && aliveStart > candStart) {
+                    //后续不可能再有开始位置不大于candStart的词了, 待定的匹配就是最终结果
+                    commit();
+                } else {
+                    //从aliveStart开始的词可能比待定匹配更靠左, 所以只能输出到两者中较小的位置
+                    int safe = candStart >= 0 ? Math.min(candStart, aliveStart) : aliveStart;
+                    if (safe > flushed) {
+                        out.write(buf, flushed, safe - flushed);
+                        flushed = safe;
+                    }
+                }
+            }
+        }
+
+        private void step(char c) {
+            while (true) {
+                Node<V> next = state.getChild(c);
+                if (next != null) {
+                    state = next;
+                    break;
+                }
+                if (state == root) break;
+                state = ((AcNormalNode<V>) state).getFailed();
+                if (state == null) state = root;
+            }
+            //沿着failed链第一个接收节点就是以当前位置结束的最长的词
+            Node<V> outputNode = state;
+            while (outputNode instanceof AcNormalNode) {
+                if (outputNode.accept()) {
+                    int start = cursor - ((AcNormalNode<V>) outputNode).getDepth();
+                    if (candStart < 0 || start < candStart || (start == candStart && cursor > candEnd)) {
+                        candStart = start;
+                        candEnd = cursor;
+                        candValue = outputNode.getValue();
+                    }
+                    break;
+                }
+                outputNode = ((AcNormalNode<V>) outputNode).getFailed();
+            }
+        }
+
+        /**
+         * 输出待定的匹配, 从匹配结束位置开始重新匹配, 之前在词中间开始的匹配都作废
+         */
+        private void commit() throws IOException {
+            if (candStart > flushed) out.write(buf, flushed, candStart - flushed);
+            policy.write(out, buf, candStart, candEnd - candStart, candValue);
+            flushed = cursor = candEnd;
+            state = root;
+            candStart = -1;
+            candValue = null;
+        }
+    }
+
+    /**
+     * 所有字符替换为maskChar, 长度不变
+     */
+    public static <V> Policy<V> mask(final char maskChar) {
+        return new Policy<V>() {
+            @Override
+            public void write(Writer out, char[] word, int off, int len, V value) throws IOException {
+                for (int i = 0; i < len; i++) {
+                    out.write(maskChar);
+                }
+            }
+        };
+    }
+
+    /**
+     * 直接删除匹配到的词
+     */
+    public static <V> Policy<V> drop() {
+        return new Policy<V>() {
+            @Override
+            public void write(Writer out, char[] word, int off, int len, V value) {
+            }
+        };
+    }
+
+    /**
+     * 替换为词的value, 通过{@link Object#toString()}转换, value为null则删除
+     */
+    public static <V> Policy<V> value() {
+        return new Policy<V>() {
+            @Override
+            public void write(Writer out, char[] word, int off, int len, V value) throws IOException {
+                if (value != null) out.write(value.toString());
+            }
+        };
+    }
+
+    /**
+     * 替换为function根据value返回的文本, 返回null则删除
+     */
+    public static <V> Policy<V> replace(final Function<V, String> function) {
+        Objects.requireNonNull(function);
+        return new Policy<V>() {
+            @Override
+            public void write(Writer out, char[] word, int off, int len, V value) throws IOException {
+                String str = function.apply(value);
+                if (str != null) out.write(str);
+            }
+        };
+    }
+
+    /**
+     * 匹配到的词的替换方式, 常用的见{@link #mask(char)}, {@link #drop()}, {@link #value()}, {@link #replace(Function)}
+     */
+    public interface Policy<V> {
+
+        /**
+         * @param out   输出
+         * @param word  匹配到的词所在的数组, 不要修改
+         * @param off   词的开始位置
+         * @param len   词的长度
+         * @param value 词对应的value
+         */
+        void write(Writer out, char[] word, int off, int len, V value) throws IOException;
+    }
+}
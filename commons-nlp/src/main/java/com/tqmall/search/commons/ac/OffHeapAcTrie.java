@@ -0,0 +1,522 @@
+package com.tqmall.search.commons.ac;
+
+import com.tqmall.search.commons.match.AbstractTextMatch;
+import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.nlp.NlpUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Created by xing on 16/4/23.
+ * 堆外的Aho-Corasick 模式匹配自动机, 适用于千万级别的大词库
+ * 所有的状态, 转移, failed, 输出都存放在direct或者memory-mapped的{@link ByteBuffer}中, 不在GC的扫描范围内, 避免大量{@link AcNormalNode}导致的old gc停顿
+ * value通过int id引用, 相同的value只存一份, value列表{@link #values}依然在堆内
+ * <p/>
+ * 每个状态对应的int数组:
+ * transBase, transCount: 该状态的转移在transChars, transTargets中的起始位置以及个数, transChars升序排列, 二分查找
+ * failed: failed状态
+ * output: 接收态对应的value id, 非接收态为-1
+ * outputLink: 沿着failed链下一个接收态, 没有为-1, 匹配时直接沿着该链输出所有结果, 不用遍历整个failed链
+ * depth: 状态的深度, 即匹配到的词的长度
+ * 根节点状态为0, 其转移通过长度为65536的rootGoto数组直接定位
+ * <p/>
+ * 构建之后不可修改, 所以没有实现{@link AcTrie}的put, getNode等接口, 词库变化需要重新构建
+ * 通过{@link #build()}有序构建, 可以通过{@link #writeTo(Path)}保存到文件, 之后通过{@link #map(Path, List)}直接映射文件加载
+ * 注: 单个{@link ByteBuffer}最大2G, 所以状态数, 转移数不能超过2^29
+ *
+ * @author xing
+ * @see Builder
+ */
+public final class OffHeapAcTrie<V> extends AbstractTextMatch<V> {
+
+    /**
+     * 文件格式标识以及版本
+     */
+    private static final int FILE_MAGIC = 0x41434f48;
+
+    private static final int FILE_VERSION = 1;
+
+    private static final int ROOT_GOTO_SIZE = Character.MAX_VALUE + 1;
+
+    private static final int NONE = -1;
+
+    private final int stateCount;
+
+    private final int transSize;
+
+    private final int size;
+
+    private final ByteBuffer transBase;
+
+    private final ByteBuffer transCount;
+
+    private final ByteBuffer failed;
+
+    private final ByteBuffer output;
+
+    private final ByteBuffer outputLink;
+
+    private final ByteBuffer depth;
+
+    private final ByteBuffer transChars;
+
+    private final ByteBuffer transTargets;
+
+    private final ByteBuffer rootGoto;
+
+    private final List<V> values;
+
+    private OffHeapAcTrie(int stateCount, int transSize, int size, ByteBuffer[] buffers, List<V> values) {
+        this.stateCount = stateCount;
+        this.transSize = transSize;
+        this.size = size;
+        int i = 0;
+        this.transBase = buffers[i++];
+        this.transCount = buffers[i++];
+        this.failed = buffers[i++];
+        this.output = buffers[i++];
+        this.outputLink = buffers[i++];
+        this.depth = buffers[i++];
+        this.transChars = buffers[i++];
+        this.transTargets = buffers[i++];
+        this.rootGoto = buffers[i];
+        this.values = values;
+    }
+
+    private static int getInt(ByteBuffer buffer, int index) {
+        return buffer.getInt(index << 2);
+    }
+
+    /**
+     * 状态转移
+     *
+     * @return 没有对应的转移返回{@link #NONE}
+     */
+    private int nextState(int state, char c) {
+        if (state == 0) {
+            return getInt(rootGoto, c);
+        }
+        int low = getInt(transBase, state), high = low + getInt(transCount, state) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midVal = transChars.getChar(mid << 1);
+            if (midVal < c) low = mid + 1;
+            else if (midVal > c) high = mid - 1;
+            else return getInt(transTargets, mid);
+        }
+        return NONE;
+    }
+
+    /**
+     * 全匹配, 同一结束位置的词由长到短输出
+     */
+    @Override
+    public List<Hit<V>> match(char[] text, int off, int len) {
+        final int endPos = off + len;
+        NlpUtils.arrayIndexCheck(text, off, endPos);
+        if (len == 0) return null;
+        List<Hit<V>> hits = new LinkedList<>();
+        int state = 0;
+        for (int i = off; i < endPos; i++) {
+            final char c = text[i];
+            int next;
+            while ((next = nextState(state, c)) == NONE && state != 0) {
+                state = getInt(failed, state);
+            }
+            state = next == NONE ? 0 : next;
+            int o = getInt(output, state) == NONE ? getInt(outputLink, state) : state;
+            while (o != NONE) {
+                hits.add(new Hit<>(i + 1 - getInt(depth, o), i + 1, values.get(getInt(output, o))));
+                o = getInt(outputLink, o);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 精确查找词对应的状态
+     *
+     * @return 不是词返回{@link #NONE}
+     */
+    private int wordState(String key) {
+        if (key == null || key.isEmpty()) return NONE;
+        int state = 0;
+        for (int i = 0; i < key.length() && state != NONE; i++) {
+            state = nextState(state, key.charAt(i));
+        }
+        return state == NONE ? NONE : getInt(output, state);
+    }
+
+    public boolean contains(String key) {
+        return wordState(key) != NONE;
+    }
+
+    /**
+     * @return 词对应的value, 不存在返回null
+     */
+    public V get(String key) {
+        int id = wordState(key);
+        return id == NONE ? null : values.get(id);
+    }
+
+    /**
+     * @return 词的个数
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * @return 所有不同的value, 下标即为value id
+     */
+    public List<V> getValues() {
+        return values;
+    }
+
+    /**
+     * 保存到文件, value不保存, 加载时通过{@link #map(Path, List)}传入{@link #getValues()}
+     */
+    public void writeTo(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = newBuffer(20);
+            header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(stateCount).putInt(transSize).putInt(size).flip();
+            writeFully(channel, header);
+            for (ByteBuffer b : new ByteBuffer[]{transBase, transCount, failed, output, outputLink, depth,
+                    transChars, transTargets, rootGoto}) {
+                writeFully(channel, b.duplicate());
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 通过memory-mapped方式加载{@link #writeTo(Path)}保存的文件, 数据都在操作系统的page cache中
+     *
+     * @param values 保存时的{@link #getValues()}
+     * @throws IOException              读取文件失败
+     * @throws IllegalArgumentException 文件格式不对
+     */
+    public static <V> OffHeapAcTrie<V> map(Path path, List<V> values) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt() != FILE_MAGIC || mapped.getInt() != FILE_VERSION) {
+                throw new IllegalArgumentException("file: " + path + " is not a valid OffHeapAcTrie file");
+            }
+            int stateCount = mapped.getInt(), transSize = mapped.getInt(), size = mapped.getInt();
+            int[] lengths = {stateCount << 2, stateCount << 2, stateCount << 2, stateCount << 2, stateCount << 2,
+                    stateCount << 2, transSize << 1, transSize << 2, ROOT_GOTO_SIZE << 2};
+            ByteBuffer[] buffers = new ByteBuffer[lengths.length];
+            int position = mapped.position();
+            for (int i = 0; i < lengths.length; i++) {
+                ByteBuffer b = mapped.duplicate();
+                b.position(position).limit(position + lengths[i]);
+                buffers[i] = b.slice().order(ByteOrder.LITTLE_ENDIAN);
+                position += lengths[i];
+            }
+            return new OffHeapAcTrie<>(stateCount, transSize, size, buffers, Collections.unmodifiableList(new ArrayList<>(values)));
+        }
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static <V> Builder<V> build() {
+        return new Builder<>();
+    }
+
+    /**
+     * 堆外可扩展的int数组
+     */
+    static final class IntArray {
+
+        private ByteBuffer buffer;
+
+        private int size;
+
+        IntArray(int capacity) {
+            buffer = newBuffer(capacity << 2);
+        }
+
+        int get(int index) {
+            return buffer.getInt(index << 2);
+        }
+
+        void set(int index, int value) {
+            buffer.putInt(index << 2, value);
+        }
+
+        void add(int value) {
+            if ((size << 2) == buffer.capacity()) {
+                buffer = grow(buffer, buffer.capacity() << 1);
+            }
+            set(size++, value);
+        }
+
+        /**
+         * @return 大小正好的buffer
+         */
+        ByteBuffer trim() {
+            return grow(buffer, size << 2);
+        }
+    }
+
+    /**
+     * 堆外可扩展的char数组
+     */
+    static final class CharArray {
+
+        private ByteBuffer buffer;
+
+        private int size;
+
+        CharArray(int capacity) {
+            buffer = newBuffer(capacity << 1);
+        }
+
+        void add(char c) {
+            if ((size << 1) == buffer.capacity()) {
+                buffer = grow(buffer, buffer.capacity() << 1);
+            }
+            buffer.putChar((size++) << 1, c);
+        }
+
+        ByteBuffer trim() {
+            return grow(buffer, size << 1);
+        }
+    }
+
+    /**
+     * 创建新的buffer并拷贝原先的数据, 原先的direct buffer等待gc回收
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int newCapacity) {
+        ByteBuffer newBuffer = newBuffer(newCapacity);
+        ByteBuffer src = buffer.duplicate();
+        src.position(0).limit(Math.min(buffer.capacity(), newCapacity));
+        newBuffer.put(src);
+        newBuffer.clear();
+        return newBuffer;
+    }
+
+    /**
+     * 有序构建, 词必须按照{@link String#compareTo(String)}递增添加, 比如预先排好序的词库文件, 同{@link com.tqmall.search.commons.trie.BinaryTrie.SortedBuilder}
+     * 一次线性遍历创建所有状态, 一个状态的子状态都添加完之后才写入其转移, 构建期间的数据也都在堆外
+     * 相同的词重复添加, 覆盖value; 添加的词比前一个词小, 抛出{@link IllegalArgumentException}
+     */
+    public static final class Builder<V> {
+
+        private IntArray transBase = new IntArray(1024);
+
+        private IntArray transCount = new IntArray(1024);
+
+        private IntArray output = new IntArray(1024);
+
+        private IntArray depth = new IntArray(1024);
+
+        private CharArray transChars = new CharArray(1024);
+
+        private IntArray transTargets = new IntArray(1024);
+
+        private final List<V> values = new ArrayList<>();
+
+        private final Map<V, Integer> valueIdMap = new HashMap<>();
+
+        /**
+         * 上一个词的状态路径, path[0]为根节点
+         */
+        private int[] path = new int[16];
+
+        /**
+         * 每一层还没有写入的子状态, pendingChars为字符, pendingStates为对应的状态, 字符递增
+         */
+        private char[][] pendingChars = new char[16][];
+
+        private int[][] pendingStates = new int[16][];
+
+        private int[] pendingCount = new int[16];
+
+        private char[] preKey = new char[16];
+
+        private int preLen;
+
+        private int size;
+
+        private boolean created;
+
+        Builder() {
+            newState(0, NONE);
+        }
+
+        private int newState(int stateDepth, int valueId) {
+            int state = output.size;
+            transBase.add(0);
+            transCount.add(0);
+            output.add(valueId);
+            depth.add(stateDepth);
+            return state;
+        }
+
+        private int valueId(V value) {
+            Integer id = valueIdMap.get(value);
+            if (id == null) {
+                id = values.size();
+                values.add(value);
+                valueIdMap.put(value, id);
+            }
+            return id;
+        }
+
+        private void ensureDepth(int len) {
+            if (path.length > len) return;
+            int newLength = Math.max(len + 1, path.length << 1);
+            path = Arrays.copyOf(path, newLength);
+            pendingChars = Arrays.copyOf(pendingChars, newLength);
+            pendingStates = Arrays.copyOf(pendingStates, newLength);
+            pendingCount = Arrays.copyOf(pendingCount, newLength);
+            preKey = Arrays.copyOf(preKey, newLength);
+        }
+
+        public Builder<V> put(String key, V value) {
+            if (created) throw new IllegalStateException("OffHeapAcTrie have created");
+            int len;
+            if (key == null || (len = key.length()) == 0) return this;
+            final int minLen = Math.min(len, preLen);
+            int common = 0;
+            while (common < minLen && key.charAt(common) == preKey[common]) common++;
+            if (common == len && common == preLen) {
+                //重复的词, 覆盖value
+                output.set(path[len], valueId(value));
+                return this;
+            }
+            if (common == len || (common < preLen && key.charAt(common) < preKey[common])) {
+                throw new IllegalArgumentException("key: " + key + " is less than the previous key: "
+                        + String.valueOf(preKey, 0, preLen) + ", keys should be put in sorted order");
+            }
+            closeStates(common);
+            ensureDepth(len);
+            for (int i = common; i < len; i++) {
+                char c = key.charAt(i);
+                int state = newState(i + 1, i == len - 1 ? valueId(value) : NONE);
+                appendPending(i, c, state);
+                path[i + 1] = state;
+                preKey[i] = c;
+            }
+            preLen = len;
+            size++;
+            return this;
+        }
+
+        private void appendPending(int d, char c, int state) {
+            int count = pendingCount[d];
+            if (pendingChars[d] == null) {
+                pendingChars[d] = new char[8];
+                pendingStates[d] = new int[8];
+            } else if (count == pendingChars[d].length) {
+                pendingChars[d] = Arrays.copyOf(pendingChars[d], count << 1);
+                pendingStates[d] = Arrays.copyOf(pendingStates[d], count << 1);
+            }
+            pendingChars[d][count] = c;
+            pendingStates[d][count] = state;
+            pendingCount[d] = count + 1;
+        }
+
+        /**
+         * 写入深度大于d的状态的转移
+         */
+        private void closeStates(int d) {
+            for (int i = preLen; i > d; i--) {
+                writeTransitions(i);
+            }
+        }
+
+        private void writeTransitions(int d) {
+            int count = pendingCount[d];
+            if (count == 0) return;
+            int state = path[d];
+            transBase.set(state, transTargets.size);
+            transCount.set(state, count);
+            char[] chars = pendingChars[d];
+            int[] states = pendingStates[d];
+            for (int i = 0; i < count; i++) {
+                transChars.add(chars[i]);
+                transTargets.add(states[i]);
+            }
+            pendingCount[d] = 0;
+        }
+
+        /**
+         * 写入所有的转移, 构建failed以及outputLink, 之后该builder不能再使用
+         */
+        public OffHeapAcTrie<V> create() {
+            if (created) throw new IllegalStateException("OffHeapAcTrie have created");
+            created = true;
+            closeStates(0);
+            writeTransitions(0);
+            final int stateCount = output.size, transSize = transTargets.size;
+            ByteBuffer transBaseBuffer = transBase.trim(), transCountBuffer = transCount.trim(),
+                    outputBuffer = output.trim(), depthBuffer = depth.trim(), charsBuffer = transChars.trim(),
+                    targetsBuffer = transTargets.trim();
+            transBase = transCount = output = depth = transTargets = null;
+            transChars = null;
+
+            ByteBuffer rootGoto = newBuffer(ROOT_GOTO_SIZE << 2);
+            for (int i = 0; i < ROOT_GOTO_SIZE; i++) {
+                rootGoto.putInt(i << 2, NONE);
+            }
+            ByteBuffer failed = newBuffer(stateCount << 2), outputLink = newBuffer(stateCount << 2);
+            ByteBuffer[] buffers = {transBaseBuffer, transCountBuffer, failed, outputBuffer, outputLink, depthBuffer,
+                    charsBuffer, targetsBuffer, rootGoto};
+            OffHeapAcTrie<V> trie = new OffHeapAcTrie<>(stateCount, transSize, size, buffers,
+                    Collections.unmodifiableList(new ArrayList<>(values)));
+            failed.putInt(0, 0);
+            outputLink.putInt(0, NONE);
+            //广度优先遍历, 队列也放在堆外
+            ByteBuffer queue = newBuffer(stateCount << 2);
+            int head = 0, tail = 0;
+            int rootBase = getInt(transBaseBuffer, 0), rootCount = getInt(transCountBuffer, 0);
+            for (int i = rootBase; i < rootBase + rootCount; i++) {
+                int child = getInt(targetsBuffer, i);
+                rootGoto.putInt(charsBuffer.getChar(i << 1) << 2, child);
+                failed.putInt(child << 2, 0);
+                outputLink.putInt(child << 2, NONE);
+                queue.putInt((tail++) << 2, child);
+            }
+            while (head < tail) {
+                int state = getInt(queue, head++);
+                int base = getInt(transBaseBuffer, state), count = getInt(transCountBuffer, state);
+                for (int i = base; i < base + count; i++) {
+                    char c = charsBuffer.getChar(i << 1);
+                    int child = getInt(targetsBuffer, i);
+                    int f = getInt(failed, state), next;
+                    while ((next = trie.nextState(f, c)) == NONE && f != 0) {
+                        f = getInt(failed, f);
+                    }
+                    int childFailed = next == NONE ? 0 : next;
+                    failed.putInt(child << 2, childFailed);
+                    outputLink.putInt(child << 2, getInt(outputBuffer, childFailed) != NONE ? childFailed
+                            : getInt(outputLink, childFailed));
+                    queue.putInt((tail++) << 2, child);
+                }
+            }
+            valueIdMap.clear();
+            return trie;
+        }
+    }
+}
@@ -1,14 +1,14 @@
 package com.tqmall.search.commons.analyzer;
 
-import com.sun.org.apache.xalan.internal.xsltc.dom.BitArray;
 import com.tqmall.search.commons.lang.LazyInit;
 import com.tqmall.search.commons.lang.Supplier;
 import com.tqmall.search.commons.match.AbstractTextMatch;
 import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.match.Hits;
 import com.tqmall.search.commons.nlp.NlpUtils;
 
-import java.util.Collections;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Objects;
 
 /**
@@ -19,61 +19,80 @@ import java.util.Objects;
  */
 public abstract class CjkAnalyzer extends AbstractTextMatch<TokenType> {
 
-    private final LazyInit<CjkLexicon> cjkLexicon;
+    private final Supplier<CjkLexicon> cjkLexicon;
 
+    /**
+     * @param cjkLexicon 如果是{@link ReloadableCjkLexicon}, 每次匹配都获取当前最新的词库, 否则通过{@link LazyInit}只加载一次
+     */
     protected CjkAnalyzer(Supplier<CjkLexicon> cjkLexicon) {
-        this.cjkLexicon = new LazyInit<>(cjkLexicon);
+        Objects.requireNonNull(cjkLexicon);
+        this.cjkLexicon = cjkLexicon instanceof ReloadableCjkLexicon ? cjkLexicon : new LazyInit<>(cjkLexicon);
     }
 
     protected final CjkLexicon cjkLexicon() {
-        return cjkLexicon.getInstance();
+        return cjkLexicon.get();
     }
 
-    protected abstract List<Hit<TokenType>> doMatch(char[] text, int off, int len);
+    /**
+     * @param lexicon 本次匹配使用的词库, 一次匹配中只获取一次, 词库热更新时, 正在执行的匹配依然使用原先的词库
+     */
+    protected abstract List<Hit<TokenType>> doMatch(CjkLexicon lexicon, char[] text, int off, int len);
 
-    private Hit<TokenType> getNumHit(int off, int numEndIndex) {
-        return new Hit<>(off, numEndIndex + 1, TokenType.NUM);
+    /**
+     * 将hit插入到迭代器当前位置, 即插入到已经通过{@link ListIterator#next()}取出, 但还没有处理的pendingHit之前
+     *
+     * @param pending 是否存在已经取出但还没有处理的hit
+     */
+    private static void insertHit(ListIterator<Hit<TokenType>> it, boolean pending, Hit<TokenType> hit) {
+        if (pending) {
+            it.previous();
+            it.add(hit);
+            it.next();
+        } else {
+            it.add(hit);
+        }
     }
 
     @Override
     public final List<Hit<TokenType>> match(char[] text, int off, int len) {
-        List<Hit<TokenType>> hits = doMatch(text, off, len);
+        final CjkLexicon lexicon = cjkLexicon();
+        List<Hit<TokenType>> hits = doMatch(lexicon, text, off, len);
         if (hits == null) return null;
-        BitArray bitArray = new BitArray(len);
-        for (Hit<TokenType> h : hits) {
-            int endPos = h.getEnd();
-            for (int i = h.getStart(); i < endPos; i++) {
-                bitArray.setBit(i - off);
-            }
+        //Min, Max匹配结果本身就是有序的, 只有Full匹配需要排序, 线性的计数排序即可
+        if (!Hits.isSorted(hits)) {
+            Hits.sort(hits, off, len);
         }
-        //数词提取, 未匹配的cjk字符单个成词
-        int numEndIndex = -1;
-        for (int i = off + len - 1; i >= off; i--) {
-            if (bitArray.getBit(i) || !NlpUtils.isCjkChar(text[i])) {
-                if (numEndIndex != -1) {
-                    hits.add(getNumHit(i + 1, numEndIndex));
-                    numEndIndex = -1;
-                }
+        final int endPos = off + len;
+        ListIterator<Hit<TokenType>> it = hits.listIterator();
+        Hit<TokenType> nextHit = it.hasNext() ? it.next() : null;
+        //[off, coveredEnd)之间的字符都已经被词库匹配到了
+        int coveredEnd = off, numStart = -1;
+        //数词提取, 未匹配的cjk字符单个成词, 顺序遍历, 直接插入到对应位置, 结果依然有序
+        for (int i = off; i < endPos; i++) {
+            final boolean covered = i < coveredEnd || (nextHit != null && nextHit.getStart() == i);
+            final char c = text[i];
+            if (!covered && NlpUtils.isCjkChar(c) && CjkLexicon.isCnNum(c)) {
+                if (numStart == -1) numStart = i;
                 continue;
             }
-            char c = text[i];
-            if (CjkLexicon.CN_NUM.contains(c)) {
-                if (numEndIndex == -1) numEndIndex = i;
-                continue;
-            } else if (numEndIndex != -1) {
+            if (numStart != -1) {
                 //提取数词词组
-                hits.add(getNumHit(i + 1, numEndIndex));
-                numEndIndex = -1;
+                insertHit(it, nextHit != null, new Hit<>(numStart, i, TokenType.NUM));
+                numStart = -1;
+            }
+            if (covered) {
+                while (nextHit != null && nextHit.getStart() == i) {
+                    if (nextHit.getEnd() > coveredEnd) coveredEnd = nextHit.getEnd();
+                    nextHit = it.hasNext() ? it.next() : null;
+                }
+            } else if (NlpUtils.isCjkChar(c)) {
+                //没有匹配的中文字符, 只能单独成词了
+                insertHit(it, nextHit != null, new Hit<>(i, i + 1, lexicon.isQuantifier(c) ? TokenType.QUANTIFIER : TokenType.CN));
             }
-            //没有匹配的中文字符, 只能单独成词了
-            String w = String.valueOf(text[i]);
-            hits.add(new Hit<>(i, i + 1, cjkLexicon().isQuantifier(w) ? TokenType.QUANTIFIER : TokenType.CN));
         }
-        if (numEndIndex != -1) {
-            hits.add(getNumHit(off, numEndIndex));
+        if (numStart != -1) {
+            insertHit(it, nextHit != null, new Hit<>(numStart, endPos, TokenType.NUM));
         }
-        //返回结果需要根据下标排序
-        Collections.sort(hits);
         return hits;
     }
 
@@ -89,6 +108,8 @@ public abstract class CjkAnalyzer extends AbstractTextMatch<TokenType> {
                 return new Max(cjkLexicon);
             case FULL:
                 return new Full(cjkLexicon);
+            case PROB:
+                return new Prob(cjkLexicon);
             default:
                 throw new IllegalArgumentException("SegmentType: " + type + " value is invalid");
         }
@@ -104,8 +125,8 @@ public abstract class CjkAnalyzer extends AbstractTextMatch<TokenType> {
         }
 
         @Override
-        protected List<Hit<TokenType>> doMatch(char[] text, int off, int len) {
-            return cjkLexicon().fullMatch(text, off, len);
+        protected List<Hit<TokenType>> doMatch(CjkLexicon lexicon, char[] text, int off, int len) {
+            return lexicon.fullMatch(text, off, len);
         }
     }
 
@@ -120,8 +141,8 @@ public abstract class CjkAnalyzer extends AbstractTextMatch<TokenType> {
         }
 
         @Override
-        protected List<Hit<TokenType>> doMatch(char[] text, int off, int len) {
-            return cjkLexicon().minMatch(text, off, len);
+        protected List<Hit<TokenType>> doMatch(CjkLexicon lexicon, char[] text, int off, int len) {
+            return lexicon.minMatch(text, off, len);
         }
     }
 
@@ -135,8 +156,25 @@ public abstract class CjkAnalyzer extends AbstractTextMatch<TokenType> {
         }
 
         @Override
-        protected List<Hit<TokenType>> doMatch(char[] text, int off, int len) {
-            return cjkLexicon().maxMatch(text, off, len);
+        protected List<Hit<TokenType>> doMatch(CjkLexicon lexicon, char[] text, int off, int len) {
+            return lexicon.maxMatch(text, off, len);
+        }
+    }
+
+    /**
+     * 最大概率分词, 一次全匹配构建词图, 动态规划求概率最大的切分
+     *
+     * @see CjkLexicon#probMatch(char[], int, int)
+     */
+    public static class Prob extends CjkAnalyzer {
+
+        public Prob(Supplier<CjkLexicon> cjkLexicon) {
+            super(cjkLexicon);
+        }
+
+        @Override
+        protected List<Hit<TokenType>> doMatch(CjkLexicon lexicon, char[] text, int off, int len) {
+            return lexicon.probMatch(text, off, len);
         }
     }
 
@@ -149,7 +187,9 @@ public abstract class CjkAnalyzer extends AbstractTextMatch<TokenType> {
         //大粒度分词, 根据词库最大匹配
         MAX,
         //尽可能多的分词, 根据词典匹配所有结果
-        FULL
+        FULL,
+        //最大概率分词, 根据词库中词的权重, 在整个文本范围内消解歧义
+        PROB
     }
 
 }
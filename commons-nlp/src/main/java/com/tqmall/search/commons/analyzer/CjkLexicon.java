@@ -1,16 +1,20 @@
 package com.tqmall.search.commons.analyzer;
 
-import com.tqmall.search.commons.ac.AcBinaryTrie;
-import com.tqmall.search.commons.ac.AcTrie;
+import com.tqmall.search.commons.ac.AcBinaryReverseTrie;
 import com.tqmall.search.commons.ac.AcTrieNodeFactory;
 import com.tqmall.search.commons.exception.LoadLexiconException;
 import com.tqmall.search.commons.lang.AsyncInit;
 import com.tqmall.search.commons.lang.Function;
 import com.tqmall.search.commons.lang.Supplier;
+import com.tqmall.search.commons.match.CharMapping;
+import com.tqmall.search.commons.match.CharSlice;
 import com.tqmall.search.commons.match.Hit;
 import com.tqmall.search.commons.match.MatchBinaryReverseTrie;
+import com.tqmall.search.commons.match.TextMatcher;
 import com.tqmall.search.commons.nlp.NlpConst;
 import com.tqmall.search.commons.nlp.NlpUtils;
+import com.tqmall.search.commons.trie.LayeredNode;
+import com.tqmall.search.commons.trie.Node;
 import com.tqmall.search.commons.trie.RootNodeType;
 import com.tqmall.search.commons.trie.TrieNodeFactory;
 import com.tqmall.search.commons.utils.CommonsUtils;
@@ -23,9 +27,11 @@ import java.util.*;
 
 /**
  * Created by xing on 16/2/8.
- * 中文分词词库, 包括汉语词库以及停止词, 提供最大, 最小, 全匹配, 通过{@link AcBinaryTrie}实现
+ * 中文分词词库, 包括汉语词库以及停止词, 提供最大, 最小, 全匹配, 三种匹配共用一个{@link AcBinaryReverseTrie}实现
  * 词库文件中, 每个词可以指定词的{@link TokenType}, 通过{@link TokenType#fromString(String)}解析对应类型, 默认{@link TokenType#CN}
  * 要实现懒加载, 可通过{@link AsyncInit<CjkLexicon>}实现
+ * 可以通过{@link #putOverlayWord(String, TokenType)}等接口添加用户词库, 用户词库叠加在词库之上, 修改用户词库不需要重建整个词库
+ * 词库文件每行格式: "词 [TokenType [权重]]", 权重为词频之类的正数, 没有指定的为{@link #DEFAULT_WORD_WEIGHT}, 用于{@link #probMatch(char[], int, int)}
  *
  * @see TokenType
  * @see TokenType#fromString(String)
@@ -40,20 +46,92 @@ public class CjkLexicon {
      */
     public static final Set<Character> CN_NUM;
 
+    /**
+     * 中文数字字符位图, 同{@link #CN_NUM}, 分词时判断通过该位图, 避免装箱
+     */
+    private static final BitSet CN_NUM_BITS = new BitSet();
+
     static {
         Set<Character> set = new HashSet<>();
         for (char c : "零○〇一二两三四五六七八九十壹贰叁肆伍陆柒捌玖拾百千万亿拾佰仟萬億兆卅廿".toCharArray()) {
             set.add(c);
+            CN_NUM_BITS.set(c);
         }
         CN_NUM = Collections.unmodifiableSet(set);
     }
 
-    private final AcTrie<TokenType> acTrie;
+    /**
+     * 判断是否为中文数字字符, 同{@link #CN_NUM}
+     */
+    public static boolean isCnNum(char c) {
+        return CN_NUM_BITS.get(c);
+    }
+
+    /**
+     * 没有指定权重的词的默认权重
+     */
+    public static final double DEFAULT_WORD_WEIGHT = 1.0;
+
+    /**
+     * full, max, min匹配共用同一个逆向AC自动机, 词库只存一份
+     */
+    private final AcBinaryReverseTrie<TokenType> lexiconTrie;
+
+    /**
+     * {@link #lexiconTrie}的逆向前缀树root节点, 用户词库{@link #overlay}叠加在其上
+     */
+    private final Node<TokenType> lexiconRoot;
+
+    /**
+     * 叠加在词库之上的用户词库, 为null表示没有用户词库, 修改时整个替换
+     */
+    private volatile Overlay overlay;
+
+    /**
+     * 词的匹配次数统计, 为null表示没有开启
+     */
+    private volatile LexiconHitStats hitStats;
+
+    /**
+     * 用户词库的词, 修改需要获取该对象的锁
+     */
+    private final Map<String, TokenType> overlayWords = new HashMap<>();
+
+    /**
+     * 最近一次应用的{@link LexiconDelta#getVersion()}, 修改需要获取{@link #overlayWords}的锁
+     */
+    private long overlayVersion;
 
-    private final MatchBinaryReverseTrie<TokenType> matchReverseBinaryTrie;
+    /**
+     * 重新加载之后替换该词库的新词库, 之后对该词库用户词库的修改都转到新词库, 避免重新加载期间的修改丢失
+     * 修改需要获取{@link #overlayWords}的锁
+     *
+     * @see #inheritOverlay(CjkLexicon, Runnable)
+     */
+    private CjkLexicon successor;
 
     private final Set<String> quantifiers;
 
+    /**
+     * 单个字符的量词位图, 与{@link #quantifiers}同步维护, 分词时单字判断量词不用再创建String
+     */
+    private final BitSet charQuantifiers = new BitSet();
+
+    /**
+     * 词库文件中指定了权重的词的对数概率, 没有指定的词为{@link #defaultLogProbability}
+     */
+    private final Map<CharSlice, Double> wordLogProbabilities = new HashMap<>();
+
+    /**
+     * ln(DEFAULT_WORD_WEIGHT / 所有词的权重和)
+     */
+    private final double defaultLogProbability;
+
+    /**
+     * 未登录字的对数概率, 为默认权重的一半, 权重相同时优先选择词库中的词
+     */
+    private final double unknownLogProbability;
+
     public CjkLexicon(RootNodeType rootNodeType, Path lexiconPaths) {
         this(rootNodeType, Collections.singletonList(lexiconPaths));
     }
@@ -68,10 +146,12 @@ public class CjkLexicon {
      * @see AcTrieNodeFactory
      */
     public CjkLexicon(RootNodeType rootNodeType, Collection<Path> lexiconPaths) {
-        matchReverseBinaryTrie = new MatchBinaryReverseTrie<>(rootNodeType.<TokenType>defaultTrie());
+        final MatchBinaryReverseTrie<TokenType> reverseTrie = new MatchBinaryReverseTrie<>(rootNodeType.<TokenType>defaultAcTrie());
         long startTime = System.currentTimeMillis();
         quantifiers = new HashSet<>();
-        final AcBinaryTrie.Builder<TokenType> acBuilder = AcBinaryTrie.build();
+        final Map<String, Double> wordWeights = new HashMap<>();
+        //所有词的权重和
+        final double[] totalWeight = {0.0};
         log.info("start loading cjk lexicon files: " + lexiconPaths);
         long lineCount = NlpUtils.loadLexicon(new Function<String, Boolean>() {
             @Override
@@ -82,26 +162,43 @@ public class CjkLexicon {
                     tokenType = TokenType.CN;
                 } else {
                     String str = s.substring(index + 1).trim();
-                    tokenType = TokenType.fromString(str);
                     s = s.substring(0, index);
+                    int weightIndex = str.indexOf(' ');
+                    if (weightIndex > 0) {
+                        double weight = parseWeight(s, str.substring(weightIndex + 1).trim());
+                        str = str.substring(0, weightIndex);
+                        if (weight != DEFAULT_WORD_WEIGHT) wordWeights.put(s, weight);
+                    }
+                    tokenType = TokenType.fromString(str);
                     if (tokenType == null) {
                         log.warn("load cjk lexicon word: " + s + " tokenType: " + str + " is invalid, instead of " + TokenType.CN);
                     } else if (tokenType == TokenType.QUANTIFIER) {
-                        quantifiers.add(s);
+                        addQuantifierInner(s);
                     }
                 }
-                acBuilder.put(s, tokenType);
-                matchReverseBinaryTrie.put(s, tokenType);
+                int preSize = reverseTrie.size();
+                reverseTrie.put(s, tokenType);
+                if (reverseTrie.size() > preSize) {
+                    Double weight = wordWeights.get(s);
+                    totalWeight[0] += weight == null ? DEFAULT_WORD_WEIGHT : weight;
+                }
                 return true;
             }
         }, lexiconPaths);
-        acTrie = acBuilder.create(rootNodeType.<TokenType>defaultAcTrie());
+        lexiconTrie = new AcBinaryReverseTrie<>(reverseTrie);
+        lexiconRoot = reverseTrie.getRoot();
+        double logTotal = Math.log(Math.max(totalWeight[0], DEFAULT_WORD_WEIGHT));
+        for (Map.Entry<String, Double> e : wordWeights.entrySet()) {
+            wordLogProbabilities.put(CharSlice.copyOf(e.getKey()), Math.log(e.getValue()) - logTotal);
+        }
+        defaultLogProbability = Math.log(DEFAULT_WORD_WEIGHT) - logTotal;
+        unknownLogProbability = Math.log(DEFAULT_WORD_WEIGHT / 2) - logTotal;
         log.info("load cjk lexicon finish, total load " + lineCount + " words, total cost: " + (System.currentTimeMillis() - startTime) + "ms");
 
         NlpUtils.loadClassPathLexicon(CjkLexicon.class, NlpConst.QUANTIFIER_FILE_NAME, new Function<String, Boolean>() {
             @Override
             public Boolean apply(String s) {
-                quantifiers.add(s);
+                addQuantifierInner(s);
                 return true;
             }
         });
@@ -109,7 +206,7 @@ public class CjkLexicon {
 
     /**
      * full匹配, 尽可能的返回所有能够匹配到的结果
-     * 该接口分词是通过AcTrie实现, 不建议动态加词
+     * 该接口分词是通过逆向AcTrie实现, 返回结果有序, 不建议动态加词
      *
      * @param text 待分词文本
      * @param off  待处理文本的起始位置
@@ -119,7 +216,20 @@ public class CjkLexicon {
      * @see #buildAcTrieFailed()
      */
     public List<Hit<TokenType>> fullMatch(char[] text, int off, int len) {
-        return acTrie.match(text, off, len);
+        return fullMatch(text, off, len, null);
+    }
+
+    /**
+     * 归一化full匹配, 遍历时字符先通过charMapping映射, 不修改text
+     *
+     * @param charMapping 字符映射, 可以为null, 比如{@link com.tqmall.search.commons.nlp.SegmentFilters#charMapping()}
+     * @see #fullMatch(char[], int, int)
+     */
+    public List<Hit<TokenType>> fullMatch(char[] text, int off, int len, CharMapping charMapping) {
+        Overlay o = overlay;
+        List<Hit<TokenType>> hits = lexiconTrie.match(text, off, len, charMapping);
+        if (o != null) hits = mergeOverlayHits(hits, o.trie.match(text, off, len, charMapping));
+        return recordHits(CjkAnalyzer.Type.FULL, text, hits, charMapping);
     }
 
     /**
@@ -131,7 +241,19 @@ public class CjkLexicon {
      * @return 匹配结果
      */
     public List<Hit<TokenType>> maxMatch(char[] text, int off, int len) {
-        return matchReverseBinaryTrie.maxMatch(text, off, len);
+        return maxMatch(text, off, len, null);
+    }
+
+    /**
+     * 归一化最大匹配, 遍历时字符先通过charMapping映射, 不修改text
+     *
+     * @param charMapping 字符映射, 可以为null
+     * @see #maxMatch(char[], int, int)
+     */
+    public List<Hit<TokenType>> maxMatch(char[] text, int off, int len, CharMapping charMapping) {
+        Overlay o = overlay;
+        return recordHits(CjkAnalyzer.Type.MAX, text, o == null ? lexiconTrie.maxMatch(text, off, len, charMapping)
+                : MatchBinaryReverseTrie.reverseMatch(o.maxMatcher, text, off, len, charMapping), charMapping);
     }
 
     /**
@@ -143,7 +265,151 @@ public class CjkLexicon {
      * @return 匹配结果
      */
     public List<Hit<TokenType>> minMatch(char[] text, int off, int len) {
-        return matchReverseBinaryTrie.minMatch(text, off, len);
+        return minMatch(text, off, len, null);
+    }
+
+    /**
+     * 归一化最小匹配, 遍历时字符先通过charMapping映射, 不修改text
+     *
+     * @param charMapping 字符映射, 可以为null
+     * @see #minMatch(char[], int, int)
+     */
+    public List<Hit<TokenType>> minMatch(char[] text, int off, int len, CharMapping charMapping) {
+        Overlay o = overlay;
+        return recordHits(CjkAnalyzer.Type.MIN, text, o == null ? lexiconTrie.minMatch(text, off, len, charMapping)
+                : MatchBinaryReverseTrie.reverseMatch(o.minMatcher, text, off, len, charMapping), charMapping);
+    }
+
+    /**
+     * 最大概率匹配, 通过一次全匹配构建词图{@link WordLattice}, 再动态规划求对数概率和最大的切分路径
+     * 词的概率根据词库中的权重计算, 见{@link #logProbability(CharSequence)}, 都没有指定权重时, 相当于切分出的词最少的路径
+     * 与最大, 最小匹配不同, 歧义在整个文本范围内消解, 而不是局部贪心
+     *
+     * @param text 待分词文本
+     * @param off  待处理文本的起始位置
+     * @param len  待处理文本的长度
+     * @return 匹配结果, 有序
+     */
+    public List<Hit<TokenType>> probMatch(char[] text, int off, int len) {
+        return probMatch(text, off, len, null);
+    }
+
+    /**
+     * 归一化最大概率匹配, 遍历时字符先通过charMapping映射, 不修改text
+     *
+     * @param charMapping 字符映射, 可以为null
+     * @see #probMatch(char[], int, int)
+     */
+    public List<Hit<TokenType>> probMatch(char[] text, int off, int len, CharMapping charMapping) {
+        if (len == 0) return null;
+        Overlay o = overlay;
+        WordLattice lattice = WordLattice.current();
+        try {
+            lattice.reset(this, text, off, len, charMapping);
+            lexiconTrie.match(text, off, len, charMapping, lattice);
+            //用户词库的边后添加, 相同权重时优先选择
+            if (o != null) o.trie.match(text, off, len, charMapping, lattice);
+            return recordHits(CjkAnalyzer.Type.PROB, text, lattice.bestPath(), charMapping);
+        } finally {
+            lattice.clear();
+        }
+    }
+
+    private List<Hit<TokenType>> recordHits(CjkAnalyzer.Type type, char[] text, List<Hit<TokenType>> hits, CharMapping charMapping) {
+        LexiconHitStats stats = hitStats;
+        if (stats != null) stats.record(type, text, hits, charMapping);
+        return hits;
+    }
+
+    /**
+     * 开启词的匹配次数统计, 已经开启则直接返回当前的统计
+     * 开启之后每次匹配都要在前缀树中为每个匹配结果重新查找一次节点, 有一定开销, 用于线上采样, 调优完毕之后通过{@link #disableHitStats()}关闭
+     *
+     * @return 匹配次数统计
+     * @see LexiconHitStats
+     */
+    public synchronized LexiconHitStats enableHitStats() {
+        LexiconHitStats stats = hitStats;
+        if (stats == null) {
+            hitStats = stats = new LexiconHitStats(lexiconRoot, lexiconTrie.getOutputCount());
+        }
+        return stats;
+    }
+
+    /**
+     * 关闭词的匹配次数统计, 并停止其定期输出
+     *
+     * @return 关闭之前的统计, 没有开启则为null
+     */
+    public synchronized LexiconHitStats disableHitStats() {
+        LexiconHitStats stats = hitStats;
+        if (stats != null) {
+            hitStats = null;
+            stats.close();
+        }
+        return stats;
+    }
+
+    /**
+     * @return 词的匹配次数统计, 没有开启则为null
+     */
+    public LexiconHitStats getHitStats() {
+        return hitStats;
+    }
+
+    /**
+     * 重新加载时, 旧词库开启了匹配次数统计的话, 新词库也开启, 并继承旧词库的统计, 之后关闭旧词库的统计
+     *
+     * @param pre 被替换的旧词库
+     * @see LexiconHitStats#carryOver(LexiconHitStats)
+     */
+    void inheritHitStats(CjkLexicon pre) {
+        LexiconHitStats preStats = pre.getHitStats();
+        if (preStats == null) return;
+        enableHitStats().carryOver(preStats);
+        pre.disableHitStats();
+    }
+
+    /**
+     * 词的对数概率: ln(词的权重 / 所有词的权重和)
+     *
+     * @param word 可以为{@link CharSlice}, 查询时不需要拷贝
+     */
+    public double logProbability(CharSequence word) {
+        if (wordLogProbabilities.isEmpty()) return defaultLogProbability;
+        Double p = wordLogProbabilities.get(word instanceof CharSlice ? word : CharSlice.copyOf(word));
+        return p == null ? defaultLogProbability : p;
+    }
+
+    /**
+     * 词库文件中是否有指定了权重的词, 没有的话所有词的对数概率都为{@link #defaultLogProbability()}
+     */
+    boolean hasWordWeights() {
+        return !wordLogProbabilities.isEmpty();
+    }
+
+    /**
+     * 没有指定权重的词的对数概率
+     */
+    double defaultLogProbability() {
+        return defaultLogProbability;
+    }
+
+    /**
+     * 未登录字的对数概率, 比词库中默认权重的词小
+     */
+    public double unknownLogProbability() {
+        return unknownLogProbability;
+    }
+
+    private static double parseWeight(String word, String weightStr) {
+        try {
+            double weight = Double.parseDouble(weightStr);
+            if (weight > 0) return weight;
+        } catch (NumberFormatException ignored) {
+        }
+        log.warn("load cjk lexicon word: " + word + " weight: " + weightStr + " is invalid, instead of " + DEFAULT_WORD_WEIGHT);
+        return DEFAULT_WORD_WEIGHT;
     }
 
     /**
@@ -156,19 +422,242 @@ public class CjkLexicon {
     public boolean addWord(String word, TokenType tokenType) {
         if ((word = SearchStringUtils.filterString(word)) == null) return false;
         if (tokenType == null) tokenType = TokenType.CN;
-        boolean added = matchReverseBinaryTrie.put(word, tokenType);
-        acTrie.put(word, tokenType);
-        return added;
+        return lexiconTrie.put(word, tokenType);
     }
 
     /**
-     * 重建{@link #acTrie} 的failed字段, 在重建的时候, 通过acTrie分词会等待, 这个操作还是比较耗时的,所以不到万不得已, 就别加词了, 不触发buildFailed操作
+     * 重建{@link #lexiconTrie} 的failed字段, 在重建的时候, 通过acTrie分词会等待, 这个操作还是比较耗时的,所以不到万不得已, 就别加词了, 不触发buildFailed操作
      *
      * @see #addWord(String, TokenType)
      */
     @Deprecated
     public boolean buildAcTrieFailed() {
-        return acTrie.buildFailed();
+        boolean ret = lexiconTrie.buildFailed();
+        synchronized (this) {
+            if (ret && hitStats != null) {
+                //重建之后词的outputId都变了, 之前的统计作废
+                hitStats.close();
+                hitStats = new LexiconHitStats(lexiconRoot, lexiconTrie.getOutputCount());
+                log.warn("cjk lexicon acTrie failed rebuilt, hit stats reset");
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 添加用户词库的词, 用户词库叠加在词库之上, 修改时只重建用户词库, 耗时只跟用户词库的大小有关, 不影响正在执行的分词
+     * 用户词库与词库中都存在的词, tokenType以用户词库为准
+     * 注: 用户词库中tokenType为{@link TokenType#QUANTIFIER}的词不会添加到量词中, 需要的话通过{@link #addQuantifier(String)}添加
+     *
+     * @return 是否添加成功
+     */
+    public boolean putOverlayWord(String word, TokenType tokenType) {
+        return putOverlayWords(Collections.singletonMap(word, tokenType)) > 0;
+    }
+
+    /**
+     * 批量添加用户词库的词, 只重建一次用户词库
+     *
+     * @return 有效的词的个数
+     * @see #putOverlayWord(String, TokenType)
+     */
+    public int putOverlayWords(Map<String, TokenType> words) {
+        synchronized (overlayWords) {
+            if (successor != null) return successor.putOverlayWords(words);
+            int count = 0;
+            for (Map.Entry<String, TokenType> e : words.entrySet()) {
+                String word = SearchStringUtils.filterString(e.getKey());
+                if (word == null) continue;
+                overlayWords.put(word, e.getValue() == null ? TokenType.CN : e.getValue());
+                count++;
+            }
+            if (count > 0) rebuildOverlay();
+            return count;
+        }
+    }
+
+    /**
+     * 删除用户词库的词, 词库中的词不受影响
+     *
+     * @return 是否删除成功
+     */
+    public boolean removeOverlayWord(String word) {
+        if ((word = SearchStringUtils.filterString(word)) == null) return false;
+        synchronized (overlayWords) {
+            if (successor != null) return successor.removeOverlayWord(word);
+            if (overlayWords.remove(word) == null) return false;
+            rebuildOverlay();
+            return true;
+        }
+    }
+
+    /**
+     * 整体替换用户词库, 比如定时同步用户词库
+     *
+     * @param words 为空则清空用户词库
+     */
+    public void setOverlayWords(Map<String, TokenType> words) {
+        synchronized (overlayWords) {
+            if (successor != null) {
+                successor.setOverlayWords(words);
+                return;
+            }
+            overlayWords.clear();
+            if (!CommonsUtils.isEmpty(words)) {
+                for (Map.Entry<String, TokenType> e : words.entrySet()) {
+                    String word = SearchStringUtils.filterString(e.getKey());
+                    if (word != null) overlayWords.put(word, e.getValue() == null ? TokenType.CN : e.getValue());
+                }
+            }
+            rebuildOverlay();
+        }
+    }
+
+    /**
+     * 应用分发过来的用户词库变更, 所有的修改只重建一次用户词库, 之后整体替换, 正在执行的分词看到的要么是应用前的, 要么是应用后的
+     * 快照直接整体替换; 增量只有{@link LexiconDelta#getBaseVersion()}等于当前{@link #getOverlayVersion()}才应用, 否则说明中间有遗漏,
+     * 返回false, 需要等待下一次快照
+     * 注: 通过{@link #putOverlayWord(String, TokenType)}等接口的本地修改不改变版本
+     *
+     * @return 是否应用
+     */
+    public boolean applyOverlayDelta(LexiconDelta delta) {
+        synchronized (overlayWords) {
+            if (successor != null) return successor.applyOverlayDelta(delta);
+            if (delta.isSnapshot()) {
+                overlayWords.clear();
+            } else if (delta.getBaseVersion() != overlayVersion) {
+                log.warn("cjk lexicon overlay version: " + overlayVersion + ", ignore " + delta);
+                return false;
+            }
+            for (String w : delta.getRemoves()) {
+                String word = SearchStringUtils.filterString(w);
+                if (word != null) overlayWords.remove(word);
+            }
+            for (Map.Entry<String, TokenType> e : delta.getPuts().entrySet()) {
+                String word = SearchStringUtils.filterString(e.getKey());
+                if (word != null) overlayWords.put(word, e.getValue());
+            }
+            overlayVersion = delta.getVersion();
+            rebuildOverlay();
+            return true;
+        }
+    }
+
+    /**
+     * @return 最近一次应用的{@link LexiconDelta}的版本, 没有应用过为0
+     */
+    public long getOverlayVersion() {
+        synchronized (overlayWords) {
+            if (successor != null) return successor.getOverlayVersion();
+            return overlayVersion;
+        }
+    }
+
+    /**
+     * 当前用户词库的快照, 版本为{@link #getOverlayVersion()}
+     */
+    public LexiconDelta overlaySnapshot() {
+        synchronized (overlayWords) {
+            if (successor != null) return successor.overlaySnapshot();
+            return LexiconDelta.snapshot(overlayVersion, overlayWords);
+        }
+    }
+
+    /**
+     * @return 当前用户词库的拷贝
+     */
+    public Map<String, TokenType> getOverlayWords() {
+        synchronized (overlayWords) {
+            if (successor != null) return successor.getOverlayWords();
+            return new HashMap<>(overlayWords);
+        }
+    }
+
+    /**
+     * 重新加载时新词库继承旧词库的用户词库以及{@link #getOverlayVersion()}, 拷贝以及swap都在旧词库用户词库的锁内执行, 之后对旧词库用户词库的修改都转到新词库,
+     * 所以拷贝之后, swap之前的修改不会丢失
+     * 加锁顺序总是先旧词库后新词库, 不会死锁
+     *
+     * @param pre  被替换的旧词库
+     * @param swap 将旧词库替换为该词库, 在锁内执行
+     */
+    void inheritOverlay(CjkLexicon pre, Runnable swap) {
+        synchronized (pre.overlayWords) {
+            if (pre.successor != null) throw new IllegalStateException("cjk lexicon has been replaced");
+            synchronized (overlayWords) {
+                overlayWords.clear();
+                overlayWords.putAll(pre.overlayWords);
+                //版本一起继承, 否则之后的增量都会因为版本不连续被拒绝
+                overlayVersion = pre.overlayVersion;
+                rebuildOverlay();
+            }
+            swap.run();
+            pre.successor = this;
+        }
+    }
+
+    private void rebuildOverlay() {
+        overlay = overlayWords.isEmpty() ? null : new Overlay(lexiconRoot, overlayWords);
+    }
+
+    /**
+     * 合并词库和用户词库的全匹配结果, 两个结果都是有序的, 顺序合并即可, 相同位置的以用户词库为准
+     */
+    private static List<Hit<TokenType>> mergeOverlayHits(List<Hit<TokenType>> hits, List<Hit<TokenType>> overlayHits) {
+        if (CommonsUtils.isEmpty(overlayHits)) return hits;
+        if (CommonsUtils.isEmpty(hits)) return overlayHits;
+        ListIterator<Hit<TokenType>> it = hits.listIterator();
+        for (Hit<TokenType> h : overlayHits) {
+            boolean handled = false;
+            while (it.hasNext()) {
+                int cmp = h.compareTo(it.next());
+                if (cmp == 0) {
+                    it.set(h);
+                    handled = true;
+                    break;
+                } else if (cmp < 0) {
+                    it.previous();
+                    it.add(h);
+                    handled = true;
+                    break;
+                }
+            }
+            if (!handled) it.add(h);
+        }
+        return hits;
+    }
+
+    /**
+     * 用户词库, 构建完成之后不再修改, 用户词库变化时整个重建
+     * 全匹配单独通过{@link #trie}匹配, 再与词库的结果合并; 最大, 最小匹配通过{@link LayeredNode}一次遍历同时查找词库和用户词库
+     */
+    private static final class Overlay {
+
+        final AcBinaryReverseTrie<TokenType> trie;
+
+        final TextMatcher<TokenType> minMatcher;
+
+        final TextMatcher<TokenType> maxMatcher;
+
+        Overlay(Node<TokenType> lexiconRoot, Map<String, TokenType> words) {
+            //用户词库较小, 使用普通的root节点
+            MatchBinaryReverseTrie<TokenType> reverseTrie = new MatchBinaryReverseTrie<>(RootNodeType.NORMAL.<TokenType>defaultAcTrie());
+            for (Map.Entry<String, TokenType> e : words.entrySet()) {
+                reverseTrie.put(e.getKey(), e.getValue());
+            }
+            trie = new AcBinaryReverseTrie<>(reverseTrie);
+            Node<TokenType> root = new LayeredNode<>(lexiconRoot, reverseTrie.getRoot());
+            minMatcher = TextMatcher.minMatcher(root, false);
+            maxMatcher = TextMatcher.maxMatcher(root, false);
+        }
+    }
+
+    private boolean addQuantifierInner(String quantifier) {
+        if (quantifier.length() == 1) {
+            charQuantifiers.set(quantifier.charAt(0));
+        }
+        return quantifiers.add(quantifier);
     }
 
     /**
@@ -178,7 +667,7 @@ public class CjkLexicon {
      */
     public boolean addQuantifier(String quantifier) {
         quantifier = SearchStringUtils.filterString(quantifier);
-        return quantifier != null && quantifiers.add(quantifier.toLowerCase());
+        return quantifier != null && addQuantifierInner(quantifier.toLowerCase());
     }
 
     /**
@@ -188,7 +677,12 @@ public class CjkLexicon {
      */
     public boolean removeQuantifier(String quantifier) {
         quantifier = SearchStringUtils.filterString(quantifier);
-        return quantifier != null && quantifiers.remove(quantifier.toLowerCase());
+        if (quantifier == null) return false;
+        quantifier = quantifier.toLowerCase();
+        if (quantifier.length() == 1) {
+            charQuantifiers.clear(quantifier.charAt(0));
+        }
+        return quantifiers.remove(quantifier);
     }
 
     /**
@@ -198,6 +692,13 @@ public class CjkLexicon {
         return quantifiers.contains(word);
     }
 
+    /**
+     * 判断单个字符是否为量词, 通过位图判断, 同{@link #isQuantifier(String)}
+     */
+    public boolean isQuantifier(char c) {
+        return charQuantifiers.get(c);
+    }
+
     public static Supplier<CjkLexicon> createAsyncSupplier(RootNodeType rootNodeType, Path lexiconPath) {
         return createAsyncSupplier(rootNodeType, Collections.singletonList(lexiconPath));
     }
@@ -0,0 +1,295 @@
+package com.tqmall.search.commons.analyzer;
+
+import com.tqmall.search.commons.utils.CommonsUtils;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Created by xing on 16/5/1.
+ * 用户词库的变更, 用于在多台机器之间分发{@link CjkLexicon}的用户词库, 接收方直接解码应用, 不用再解析词库文本文件
+ * 有两种:
+ * 1. 快照{@link #snapshot(long, Map)}: 完整的用户词库, 应用时整体替换
+ * 2. 增量{@link #delta(long, long, Map, Collection)}: 基于baseVersion的添加, 删除, 只有本地版本等于baseVersion才能应用
+ * 二进制格式, 整体通过Deflater压缩:
+ * <pre>
+ *     magic(1 byte) format(1 byte) snapshot(1 byte) baseVersion(varlong) version(varlong)
+ *     putCount(varint) [tokenType(1 byte) prefixLen(varint) suffix(UTF)]...
+ *     removeCount(varint) [prefixLen(varint) suffix(UTF)]...
+ * </pre>
+ * 词有序存储, 与前一个词相同的前缀只记录长度
+ * 通过{@link #encodeToString()}转换为URL安全的Base64字符串, 不包含',', 可以直接作为
+ * master-slave同步通知的key传输
+ *
+ * @author xing
+ * @see CjkLexicon#applyOverlayDelta(LexiconDelta)
+ */
+public final class LexiconDelta {
+
+    private static final byte MAGIC = 'L';
+
+    private static final byte FORMAT = 1;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final boolean snapshot;
+
+    private final long baseVersion;
+
+    private final long version;
+
+    private final SortedMap<String, TokenType> puts;
+
+    private final SortedSet<String> removes;
+
+    private LexiconDelta(boolean snapshot, long baseVersion, long version, SortedMap<String, TokenType> puts,
+                         SortedSet<String> removes) {
+        if (version <= baseVersion && !snapshot) {
+            throw new IllegalArgumentException("version: " + version + " must be greater than baseVersion: " + baseVersion);
+        }
+        this.snapshot = snapshot;
+        this.baseVersion = baseVersion;
+        this.version = version;
+        this.puts = Collections.unmodifiableSortedMap(puts);
+        this.removes = Collections.unmodifiableSortedSet(removes);
+    }
+
+    /**
+     * 完整的用户词库快照
+     *
+     * @param words 用户词库, tokenType为null的认为{@link TokenType#CN}
+     */
+    public static LexiconDelta snapshot(long version, Map<String, TokenType> words) {
+        return new LexiconDelta(true, version, version, toSortedMap(words), new TreeSet<String>());
+    }
+
+    /**
+     * 增量变更, 同一个词既添加又删除的以添加为准
+     *
+     * @param baseVersion 基于的版本
+     * @param version     应用之后的版本, 必须大于baseVersion
+     * @param puts        添加, 修改的词, 可以为null
+     * @param removes     删除的词, 可以为null
+     */
+    public static LexiconDelta delta(long baseVersion, long version, Map<String, TokenType> puts, Collection<String> removes) {
+        SortedMap<String, TokenType> putMap = toSortedMap(puts);
+        SortedSet<String> removeSet = new TreeSet<>();
+        if (removes != null) {
+            for (String w : removes) {
+                if (w != null && !putMap.containsKey(w)) removeSet.add(w);
+            }
+        }
+        return new LexiconDelta(false, baseVersion, version, putMap, removeSet);
+    }
+
+    private static SortedMap<String, TokenType> toSortedMap(Map<String, TokenType> words) {
+        SortedMap<String, TokenType> map = new TreeMap<>();
+        if (!CommonsUtils.isEmpty(words)) {
+            for (Map.Entry<String, TokenType> e : words.entrySet()) {
+                if (e.getKey() == null) continue;
+                map.put(e.getKey(), e.getValue() == null ? TokenType.CN : e.getValue());
+            }
+        }
+        return map;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 快照的baseVersion等于version
+     */
+    public long getBaseVersion() {
+        return baseVersion;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return 添加, 修改的词, 快照则为完整的用户词库
+     */
+    public SortedMap<String, TokenType> getPuts() {
+        return puts;
+    }
+
+    public SortedSet<String> getRemoves() {
+        return removes;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + puts.size() * 8);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeByte(MAGIC);
+            out.writeByte(FORMAT);
+            out.writeBoolean(snapshot);
+            writeVarLong(out, baseVersion);
+            writeVarLong(out, version);
+            writeVarLong(out, puts.size());
+            String prev = "";
+            for (Map.Entry<String, TokenType> e : puts.entrySet()) {
+                out.writeByte(e.getValue().ordinal());
+                writeWord(out, prev, e.getKey());
+                prev = e.getKey();
+            }
+            writeVarLong(out, removes.size());
+            prev = "";
+            for (String w : removes) {
+                writeWord(out, prev, w);
+                prev = w;
+            }
+        } catch (IOException e) {
+            //ByteArrayOutputStream不会有IOException
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException 数据格式错误
+     */
+    public static LexiconDelta decode(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            if (in.readByte() != MAGIC) throw new IllegalArgumentException("invalid lexicon delta magic");
+            byte format = in.readByte();
+            if (format != FORMAT) throw new IllegalArgumentException("unsupported lexicon delta format: " + format);
+            boolean snapshot = in.readBoolean();
+            long baseVersion = readVarLong(in);
+            long version = readVarLong(in);
+            int putCount = (int) readVarLong(in);
+            SortedMap<String, TokenType> puts = new TreeMap<>();
+            String prev = "";
+            for (int i = 0; i < putCount; i++) {
+                int ordinal = in.readUnsignedByte();
+                if (ordinal >= TOKEN_TYPES.length) throw new IllegalArgumentException("invalid token type ordinal: " + ordinal);
+                prev = readWord(in, prev);
+                puts.put(prev, TOKEN_TYPES[ordinal]);
+            }
+            int removeCount = (int) readVarLong(in);
+            SortedSet<String> removes = new TreeSet<>();
+            prev = "";
+            for (int i = 0; i < removeCount; i++) {
+                prev = readWord(in, prev);
+                removes.add(prev);
+            }
+            return new LexiconDelta(snapshot, baseVersion, version, puts, removes);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("decode lexicon delta failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return URL安全的Base64, 没有填充
+     */
+    public String encodeToString() {
+        return Base64Url.encode(encode());
+    }
+
+    /**
+     * @throws IllegalArgumentException 数据格式错误
+     * @see #encodeToString()
+     */
+    public static LexiconDelta decode(String data) {
+        return decode(Base64Url.decode(data));
+    }
+
+    private static void writeWord(DataOutputStream out, String prev, String word) throws IOException {
+        int prefix = 0, max = Math.min(prev.length(), word.length());
+        while (prefix < max && prev.charAt(prefix) == word.charAt(prefix)) prefix++;
+        writeVarLong(out, prefix);
+        out.writeUTF(word.substring(prefix));
+    }
+
+    private static String readWord(DataInputStream in, String prev) throws IOException {
+        int prefix = (int) readVarLong(in);
+        if (prefix > prev.length()) throw new IllegalArgumentException("invalid word prefix length: " + prefix);
+        return prev.substring(0, prefix) + in.readUTF();
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("malformed varLong");
+    }
+
+    @Override
+    public String toString() {
+        return "LexiconDelta{" + (snapshot ? "snapshot" : "delta") + ", baseVersion=" + baseVersion + ", version=" + version
+                + ", puts=" + puts.size() + ", removes=" + removes.size() + '}';
+    }
+
+    /**
+     * URL安全的Base64编码, 字符集为[A-Za-z0-9-_], 没有填充
+     */
+    static final class Base64Url {
+
+        private static final char[] ENCODE_TABLE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+        private static final byte[] DECODE_TABLE = new byte[128];
+
+        static {
+            Arrays.fill(DECODE_TABLE, (byte) -1);
+            for (int i = 0; i < ENCODE_TABLE.length; i++) {
+                DECODE_TABLE[ENCODE_TABLE[i]] = (byte) i;
+            }
+        }
+
+        private Base64Url() {
+        }
+
+        static String encode(byte[] data) {
+            StringBuilder sb = new StringBuilder((data.length * 4 + 2) / 3);
+            int i = 0;
+            for (int end = data.length - data.length % 3; i < end; i += 3) {
+                int bits = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+                sb.append(ENCODE_TABLE[bits >>> 18]).append(ENCODE_TABLE[(bits >>> 12) & 0x3F])
+                        .append(ENCODE_TABLE[(bits >>> 6) & 0x3F]).append(ENCODE_TABLE[bits & 0x3F]);
+            }
+            int remain = data.length - i;
+            if (remain == 1) {
+                int bits = (data[i] & 0xFF) << 16;
+                sb.append(ENCODE_TABLE[bits >>> 18]).append(ENCODE_TABLE[(bits >>> 12) & 0x3F]);
+            } else if (remain == 2) {
+                int bits = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8;
+                sb.append(ENCODE_TABLE[bits >>> 18]).append(ENCODE_TABLE[(bits >>> 12) & 0x3F])
+                        .append(ENCODE_TABLE[(bits >>> 6) & 0x3F]);
+            }
+            return sb.toString();
+        }
+
+        static byte[] decode(String str) {
+            int len = str.length();
+            if (len % 4 == 1) throw new IllegalArgumentException("invalid base64 length: " + len);
+            byte[] data = new byte[len * 3 / 4];
+            int bits = 0, bitCount = 0, index = 0;
+            for (int i = 0; i < len; i++) {
+                char c = str.charAt(i);
+                int v = c < 128 ? DECODE_TABLE[c] : -1;
+                if (v < 0) throw new IllegalArgumentException("invalid base64 char: " + c + " at " + i);
+                bits = bits << 6 | v;
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    data[index++] = (byte) (bits >>> bitCount);
+                }
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package com.tqmall.search.commons.analyzer;
+
+import com.tqmall.search.commons.ac.AcNormalNode;
+import com.tqmall.search.commons.match.CharMapping;
+import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.metrics.StripedCounter;
+import com.tqmall.search.commons.trie.Node;
+import com.tqmall.search.commons.trie.NodeChildHandle;
+import com.tqmall.search.commons.utils.CommonsUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by xing on 16/4/30.
+ * {@link CjkLexicon}中每个词的匹配次数统计, 用于词库调优: 删除从来没有匹配到的词, 以及了解各种匹配方式对词库的实际使用情况
+ * 每个词通过其{@link AcNormalNode#getOutputId()}作为下标计数, 记录时从匹配结果的位置在逆向前缀树中重新走一遍找到对应的节点,
+ * 热点路径上没有Map查询, 也不创建对象
+ * 计数:
+ * 1. 每个词的匹配次数: 一个{@link AtomicLongArray}, 词库较大, 按线程或者分段复制一份内存占用太大, 只有热点词才会有竞争
+ * 2. 每种匹配方式{@link CjkAnalyzer.Type}的匹配次数: {@link StripedCounter}
+ * 3. 每种匹配方式用到的词: 位图, 已经设置过的不再CAS
+ * 用户词库中的词, 以及统计开启之后通过{@link CjkLexicon#addWord(String, TokenType)}添加的词, 计入{@link Snapshot#getMissCount(CjkAnalyzer.Type)}
+ * 通过{@link CjkLexicon#enableHitStats()}开启, 开启之后才有额外开销
+ * {@link ReloadableCjkLexicon}重新加载时通过{@link #carryOver(LexiconHitStats)}将统计转到新的词库, 已经从词库中删除的词的计数丢弃
+ *
+ * @author xing
+ * @see CjkLexicon#enableHitStats()
+ */
+public class LexiconHitStats implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(LexiconHitStats.class);
+
+    private static final CjkAnalyzer.Type[] TYPES = CjkAnalyzer.Type.values();
+
+    /**
+     * 词库逆向前缀树的root
+     */
+    private final Node<TokenType> root;
+
+    private final int termCount;
+
+    private final AtomicLongArray termHits;
+
+    private final StripedCounter[] typeHits = new StripedCounter[TYPES.length];
+
+    private final StripedCounter[] typeMisses = new StripedCounter[TYPES.length];
+
+    /**
+     * 每种匹配方式用到的词的位图
+     */
+    private final AtomicLongArray[] typeUsedBits = new AtomicLongArray[TYPES.length];
+
+    /**
+     * 统计开始时间, 重新加载词库时继承原先统计的开始时间
+     */
+    private volatile long startTime = System.currentTimeMillis();
+
+    /**
+     * outputId -> 词, 第一次需要时才构建
+     */
+    private volatile String[] terms;
+
+    private ScheduledExecutorService dumpExecutor;
+
+    /**
+     * {@link #startDump(Path, int, long)}的参数, 重新加载词库时在新的统计上继续定期输出
+     */
+    private Path dumpFile;
+
+    private int dumpTopN;
+
+    private long dumpPeriod;
+
+    LexiconHitStats(Node<TokenType> root, int termCount) {
+        this.root = root;
+        this.termCount = termCount;
+        termHits = new AtomicLongArray(termCount);
+        for (int i = 0; i < TYPES.length; i++) {
+            typeHits[i] = new StripedCounter();
+            typeMisses[i] = new StripedCounter();
+            typeUsedBits[i] = new AtomicLongArray((termCount + 63) >>> 6);
+        }
+    }
+
+    /**
+     * 记录一次匹配结果
+     *
+     * @param charMapping 匹配时的字符映射, 可以为null
+     */
+    void record(CjkAnalyzer.Type type, char[] text, List<Hit<TokenType>> hits, CharMapping charMapping) {
+        if (CommonsUtils.isEmpty(hits)) return;
+        final int ordinal = type.ordinal();
+        final AtomicLongArray usedBits = typeUsedBits[ordinal];
+        int missCount = 0;
+        for (Hit<TokenType> h : hits) {
+            int id = outputId(text, h.getStart(), h.getEnd(), charMapping);
+            if (id < 0 || id >= termCount) {
+                missCount++;
+                continue;
+            }
+            termHits.incrementAndGet(id);
+            setUsed(usedBits, id);
+        }
+        typeHits[ordinal].add(hits.size());
+        if (missCount > 0) typeMisses[ordinal].add(missCount);
+    }
+
+    private static void setUsed(AtomicLongArray usedBits, int id) {
+        int index = id >>> 6;
+        long bit = 1L << id, bits;
+        while (((bits = usedBits.get(index)) & bit) == 0) {
+            if (usedBits.compareAndSet(index, bits, bits | bit)) break;
+        }
+    }
+
+    private static boolean isUsed(AtomicLongArray usedBits, int id) {
+        return (usedBits.get(id >>> 6) & (1L << id)) != 0;
+    }
+
+    /**
+     * 继承重新加载之前词库的统计: 每个词按词在当前词库中找到对应的outputId累加计数, 当前词库中没有的词丢弃,
+     * 各个匹配方式的计数以及开始时间直接继承, 原先定期输出的话, 停止原先的输出, 在当前统计上继续
+     * 继承过程中原先词库上的匹配可能还在记录, 这部分计数可能丢失, 统计用足够了
+     *
+     * @param pre 重新加载之前词库的统计
+     */
+    void carryOver(LexiconHitStats pre) {
+        String[] preTerms = pre.terms();
+        for (int i = 0; i < preTerms.length; i++) {
+            long hits = pre.termHits.get(i);
+            if (hits == 0 || preTerms[i] == null) continue;
+            char[] word = preTerms[i].toCharArray();
+            int id = outputId(word, 0, word.length, null);
+            if (id < 0 || id >= termCount) continue;
+            termHits.addAndGet(id, hits);
+            for (int t = 0; t < TYPES.length; t++) {
+                if (isUsed(pre.typeUsedBits[t], i)) setUsed(typeUsedBits[t], id);
+            }
+        }
+        for (int t = 0; t < TYPES.length; t++) {
+            typeHits[t].add(pre.typeHits[t].sum());
+            typeMisses[t].add(pre.typeMisses[t].sum());
+        }
+        startTime = pre.startTime;
+        Path file;
+        int topN;
+        long period;
+        synchronized (pre) {
+            file = pre.dumpFile;
+            topN = pre.dumpTopN;
+            period = pre.dumpPeriod;
+        }
+        if (file != null) {
+            pre.close();
+            startDump(file, topN, period);
+        }
+    }
+
+    /**
+     * 逆向前缀树, 从end - 1往前走到start
+     */
+    private int outputId(char[] text, int start, int end, CharMapping charMapping) {
+        Node<TokenType> node = root;
+        for (int i = end - 1; i >= start && node != null; i--) {
+            node = node.getChild(charMapping == null ? text[i] : charMapping.map(text[i]));
+        }
+        return node instanceof AcNormalNode && node.accept() ? ((AcNormalNode<TokenType>) node).getOutputId() : -1;
+    }
+
+    /**
+     * 当前统计的快照
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[termCount];
+        for (int i = 0; i < termCount; i++) {
+            counts[i] = termHits.get(i);
+        }
+        long[] hits = new long[TYPES.length], misses = new long[TYPES.length];
+        int[] usedTerms = new int[TYPES.length];
+        for (int t = 0; t < TYPES.length; t++) {
+            hits[t] = typeHits[t].sum();
+            misses[t] = typeMisses[t].sum();
+            AtomicLongArray bits = typeUsedBits[t];
+            for (int i = 0; i < bits.length(); i++) {
+                usedTerms[t] += Long.bitCount(bits.get(i));
+            }
+        }
+        return new Snapshot(counts, hits, misses, usedTerms);
+    }
+
+    /**
+     * 词库中的词, 下标为outputId
+     */
+    String[] terms() {
+        String[] array = terms;
+        if (array == null) {
+            final String[] words = new String[termCount];
+            collectTerms(root, words);
+            terms = array = words;
+        }
+        return array;
+    }
+
+    private static void collectTerms(Node<TokenType> node, final String[] words) {
+        node.childHandle(new NodeChildHandle<TokenType>() {
+            @Override
+            public boolean onHandle(Node<TokenType> child) {
+                if (child instanceof AcNormalNode) {
+                    AcNormalNode<TokenType> acNode = (AcNormalNode<TokenType>) child;
+                    int id = acNode.getOutputId();
+                    if (id >= 0 && id < words.length && acNode.getSingleOutput() != null) {
+                        //逆向前缀树中的词是逆序的
+                        words[id] = new StringBuilder(acNode.getSingleOutput()).reverse().toString();
+                    }
+                }
+                collectTerms(child, words);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 匹配次数最多的topN个词, 次数相同outputId小的在前
+     */
+    public List<Map.Entry<String, Long>> topN(int n) {
+        return snapshot().topN(n);
+    }
+
+    /**
+     * 将当前统计输出到文件, 先写临时文件再替换, 读取方不会读到写了一半的文件
+     * 文件内容: 各种匹配方式的统计, 然后是topN的词, 每行"词\t次数"
+     */
+    public void dump(Path file, int topN) throws IOException {
+        Snapshot snapshot = snapshot();
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            writer.write("# start: " + format.format(new Date(startTime)) + ", dump: " + format.format(new Date())
+                    + ", terms: " + termCount + ", unused terms: " + snapshot.getUnusedTermCount());
+            writer.newLine();
+            for (CjkAnalyzer.Type t : TYPES) {
+                writer.write("# " + t + " hits: " + snapshot.getHitCount(t) + ", miss: " + snapshot.getMissCount(t)
+                        + ", used terms: " + snapshot.getUsedTermCount(t));
+                writer.newLine();
+            }
+            for (Map.Entry<String, Long> e : snapshot.topN(topN)) {
+                writer.write(e.getKey());
+                writer.write('\t');
+                writer.write(Long.toString(e.getValue()));
+                writer.newLine();
+            }
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 后台线程定期{@link #dump(Path, int)}, 重复调用只有第一次有效
+     *
+     * @param period 间隔, 单位秒
+     */
+    public synchronized void startDump(final Path file, final int topN, long period) {
+        if (dumpExecutor != null) return;
+        dumpFile = file;
+        dumpTopN = topN;
+        dumpPeriod = period;
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "lexicon-hit-stats-dump");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dumpExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dump(file, topN);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("dump lexicon hit stats to " + file + " failed", e);
+                }
+            }
+        }, period, period, TimeUnit.SECONDS);
+        log.info("start dump lexicon hit stats to " + file + " every " + period + "s");
+    }
+
+    public void reset() {
+        for (int i = 0; i < termCount; i++) {
+            termHits.set(i, 0L);
+        }
+        for (int t = 0; t < TYPES.length; t++) {
+            typeHits[t].reset();
+            typeMisses[t].reset();
+            AtomicLongArray bits = typeUsedBits[t];
+            for (int i = 0; i < bits.length(); i++) {
+                bits.set(i, 0L);
+            }
+        }
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    /**
+     * 停止定期输出
+     */
+    @Override
+    public synchronized void close() {
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdownNow();
+            dumpExecutor = null;
+            dumpFile = null;
+        }
+    }
+
+    /**
+     * 统计快照, 各个计数不是在同一时刻读取的, 统计用足够了
+     */
+    public final class Snapshot {
+
+        private final long[] termHits;
+
+        private final long[] typeHits;
+
+        private final long[] typeMisses;
+
+        private final int[] typeUsedTerms;
+
+        Snapshot(long[] termHits, long[] typeHits, long[] typeMisses, int[] typeUsedTerms) {
+            this.termHits = termHits;
+            this.typeHits = typeHits;
+            this.typeMisses = typeMisses;
+            this.typeUsedTerms = typeUsedTerms;
+        }
+
+        /**
+         * @param termId 即{@link AcNormalNode#getOutputId()}
+         */
+        public long getTermHits(int termId) {
+            return termHits[termId];
+        }
+
+        public long getHitCount(CjkAnalyzer.Type type) {
+            return typeHits[type.ordinal()];
+        }
+
+        /**
+         * 不在词库中的匹配结果个数, 比如用户词库中的词
+         */
+        public long getMissCount(CjkAnalyzer.Type type) {
+            return typeMisses[type.ordinal()];
+        }
+
+        /**
+         * 该匹配方式用到的不同的词的个数
+         */
+        public int getUsedTermCount(CjkAnalyzer.Type type) {
+            return typeUsedTerms[type.ordinal()];
+        }
+
+        /**
+         * 从来没有匹配到的词的个数
+         */
+        public int getUnusedTermCount() {
+            int count = 0;
+            for (long c : termHits) {
+                if (c == 0) count++;
+            }
+            return count;
+        }
+
+        /**
+         * 从来没有匹配到的词, 可以考虑从词库中删除
+         */
+        public List<String> getUnusedTerms() {
+            String[] words = terms();
+            List<String> list = new ArrayList<>();
+            for (int i = 0; i < termHits.length; i++) {
+                if (termHits[i] == 0 && words[i] != null) list.add(words[i]);
+            }
+            return list;
+        }
+
+        public List<Map.Entry<String, Long>> topN(int n) {
+            if (n <= 0) return Collections.emptyList();
+            //最小堆, 堆顶为当前topN中最小的
+            PriorityQueue<Integer> heap = new PriorityQueue<>(n + 1, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    int cmp = Long.compare(termHits[o1], termHits[o2]);
+                    return cmp == 0 ? Integer.compare(o2, o1) : cmp;
+                }
+            });
+            for (int i = 0; i < termHits.length; i++) {
+                if (termHits[i] == 0) continue;
+                if (heap.size() < n) {
+                    heap.add(i);
+                } else if (termHits[i] > termHits[heap.peek()]) {
+                    heap.poll();
+                    heap.add(i);
+                }
+            }
+            String[] words = terms();
+            List<Map.Entry<String, Long>> list = new ArrayList<>(heap.size());
+            while (!heap.isEmpty()) {
+                int id = heap.poll();
+                list.add(CommonsUtils.newImmutableMapEntry(words[id], termHits[id]));
+            }
+            Collections.reverse(list);
+            return list;
+        }
+    }
+}
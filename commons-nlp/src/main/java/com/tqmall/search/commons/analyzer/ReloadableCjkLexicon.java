@@ -0,0 +1,352 @@
+package com.tqmall.search.commons.analyzer;
+
+import com.tqmall.search.commons.exception.LoadLexiconException;
+import com.tqmall.search.commons.lang.Supplier;
+import com.tqmall.search.commons.metrics.SegmentMetrics;
+import com.tqmall.search.commons.trie.RootNodeType;
+import com.tqmall.search.commons.utils.CommonsUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Created by xing on 16/4/21.
+ * 可热更新的{@link CjkLexicon}, 词库文件修改之后, 在后台线程重新构建一个新的{@link CjkLexicon}, 构建完成之后原子替换
+ * 替换之前正在执行的匹配依然使用原先的词库, 见{@link CjkAnalyzer#doMatch(CjkLexicon, char[], int, int)}, 所以分词不会因为重新加载而等待
+ * 重新加载的触发方式:
+ * 1. 显式调用{@link #reload()}或者{@link #reloadAsync()}
+ * 2. 调用{@link #startWatch(long)}, 通过{@link WatchService}监听词库文件的修改
+ * 注: 通过{@link CjkLexicon#addWord(String, TokenType)}, {@link CjkLexicon#addQuantifier(String)}等运行时的修改, 重新加载之后就没了,
+ * 用户词库{@link CjkLexicon#putOverlayWord(String, TokenType)}会保留到新的词库中, 匹配次数统计{@link CjkLexicon#enableHitStats()}也会继承到新的词库,
+ * 所以应该通过{@link #getHitStats()}获取当前的统计, 不要一直持有某个词库的统计
+ * 初始化时异步加载, 同{@link CjkLexicon#createAsyncSupplier(RootNodeType, Collection)}, 初次加载完成之前{@link #get()}会等待
+ *
+ * @author xing
+ * @see CjkAnalyzer
+ */
+public class ReloadableCjkLexicon implements Supplier<CjkLexicon>, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReloadableCjkLexicon.class);
+
+    private final RootNodeType rootNodeType;
+
+    private final List<Path> lexiconPaths;
+
+    /**
+     * 重新加载的后台线程, 所有的加载都在这个线程中串行执行
+     */
+    private final ExecutorService reloadExecutor;
+
+    private final Object lock = new Object();
+
+    /**
+     * 当前使用的词库, 原子替换
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * 初次加载的异常, 初次加载失败时, {@link #get()}抛出该异常
+     */
+    private volatile LoadLexiconException initException;
+
+    /**
+     * 是否已经有等待执行的异步加载, 多次触发只加载一次
+     */
+    private volatile Future<Boolean> pendingReload;
+
+    private WatchService watchService;
+
+    /**
+     * 记录加载耗时, 可以为null
+     */
+    private volatile SegmentMetrics metrics;
+
+    public ReloadableCjkLexicon(RootNodeType rootNodeType, Path lexiconPath) {
+        this(rootNodeType, Collections.singletonList(lexiconPath));
+    }
+
+    public ReloadableCjkLexicon(RootNodeType rootNodeType, Collection<Path> lexiconPaths) {
+        Objects.requireNonNull(rootNodeType);
+        if (CommonsUtils.isEmpty(lexiconPaths)) throw new IllegalArgumentException("lexiconPaths is empty");
+        this.rootNodeType = rootNodeType;
+        this.lexiconPaths = Collections.unmodifiableList(new ArrayList<>(lexiconPaths));
+        this.reloadExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cjk-lexicon-reload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reloadAsync();
+    }
+
+    /**
+     * 获取当前的词库, 初次加载完成之前会等待
+     *
+     * @throws LoadLexiconException 初次加载失败
+     */
+    @Override
+    public CjkLexicon get() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            boolean interrupted = false;
+            try {
+                synchronized (lock) {
+                    while ((s = snapshot) == null) {
+                        if (initException != null) throw initException;
+                        try {
+                            lock.wait(100L);
+                        } catch (InterruptedException e) {
+                            //没有词库无法分词, 继续等待, 返回之前恢复中断状态
+                            interrupted = true;
+                        }
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+        return s.lexicon;
+    }
+
+    /**
+     * 在当前线程中重新加载词库, 加载完成之后替换, 加载失败则依然使用原先的词库
+     *
+     * @return 是否加载成功
+     */
+    public boolean reload() {
+        synchronized (reloadExecutor) {
+            long startTime = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
+            CjkLexicon lexicon;
+            try {
+                lexicon = new CjkLexicon(rootNodeType, lexiconPaths);
+            } catch (RuntimeException e) {
+                SegmentMetrics m = metrics;
+                if (m != null) m.recordLexiconReload(false, System.nanoTime() - startNanos);
+                log.error("reload cjk lexicon: " + lexiconPaths + " failed, still use version: " + getVersion(), e);
+                if (snapshot == null) {
+                    initException = e instanceof LoadLexiconException ? (LoadLexiconException) e
+                            : new LoadLexiconException("load cjk lexicon: " + lexiconPaths + " have exception", e);
+                    synchronized (lock) {
+                        lock.notifyAll();
+                    }
+                }
+                return false;
+            }
+            Snapshot pre = snapshot;
+            long cost = System.currentTimeMillis() - startTime;
+            SegmentMetrics m = metrics;
+            if (m != null) m.recordLexiconReload(true, System.nanoTime() - startNanos);
+            final Snapshot cur = new Snapshot(lexicon, pre == null ? 1L : pre.version + 1, startTime, cost);
+            Runnable swap = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (lock) {
+                        snapshot = cur;
+                        initException = null;
+                        lock.notifyAll();
+                    }
+                }
+            };
+            if (pre == null) {
+                swap.run();
+            } else {
+                lexicon.inheritHitStats(pre.lexicon);
+                //用户词库的拷贝与替换在同一个锁内, 期间的修改不会丢失
+                lexicon.inheritOverlay(pre.lexicon, swap);
+            }
+            log.info("reload cjk lexicon: " + lexiconPaths + " finish, version: " + cur.version + ", cost: " + cost + "ms");
+            return true;
+        }
+    }
+
+    /**
+     * 在后台线程中重新加载词库, 如果已经有等待执行的加载, 直接返回该加载
+     *
+     * @return 加载结果, 见{@link #reload()}
+     */
+    public Future<Boolean> reloadAsync() {
+        synchronized (lock) {
+            Future<Boolean> future = pendingReload;
+            if (future != null) return future;
+            final FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    synchronized (lock) {
+                        pendingReload = null;
+                    }
+                    return reload();
+                }
+            });
+            pendingReload = task;
+            reloadExecutor.execute(task);
+            return task;
+        }
+    }
+
+    /**
+     * 通过{@link WatchService}监听词库文件所在目录, 词库文件修改之后, 等待quietMillis没有新的修改, 再重新加载
+     * 避免文件还在写入时就开始加载, 以及连续多次的修改多次加载
+     *
+     * @param quietMillis 最后一次修改之后等待的时间, 单位毫秒
+     * @throws IOException 创建{@link WatchService}或者注册目录失败
+     */
+    public synchronized void startWatch(final long quietMillis) throws IOException {
+        if (watchService != null) return;
+        final Map<Path, Set<Path>> dirFileMap = new HashMap<>();
+        for (Path p : lexiconPaths) {
+            Path absPath = p.toAbsolutePath();
+            Set<Path> files = dirFileMap.get(absPath.getParent());
+            if (files == null) {
+                files = new HashSet<>();
+                dirFileMap.put(absPath.getParent(), files);
+            }
+            files.add(absPath.getFileName());
+        }
+        final WatchService ws = FileSystems.getDefault().newWatchService();
+        try {
+            for (Path dir : dirFileMap.keySet()) {
+                dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        } catch (IOException e) {
+            ws.close();
+            throw e;
+        }
+        watchService = ws;
+        Thread watchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        if (!changed(ws.take(), dirFileMap)) continue;
+                        //等到没有新的修改再加载
+                        WatchKey key;
+                        while ((key = ws.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+                            changed(key, dirFileMap);
+                        }
+                        log.info("cjk lexicon files: " + lexiconPaths + " have modified, start reload");
+                        reload();
+                    }
+                } catch (ClosedWatchServiceException | InterruptedException e) {
+                    log.info("cjk lexicon files: " + lexiconPaths + " watch stopped");
+                }
+            }
+        }, "cjk-lexicon-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("start watch cjk lexicon files: " + lexiconPaths);
+    }
+
+    /**
+     * 处理{@link WatchKey}中的事件, 并重置key
+     *
+     * @return 事件中是否包含词库文件
+     */
+    private static boolean changed(WatchKey key, Map<Path, Set<Path>> dirFileMap) {
+        boolean changed = false;
+        Set<Path> files = dirFileMap.get((Path) key.watchable());
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+            } else if (files != null && files.contains((Path) event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * 当前词库版本, 每次加载成功加1, 初次加载完成之前为0
+     */
+    public long getVersion() {
+        Snapshot s = snapshot;
+        return s == null ? 0L : s.version;
+    }
+
+    /**
+     * 当前词库开始加载的时间戳
+     */
+    public long getLoadTime() {
+        Snapshot s = snapshot;
+        return s == null ? 0L : s.loadTime;
+    }
+
+    /**
+     * 当前词库加载耗时, 单位毫秒
+     */
+    public long getLoadCost() {
+        Snapshot s = snapshot;
+        return s == null ? 0L : s.loadCost;
+    }
+
+    /**
+     * 设置统计对象, 之后每次加载的耗时, 成功与否都记录到该对象中, 一般为使用该词库的{@link com.tqmall.search.commons.nlp.Segment#getMetrics()}
+     *
+     * @param metrics 为null则不再记录
+     */
+    public void setMetrics(SegmentMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 开启当前词库的匹配次数统计, 重新加载之后继承到新的词库
+     *
+     * @see CjkLexicon#enableHitStats()
+     */
+    public LexiconHitStats enableHitStats() {
+        return get().enableHitStats();
+    }
+
+    /**
+     * @return 当前词库的匹配次数统计, 没有开启或者初次加载还没有完成则为null
+     */
+    public LexiconHitStats getHitStats() {
+        Snapshot s = snapshot;
+        return s == null ? null : s.lexicon.getHitStats();
+    }
+
+    public List<Path> getLexiconPaths() {
+        return lexiconPaths;
+    }
+
+    /**
+     * 停止文件监听以及后台加载线程, 当前的词库依然可用
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+        reloadExecutor.shutdownNow();
+    }
+
+    /**
+     * 词库快照, 词库和版本信息一起替换
+     */
+    static final class Snapshot {
+
+        final CjkLexicon lexicon;
+
+        final long version;
+
+        final long loadTime;
+
+        final long loadCost;
+
+        Snapshot(CjkLexicon lexicon, long version, long loadTime, long loadCost) {
+            this.lexicon = lexicon;
+            this.version = version;
+            this.loadTime = loadTime;
+            this.loadCost = loadCost;
+        }
+    }
+}
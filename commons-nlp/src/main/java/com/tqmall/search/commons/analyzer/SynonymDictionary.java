@@ -0,0 +1,202 @@
+package com.tqmall.search.commons.analyzer;
+
+import com.tqmall.search.commons.ac.AcBinaryTrie;
+import com.tqmall.search.commons.lang.Function;
+import com.tqmall.search.commons.match.CharMapping;
+import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.match.HitHandle;
+import com.tqmall.search.commons.nlp.NlpUtils;
+import com.tqmall.search.commons.nlp.SegmentFilters;
+import com.tqmall.search.commons.trie.RootNodeType;
+import com.tqmall.search.commons.utils.CommonsUtils;
+import com.tqmall.search.commons.utils.SearchStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Created by xing on 16/4/29.
+ * 同义词词典, 用于分词之后的同义词扩展, 比如查询改写
+ * 词典文件每行为一组同义词, 通过','分隔, 比如: "机油,润滑油", 一个词出现在多组中, 其同义词为所有组的并集
+ * 同义词可以是多个分词结果组成的短语, 所有的词构建成一个{@link AcBinaryTrie}, 对分词文本做一次全匹配就能找到所有的同义词,
+ * 不需要对分词结果逐个n-gram查询
+ * 只有开始位置, 结束位置都和分词结果的边界对齐的匹配才做扩展, 避免词中间的片段被替换
+ * 词典中的词以及匹配时的文本都通过{@link SegmentFilters#charMapping()}归一化, 所以大小写, 全角半角, 繁简体不影响匹配
+ * 构建完成之后不再修改
+ *
+ * @author xing
+ * @see TokenGraph
+ * @see com.tqmall.search.commons.nlp.Segment#tokenGraph(char[], int, int)
+ */
+public class SynonymDictionary {
+
+    private static final Logger log = LoggerFactory.getLogger(SynonymDictionary.class);
+
+    /**
+     * 词典中的词, 下标即为termId, 保留词典中的原始写法
+     */
+    private final String[] terms;
+
+    /**
+     * 每个term的同义词termId, 不包括自己
+     */
+    private final int[][] synonyms;
+
+    /**
+     * 归一化之后的词 -> termId
+     */
+    private final AcBinaryTrie<Integer> termTrie;
+
+    private final CharMapping charMapping = SegmentFilters.charMapping();
+
+    public SynonymDictionary(Path path) {
+        this(Collections.singletonList(path));
+    }
+
+    /**
+     * 读取词典文件, 如果存在异常则抛出{@link com.tqmall.search.commons.exception.LoadLexiconException}
+     */
+    public SynonymDictionary(Collection<Path> paths) {
+        this(load(paths));
+    }
+
+    private SynonymDictionary(Builder builder) {
+        int size = builder.termIdMap.size();
+        terms = builder.terms.toArray(new String[size]);
+        synonyms = new int[size][];
+        AcBinaryTrie.Builder<Integer> trieBuilder = AcBinaryTrie.build();
+        for (Map.Entry<String, Integer> e : builder.termIdMap.entrySet()) {
+            int id = e.getValue();
+            Set<Integer> set = builder.synonymSets.get(id);
+            int[] array = new int[set.size()];
+            int i = 0;
+            for (Integer s : set) {
+                array[i++] = s;
+            }
+            Arrays.sort(array);
+            synonyms[id] = array;
+            trieBuilder.put(e.getKey(), id);
+        }
+        termTrie = trieBuilder.create(RootNodeType.NORMAL.<Integer>defaultAcTrie());
+    }
+
+    private static Builder load(Collection<Path> paths) {
+        if (CommonsUtils.isEmpty(paths)) throw new IllegalArgumentException("synonym paths is empty");
+        final Builder builder = new Builder();
+        long lineCount = NlpUtils.loadLexicon(new Function<String, Boolean>() {
+            @Override
+            public Boolean apply(String line) {
+                builder.addGroup(line.split(","));
+                return true;
+            }
+        }, paths);
+        log.info("load synonym dictionary: " + paths + " finish, total " + lineCount + " lines, " + builder.terms.size() + " terms");
+        return builder;
+    }
+
+    /**
+     * 词典中词的个数
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    public String getTerm(int termId) {
+        return terms[termId];
+    }
+
+    /**
+     * @return termId的同义词, 不要修改返回的数组
+     */
+    public int[] getSynonyms(int termId) {
+        return synonyms[termId];
+    }
+
+    /**
+     * 对分词结果做同义词扩展
+     *
+     * @param text 分词文本
+     * @param hits 分词结果, 有序, 比如{@link com.tqmall.search.commons.nlp.Segment#match(char[], int, int)}的结果
+     * @return 包含分词结果以及同义词的词图
+     */
+    public TokenGraph expand(char[] text, int off, int len, List<Hit<TokenType>> hits) {
+        return TokenGraph.create(text, off, len, hits, this);
+    }
+
+    /**
+     * 全匹配text, 与分词边界对齐的匹配, 将其同义词添加到graph中
+     *
+     * @param marks  分词结果边界标记, 见{@link TokenGraph#START_MARK}, {@link TokenGraph#END_MARK}
+     * @param before 各个位置对应的分词位置
+     */
+    void appendSynonyms(final TokenGraph graph, char[] text, final int off, int len, final int[] marks, final int[] before) {
+        termTrie.match(text, off, len, charMapping, new HitHandle<Integer>() {
+            @Override
+            public boolean onHit(int start, int end, Integer termId) {
+                int s = start - off, e = end - off;
+                if ((marks[s] & TokenGraph.START_MARK) == 0 || (marks[e] & TokenGraph.END_MARK) == 0) return true;
+                for (int synonym : synonyms[termId]) {
+                    graph.add(start, end, before[s], before[e] - before[s], TokenType.CN, synonym);
+                }
+                return true;
+            }
+        });
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final Map<String, Integer> termIdMap = new HashMap<>();
+
+        private final List<String> terms = new ArrayList<>();
+
+        private final List<Set<Integer>> synonymSets = new ArrayList<>();
+
+        private final CharMapping charMapping = SegmentFilters.charMapping();
+
+        /**
+         * 添加一组同义词, 少于两个有效的词则忽略
+         */
+        public Builder addGroup(String... words) {
+            List<Integer> ids = new ArrayList<>(words.length);
+            for (String w : words) {
+                w = SearchStringUtils.filterString(w);
+                if (w == null) continue;
+                Integer id = termId(w);
+                if (!ids.contains(id)) ids.add(id);
+            }
+            if (ids.size() < 2) return this;
+            for (Integer id : ids) {
+                Set<Integer> set = synonymSets.get(id);
+                set.addAll(ids);
+                set.remove(id);
+            }
+            return this;
+        }
+
+        private Integer termId(String word) {
+            char[] array = word.toCharArray();
+            for (int i = 0; i < array.length; i++) {
+                array[i] = charMapping.map(array[i]);
+            }
+            String key = new String(array);
+            Integer id = termIdMap.get(key);
+            if (id == null) {
+                id = terms.size();
+                termIdMap.put(key, id);
+                terms.add(word);
+                synonymSets.add(new LinkedHashSet<Integer>());
+            }
+            return id;
+        }
+
+        public SynonymDictionary create() {
+            return new SynonymDictionary(this);
+        }
+    }
+}
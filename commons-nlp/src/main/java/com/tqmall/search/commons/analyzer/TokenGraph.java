@@ -0,0 +1,199 @@
+package com.tqmall.search.commons.analyzer;
+
+import com.tqmall.search.commons.match.CharSlice;
+import com.tqmall.search.commons.match.Hit;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by xing on 16/4/29.
+ * 分词结果加上同义词扩展之后的词图, 所有字段都存在基本类型数组中
+ * 每个token有:
+ * 1. 字符位置: [start, end), 同义词为被替换的原文本片段的位置
+ * 2. position: 所在的分词位置, 即开始位置之前不同的分词开始位置的个数, 同一个位置的token可以互相替换
+ * 3. positionLength: 跨越的分词位置个数, 多个词组成的短语的同义词大于1
+ * 4. 分词结果token的{@link TokenType}, 同义词token的termId, 见{@link SynonymDictionary#getTerm(int)}
+ * 分词结果的token在前, 顺序同分词结果, 同义词token在后
+ *
+ * @author xing
+ * @see SynonymDictionary#expand(char[], int, int, List)
+ */
+public final class TokenGraph {
+
+    /**
+     * 分词结果token开始位置的标记
+     */
+    static final int START_MARK = 1;
+
+    /**
+     * 分词结果token结束位置的标记
+     */
+    static final int END_MARK = 2;
+
+    private final char[] text;
+
+    private final SynonymDictionary dictionary;
+
+    private int size;
+
+    private int positionCount;
+
+    private int[] starts, ends, positions, positionLengths, termIds;
+
+    private TokenType[] tokenTypes;
+
+    TokenGraph(char[] text, SynonymDictionary dictionary, int capacity) {
+        this.text = text;
+        this.dictionary = dictionary;
+        capacity = Math.max(capacity, 4);
+        starts = new int[capacity];
+        ends = new int[capacity];
+        positions = new int[capacity];
+        positionLengths = new int[capacity];
+        termIds = new int[capacity];
+        tokenTypes = new TokenType[capacity];
+    }
+
+    /**
+     * 只有分词结果的词图
+     *
+     * @param hits 分词结果, 有序
+     */
+    public static TokenGraph valueOf(char[] text, int off, int len, List<Hit<TokenType>> hits) {
+        return create(text, off, len, hits, null);
+    }
+
+    /**
+     * 通过分词结果构建词图, 需要的话再添加同义词
+     *
+     * @param hits       分词结果, 有序
+     * @param dictionary 同义词词典, 为null则只有分词结果
+     */
+    static TokenGraph create(char[] text, int off, int len, List<Hit<TokenType>> hits, SynonymDictionary dictionary) {
+        int hitSize = hits == null ? 0 : hits.size();
+        TokenGraph graph = new TokenGraph(text, dictionary, hitSize + (hitSize >> 1));
+        if (hitSize == 0) return graph;
+        //marks[i]: 位置off + i是否为某个token的开始, 结束位置; before[i]: off + i之前不同的开始位置个数, 即分词位置
+        int[] marks = new int[len + 1];
+        for (Hit<TokenType> h : hits) {
+            marks[h.getStart() - off] |= START_MARK;
+            marks[h.getEnd() - off] |= END_MARK;
+        }
+        int[] before = new int[len + 1];
+        int count = 0;
+        for (int i = 0; i <= len; i++) {
+            before[i] = count;
+            if ((marks[i] & START_MARK) != 0) count++;
+        }
+        graph.positionCount = count;
+        for (Hit<TokenType> h : hits) {
+            int s = h.getStart() - off, e = h.getEnd() - off;
+            graph.add(h.getStart(), h.getEnd(), before[s], before[e] - before[s], h.getValue(), -1);
+        }
+        if (dictionary != null) {
+            dictionary.appendSynonyms(graph, text, off, len, marks, before);
+        }
+        return graph;
+    }
+
+    /**
+     * @param termId 分词结果的token为-1
+     */
+    void add(int start, int end, int position, int positionLength, TokenType tokenType, int termId) {
+        if (size == starts.length) {
+            int capacity = size << 1;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            positionLengths = Arrays.copyOf(positionLengths, capacity);
+            termIds = Arrays.copyOf(termIds, capacity);
+            tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        positions[size] = position;
+        positionLengths[size] = positionLength;
+        tokenTypes[size] = tokenType;
+        termIds[size] = termId;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 分词位置的个数
+     */
+    public int getPositionCount() {
+        return positionCount;
+    }
+
+    public int getStart(int i) {
+        checkIndex(i);
+        return starts[i];
+    }
+
+    public int getEnd(int i) {
+        checkIndex(i);
+        return ends[i];
+    }
+
+    public int getPosition(int i) {
+        checkIndex(i);
+        return positions[i];
+    }
+
+    public int getPositionLength(int i) {
+        checkIndex(i);
+        return positionLengths[i];
+    }
+
+    public boolean isSynonym(int i) {
+        checkIndex(i);
+        return termIds[i] >= 0;
+    }
+
+    /**
+     * @return 同义词token为对应短语的{@link TokenType}, 没有指定则为{@link TokenType#CN}
+     */
+    public TokenType getTokenType(int i) {
+        checkIndex(i);
+        return tokenTypes[i];
+    }
+
+    /**
+     * @return 同义词token在{@link SynonymDictionary}中的termId, 分词结果的token为-1
+     */
+    public int getTermId(int i) {
+        checkIndex(i);
+        return termIds[i];
+    }
+
+    /**
+     * @return token的文本, 分词结果的token为原文本的视图, 不创建String
+     */
+    public CharSequence getTerm(int i) {
+        checkIndex(i);
+        return termIds[i] >= 0 ? dictionary.getTerm(termIds[i]) : new CharSlice(text, starts[i], ends[i] - starts[i]);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("index: " + i + ", size: " + size);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(getTerm(i)).append('[').append(positions[i]);
+            if (positionLengths[i] != 1) sb.append('+').append(positionLengths[i]);
+            sb.append(']');
+            if (termIds[i] >= 0) sb.append("syn");
+            else if (tokenTypes[i] != null) sb.append(tokenTypes[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
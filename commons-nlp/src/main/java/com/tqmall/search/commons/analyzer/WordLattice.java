@@ -0,0 +1,211 @@
+package com.tqmall.search.commons.analyzer;
+
+import com.tqmall.search.commons.match.CharMapping;
+import com.tqmall.search.commons.match.CharSlice;
+import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.match.HitHandle;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Created by xing on 16/4/27.
+ * 词图(DAG), 节点为文本中的位置, 边为词库匹配到的词, 边的权重为词的对数概率{@link CjkLexicon#logProbability(CharSequence)}
+ * 通过一次全匹配构建, 边都存在基本类型数组中, 以开始位置为链表头, 不创建{@link Hit}对象
+ * 从后往前动态规划求概率最大的路径, 每个位置除了词库中的词之外, 还有一条到下一个位置的单字边, 其权重为{@link CjkLexicon#unknownLogProbability()}
+ * 最后只为最优路径上的词创建{@link Hit}
+ * 对象可以重复使用, 非线程安全, 通过{@link #current()}获取线程内的实例
+ *
+ * @author xing
+ * @see CjkLexicon#probMatch(char[], int, int)
+ */
+final class WordLattice implements HitHandle<TokenType> {
+
+    private static final int INIT_CAPACITY = 64;
+
+    /**
+     * 数组长度超过该值, 用完之后不再保留, 避免一次长文本之后线程一直持有大数组
+     */
+    private static final int MAX_RETAIN_CAPACITY = 1 << 14;
+
+    private static final ThreadLocal<WordLattice> LOCAL = new ThreadLocal<WordLattice>() {
+        @Override
+        protected WordLattice initialValue() {
+            return new WordLattice();
+        }
+    };
+
+    static WordLattice current() {
+        return LOCAL.get();
+    }
+
+    private CjkLexicon lexicon;
+
+    private char[] text;
+
+    /**
+     * 查询词权重时的文本, 没有字符映射时为text, 有字符映射时为映射之后的{@link #mappedText}, 需要时才映射
+     */
+    private char[] keyText;
+
+    /**
+     * 文本中的位置减去该值为{@link #keyText}中的位置, 映射之后的文本从0开始存放
+     */
+    private int keyOff;
+
+    /**
+     * 字符映射之后的文本, 只存放[off, off + len), 重复使用
+     */
+    private char[] mappedText = new char[INIT_CAPACITY];
+
+    private CharMapping charMapping;
+
+    private int off, len;
+
+    /**
+     * 各个位置(相对于off)开始的第一条边, -1表示没有
+     */
+    private int[] head = new int[INIT_CAPACITY];
+
+    private int edgeCount;
+
+    private int[] edgeNext = new int[INIT_CAPACITY];
+
+    private int[] edgeEnd = new int[INIT_CAPACITY];
+
+    private double[] edgeWeight = new double[INIT_CAPACITY];
+
+    private TokenType[] edgeValue = new TokenType[INIT_CAPACITY];
+
+    /**
+     * 各个位置到文本结尾的最大对数概率
+     */
+    private double[] best = new double[INIT_CAPACITY];
+
+    /**
+     * 各个位置最优路径上的边, -1表示单字边
+     */
+    private int[] bestEdge = new int[INIT_CAPACITY];
+
+    private final CharSlice slice = new CharSlice();
+
+    private WordLattice() {
+    }
+
+    /**
+     * @param charMapping 匹配时的字符映射, 词权重根据映射之后的词查询, 可以为null
+     */
+    void reset(CjkLexicon lexicon, char[] text, int off, int len, CharMapping charMapping) {
+        this.lexicon = lexicon;
+        this.text = text;
+        this.keyText = charMapping == null ? text : null;
+        this.keyOff = charMapping == null ? 0 : off;
+        this.charMapping = charMapping;
+        this.off = off;
+        this.len = len;
+        if (head.length <= len) {
+            int capacity = Math.max(len + 1, head.length << 1);
+            head = new int[capacity];
+            best = new double[capacity];
+            bestEdge = new int[capacity];
+        }
+        Arrays.fill(head, 0, len + 1, -1);
+        edgeCount = 0;
+    }
+
+    /**
+     * 添加一条边, 后添加的边在链表的前面, 权重相同时优先选择
+     */
+    @Override
+    public boolean onHit(int start, int end, TokenType value) {
+        if (edgeCount == edgeEnd.length) {
+            int capacity = edgeCount << 1;
+            edgeNext = Arrays.copyOf(edgeNext, capacity);
+            edgeEnd = Arrays.copyOf(edgeEnd, capacity);
+            edgeWeight = Arrays.copyOf(edgeWeight, capacity);
+            edgeValue = Arrays.copyOf(edgeValue, capacity);
+        }
+        int e = edgeCount++;
+        int i = start - off;
+        edgeEnd[e] = end - off;
+        edgeWeight[e] = lexicon.hasWordWeights() ? lexicon.logProbability(slice.reset(keyText(), start - keyOff, end - start))
+                : lexicon.defaultLogProbability();
+        edgeValue[e] = value;
+        edgeNext[e] = head[i];
+        head[i] = e;
+        return true;
+    }
+
+    private char[] keyText() {
+        if (keyText == null) {
+            if (mappedText.length < len) {
+                mappedText = new char[Math.max(len, mappedText.length << 1)];
+            }
+            for (int i = 0; i < len; i++) {
+                mappedText[i] = charMapping.map(text[off + i]);
+            }
+            keyText = mappedText;
+        }
+        return keyText;
+    }
+
+    /**
+     * 动态规划求最优路径, 返回路径上所有的词, 单字边不返回, 结果有序
+     * 同其他匹配方式返回{@link LinkedList}, {@link CjkAnalyzer#match(char[], int, int)}通过ListIterator插入单字以及数词, 插入是O(1)的
+     */
+    List<Hit<TokenType>> bestPath() {
+        final double unknown = lexicon.unknownLogProbability();
+        best[len] = 0.0;
+        for (int i = len - 1; i >= 0; i--) {
+            double max = unknown + best[i + 1];
+            int maxEdge = -1;
+            for (int e = head[i]; e != -1; e = edgeNext[e]) {
+                double w = edgeWeight[e] + best[edgeEnd[e]];
+                if (w > max) {
+                    max = w;
+                    maxEdge = e;
+                }
+            }
+            best[i] = max;
+            bestEdge[i] = maxEdge;
+        }
+        List<Hit<TokenType>> hits = new LinkedList<>();
+        int i = 0;
+        while (i < len) {
+            int e = bestEdge[i];
+            if (e == -1) {
+                i++;
+            } else {
+                hits.add(new Hit<>(off + i, off + edgeEnd[e], edgeValue[e]));
+                i = edgeEnd[e];
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 使用完之后释放引用, 数组过大时也释放
+     */
+    void clear() {
+        lexicon = null;
+        text = null;
+        keyText = null;
+        charMapping = null;
+        Arrays.fill(edgeValue, 0, edgeCount, null);
+        if (mappedText.length > MAX_RETAIN_CAPACITY) {
+            mappedText = new char[INIT_CAPACITY];
+        }
+        if (head.length > MAX_RETAIN_CAPACITY) {
+            head = new int[INIT_CAPACITY];
+            best = new double[INIT_CAPACITY];
+            bestEdge = new int[INIT_CAPACITY];
+        }
+        if (edgeEnd.length > MAX_RETAIN_CAPACITY) {
+            edgeNext = new int[INIT_CAPACITY];
+            edgeEnd = new int[INIT_CAPACITY];
+            edgeWeight = new double[INIT_CAPACITY];
+            edgeValue = new TokenType[INIT_CAPACITY];
+        }
+    }
+}
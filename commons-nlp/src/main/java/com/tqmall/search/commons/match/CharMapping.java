@@ -0,0 +1,19 @@
+package com.tqmall.search.commons.match;
+
+/**
+ * Created by xing on 16/4/28.
+ * 字符映射, 匹配时遍历前缀树之前先映射字符, 比如大小写, 全角半角, 繁简转换, 实现归一化匹配
+ * 输入文本不需要拷贝, 也不会被修改, 匹配结果的位置就是原文本中的位置
+ * 映射只能是字符到字符的一一映射, 不改变文本长度
+ *
+ * @author xing
+ * @see CharMappings
+ * @see TextMatcher
+ */
+public interface CharMapping {
+
+    /**
+     * @return 映射之后的字符, 不需要映射则返回c
+     */
+    char map(char c);
+}
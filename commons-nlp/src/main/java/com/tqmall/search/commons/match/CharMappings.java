@@ -0,0 +1,57 @@
+package com.tqmall.search.commons.match;
+
+import java.util.Objects;
+
+/**
+ * Created by xing on 16/4/28.
+ * {@link CharMapping}相关工具类
+ *
+ * @author xing
+ */
+public final class CharMappings {
+
+    private CharMappings() {
+    }
+
+    /**
+     * 将mapping预先计算成一张完整的映射表, 共65536个字符, 占用128KB内存, 之后的映射就是一次数组访问
+     * 适用于计算较复杂的映射, 比如繁简转换需要查询Map
+     */
+    public static CharMapping table(CharMapping mapping) {
+        Objects.requireNonNull(mapping);
+        if (mapping instanceof Table) return mapping;
+        char[] table = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            table[c] = mapping.map((char) c);
+        }
+        return new Table(table);
+    }
+
+    /**
+     * 文本从off开始的len个字符逆序拷贝, 同时做字符映射
+     *
+     * @param mapping 可以为null, 则只逆序拷贝
+     * @return 新的数组, 长度为len
+     */
+    public static char[] reverseCopy(char[] text, int off, int len, CharMapping mapping) {
+        char[] array = new char[len];
+        for (int i = 0, j = off + len - 1; i < len; i++, j--) {
+            array[i] = mapping == null ? text[j] : mapping.map(text[j]);
+        }
+        return array;
+    }
+
+    static final class Table implements CharMapping {
+
+        private final char[] table;
+
+        Table(char[] table) {
+            this.table = table;
+        }
+
+        @Override
+        public char map(char c) {
+            return table[c];
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.tqmall.search.commons.match;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Created by xing on 16/4/25.
+ * 字符数组片段的{@link CharSequence}视图, 不拷贝字符, 匹配结果的词可以通过该对象查询HashMap, 输出到buffer, 需要时才通过{@link #toString()}创建String
+ * {@link #hashCode()}与内容相同的{@link String#hashCode()}一致, {@link #equals(Object)}, {@link #compareTo(CharSlice)}只认CharSlice,
+ * 与String比较内容通过{@link #contentEquals(CharSequence)}
+ * 查询时不创建String: Map的key通过{@link #copyOf(CharSequence)}创建, 之后通过同一个视图对象查询; 以String为key的Map通过{@link #lookup(Map)}查询
+ * 对象可以通过{@link #reset(char[], int, int)}重复使用, 作为flyweight遍历匹配结果时不需要分配新对象
+ * 注: 只是视图, 底层数组修改了, 内容也就变了; 非线程安全
+ *
+ * @author xing
+ * @see Hit#keyView(char[], CharSlice)
+ */
+public final class CharSlice implements CharSequence, Comparable<CharSlice> {
+
+    private char[] array;
+
+    private int offset;
+
+    private int length;
+
+    /**
+     * hash缓存, 0表示还没有计算
+     */
+    private int hash;
+
+    private String str;
+
+    public CharSlice() {
+    }
+
+    public CharSlice(char[] array, int offset, int length) {
+        reset(array, offset, length);
+    }
+
+    /**
+     * 拷贝内容创建CharSlice, 底层数组不会再修改, 可以作为Map的key
+     */
+    public static CharSlice copyOf(CharSequence cs) {
+        if (cs instanceof CharSlice) {
+            CharSlice slice = (CharSlice) cs;
+            char[] array = new char[slice.length];
+            System.arraycopy(slice.array, slice.offset, array, 0, slice.length);
+            return new CharSlice(array, 0, array.length);
+        }
+        String str = cs.toString();
+        return new CharSlice(str.toCharArray(), 0, str.length());
+    }
+
+    /**
+     * 重新指向新的数组片段
+     *
+     * @return this
+     */
+    public CharSlice reset(char[] array, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new IndexOutOfBoundsException("array length: " + array.length + ", offset: " + offset + ", length: " + length);
+        }
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        this.hash = 0;
+        this.str = null;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        }
+        return array[offset + index];
+    }
+
+    /**
+     * 返回的依然是视图, 不拷贝
+     */
+    @Override
+    public CharSlice subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+        }
+        return new CharSlice(array, offset + start, end - start);
+    }
+
+    public char[] getArray() {
+        return array;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * 追加到sb, 直接数组拷贝
+     */
+    public StringBuilder appendTo(StringBuilder sb) {
+        return sb.append(array, offset, length);
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(array, offset, length);
+    }
+
+    /**
+     * 同{@link String#hashCode()}的算法
+     */
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0 && length > 0) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                h = 31 * h + array[i];
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * 只与内容相同的{@link CharSlice}相等, 与String比较通过{@link #contentEquals(CharSequence)}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        return o instanceof CharSlice && contentEquals((CharSlice) o);
+    }
+
+    /**
+     * 与任意{@link CharSequence}比较内容
+     */
+    public boolean contentEquals(CharSequence cs) {
+        if (cs.length() != length) return false;
+        if (cs instanceof CharSlice) {
+            CharSlice other = (CharSlice) cs;
+            for (int i = 0; i < length; i++) {
+                if (array[offset + i] != other.array[other.offset + i]) return false;
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (array[offset + i] != cs.charAt(i)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 同{@link String#compareTo(String)}的算法, 与{@link #equals(Object)}一致
+     */
+    @Override
+    public int compareTo(CharSlice o) {
+        return compareContent(o);
+    }
+
+    /**
+     * 与任意{@link CharSequence}按字符比较内容, 同{@link String#compareTo(String)}的算法
+     */
+    public int compareContent(CharSequence cs) {
+        int len = Math.min(length, cs.length());
+        for (int i = 0; i < len; i++) {
+            char c1 = array[offset + i], c2 = cs.charAt(i);
+            if (c1 != c2) return c1 - c2;
+        }
+        return length - cs.length();
+    }
+
+    /**
+     * 查询以String为key的Map, 需要创建String, 结果缓存到下次{@link #reset(char[], int, int)}
+     * 频繁查询的话Map的key改为{@link #copyOf(CharSequence)}创建的CharSlice, 查询时不创建String
+     */
+    public <V> V lookup(Map<String, V> map) {
+        return map.get(toString());
+    }
+
+    /**
+     * 创建String, 结果缓存, 直到下次{@link #reset(char[], int, int)}
+     */
+    @Override
+    public String toString() {
+        if (str == null) {
+            str = length == 0 ? "" : new String(array, offset, length);
+        }
+        return str;
+    }
+}
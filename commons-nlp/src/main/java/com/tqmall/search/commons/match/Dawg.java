@@ -0,0 +1,564 @@
+package com.tqmall.search.commons.match;
+
+import com.tqmall.search.commons.nlp.NlpUtils;
+import com.tqmall.search.commons.trie.Node;
+import com.tqmall.search.commons.trie.NodeChildHandle;
+import com.tqmall.search.commons.trie.Trie;
+import com.tqmall.search.commons.utils.CommonsUtils;
+
+import java.util.*;
+
+/**
+ * Created by xing on 16/4/24.
+ * 最小化的有向无环词图(DAWG), 前缀树只共享前缀, DAWG同时共享后缀, 中文词库中大量的"...器", "...机", "...油"等词的后缀只存一份
+ * 词按照字典序编号, 每个转移记录跳过的词的个数, 遍历时累加即可得到词的编号(最小完美hash), value通过编号存放在{@link #values}中
+ * 所有的状态, 转移都存放在基本类型数组中, 没有{@link com.tqmall.search.commons.trie.NormalNode}对象
+ * <p/>
+ * 对外通过{@link Node}视图{@link #getRoot()}访问, 所以可以直接使用{@link TextMatcher}的最大, 最小匹配, 视图节点在遍历时临时创建
+ * reverse为true时, 同{@link MatchBinaryReverseTrie}, 词逆向存放, 查询接口的参数依然是正向的
+ * 构建之后不可修改, put, remove, clear等修改操作抛出{@link UnsupportedOperationException}, 适用于不需要运行时修改的词库
+ *
+ * @author xing
+ * @see Builder
+ * @see MatchBinaryReverseTrie
+ */
+public final class Dawg<V> extends AbstractTextMatch<V> implements Trie<V> {
+
+    private final boolean reverse;
+
+    /**
+     * 状态s的转移为[stateBase[s], stateBase[s + 1])
+     */
+    private final int[] stateBase;
+
+    private final BitSet finalStates;
+
+    /**
+     * 每个状态的转移按照字符升序
+     */
+    private final char[] transChars;
+
+    private final int[] transTargets;
+
+    /**
+     * 通过该转移时, 词编号需要累加的值: 当前状态是否为词 + 前面的转移可以到达的词的个数
+     */
+    private final int[] transSkip;
+
+    private final List<V> values;
+
+    private final Node<V> root;
+
+    private final TextMatcher<V> minTextMatcher;
+
+    private final TextMatcher<V> maxTextMatcher;
+
+    private Dawg(boolean reverse, int[] stateBase, BitSet finalStates, char[] transChars, int[] transTargets,
+                 int[] transSkip, List<V> values) {
+        this.reverse = reverse;
+        this.stateBase = stateBase;
+        this.finalStates = finalStates;
+        this.transChars = transChars;
+        this.transTargets = transTargets;
+        this.transSkip = transSkip;
+        this.values = values;
+        this.root = new DawgNode('\0', 0, 0);
+        minTextMatcher = TextMatcher.minMatcher(root, false);
+        maxTextMatcher = TextMatcher.maxMatcher(root, false);
+    }
+
+    /**
+     * @return 转移的下标, 不存在返回-1
+     */
+    private int transition(int state, char c) {
+        int low = stateBase[state], high = stateBase[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midVal = transChars[mid];
+            if (midVal < c) low = mid + 1;
+            else if (midVal > c) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * 数组参数不做越界检查, key的顺序为存储的顺序
+     *
+     * @return 词的编号, 不是词返回-1
+     */
+    private int wordIndex(char[] key, int off, int len) {
+        int state = 0, index = 0;
+        for (int i = off; i < off + len; i++) {
+            int t = transition(state, key[i]);
+            if (t < 0) return -1;
+            index += transSkip[t];
+            state = transTargets[t];
+        }
+        return finalStates.get(state) ? index : -1;
+    }
+
+    private char[] storeKey(String key) {
+        char[] array = NlpUtils.stringToCharArray(key);
+        if (array != null && reverse) NlpUtils.reverseCharArray(array);
+        return array;
+    }
+
+    public boolean contains(char[] key, int off, int len) {
+        if (reverse) {
+            key = Arrays.copyOfRange(key, off, off + len);
+            NlpUtils.reverseCharArray(key);
+            off = 0;
+        }
+        return wordIndex(key, off, len) >= 0;
+    }
+
+    public boolean contains(String key) {
+        char[] array = storeKey(key);
+        return array != null && wordIndex(array, 0, array.length) >= 0;
+    }
+
+    /**
+     * @return 词对应的value, 不存在返回null
+     */
+    public V get(String key) {
+        char[] array = storeKey(key);
+        if (array == null) return null;
+        int index = wordIndex(array, 0, array.length);
+        return index < 0 ? null : values.get(index);
+    }
+
+    @Override
+    public Node<V> getNode(String key) {
+        char[] array = storeKey(key);
+        return array == null ? null : getNodeInner(array, 0, array.length);
+    }
+
+    @Override
+    public Node<V> getNode(char[] key, int off, int len) {
+        if (reverse) {
+            key = Arrays.copyOfRange(key, off, off + len);
+            NlpUtils.reverseCharArray(key);
+            off = 0;
+        }
+        return getNodeInner(key, off, len);
+    }
+
+    private Node<V> getNodeInner(char[] key, int off, int len) {
+        Node<V> node = root;
+        for (int i = off; i < off + len && node != null; i++) {
+            node = node.getChild(key[i]);
+        }
+        return node;
+    }
+
+    /**
+     * reverse为true时, 同{@link MatchBinaryReverseTrie#prefixSearch(String)}
+     */
+    @Override
+    public List<Map.Entry<String, V>> prefixSearch(String word) {
+        char[] array = storeKey(word);
+        if (array == null) return null;
+        Node<V> node = getNodeInner(array, 0, array.length);
+        if (node == null) return null;
+        List<Map.Entry<String, V>> result = node.allChildWords(array);
+        if (reverse) {
+            ListIterator<Map.Entry<String, V>> it = result.listIterator();
+            while (it.hasNext()) {
+                Map.Entry<String, V> e = it.next();
+                it.set(CommonsUtils.newImmutableMapEntry(NlpUtils.reverseString(e.getKey()), e.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 全匹配, 返回所有能够匹配到的词, 结果有序
+     */
+    @Override
+    public List<Hit<V>> match(char[] text, int off, int len) {
+        final int endPos = off + len;
+        NlpUtils.arrayIndexCheck(text, off, endPos);
+        if (len == 0) return null;
+        List<Hit<V>> hits = new LinkedList<>();
+        if (reverse) {
+            //从每个结束位置向前查找
+            for (int end = off + 1; end <= endPos; end++) {
+                int state = 0, index = 0;
+                for (int i = end - 1; i >= off; i--) {
+                    int t = transition(state, text[i]);
+                    if (t < 0) break;
+                    index += transSkip[t];
+                    state = transTargets[t];
+                    if (finalStates.get(state)) hits.add(new Hit<>(i, end, values.get(index)));
+                }
+            }
+            if (!Hits.isSorted(hits)) Hits.sort(hits, off, len);
+        } else {
+            for (int start = off; start < endPos; start++) {
+                int state = 0, index = 0;
+                for (int i = start; i < endPos; i++) {
+                    int t = transition(state, text[i]);
+                    if (t < 0) break;
+                    index += transSkip[t];
+                    state = transTargets[t];
+                    if (finalStates.get(state)) hits.add(new Hit<>(start, i + 1, values.get(index)));
+                }
+            }
+        }
+        return hits;
+    }
+
+    public List<Hit<V>> maxMatch(String text) {
+        return maxMatch(text.toCharArray(), 0, text.length());
+    }
+
+    public List<Hit<V>> maxMatch(char[] text, int off, int len) {
+        return reverse ? MatchBinaryReverseTrie.reverseMatch(maxTextMatcher, text, off, len) : maxTextMatcher.match(text, off, len);
+    }
+
+    public List<Hit<V>> minMatch(String text) {
+        return minMatch(text.toCharArray(), 0, text.length());
+    }
+
+    public List<Hit<V>> minMatch(char[] text, int off, int len) {
+        return reverse ? MatchBinaryReverseTrie.reverseMatch(minTextMatcher, text, off, len) : minTextMatcher.match(text, off, len);
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    public int getStateCount() {
+        return stateBase.length - 1;
+    }
+
+    public int getTransitionCount() {
+        return transChars.length;
+    }
+
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    /**
+     * 只读的根节点视图
+     */
+    public Node<V> getRoot() {
+        return root;
+    }
+
+    @Override
+    public boolean put(String key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(String key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 状态的只读视图, 同一个状态在不同路径下的词编号不同, 所以每次遍历都创建新的视图节点
+     */
+    private final class DawgNode extends Node<V> {
+
+        private final int state;
+
+        /**
+         * 字典序在当前路径之前的词的个数, 如果当前路径是词, 即为该词的编号
+         */
+        private final int index;
+
+        DawgNode(char ch, int state, int index) {
+            super(ch, finalStates.get(state) ? (stateBase[state + 1] > stateBase[state] ? Status.WORD : Status.LEAF_WORD)
+                    : Status.NORMAL, finalStates.get(state) ? values.get(index) : null);
+            this.state = state;
+            this.index = index;
+        }
+
+        private DawgNode child(int t) {
+            return new DawgNode(transChars[t], transTargets[t], index + transSkip[t]);
+        }
+
+        @Override
+        public Node<V> getChild(char ch) {
+            int t = transition(state, ch);
+            return t < 0 ? null : child(t);
+        }
+
+        @Override
+        public boolean haveChild() {
+            return stateBase[state + 1] > stateBase[state];
+        }
+
+        @Override
+        public void childHandle(NodeChildHandle<V> handle) {
+            for (int t = stateBase[state]; t < stateBase[state + 1]; t++) {
+                if (!handle.onHandle(child(t))) break;
+            }
+        }
+
+        private void walkAppend(StringBuilder preKey, List<Map.Entry<String, V>> retList) {
+            if (accept()) {
+                retList.add(CommonsUtils.newImmutableMapEntry(preKey.toString(), value));
+            }
+            final int length = preKey.length();
+            for (int t = stateBase[state]; t < stateBase[state + 1]; t++) {
+                preKey.append(transChars[t]);
+                child(t).walkAppend(preKey, retList);
+                preKey.setLength(length);
+            }
+        }
+
+        /**
+         * 同{@link com.tqmall.search.commons.trie.NormalNode#allChildWords(char[])}, 根节点返回所有的词
+         */
+        @Override
+        public List<Map.Entry<String, V>> allChildWords(char[] prefixKey) {
+            List<Map.Entry<String, V>> retList = new ArrayList<>();
+            walkAppend(new StringBuilder().append(prefixKey), retList);
+            return retList;
+        }
+
+        @Override
+        public boolean addChild(Node<V> node) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean deleteNode(char[] word, int deep) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * 有序构建, 词需要按照{@link String#compareTo(String)}递增添加
+     */
+    public static <V> Builder<V> build() {
+        return new Builder<>(false);
+    }
+
+    /**
+     * 通过map构建, 词无序, 内部会先排序
+     *
+     * @param reverse 是否逆向存储, 同{@link MatchBinaryReverseTrie}
+     */
+    public static <V> Dawg<V> create(Map<String, ? extends V> map, boolean reverse) {
+        TreeMap<String, V> sortedMap = new TreeMap<>();
+        for (Map.Entry<String, ? extends V> e : map.entrySet()) {
+            String key = e.getKey();
+            if (key == null || key.isEmpty()) continue;
+            sortedMap.put(reverse ? NlpUtils.reverseString(key) : key, e.getValue());
+        }
+        Builder<V> builder = new Builder<>(reverse);
+        for (Map.Entry<String, V> e : sortedMap.entrySet()) {
+            builder.putInner(e.getKey(), e.getValue());
+        }
+        return builder.create();
+    }
+
+    /**
+     * 构建时的状态对象, 所有子状态都最小化之后才会注册, 注册之后不再修改
+     */
+    static final class BuildState {
+
+        private static final char[] EMPTY_CHARS = new char[0];
+
+        private static final BuildState[] EMPTY_STATES = new BuildState[0];
+
+        char[] labels = EMPTY_CHARS;
+
+        BuildState[] targets = EMPTY_STATES;
+
+        int count;
+
+        boolean isFinal;
+
+        int id = -1;
+
+        /**
+         * 可以到达的词的个数, 包括自身
+         */
+        int wordCount = -1;
+
+        void addChild(char c, BuildState state) {
+            if (count == labels.length) {
+                int newLength = count == 0 ? 2 : count << 1;
+                labels = Arrays.copyOf(labels, newLength);
+                targets = Arrays.copyOf(targets, newLength);
+            }
+            labels[count] = c;
+            targets[count++] = state;
+        }
+
+        /**
+         * 子状态都已经注册, 所以子状态直接比较引用
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BuildState)) return false;
+            BuildState s = (BuildState) o;
+            if (isFinal != s.isFinal || count != s.count) return false;
+            for (int i = 0; i < count; i++) {
+                if (labels[i] != s.labels[i] || targets[i] != s.targets[i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = isFinal ? 1 : 0;
+            for (int i = 0; i < count; i++) {
+                result = 31 * result + labels[i];
+                result = 31 * result + System.identityHashCode(targets[i]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 有序增量构建最小化的DAWG, 论文: Incremental Construction of Minimal Acyclic Finite-State Automata, Daciuk et al.
+     * 词需要按照{@link String#compareTo(String)}递增添加, 前一个词与当前词公共前缀之后的状态都已经确定, 这时做最小化, 等价的状态只保留一个
+     * 相同的词重复添加, 覆盖value; 添加的词比前一个词小, 抛出{@link IllegalArgumentException}
+     */
+    public static final class Builder<V> {
+
+        private final boolean reverse;
+
+        private final Map<BuildState, BuildState> register = new HashMap<>();
+
+        private final List<V> values = new ArrayList<>();
+
+        private final BuildState root = new BuildState();
+
+        private BuildState[] path = new BuildState[16];
+
+        private char[] preKey = new char[16];
+
+        private int preLen;
+
+        Builder(boolean reverse) {
+            this.reverse = reverse;
+            path[0] = root;
+        }
+
+        public Builder<V> put(String key, V value) {
+            if (key == null || key.isEmpty()) return this;
+            return putInner(key, value);
+        }
+
+        Builder<V> putInner(String key, V value) {
+            final int len = key.length(), minLen = Math.min(len, preLen);
+            int common = 0;
+            while (common < minLen && key.charAt(common) == preKey[common]) common++;
+            if (common == len && common == preLen) {
+                values.set(values.size() - 1, value);
+                return this;
+            }
+            if (common == len || (common < preLen && key.charAt(common) < preKey[common])) {
+                throw new IllegalArgumentException("key: " + key + " is less than the previous key: "
+                        + String.valueOf(preKey, 0, preLen) + ", keys should be put in sorted order");
+            }
+            minimize(common);
+            if (path.length <= len) {
+                int newLength = Math.max(len + 1, path.length << 1);
+                path = Arrays.copyOf(path, newLength);
+                preKey = Arrays.copyOf(preKey, newLength);
+            }
+            for (int i = common; i < len; i++) {
+                char c = key.charAt(i);
+                BuildState state = new BuildState();
+                path[i].addChild(c, state);
+                path[i + 1] = state;
+                preKey[i] = c;
+            }
+            path[len].isFinal = true;
+            values.add(value);
+            preLen = len;
+            return this;
+        }
+
+        /**
+         * 深度大于depth的状态都已经确定, 从深到浅, 存在等价的状态则替换, 否则注册
+         */
+        private void minimize(int depth) {
+            for (int d = preLen; d > depth; d--) {
+                BuildState state = path[d], parent = path[d - 1];
+                BuildState registered = register.get(state);
+                if (registered == null) {
+                    register.put(state, state);
+                } else {
+                    parent.targets[parent.count - 1] = registered;
+                }
+                path[d] = null;
+            }
+        }
+
+        private static int wordCount(BuildState state) {
+            if (state.wordCount < 0) {
+                int count = state.isFinal ? 1 : 0;
+                for (int i = 0; i < state.count; i++) {
+                    count += wordCount(state.targets[i]);
+                }
+                state.wordCount = count;
+            }
+            return state.wordCount;
+        }
+
+        public Dawg<V> create() {
+            minimize(0);
+            register.clear();
+            wordCount(root);
+            //广度优先编号, 转移按照编号顺序连续存放
+            List<BuildState> states = new ArrayList<>();
+            root.id = 0;
+            states.add(root);
+            int transCount = 0;
+            for (int i = 0; i < states.size(); i++) {
+                BuildState s = states.get(i);
+                transCount += s.count;
+                for (int j = 0; j < s.count; j++) {
+                    BuildState t = s.targets[j];
+                    if (t.id < 0) {
+                        t.id = states.size();
+                        states.add(t);
+                    }
+                }
+            }
+            int[] stateBase = new int[states.size() + 1];
+            BitSet finalStates = new BitSet(states.size());
+            char[] transChars = new char[transCount];
+            int[] transTargets = new int[transCount], transSkip = new int[transCount];
+            int pos = 0;
+            for (int i = 0; i < states.size(); i++) {
+                BuildState s = states.get(i);
+                stateBase[i] = pos;
+                if (s.isFinal) finalStates.set(i);
+                int skip = s.isFinal ? 1 : 0;
+                for (int j = 0; j < s.count; j++) {
+                    transChars[pos] = s.labels[j];
+                    transTargets[pos] = s.targets[j].id;
+                    transSkip[pos] = skip;
+                    skip += s.targets[j].wordCount;
+                    pos++;
+                }
+            }
+            stateBase[states.size()] = pos;
+            return new Dawg<>(reverse, stateBase, finalStates, transChars, transTargets, transSkip,
+                    Collections.unmodifiableList(new ArrayList<>(values)));
+        }
+    }
+}
@@ -7,7 +7,7 @@ import java.util.List;
 /**
  * Created by xing on 16/1/28.
  * 匹配到的结果, 位置为[), 左开右闭
- * 输出结果只有开始, 结束位置, 如果需要匹配到的字符串, 通过{@link Hits}可以方便整到
+ * 输出结果只有开始, 结束位置, 如果需要匹配到的字符串, 通过{@link Hits}可以方便整到, 或者通过{@link #keyView(char[], CharSlice)}获取不拷贝的视图
  *
  * @see Hits
  * @see Hits#valueOf(char[], List)
@@ -59,6 +59,18 @@ public class Hit<V> implements Comparable<Hit<V>> {
         return value;
     }
 
+    /**
+     * 匹配到的词的视图, 不拷贝字符
+     *
+     * @param text 匹配时的文本
+     * @param reuse 重复使用的视图对象, 为null则新建
+     * @return 指向text中[start, end)的视图
+     * @see CharSlice
+     */
+    public CharSlice keyView(char[] text, CharSlice reuse) {
+        return reuse == null ? new CharSlice(text, start, end - start) : reuse.reset(text, start, end - start);
+    }
+
     public static <V> Hit<V> valueOf(int start, int end, V value) {
         return new Hit<>(start, end, value);
     }
@@ -0,0 +1,19 @@
+package com.tqmall.search.commons.match;
+
+/**
+ * Created by xing on 16/4/27.
+ * 匹配结果回调, 匹配时每个结果直接回调, 不创建{@link Hit}对象, 也不需要结果list
+ *
+ * @author xing
+ * @see com.tqmall.search.commons.ac.AcBinaryTrie#match(char[], int, int, HitHandle)
+ */
+public interface HitHandle<V> {
+
+    /**
+     * @param start 匹配到的开始位置
+     * @param end   匹配结果的结束位置, 即最后一个字符的下一个位置
+     * @param value 匹配到的词对应的value
+     * @return 是否继续, false表示终止匹配
+     */
+    boolean onHit(int start, int end, V value);
+}
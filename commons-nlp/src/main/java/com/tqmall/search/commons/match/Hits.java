@@ -6,7 +6,8 @@ import java.util.*;
 
 /**
  * Created by xing on 16/3/21.
- * 匹配结果输出带有匹配到的字符串对象
+ * 匹配结果输出带有匹配到的字符串对象, 字符串通过{@link CharSlice}视图延迟创建, 不会提前拷贝
+ * 注: 视图引用了原文本数组, 原数组修改之后, 结果也会变化
  *
  * @author xing
  */
@@ -19,7 +20,7 @@ public class Hits<V> implements Iterable<Hits.InHit<V>> {
         else {
             List<InHit<V>> inHits = new ArrayList<>(hits.size());
             for (Hit<V> hit : hits) {
-                inHits.add(new InHit<>(hit, String.valueOf(text, hit.getStart(), hit.length())));
+                inHits.add(new InHit<>(hit, text));
             }
             this.hits = Collections.unmodifiableList(inHits);
         }
@@ -50,27 +51,134 @@ public class Hits<V> implements Iterable<Hits.InHit<V>> {
         return new Hits<>(text, hits);
     }
 
+    /**
+     * 排序用到的临时数组, 每个线程一份, 重复使用, 避免每次排序都分配
+     */
+    private static final ThreadLocal<SortScratch> SORT_SCRATCH = new ThreadLocal<SortScratch>() {
+        @Override
+        protected SortScratch initialValue() {
+            return new SortScratch();
+        }
+    };
+
+    /**
+     * 判断匹配结果是否已经按照{@link Hit#compareTo(Hit)}有序
+     */
+    public static <V> boolean isSorted(List<Hit<V>> hits) {
+        Hit<V> pre = null;
+        for (Hit<V> h : hits) {
+            if (pre != null && pre.compareTo(h) > 0) return false;
+            pre = h;
+        }
+        return true;
+    }
+
+    /**
+     * 对匹配结果排序, 排序结果同{@link Collections#sort(List)}, 但所有hit都在[off, off + len)之间, 所以通过两轮计数排序实现,
+     * 先按照end排序, 再按照start排序, 计数排序是稳定的, 时间复杂度为O(n + len), 临时数组每个线程重复使用
+     *
+     * @param hits 匹配结果, 每个hit都在[off, off + len)之间, 该List必须支持{@link ListIterator#set(Object)}
+     * @param off  匹配文本的开始位置
+     * @param len  匹配文本的长度
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> void sort(List<Hit<V>> hits, int off, int len) {
+        final int size = hits.size();
+        if (size < 2) return;
+        SortScratch scratch = SORT_SCRATCH.get();
+        scratch.ensureCapacity(size, len + 2);
+        final Object[] src = scratch.src, dst = scratch.dst;
+        int i = 0;
+        for (Hit<V> h : hits) {
+            src[i++] = h;
+        }
+        countingSort(src, dst, size, scratch.counts, len + 2, off, true);
+        countingSort(dst, src, size, scratch.counts, len + 2, off, false);
+        ListIterator<Hit<V>> it = hits.listIterator();
+        for (i = 0; i < size; i++) {
+            it.next();
+            it.set((Hit<V>) src[i]);
+        }
+        Arrays.fill(src, 0, size, null);
+        Arrays.fill(dst, 0, size, null);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static void countingSort(Object[] from, Object[] to, int size, int[] counts, int countLen, int off, boolean byEnd) {
+        Arrays.fill(counts, 0, countLen, 0);
+        for (int i = 0; i < size; i++) {
+            Hit h = (Hit) from[i];
+            counts[(byEnd ? h.getEnd() : h.getStart()) - off + 1]++;
+        }
+        for (int i = 1; i < countLen; i++) {
+            counts[i] += counts[i - 1];
+        }
+        for (int i = 0; i < size; i++) {
+            Hit h = (Hit) from[i];
+            to[counts[(byEnd ? h.getEnd() : h.getStart()) - off]++] = h;
+        }
+    }
+
+    private static final class SortScratch {
+
+        Object[] src = new Object[0], dst = new Object[0];
+
+        int[] counts = new int[0];
+
+        void ensureCapacity(int size, int countLen) {
+            if (src.length < size) {
+                src = new Object[size];
+                dst = new Object[size];
+            }
+            if (counts.length < countLen) {
+                counts = new int[countLen];
+            }
+        }
+    }
+
     public static class InHit<V> {
 
         private final Hit<V> hit;
 
-        private final String key;
+        private final CharSlice keyView;
 
         public InHit(Hit<V> hit, String key) {
             this.hit = hit;
-            this.key = key;
+            this.keyView = new CharSlice(key.toCharArray(), 0, key.length());
+        }
+
+        /**
+         * 不拷贝字符, key在需要时才创建
+         *
+         * @param text 匹配时的文本
+         */
+        public InHit(Hit<V> hit, char[] text) {
+            this.hit = hit;
+            this.keyView = hit.keyView(text, null);
         }
 
         public Hit<V> getHit() {
             return hit;
         }
 
+        /**
+         * 第一次调用时创建String, 之后缓存
+         */
         public String getKey() {
-            return key;
+            return keyView.toString();
+        }
+
+        /**
+         * 不创建String, 可以用于HashMap查询, 比较, 输出等
+         *
+         * @see CharSlice
+         */
+        public CharSlice getKeyView() {
+            return keyView;
         }
 
         public String toString() {
-            return key + '[' + hit.getStart() + ',' + hit.getEnd() + ']'
+            return getKey() + '[' + hit.getStart() + ',' + hit.getEnd() + ']'
                     + (hit.getValue() == null ? "" : hit.getValue().toString());
         }
     }
@@ -72,6 +72,20 @@ public class MatchBinaryReverseTrie<V> extends BinaryTrie<V> {
         return doMatch(text, off, len, false);
     }
 
+    /**
+     * 归一化最大匹配, 遍历时字符先通过charMapping映射, 不修改text
+     */
+    public List<Hit<V>> maxMatch(char[] text, int off, int len, CharMapping charMapping) {
+        return reverseMatch(maxTextMatcher, text, off, len, charMapping);
+    }
+
+    /**
+     * 归一化最小匹配, 遍历时字符先通过charMapping映射, 不修改text
+     */
+    public List<Hit<V>> minMatch(char[] text, int off, int len, CharMapping charMapping) {
+        return reverseMatch(minTextMatcher, text, off, len, charMapping);
+    }
+
     @Override
     public List<Map.Entry<String, V>> prefixSearch(String word) {
         List<Map.Entry<String, V>> result = super.prefixSearch(word);
@@ -86,9 +100,27 @@ public class MatchBinaryReverseTrie<V> extends BinaryTrie<V> {
     }
 
     private List<Hit<V>> doMatch(char[] text, int off, int len, boolean maxMatch) {
-        char[] array = Arrays.copyOfRange(text, off, off + len);
-        NlpUtils.reverseCharArray(array);
-        List<Hit<V>> hits = maxMatch ? maxTextMatcher.match(array, 0, len) : minTextMatcher.match(array, 0, len);
+        return reverseMatch(maxMatch ? maxTextMatcher : minTextMatcher, text, off, len);
+    }
+
+    /**
+     * 将文本逆向之后通过textMatcher匹配, 匹配结果转换回正向的位置, 并且有序
+     *
+     * @param textMatcher 其root节点为逆向前缀树的root, 比如{@link com.tqmall.search.commons.trie.LayeredNode}叠加的逆向前缀树
+     */
+    public static <V> List<Hit<V>> reverseMatch(TextMatcher<V> textMatcher, char[] text, int off, int len) {
+        return reverseMatch(textMatcher, text, off, len, null);
+    }
+
+    /**
+     * 同{@link #reverseMatch(TextMatcher, char[], int, int)}, 文本逆向拷贝时同时做字符映射, 原文本不修改
+     *
+     * @param charMapping 字符映射, 可以为null
+     */
+    public static <V> List<Hit<V>> reverseMatch(TextMatcher<V> textMatcher, char[] text, int off, int len, CharMapping charMapping) {
+        NlpUtils.arrayIndexCheck(text, off, off + len);
+        char[] array = CharMappings.reverseCopy(text, off, len, charMapping);
+        List<Hit<V>> hits = textMatcher.match(array, 0, len);
         if (!CommonsUtils.isEmpty(hits)) {
             int offsetIndex = off + len;
             for (Hit<V> h : hits) {
@@ -15,8 +15,28 @@ public abstract class TextMatcher<V> extends AbstractTextMatch<V> {
 
     protected final Node<V> root;
 
+    /**
+     * 遍历前缀树之前的字符映射, 为null则不映射
+     */
+    protected final CharMapping charMapping;
+
     protected TextMatcher(Node<V> root) {
+        this(root, null);
+    }
+
+    /**
+     * @param charMapping 字符映射, 匹配时不修改输入文本, 可以为null
+     */
+    protected TextMatcher(Node<V> root, CharMapping charMapping) {
         this.root = root;
+        this.charMapping = charMapping;
+    }
+
+    /**
+     * 获取位置i映射之后的字符
+     */
+    protected final char charAt(char[] text, int i) {
+        return charMapping == null ? text[i] : charMapping.map(text[i]);
     }
 
     /**
@@ -36,11 +56,25 @@ public abstract class TextMatcher<V> extends AbstractTextMatch<V> {
     }
 
     public static <V> TextMatcher<V> minMatcher(Node<V> root, boolean reverse) {
-        return reverse ? new MinReverseTextMatcher<>(root) : new MinTextMatcher<>(root);
+        return minMatcher(root, reverse, null);
     }
 
     public static <V> TextMatcher<V> maxMatcher(Node<V> root, boolean reverse) {
-        return reverse ? new MaxReverseTextMatcher<>(root) : new MaxTextMatcher<>(root);
+        return maxMatcher(root, reverse, null);
+    }
+
+    /**
+     * @param charMapping 字符映射, 可以为null
+     */
+    public static <V> TextMatcher<V> minMatcher(Node<V> root, boolean reverse, CharMapping charMapping) {
+        return reverse ? new MinReverseTextMatcher<>(root, charMapping) : new MinTextMatcher<>(root, charMapping);
+    }
+
+    /**
+     * @param charMapping 字符映射, 可以为null
+     */
+    public static <V> TextMatcher<V> maxMatcher(Node<V> root, boolean reverse, CharMapping charMapping) {
+        return reverse ? new MaxReverseTextMatcher<>(root, charMapping) : new MaxTextMatcher<>(root, charMapping);
     }
 
     /**
@@ -55,6 +89,10 @@ public abstract class TextMatcher<V> extends AbstractTextMatch<V> {
             super(root);
         }
 
+        public MinTextMatcher(Node<V> root, CharMapping charMapping) {
+            super(root, charMapping);
+        }
+
         @Override
         protected List<Hit<V>> runMatch(final char[] text, final int startPos, final int endPos) {
             List<Hit<V>> hits = new LinkedList<>();
@@ -63,7 +101,7 @@ public abstract class TextMatcher<V> extends AbstractTextMatch<V> {
             Hit<V> lastHit = null;
             while (i < endPos) {
                 //如果是在尝试, 并且尝试的位置超出最大位置, 就没有必要搞了~~~
-                Node<V> nextNode = i >= lastHitMaxIndex ? null : currentNode.getChild(text[i]);
+                Node<V> nextNode = i >= lastHitMaxIndex ? null : currentNode.getChild(charAt(text, i));
                 if (nextNode == null || nextNode.getStatus() == Node.Status.DELETE) {
                     if (lastHit != null) {
                         if (i + 1 < lastHitMaxIndex && currentNode == root) {
@@ -118,13 +156,17 @@ public abstract class TextMatcher<V> extends AbstractTextMatch<V> {
             super(root);
         }
 
+        public MinReverseTextMatcher(Node<V> root, CharMapping charMapping) {
+            super(root, charMapping);
+        }
+
         @Override
         protected List<Hit<V>> runMatch(final char[] text, final int startPos, final int endPos) {
             List<Hit<V>> hits = new LinkedList<>();
             Node<V> currentNode = root;
             int i = endPos - 1, matchStartPos = endPos, lastPos = endPos;
             while (i >= startPos) {
-                Node<V> nextNode = i < lastPos ? currentNode.getChild(text[i]) : null;
+                Node<V> nextNode = i < lastPos ? currentNode.getChild(charAt(text, i)) : null;
                 if (nextNode == null || nextNode.getStatus() == Node.Status.DELETE) {
                     //没有匹配到, 向前移
                     if (currentNode == root) {
@@ -162,6 +204,10 @@ public abstract class TextMatcher<V> extends AbstractTextMatch<V> {
             super(root);
         }
 
+        public MaxTextMatcher(Node<V> root, CharMapping charMapping) {
+            super(root, charMapping);
+        }
+
         @Override
         protected List<Hit<V>> runMatch(final char[] text, final int startPos, final int endPos) {
             List<Hit<V>> hits = new LinkedList<>();
@@ -169,7 +215,7 @@ public abstract class TextMatcher<V> extends AbstractTextMatch<V> {
             int matchStartPos = -1, matchEndPos = -1, i = startPos;
             V lastMatchValue = null;
             while (i < endPos) {
-                Node<V> nextNode = currentNode.getChild(text[i]);
+                Node<V> nextNode = currentNode.getChild(charAt(text, i));
                 if (nextNode == null || nextNode.getStatus() == Node.Status.DELETE) {
                     if (matchEndPos != -1) {
                         //匹配到一个最大词~~~
@@ -209,6 +255,10 @@ public abstract class TextMatcher<V> extends AbstractTextMatch<V> {
             super(root);
         }
 
+        public MaxReverseTextMatcher(Node<V> root, CharMapping charMapping) {
+            super(root, charMapping);
+        }
+
         /**
          * 新加入的词有重叠的小词, 删除
          */
@@ -239,7 +289,7 @@ public abstract class TextMatcher<V> extends AbstractTextMatch<V> {
             V hitValue = null;
             LinkedList<Hit<V>> hits = new LinkedList<>();
             while (i >= startPos) {
-                Node<V> nextNode = i < text.length ? currentNode.getChild(text[i]) : null;
+                Node<V> nextNode = i < text.length ? currentNode.getChild(charAt(text, i)) : null;
                 if (nextNode == null || nextNode.getStatus() == Node.Status.DELETE) {
                     //没有匹配到, 向前移
                     if (currentNode == root) {
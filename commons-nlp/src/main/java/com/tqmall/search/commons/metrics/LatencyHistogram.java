@@ -0,0 +1,91 @@
+package com.tqmall.search.commons.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by xing on 16/4/26.
+ * 无锁的延迟分布统计, 按照2的幂分桶, 第i个桶记录[2^i, 2^(i+1))范围内的值, 0记录在第0个桶
+ * 分位数返回所在桶的上界, 误差在2倍以内, 对于耗时统计足够了, 记录只是几次原子加, 没有锁也没有对象分配
+ *
+ * @author xing
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final StripedCounter count = new StripedCounter();
+
+    private final StripedCounter sum = new StripedCounter();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value 记录的值, 小于0的当做0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        buckets.getAndIncrement(value == 0 ? 0 : 63 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        long preMax;
+        while (value > (preMax = max.get())) {
+            if (max.compareAndSet(preMax, value)) break;
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long c = count.sum();
+        return c == 0 ? 0L : sum.sum() / c;
+    }
+
+    /**
+     * @param percentile 分位, 比如0.99
+     * @return 分位数所在桶的上界
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += (snapshot[i] = buckets.get(i));
+        }
+        if (total == 0) return 0L;
+        long threshold = (long) Math.ceil(total * percentile);
+        long acc = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            acc += snapshot[i];
+            if (acc >= threshold) {
+                return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0L);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return "count: " + getCount() + ", mean: " + getMean() + ", p99: " + getPercentile(0.99) + ", max: " + getMax();
+    }
+}
@@ -0,0 +1,285 @@
+package com.tqmall.search.commons.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by xing on 16/4/26.
+ * 分词运行时统计, 包括处理的字符数, 输出的词数, 各个阶段的耗时分布以及词库重新加载的耗时
+ * 计数使用{@link StripedCounter}, 耗时使用{@link LatencyHistogram}, 记录时都没有锁
+ * 统计默认不开启, 不开启时分词器中该对象为null, 只多一次null判断, 也不会调用{@link System#nanoTime()}
+ * 通过{@link #register()}注册到platform MBeanServer, ObjectName为: com.tqmall.search.commons.nlp:type=SegmentMetrics,name="name"
+ *
+ * @author xing
+ * @see com.tqmall.search.commons.nlp.Segment
+ */
+public class SegmentMetrics implements SegmentMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentMetrics.class);
+
+    public static final String JMX_DOMAIN = "com.tqmall.search.commons.nlp";
+
+    /**
+     * 分词的各个阶段
+     */
+    public enum Stage {
+        /**
+         * {@link com.tqmall.search.commons.nlp.SegmentFilter#textFilter(char[], int, int)}
+         */
+        TEXT_FILTER,
+        /**
+         * 英文, 数字分词
+         */
+        ASCII,
+        /**
+         * 中文分词
+         */
+        CJK,
+        /**
+         * 合并ascii, cjk分词结果以及数量词合并
+         */
+        MERGE,
+        /**
+         * {@link com.tqmall.search.commons.nlp.SegmentFilter#hitsFilter(char[], java.util.List)}
+         */
+        HITS_FILTER,
+        /**
+         * 同义词扩展, 只在{@link com.tqmall.search.commons.nlp.Segment#tokenGraph(char[], int, int)}中
+         */
+        SYNONYM
+    }
+
+    private final String name;
+
+    private final StripedCounter matchCount = new StripedCounter();
+
+    private final StripedCounter charCount = new StripedCounter();
+
+    private final StripedCounter hitCount = new StripedCounter();
+
+    private final LatencyHistogram matchLatency = new LatencyHistogram();
+
+    private final Map<Stage, LatencyHistogram> stageLatency;
+
+    private final LatencyHistogram reloadLatency = new LatencyHistogram();
+
+    private final StripedCounter reloadFailedCount = new StripedCounter();
+
+    private ObjectName objectName;
+
+    public SegmentMetrics(String name) {
+        this.name = name;
+        EnumMap<Stage, LatencyHistogram> map = new EnumMap<>(Stage.class);
+        for (Stage s : Stage.values()) {
+            map.put(s, new LatencyHistogram());
+        }
+        stageLatency = map;
+    }
+
+    /**
+     * 记录一次匹配
+     *
+     * @param chars     处理的字符数
+     * @param hits      输出的词数
+     * @param costNanos 整个匹配耗时
+     */
+    public void recordMatch(int chars, int hits, long costNanos) {
+        matchCount.increment();
+        charCount.add(chars);
+        hitCount.add(hits);
+        matchLatency.record(costNanos);
+    }
+
+    public void recordStage(Stage stage, long costNanos) {
+        stageLatency.get(stage).record(costNanos);
+    }
+
+    /**
+     * 记录一次词库重新加载
+     *
+     * @param success   是否加载成功
+     * @param costNanos 加载耗时
+     */
+    public void recordLexiconReload(boolean success, long costNanos) {
+        if (success) {
+            reloadLatency.record(costNanos);
+        } else {
+            reloadFailedCount.increment();
+        }
+    }
+
+    public LatencyHistogram getStageHistogram(Stage stage) {
+        return stageLatency.get(stage);
+    }
+
+    public LatencyHistogram getMatchHistogram() {
+        return matchLatency;
+    }
+
+    /**
+     * 注册到platform MBeanServer, 注册失败只打日志
+     * 已经存在同名的MBean, 比如同名的{@link com.tqmall.search.commons.nlp.Segment}创建了多个, 不替换原先的,
+     * ObjectName添加",id=n"后缀保证唯一, 并打印warn日志, 实际注册的名称见{@link #getObjectName()}
+     *
+     * @return this
+     */
+    public synchronized SegmentMetrics register() {
+        if (objectName != null) return this;
+        String baseName = JMX_DOMAIN + ":type=SegmentMetrics,name=" + ObjectName.quote(name);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (int id = 1; ; id++) {
+                ObjectName on = new ObjectName(id == 1 ? baseName : baseName + ",id=" + id);
+                if (server.isRegistered(on)) continue;
+                try {
+                    server.registerMBean(this, on);
+                } catch (InstanceAlreadyExistsException e) {
+                    //并发注册了同名的, 继续下一个id
+                    continue;
+                }
+                if (id > 1) {
+                    log.warn("segment metrics: " + name + " have registered, register as " + on);
+                }
+                objectName = on;
+                break;
+            }
+        } catch (JMException e) {
+            log.warn("register segment metrics: " + name + " to jmx failed", e);
+        }
+        return this;
+    }
+
+    /**
+     * @return 注册到MBeanServer的名称, 没有注册则为null
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("unregister segment metrics: " + name + " from jmx failed", e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getMatchCount() {
+        return matchCount.sum();
+    }
+
+    @Override
+    public long getCharCount() {
+        return charCount.sum();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMatchMeanNanos() {
+        return matchLatency.getMean();
+    }
+
+    @Override
+    public long getMatchP99Nanos() {
+        return matchLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getMatchMaxNanos() {
+        return matchLatency.getMax();
+    }
+
+    @Override
+    public Map<String, Long> getStageMeanNanos() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (Map.Entry<Stage, LatencyHistogram> e : stageLatency.entrySet()) {
+            map.put(e.getKey().name(), e.getValue().getMean());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getStageP99Nanos() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (Map.Entry<Stage, LatencyHistogram> e : stageLatency.entrySet()) {
+            map.put(e.getKey().name(), e.getValue().getPercentile(0.99));
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getStageMaxNanos() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (Map.Entry<Stage, LatencyHistogram> e : stageLatency.entrySet()) {
+            map.put(e.getKey().name(), e.getValue().getMax());
+        }
+        return map;
+    }
+
+    @Override
+    public long getLexiconReloadCount() {
+        return reloadLatency.getCount();
+    }
+
+    @Override
+    public long getLexiconReloadFailedCount() {
+        return reloadFailedCount.sum();
+    }
+
+    @Override
+    public long getLexiconReloadMeanNanos() {
+        return reloadLatency.getMean();
+    }
+
+    @Override
+    public long getLexiconReloadMaxNanos() {
+        return reloadLatency.getMax();
+    }
+
+    @Override
+    public void reset() {
+        matchCount.reset();
+        charCount.reset();
+        hitCount.reset();
+        matchLatency.reset();
+        for (LatencyHistogram h : stageLatency.values()) {
+            h.reset();
+        }
+        reloadLatency.reset();
+        reloadFailedCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentMetrics{" +
+                "name='" + name + '\'' +
+                ", matchCount=" + getMatchCount() +
+                ", charCount=" + getCharCount() +
+                ", hitCount=" + getHitCount() +
+                ", match=" + matchLatency +
+                ", stage=" + stageLatency +
+                ", reload=" + reloadLatency +
+                '}';
+    }
+}
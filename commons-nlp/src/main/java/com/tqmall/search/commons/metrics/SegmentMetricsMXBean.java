@@ -0,0 +1,60 @@
+package com.tqmall.search.commons.metrics;
+
+import java.util.Map;
+
+/**
+ * Created by xing on 16/4/26.
+ * {@link SegmentMetrics}的JMX接口, 所有耗时单位都是纳秒
+ *
+ * @author xing
+ */
+public interface SegmentMetricsMXBean {
+
+    String getName();
+
+    /**
+     * 匹配调用次数
+     */
+    long getMatchCount();
+
+    /**
+     * 处理的字符总数
+     */
+    long getCharCount();
+
+    /**
+     * 输出的词总数
+     */
+    long getHitCount();
+
+    /**
+     * 每次匹配的平均耗时
+     */
+    long getMatchMeanNanos();
+
+    long getMatchP99Nanos();
+
+    long getMatchMaxNanos();
+
+    /**
+     * 各阶段的平均耗时, key为{@link SegmentMetrics.Stage#name()}
+     */
+    Map<String, Long> getStageMeanNanos();
+
+    Map<String, Long> getStageP99Nanos();
+
+    Map<String, Long> getStageMaxNanos();
+
+    long getLexiconReloadCount();
+
+    long getLexiconReloadFailedCount();
+
+    long getLexiconReloadMeanNanos();
+
+    long getLexiconReloadMaxNanos();
+
+    /**
+     * 清空所有统计
+     */
+    void reset();
+}
@@ -0,0 +1,66 @@
+package com.tqmall.search.commons.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by xing on 16/4/26.
+ * 分段计数器, 不同线程根据线程id累加到不同的槽中, 减少多线程之间的竞争, 读取时求和
+ * 每个槽之间间隔一个缓存行, 避免伪共享
+ * 求和时其他线程可能还在累加, 所以{@link #sum()}不是精确的快照, 统计足够了
+ *
+ * @author xing
+ */
+public final class StripedCounter {
+
+    /**
+     * 每个槽占用的long个数, 64字节一个缓存行
+     */
+    private static final int PAD = 8;
+
+    private static final int STRIPES;
+
+    static {
+        int n = 1;
+        int target = Math.min(64, Runtime.getRuntime().availableProcessors() << 1);
+        while (n < target) n <<= 1;
+        STRIPES = n;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    static int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & (STRIPES - 1);
+    }
+
+    public void add(long x) {
+        cells.getAndAdd(stripeIndex() * PAD, x);
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public long sum() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PAD, 0L);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Created by xing on 16/4/26.
+ * 分词, 匹配等运行时的统计, 低开销的计数器, 延迟分布, 通过JMX输出
+ *
+ * @author xing
+ */
+package com.tqmall.search.commons.metrics;
@@ -4,6 +4,7 @@ import com.tqmall.search.commons.analyzer.*;
 import com.tqmall.search.commons.lang.Supplier;
 import com.tqmall.search.commons.match.AbstractTextMatch;
 import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.metrics.SegmentMetrics;
 
 import java.util.List;
 import java.util.ListIterator;
@@ -30,26 +31,105 @@ public final class Segment extends AbstractTextMatch<TokenType> {
      */
     private final NumQuantifierMerge numQuantifierMerge;
 
+    /**
+     * 运行时统计, 没有开启则为null
+     */
+    private final SegmentMetrics metrics;
+
+    /**
+     * 同义词词典, 没有则为null
+     */
+    private final SynonymDictionary synonymDictionary;
+
     /**
      * @param segmentFilter      分词过滤器
      * @param asciiAnalyzer      英文, 数字分词器
      * @param cjkAnalyzer        中文分词器
      * @param numQuantifierMerge 如果不需要数量词merge, 则为null
+     * @param metrics            运行时统计, 不需要则为null
+     * @param synonymDictionary  同义词词典, 不需要则为null
      */
     Segment(String name, SegmentFilter segmentFilter, AbstractTextMatch<TokenType> asciiAnalyzer,
-            CjkAnalyzer cjkAnalyzer, NumQuantifierMerge numQuantifierMerge) {
+            CjkAnalyzer cjkAnalyzer, NumQuantifierMerge numQuantifierMerge, SegmentMetrics metrics,
+            SynonymDictionary synonymDictionary) {
         this.name = name;
         this.segmentFilter = segmentFilter;
         this.asciiAnalyzer = asciiAnalyzer;
         this.cjkAnalyzer = cjkAnalyzer;
         this.numQuantifierMerge = numQuantifierMerge;
+        this.metrics = metrics;
+        this.synonymDictionary = synonymDictionary;
     }
 
     @Override
     public List<Hit<TokenType>> match(final char[] text, final int off, final int len) {
+        if (metrics != null) return metricsMatch(metrics, text, off, len);
         if (segmentFilter != null) segmentFilter.textFilter(text, off, len);
+        List<Hit<TokenType>> hits = mergeHits(asciiAnalyzer.match(text, off, len), cjkAnalyzer.match(text, off, len));
+        if (hits == null) return null;
+        if (segmentFilter != null) segmentFilter.hitsFilter(text, hits);
+        return hits;
+    }
+
+    /**
+     * 分词之后, 在{@link SegmentFilter#hitsFilter(char[], List)}之后做同义词扩展, 返回分词结果以及同义词组成的词图
+     * 如果没有设置同义词词典, 词图中只有分词结果
+     *
+     * @see Builder#synonymDictionary(SynonymDictionary)
+     * @see SynonymDictionary#expand(char[], int, int, List)
+     */
+    public TokenGraph tokenGraph(char[] text, int off, int len) {
+        List<Hit<TokenType>> hits = match(text, off, len);
+        if (synonymDictionary == null) return TokenGraph.valueOf(text, off, len, hits);
+        if (metrics == null) return synonymDictionary.expand(text, off, len, hits);
+        long startTime = System.nanoTime();
+        TokenGraph graph = synonymDictionary.expand(text, off, len, hits);
+        metrics.recordStage(SegmentMetrics.Stage.SYNONYM, System.nanoTime() - startTime);
+        return graph;
+    }
+
+    public TokenGraph tokenGraph(String text) {
+        char[] array = text.toCharArray();
+        return tokenGraph(array, 0, array.length);
+    }
+
+    /**
+     * 开启统计时的匹配, 逻辑同{@link #match(char[], int, int)}, 记录每个阶段的耗时
+     */
+    private List<Hit<TokenType>> metricsMatch(SegmentMetrics metrics, char[] text, int off, int len) {
+        final long startTime = System.nanoTime();
+        long stageStart = startTime, now;
+        if (segmentFilter != null) {
+            segmentFilter.textFilter(text, off, len);
+            now = System.nanoTime();
+            metrics.recordStage(SegmentMetrics.Stage.TEXT_FILTER, now - stageStart);
+            stageStart = now;
+        }
         List<Hit<TokenType>> asciiHits = asciiAnalyzer.match(text, off, len);
+        now = System.nanoTime();
+        metrics.recordStage(SegmentMetrics.Stage.ASCII, now - stageStart);
+        stageStart = now;
         List<Hit<TokenType>> cjkHits = cjkAnalyzer.match(text, off, len);
+        now = System.nanoTime();
+        metrics.recordStage(SegmentMetrics.Stage.CJK, now - stageStart);
+        stageStart = now;
+        List<Hit<TokenType>> hits = mergeHits(asciiHits, cjkHits);
+        now = System.nanoTime();
+        metrics.recordStage(SegmentMetrics.Stage.MERGE, now - stageStart);
+        stageStart = now;
+        if (hits != null && segmentFilter != null) {
+            segmentFilter.hitsFilter(text, hits);
+            now = System.nanoTime();
+            metrics.recordStage(SegmentMetrics.Stage.HITS_FILTER, now - stageStart);
+        }
+        metrics.recordMatch(len, hits == null ? 0 : hits.size(), now - startTime);
+        return hits;
+    }
+
+    /**
+     * 合并ascii, cjk分词结果, 需要的话再做数量词合并
+     */
+    private List<Hit<TokenType>> mergeHits(List<Hit<TokenType>> asciiHits, List<Hit<TokenType>> cjkHits) {
         List<Hit<TokenType>> hits;
         if (asciiHits == null && cjkHits == null) return null;
         else if (cjkHits == null) {
@@ -74,10 +154,21 @@ public final class Segment extends AbstractTextMatch<TokenType> {
         if (numQuantifierMerge != null) {
             numQuantifierMerge.merge(hits);
         }
-        if (segmentFilter != null) segmentFilter.hitsFilter(text, hits);
         return hits;
     }
 
+    /**
+     * @return 运行时统计, 没有开启统计则为null
+     * @see Builder#metrics(boolean)
+     */
+    public SegmentMetrics getMetrics() {
+        return metrics;
+    }
+
+    public SynonymDictionary getSynonymDictionary() {
+        return synonymDictionary;
+    }
+
     public String getName() {
         return name;
     }
@@ -114,6 +205,10 @@ public final class Segment extends AbstractTextMatch<TokenType> {
 
         private SegmentFilter segmentFilter;
 
+        private boolean metrics;
+
+        private SynonymDictionary synonymDictionary;
+
         public Builder(String name) {
             this.name = name;
         }
@@ -143,10 +238,29 @@ public final class Segment extends AbstractTextMatch<TokenType> {
             return this;
         }
 
+        /**
+         * 是否开启运行时统计, 开启的话创建{@link SegmentMetrics}并注册到JMX, 默认不开启
+         *
+         * @see SegmentMetrics
+         */
+        public Builder metrics(boolean metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * 同义词扩展, 通过{@link Segment#tokenGraph(char[], int, int)}获取扩展结果
+         */
+        public Builder synonymDictionary(SynonymDictionary synonymDictionary) {
+            this.synonymDictionary = synonymDictionary;
+            return this;
+        }
+
         public Segment create(Supplier<CjkLexicon> cjkLexicon) {
             Objects.requireNonNull(cjkLexicon);
             return new Segment(name, segmentFilter, asciiAnalyzer == null ? AsciiAnalyzer.build().create()
-                    : asciiAnalyzer, CjkAnalyzer.createSegment(cjkLexicon, cjkAnalyzerType), this.numQuantifierMerge);
+                    : asciiAnalyzer, CjkAnalyzer.createSegment(cjkLexicon, cjkAnalyzerType), this.numQuantifierMerge,
+                    metrics ? new SegmentMetrics(name).register() : null, synonymDictionary);
         }
     }
 }
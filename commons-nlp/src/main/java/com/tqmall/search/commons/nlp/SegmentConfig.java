@@ -85,6 +85,21 @@ public class SegmentConfig {
      */
     private boolean appendNumQuantifier = false;
 
+    /**
+     * 是否开启运行时统计, 并注册到JMX
+     * 默认false, 不开启
+     *
+     * @see com.tqmall.search.commons.metrics.SegmentMetrics
+     */
+    private boolean metrics = false;
+
+    /**
+     * 同义词词典, 默认为null, 不做同义词扩展
+     *
+     * @see Segment#tokenGraph(char[], int, int)
+     */
+    private SynonymDictionary synonymDictionary;
+
     public SegmentConfig(String name) {
         this.name = name;
     }
@@ -115,6 +130,8 @@ public class SegmentConfig {
         if (mergeNumQuantifier) {
             builder.appendNumQuantifier(appendNumQuantifier);
         }
+        builder.metrics(metrics);
+        builder.synonymDictionary(synonymDictionary);
         return builder.create(cjkLexicon);
     }
 
@@ -150,6 +167,14 @@ public class SegmentConfig {
         this.segmentFilter = segmentFilter;
     }
 
+    public void setMetrics(boolean metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setSynonymDictionary(SynonymDictionary synonymDictionary) {
+        this.synonymDictionary = synonymDictionary;
+    }
+
     public String getName() {
         return name;
     }
@@ -182,6 +207,14 @@ public class SegmentConfig {
         return mergeNumQuantifier;
     }
 
+    public boolean isMetrics() {
+        return metrics;
+    }
+
+    public SynonymDictionary getSynonymDictionary() {
+        return synonymDictionary;
+    }
+
     public SegmentFilter getSegmentFilter() {
         return segmentFilter;
     }
@@ -198,6 +231,8 @@ public class SegmentConfig {
                 ", cjkAnalyzerType=" + cjkAnalyzerType +
                 ", mergeNumQuantifier=" + mergeNumQuantifier +
                 ", appendNumQuantifier=" + appendNumQuantifier +
+                ", metrics=" + metrics +
+                ", synonymDictionary=" + synonymDictionary +
                 '}';
     }
 }
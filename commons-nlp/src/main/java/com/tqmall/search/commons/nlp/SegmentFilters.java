@@ -1,5 +1,7 @@
 package com.tqmall.search.commons.nlp;
 
+import com.tqmall.search.commons.match.CharMapping;
+import com.tqmall.search.commons.match.CharMappings;
 import com.tqmall.search.commons.match.Hit;
 import com.tqmall.search.commons.analyzer.StopWords;
 import com.tqmall.search.commons.analyzer.TokenType;
@@ -38,6 +40,30 @@ public final class SegmentFilters {
         return HitsFilter.INSTANCE;
     }
 
+    /**
+     * 同{@link #charConvert(char)}的字符映射, 预先计算成映射表, 用于归一化匹配, 不修改待分词文本, 不需要拷贝
+     * 比如{@link com.tqmall.search.commons.analyzer.CjkLexicon#maxMatch(char[], int, int, CharMapping)}
+     *
+     * @see TextFilter
+     */
+    public static CharMapping charMapping() {
+        return CharMappingHolder.INSTANCE;
+    }
+
+    /**
+     * 第一次使用时才构建映射表, 繁简转换需要加载词库
+     */
+    private static final class CharMappingHolder {
+
+        static final CharMapping INSTANCE = CharMappings.table(new CharMapping() {
+            @Override
+            public char map(char c) {
+                char ret = charConvert(c);
+                return ret == Character.MIN_VALUE ? c : ret;
+            }
+        });
+    }
+
     /**
      * 字符转换, 如果返回{@link Character#MIN_VALUE}, 则表示该字符没有未做转换
      *
@@ -67,6 +93,7 @@ public final class SegmentFilters {
      * 1. 英文字母大写转小写
      * 2. 中文全角转半角
      * 3. 中文字符繁体转简体
+     * 该过滤直接修改待分词文本, 如果需要保留原文本, 可以通过{@link #charMapping()}做归一化匹配
      */
     static class TextFilter implements SegmentFilter {
 
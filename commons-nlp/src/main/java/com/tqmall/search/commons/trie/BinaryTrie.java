@@ -4,6 +4,7 @@ import com.tqmall.search.commons.nlp.NlpUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -11,6 +12,9 @@ import java.util.Objects;
 /**
  * Created by xing on 16/1/27.
  * 二分查找树, 根节点直接分配, 其他的根据需要再添加
+ * 对于预先排好序的词库, 可以通过{@link #sortedBuild(TrieNodeFactory)}一次线性构建
+ *
+ * @see SortedBuilder
  */
 public class BinaryTrie<V> implements Trie<V> {
 
@@ -78,6 +82,9 @@ public class BinaryTrie<V> implements Trie<V> {
             if (next == null) {
                 next = nodeFactory.createNormalNode(key[i]);
                 current.addChild(next);
+            } else if (next.status == Node.Status.LEAF_WORD) {
+                //原先的叶子词节点有了子节点
+                next.status = Node.Status.WORD;
             }
             current = next;
         }
@@ -126,4 +133,178 @@ public class BinaryTrie<V> implements Trie<V> {
     public Node<V> getRoot() {
         return root;
     }
+
+    /**
+     * 有序批量构建, 词需要按照{@link String#compareTo(String)}递增添加
+     *
+     * @param nodeFactory 节点构造工厂
+     * @see SortedBuilder
+     */
+    public static <V> SortedBuilder<V> sortedBuild(TrieNodeFactory<V> nodeFactory) {
+        return new SortedBuilder<>(new BinaryTrie<>(nodeFactory));
+    }
+
+    /**
+     * 有序批量构建, trie中的数据必须为空, 否则抛出{@link IllegalArgumentException}
+     *
+     * @param trie 待构建的空trie
+     * @see SortedBuilder
+     */
+    public static <V> SortedBuilder<V> sortedBuild(BinaryTrie<V> trie) {
+        return new SortedBuilder<>(trie);
+    }
+
+    /**
+     * 有序批量构建{@link BinaryTrie}, 词必须按照{@link String#compareTo(String)}递增添加, 比如预先排好序的词库文件
+     * 一次线性遍历构建所有节点, 不需要中间的Map暂存所有的词, 也没有{@link NormalNode#addChild(Node)}的二分查找插入以及数组扩展,
+     * 一个节点的所有子节点都添加完之后, 才创建大小正好的children数组
+     * 相同的词重复添加, 覆盖value; 添加的词比前一个词小, 抛出{@link IllegalArgumentException}
+     * 注: 构建直接操作节点, 不会调用{@link BinaryTrie#put(char[], Object)}, 所以对于{@link com.tqmall.search.commons.match.MatchBinaryReverseTrie},
+     * key不会被逆向, 需要外部逆向并按照逆向之后的顺序添加
+     */
+    public static final class SortedBuilder<V> {
+
+        private final BinaryTrie<V> trie;
+
+        /**
+         * 上一个词的节点路径, path[0]为root节点
+         */
+        private Node<V>[] path;
+
+        /**
+         * 每一层还没有挂到父节点的子节点, 按照字符递增排列, pendingChildren[i]的父节点为path[i]
+         */
+        private Node<?>[][] pendingChildren;
+
+        private int[] pendingCount;
+
+        private char[] preKey;
+
+        private int preLen;
+
+        SortedBuilder(BinaryTrie<V> trie) {
+            Objects.requireNonNull(trie);
+            if (trie.size() != 0) {
+                throw new IllegalArgumentException("the trie for sorted build should be empty, but size is " + trie.size());
+            }
+            this.trie = trie;
+            ensureDepth(16);
+            path[0] = trie.root;
+        }
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        private void ensureDepth(int depth) {
+            if (path != null && path.length >= depth) return;
+            int newLength = path == null ? depth : Math.max(depth, path.length << 1);
+            if (path == null) {
+                path = new Node[newLength];
+                pendingChildren = new Node[newLength][];
+                pendingCount = new int[newLength];
+                preKey = new char[newLength];
+            } else {
+                path = Arrays.copyOf(path, newLength);
+                pendingChildren = Arrays.copyOf(pendingChildren, newLength);
+                pendingCount = Arrays.copyOf(pendingCount, newLength);
+                preKey = Arrays.copyOf(preKey, newLength);
+            }
+        }
+
+        public SortedBuilder<V> put(String key, V value) {
+            int len;
+            if (key == null || (len = key.length()) == 0) return this;
+            final int minLen = Math.min(len, preLen);
+            int common = 0;
+            while (common < minLen && key.charAt(common) == preKey[common]) common++;
+            if (common == len && common == preLen) {
+                //重复的词, 覆盖value
+                path[len].setValue(value);
+                return this;
+            }
+            if (common == len || (common < preLen && key.charAt(common) < preKey[common])) {
+                throw new IllegalArgumentException("key: " + key + " is less than the previous key: "
+                        + String.valueOf(preKey, 0, preLen) + ", keys should be put in sorted order");
+            }
+            //前一个词在common之后的节点, 其子节点都已经添加完了
+            closeNodes(common);
+            ensureDepth(len + 1);
+            final TrieNodeFactory<V> nodeFactory = trie.nodeFactory;
+            for (int i = common; i < len; i++) {
+                char c = key.charAt(i);
+                Node<V> node = i == len - 1 ? nodeFactory.createChildNode(c, value) : nodeFactory.createNormalNode(c);
+                appendChild(i, node);
+                path[i + 1] = node;
+                preKey[i] = c;
+            }
+            preLen = len;
+            trie.size++;
+            return this;
+        }
+
+        private void appendChild(int depth, Node<V> node) {
+            if (depth == 0 && !(trie.root instanceof NormalNode)) {
+                //BigRootNode等根节点直接添加, 顺便做字符范围校验
+                trie.root.addChild(node);
+                return;
+            }
+            Node<?>[] children = pendingChildren[depth];
+            int count = pendingCount[depth];
+            if (children == null) {
+                pendingChildren[depth] = children = new Node[8];
+            } else if (count == children.length) {
+                pendingChildren[depth] = children = Arrays.copyOf(children, count << 1);
+            }
+            children[count] = node;
+            pendingCount[depth] = count + 1;
+        }
+
+        /**
+         * 将深度大于depth的节点的子节点挂上去
+         */
+        private void closeNodes(int depth) {
+            for (int i = preLen; i > depth; i--) {
+                attachChildren(i);
+                path[i] = null;
+            }
+        }
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        private void attachChildren(int depth) {
+            final int count = pendingCount[depth];
+            if (count == 0) return;
+            final Node<?>[] buffer = pendingChildren[depth];
+            Node<V> node = path[depth];
+            NormalNode<V> normalNode;
+            if (node instanceof NormalNode && (normalNode = (NormalNode<V>) node).children == null) {
+                //children按照字符降序排列, 见Node#binarySearch
+                Node<?>[] children = new Node[count];
+                for (int i = 0; i < count; i++) {
+                    children[count - 1 - i] = buffer[i];
+                }
+                normalNode.children = children;
+                normalNode.childCount = count;
+            } else {
+                for (int i = 0; i < count; i++) {
+                    node.addChild((Node<V>) buffer[i]);
+                }
+            }
+            //同put, 叶子词节点有了子节点之后为WORD
+            if (node.status == Node.Status.LEAF_WORD) node.status = Node.Status.WORD;
+            Arrays.fill(buffer, 0, count, null);
+            pendingCount[depth] = 0;
+        }
+
+        /**
+         * 将还没有挂上的节点全部挂上, 返回构建好的trie, 之后该builder不能再使用
+         */
+        public BinaryTrie<V> create() {
+            closeNodes(0);
+            attachChildren(0);
+            preLen = 0;
+            path = null;
+            pendingChildren = null;
+            pendingCount = null;
+            preKey = null;
+            return trie;
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package com.tqmall.search.commons.trie;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by xing on 16/4/22.
+ * 两棵前缀树叠加的只读节点视图, 上层overlay覆盖在下层base之上, 匹配时一次遍历同时查找两棵树
+ * {@link #getChild(char)}只有两棵树都存在对应子节点时才创建新的LayeredNode, 只在一棵树中存在时直接返回该树的节点, 之后的遍历就只在该树中了
+ * 两个节点都是词时, value以overlay为准
+ * 所有的修改操作都不支持, 抛出{@link UnsupportedOperationException}
+ *
+ * @author xing
+ */
+public class LayeredNode<V> extends Node<V> {
+
+    private final Node<V> base;
+
+    private final Node<V> overlay;
+
+    /**
+     * @param base    下层节点
+     * @param overlay 上层节点, 其状态, value优先
+     */
+    public LayeredNode(Node<V> base, Node<V> overlay) {
+        super(base.c, mergeStatus(base, overlay), overlay.accept() ? overlay.value : base.value);
+        this.base = base;
+        this.overlay = overlay;
+    }
+
+    private static Node.Status mergeStatus(Node<?> base, Node<?> overlay) {
+        if (base.accept() || overlay.accept()) {
+            return base.status == Status.LEAF_WORD && overlay.status == Status.LEAF_WORD ? Status.LEAF_WORD : Status.WORD;
+        }
+        return Status.NORMAL;
+    }
+
+    private static <V> Node<V> validChild(Node<V> node, char ch) {
+        Node<V> child = node.getChild(ch);
+        return child == null || child.status == Status.DELETE ? null : child;
+    }
+
+    @Override
+    public Node<V> getChild(char ch) {
+        Node<V> overlayChild = validChild(overlay, ch);
+        Node<V> baseChild = validChild(base, ch);
+        if (overlayChild == null) return baseChild;
+        if (baseChild == null) return overlayChild;
+        return new LayeredNode<>(baseChild, overlayChild);
+    }
+
+    @Override
+    public boolean haveChild() {
+        return base.haveChild() || overlay.haveChild();
+    }
+
+    @Override
+    public boolean addChild(Node<V> node) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void childHandle(NodeChildHandle<V> handle) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean deleteNode(char[] word, int deep) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Map.Entry<String, V>> allChildWords(char[] prefixKey) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Node<V> getBase() {
+        return base;
+    }
+
+    public Node<V> getOverlay() {
+        return overlay;
+    }
+}
@@ -1,7 +1,11 @@
 package com.tqmall.search.commons.algorithm;
 
+import com.tqmall.search.commons.ac.AcBinaryReverseTrie;
 import com.tqmall.search.commons.ac.AcBinaryTrie;
+import com.tqmall.search.commons.ac.AcReplacer;
+import com.tqmall.search.commons.ac.OffHeapAcTrie;
 import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.match.MatchBinaryReverseTrie;
 import com.tqmall.search.commons.nlp.Utils;
 import com.tqmall.search.commons.trie.RootNodeType;
 import org.junit.AfterClass;
@@ -9,9 +13,10 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
 
 /**
  * Created by xing on 16/2/1.
@@ -72,4 +77,161 @@ public class AcTrieTest {
         System.out.println(text + ": " + retList);
         Assert.assertEquals(expectList, retList);
     }
+
+    @Test
+    public void acBinaryReverseTrieTest() {
+        String[] words = {"he", "she", "his", "hers", "nihao", "hao", "hs", "hsr", "abcd", "bc"};
+        MatchBinaryReverseTrie<Void> reverseTrie = new MatchBinaryReverseTrie<>(RootNodeType.ASCII.<Void>defaultAcTrie());
+        AcBinaryTrie.Builder<Void> builder = AcBinaryTrie.build();
+        for (String w : words) {
+            reverseTrie.put(w, null);
+            builder.put(w, null);
+        }
+        AcBinaryReverseTrie<Void> acReverseTrie = new AcBinaryReverseTrie<>(reverseTrie);
+        AcBinaryTrie<Void> acTrie = builder.create(RootNodeType.ASCII.<Void>defaultAcTrie());
+        for (String text : new String[]{"ushers", "sdmfhsgnshejfgnihaofhsrnihao", "abcx", "xabcdhsr"}) {
+            List<Hit<Void>> expectList = acTrie.match(text);
+            Collections.sort(expectList);
+            List<Hit<Void>> retList = acReverseTrie.match(text);
+            System.out.println(text + ": " + retList);
+            //逆向全匹配的结果本身就是有序的
+            Assert.assertEquals(expectList, retList);
+        }
+        List<Hit<Void>> bcHits = acReverseTrie.match("abcx");
+        Assert.assertEquals(Collections.singletonList(Utils.<Void>hitValueOf(1, "bc", null)), bcHits);
+        Assert.assertEquals(reverseTrie.maxMatch("xabcdhsr"), acReverseTrie.maxMatch("xabcdhsr"));
+    }
+
+    @Test
+    public void acSortedBuildTest() {
+        AcBinaryTrie<Void> sortedAcTrie = AcBinaryTrie.<Void>sortedBuild(RootNodeType.ASCII.<Void>defaultAcTrie())
+                .put("hao", null)
+                .put("he", null)
+                .put("hers", null)
+                .put("his", null)
+                .put("hs", null)
+                .put("hsr", null)
+                .put("nihao", null)
+                .put("she", null)
+                .create();
+        for (String text : new String[]{"ushers", "sdmfhsgnshejfgnihaofhsrnihao"}) {
+            Assert.assertEquals(acStrBinaryTrie.match(text), sortedAcTrie.match(text));
+        }
+    }
+
+    @Test
+    public void offHeapAcTrieTest() throws Exception {
+        Random random = new Random(7);
+        TreeMap<String, Integer> words = new TreeMap<>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 1 + random.nextInt(5);
+            for (int j = 0; j < len; j++) {
+                sb.append((char) ('a' + random.nextInt(6)));
+            }
+            words.put(sb.toString(), random.nextInt(10));
+        }
+        OffHeapAcTrie.Builder<Integer> offHeapBuilder = OffHeapAcTrie.build();
+        AcBinaryTrie.Builder<Integer> builder = AcBinaryTrie.build();
+        for (Map.Entry<String, Integer> e : words.entrySet()) {
+            offHeapBuilder.put(e.getKey(), e.getValue());
+            builder.put(e.getKey(), e.getValue());
+        }
+        OffHeapAcTrie<Integer> offHeapAcTrie = offHeapBuilder.create();
+        AcBinaryTrie<Integer> acTrie = builder.create(RootNodeType.ASCII.<Integer>defaultAcTrie());
+        Assert.assertEquals(words.size(), offHeapAcTrie.size());
+        for (Map.Entry<String, Integer> e : words.entrySet()) {
+            Assert.assertEquals(e.getValue(), offHeapAcTrie.get(e.getKey()));
+        }
+        Assert.assertFalse(offHeapAcTrie.contains("abcdefg"));
+
+        Path path = Files.createTempFile("offHeapAcTrie", ".bin");
+        try {
+            offHeapAcTrie.writeTo(path);
+            OffHeapAcTrie<Integer> mappedAcTrie = OffHeapAcTrie.map(path, offHeapAcTrie.getValues());
+            for (int i = 0; i < 200; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int j = 0; j < 40; j++) {
+                    sb.append((char) ('a' + random.nextInt(7)));
+                }
+                String text = sb.toString();
+                List<Hit<Integer>> expectList = acTrie.match(text);
+                Collections.sort(expectList);
+                List<Hit<Integer>> retList = offHeapAcTrie.match(text);
+                Collections.sort(retList);
+                Assert.assertEquals(expectList, retList);
+                List<Hit<Integer>> mappedList = mappedAcTrie.match(text);
+                Collections.sort(mappedList);
+                Assert.assertEquals(expectList, mappedList);
+                for (int k = 0; k < expectList.size(); k++) {
+                    Assert.assertEquals(expectList.get(k).getValue(), retList.get(k).getValue());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void acReplacerTest() throws Exception {
+        AcBinaryTrie<String> acTrie = AcBinaryTrie.<String>build()
+                .put("he", "HE")
+                .put("she", "SHE")
+                .put("hers", "HERS")
+                .put("abcd", "ABCD")
+                .put("bc", "BC")
+                .create(RootNodeType.ASCII.<String>defaultAcTrie());
+        Assert.assertEquals("u***rs", new AcReplacer<>(acTrie, AcReplacer.<String>mask('*')).replace("ushers"));
+        Assert.assertEquals("uSHErs, xABCDa", new AcReplacer<>(acTrie, AcReplacer.<String>value()).replace("ushers, xabcda"));
+        Assert.assertEquals("uax", new AcReplacer<>(acTrie, AcReplacer.<String>drop()).replace("usheabcx"));
+        //随机文本与暴力的最左最长匹配对比, 分多次写入
+        Random random = new Random(11);
+        AcBinaryTrie.Builder<String> builder = AcBinaryTrie.build();
+        Set<String> words = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            String w = randomStr(random, 1 + random.nextInt(5));
+            words.add(w);
+            builder.put(w, w.toUpperCase());
+        }
+        AcReplacer<String> replacer = new AcReplacer<>(builder.create(RootNodeType.ASCII.<String>defaultAcTrie()),
+                AcReplacer.<String>value());
+        for (int n = 0; n < 200; n++) {
+            String text = randomStr(random, random.nextInt(100));
+            StringBuilder expect = new StringBuilder();
+            int i = 0;
+            while (i < text.length()) {
+                int end = -1;
+                for (int j = text.length(); j > i; j--) {
+                    if (words.contains(text.substring(i, j))) {
+                        end = j;
+                        break;
+                    }
+                }
+                if (end < 0) {
+                    expect.append(text.charAt(i++));
+                } else {
+                    expect.append(text.substring(i, end).toUpperCase());
+                    i = end;
+                }
+            }
+            StringWriter out = new StringWriter();
+            AcReplacer<String>.Session session = replacer.open(out);
+            char[] array = text.toCharArray();
+            for (int off = 0; off < array.length; ) {
+                int len = Math.min(array.length - off, 1 + random.nextInt(7));
+                session.write(array, off, len);
+                off += len;
+            }
+            session.finish();
+            Assert.assertEquals(text, expect.toString(), out.toString());
+        }
+    }
+
+    private static String randomStr(Random random, int len) {
+        char[] array = new char[len];
+        for (int i = 0; i < len; i++) {
+            array[i] = (char) ('a' + random.nextInt(4));
+        }
+        return new String(array);
+    }
 }
@@ -0,0 +1,98 @@
+package com.tqmall.search.commons.algorithm;
+
+import com.tqmall.search.commons.lang.Function;
+import com.tqmall.search.commons.match.Dawg;
+import com.tqmall.search.commons.match.Hit;
+import com.tqmall.search.commons.match.MatchBinaryReverseTrie;
+import com.tqmall.search.commons.nlp.NlpUtils;
+import com.tqmall.search.commons.trie.RootNodeType;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * Created by xing on 16/4/24.
+ * Dawg test class
+ *
+ * @author xing
+ */
+public class DawgTest {
+
+    private static Map<String, Integer> lexicon;
+
+    private static MatchBinaryReverseTrie<Integer> reverseTrie;
+
+    private static Dawg<Integer> reverseDawg;
+
+    @BeforeClass
+    public static void init() {
+        lexicon = new HashMap<>();
+        reverseTrie = new MatchBinaryReverseTrie<>(RootNodeType.CJK.<Integer>defaultTrie());
+        NlpUtils.loadLexicon(new Function<String, Boolean>() {
+            @Override
+            public Boolean apply(String s) {
+                int index = s.indexOf(' ');
+                if (index > 0) s = s.substring(0, index);
+                lexicon.put(s, s.length());
+                reverseTrie.put(s, s.length());
+                return true;
+            }
+        }, NlpUtils.getPathOfClass(DawgTest.class, "/segment.txt"));
+        reverseDawg = Dawg.create(lexicon, true);
+        System.out.println("lexicon size: " + lexicon.size() + ", dawg states: " + reverseDawg.getStateCount()
+                + ", transitions: " + reverseDawg.getTransitionCount());
+    }
+
+    @AfterClass
+    public static void destroy() {
+        lexicon = null;
+        reverseTrie = null;
+        reverseDawg = null;
+    }
+
+    @Test
+    public void readTest() {
+        Assert.assertEquals(lexicon.size(), reverseDawg.size());
+        for (Map.Entry<String, Integer> e : lexicon.entrySet()) {
+            Assert.assertEquals(e.getValue(), reverseDawg.get(e.getKey()));
+        }
+        Assert.assertNull(reverseDawg.get("北京大学地铁站"));
+
+        Dawg<Integer> dawg = Dawg.<Integer>build()
+                .put("北京", 1)
+                .put("北京大学", 2)
+                .put("清华大学", 3)
+                .put("西湖", 4)
+                .create();
+        //"大学"后缀共享
+        Assert.assertEquals(4, dawg.size());
+        Assert.assertEquals(Integer.valueOf(3), dawg.get("清华大学"));
+        List<Map.Entry<String, Integer>> prefixList = dawg.prefixSearch("北京");
+        Assert.assertEquals(2, prefixList.size());
+        Assert.assertEquals("北京大学", prefixList.get(1).getKey());
+        Assert.assertEquals(Integer.valueOf(2), prefixList.get(1).getValue());
+        try {
+            Dawg.<Integer>build().put("北京大学", 1).put("北京", 2);
+            throw new AssertionError("无序添加没有抛出异常");
+        } catch (IllegalArgumentException e) {
+            System.out.println("正常抛出异常: " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void matchTest() {
+        String[] texts = {"北京大学生前来应聘", "商品和服务", "结婚的和尚未结婚的", "中华人民共和国成立了", "我在途虎养车买轮胎"};
+        for (String text : texts) {
+            Assert.assertEquals(reverseTrie.maxMatch(text), reverseDawg.maxMatch(text));
+            Assert.assertEquals(reverseTrie.minMatch(text), reverseDawg.minMatch(text));
+            List<Hit<Integer>> fullHits = reverseDawg.match(text);
+            System.out.println(text + " max: " + reverseDawg.maxMatch(text) + ", full: " + fullHits);
+            for (Hit<Integer> h : fullHits) {
+                Assert.assertEquals(Integer.valueOf(h.length()), h.getValue());
+            }
+        }
+    }
+}
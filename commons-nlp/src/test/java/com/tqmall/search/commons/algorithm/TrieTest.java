@@ -155,4 +155,82 @@ public class TrieTest {
         expectedResult.add(Utils.<String>hitValueOf(3, "服务", null));
         Assert.assertEquals(expectedResult, result);
     }
+
+    @Test
+    public void sortedBuildTest() {
+        TreeMap<String, String> dataMap = new TreeMap<>();
+        dataMap.put("一", "yi");
+        dataMap.put("一心一意", "yi xin yi yi");
+        dataMap.put("一切", "yi qie");
+        dataMap.put("一心", "yi xin");
+        dataMap.put("王星星", "wang xing xing");
+        dataMap.put("星星", "xing xing");
+        dataMap.put("王星", "wang xing");
+        dataMap.put("王", "wang");
+        dataMap.put("老王", "lao wang");
+        for (RootNodeType rootNodeType : new RootNodeType[]{RootNodeType.CJK, RootNodeType.NORMAL}) {
+            BinaryTrie<String> putTrie = new BinaryTrie<>(rootNodeType.<String>defaultTrie());
+            BinaryTrie.SortedBuilder<String> builder = BinaryTrie.sortedBuild(rootNodeType.<String>defaultTrie());
+            for (Map.Entry<String, String> e : dataMap.entrySet()) {
+                putTrie.put(e.getKey(), e.getValue());
+                builder.put(e.getKey(), e.getValue());
+            }
+            //重复的词覆盖value
+            builder.put("老王", "lao wang");
+            try {
+                builder.put("一心", null);
+                throw new AssertionError("无序添加\"一心\"没有抛出异常");
+            } catch (IllegalArgumentException e) {
+                System.out.println("正常抛出异常: " + e.getMessage());
+            }
+            BinaryTrie<String> sortedTrie = builder.create();
+            Assert.assertEquals(putTrie.size(), sortedTrie.size());
+            for (String k : new String[]{"一", "一心", "一心一", "王", "王星", "星", "老"}) {
+                Assert.assertEquals(toMap(putTrie.prefixSearch(k)), toMap(sortedTrie.prefixSearch(k)));
+            }
+            for (String k : dataMap.keySet()) {
+                Assert.assertEquals(dataMap.get(k), sortedTrie.getNode(k).getValue());
+            }
+            //构建完成之后还能正常添加
+            sortedTrie.put("一意", "yi yi");
+            Assert.assertEquals("yi yi", sortedTrie.getNode("一意").getValue());
+            Assert.assertEquals("yi qie", sortedTrie.getNode("一切").getValue());
+        }
+    }
+
+    /**
+     * 前缀词"ab"先于"abc"添加, 有序构建与put构建的节点状态一致
+     */
+    @Test
+    public void sortedBuildPrefixWordTest() {
+        String[] words = {"ab", "abc", "abcd", "abd", "b", "bc"};
+        for (RootNodeType rootNodeType : new RootNodeType[]{RootNodeType.NORMAL, RootNodeType.ASCII}) {
+            BinaryTrie<String> putTrie = new BinaryTrie<>(rootNodeType.<String>defaultTrie());
+            BinaryTrie<String> reversePutTrie = new BinaryTrie<>(rootNodeType.<String>defaultTrie());
+            BinaryTrie.SortedBuilder<String> builder = BinaryTrie.sortedBuild(rootNodeType.<String>defaultTrie());
+            for (int i = 0; i < words.length; i++) {
+                putTrie.put(words[i], words[i]);
+                reversePutTrie.put(words[words.length - 1 - i], words[words.length - 1 - i]);
+                builder.put(words[i], words[i]);
+            }
+            BinaryTrie<String> sortedTrie = builder.create();
+            Assert.assertEquals(Node.Status.WORD, sortedTrie.getNode("ab").getStatus());
+            Assert.assertEquals(Node.Status.LEAF_WORD, sortedTrie.getNode("abcd").getStatus());
+            for (String k : new String[]{"a", "ab", "abc", "abcd", "abd", "b", "bc"}) {
+                Node<String> sortedNode = sortedTrie.getNode(k);
+                Assert.assertEquals(k, putTrie.getNode(k).getStatus(), sortedNode.getStatus());
+                Assert.assertEquals(k, reversePutTrie.getNode(k).getStatus(), sortedNode.getStatus());
+                Assert.assertEquals(k, putTrie.getNode(k).getValue(), sortedNode.getValue());
+            }
+        }
+    }
+
+    private static Map<String, String> toMap(List<Map.Entry<String, String>> list) {
+        if (list == null) return null;
+        Map<String, String> map = new HashMap<>();
+        for (Map.Entry<String, String> e : list) {
+            map.put(e.getKey(), e.getValue());
+        }
+        return map;
+    }
 }
@@ -1,16 +1,31 @@
 package com.tqmall.search.commons.nlp;
 
+import com.tqmall.search.commons.analyzer.CjkAnalyzer;
 import com.tqmall.search.commons.analyzer.CjkLexicon;
+import com.tqmall.search.commons.analyzer.LexiconDelta;
+import com.tqmall.search.commons.analyzer.LexiconHitStats;
+import com.tqmall.search.commons.analyzer.ReloadableCjkLexicon;
 import com.tqmall.search.commons.analyzer.TokenType;
 import com.tqmall.search.commons.lang.Function;
+import com.tqmall.search.commons.lang.Supplier;
+import com.tqmall.search.commons.match.CharMapping;
 import com.tqmall.search.commons.match.Hit;
 import com.tqmall.search.commons.match.Hits;
 import com.tqmall.search.commons.trie.RootNodeType;
+import com.tqmall.search.commons.utils.CommonsUtils;
 import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by xing on 16/2/11.
@@ -58,6 +73,35 @@ public class CjkAnalyzerTest {
         System.out.println();
     }
 
+    /**
+     * 分词结果必须有序, 并且每个cjk字符都被覆盖
+     */
+    @Test
+    public void analyzerTest() {
+        Supplier<CjkLexicon> supplier = new Supplier<CjkLexicon>() {
+            @Override
+            public CjkLexicon get() {
+                return cjkLexicon;
+            }
+        };
+        String text = "商品共和服三百六十五个北京的大学, 壹贰叁";
+        char[] array = text.toCharArray();
+        for (CjkAnalyzer.Type type : CjkAnalyzer.Type.values()) {
+            List<Hit<TokenType>> hits = CjkAnalyzer.createSegment(supplier, type).match(array, 0, array.length);
+            System.out.println(type + ": " + Hits.valueOf(array, hits));
+            Assert.assertTrue(Hits.isSorted(hits));
+            boolean[] covered = new boolean[array.length];
+            for (Hit<TokenType> h : hits) {
+                for (int i = h.getStart(); i < h.getEnd(); i++) {
+                    covered[i] = true;
+                }
+            }
+            for (int i = 0; i < array.length; i++) {
+                Assert.assertEquals(NlpUtils.isCjkChar(array[i]), covered[i]);
+            }
+        }
+    }
+
     public void runSegment(Function<String, List<Hit<TokenType>>> function) {
         String text = "北京大学";
         List<Hit<TokenType>> list;
@@ -90,4 +134,230 @@ public class CjkAnalyzerTest {
         System.out.println(text + ": " + Hits.valueOf(text, list));
     }
 
+
+    @Test
+    public void reloadTest() throws Exception {
+        Path lexiconPath = Files.createTempFile("cjk-lexicon", ".txt");
+        try (ReloadableCjkLexicon reloadableLexicon = new ReloadableCjkLexicon(RootNodeType.CJK, lexiconPath)) {
+            Files.write(lexiconPath, Arrays.asList("北京", "大学"), StandardCharsets.UTF_8);
+            Assert.assertTrue(reloadableLexicon.reloadAsync().get());
+            CjkAnalyzer analyzer = CjkAnalyzer.createSegment(reloadableLexicon, CjkAnalyzer.Type.MAX);
+            String text = "北京大学";
+            List<Hit<TokenType>> hits = analyzer.match(text);
+            System.out.println("version: " + reloadableLexicon.getVersion() + ", " + text + ": " + hits);
+            Assert.assertEquals(2, hits.size());
+            long version = reloadableLexicon.getVersion();
+
+            Files.write(lexiconPath, Collections.singletonList("北京大学"), StandardCharsets.UTF_8);
+            Assert.assertTrue(reloadableLexicon.reload());
+            Assert.assertEquals(version + 1, reloadableLexicon.getVersion());
+            hits = analyzer.match(text);
+            System.out.println("version: " + reloadableLexicon.getVersion() + ", cost: " + reloadableLexicon.getLoadCost()
+                    + "ms, " + text + ": " + hits);
+            Assert.assertEquals(Collections.singletonList(new Hit<>(0, 4, TokenType.CN)), hits);
+
+            //用户词库在重新加载之后保留, 对旧词库的修改转到新词库
+            CjkLexicon old = reloadableLexicon.get();
+            Assert.assertTrue(old.putOverlayWord("途虎", TokenType.CN));
+            Assert.assertTrue(reloadableLexicon.reload());
+            Assert.assertNotSame(old, reloadableLexicon.get());
+            Assert.assertEquals(TokenType.CN, reloadableLexicon.get().getOverlayWords().get("途虎"));
+            Assert.assertTrue(old.putOverlayWord("养车", TokenType.CN));
+            Assert.assertEquals(2, reloadableLexicon.get().getOverlayWords().size());
+            Assert.assertEquals(reloadableLexicon.get().getOverlayWords(), old.getOverlayWords());
+            //用户词库版本也继承, 之后的增量可以继续应用
+            Assert.assertTrue(reloadableLexicon.get().applyOverlayDelta(LexiconDelta.delta(0L, 1L,
+                    Collections.singletonMap("轮胎", TokenType.CN), null)));
+            Assert.assertTrue(reloadableLexicon.reload());
+            Assert.assertEquals(1L, reloadableLexicon.get().getOverlayVersion());
+            Assert.assertTrue(reloadableLexicon.get().applyOverlayDelta(LexiconDelta.delta(1L, 2L, null,
+                    Collections.singletonList("轮胎"))));
+
+            //匹配次数统计继承到新的词库
+            LexiconHitStats stats = reloadableLexicon.enableHitStats();
+            analyzer.match(text);
+            Assert.assertTrue(reloadableLexicon.reload());
+            LexiconHitStats reloadedStats = reloadableLexicon.getHitStats();
+            Assert.assertNotNull(reloadedStats);
+            Assert.assertNotSame(stats, reloadedStats);
+            Assert.assertEquals(1, reloadedStats.snapshot().getHitCount(CjkAnalyzer.Type.MAX));
+            Assert.assertEquals(Collections.singletonList(CommonsUtils.newImmutableMapEntry("北京大学", 1L)),
+                    reloadedStats.topN(10));
+        } finally {
+            Files.deleteIfExists(lexiconPath);
+        }
+    }
+
+    @Test
+    public void overlayTest() {
+        String text = "我在途虎养车买轮胎";
+        char[] array = text.toCharArray();
+        Hit<TokenType> overlayHit = new Hit<>(2, 6, TokenType.CN);
+        Assert.assertFalse(cjkLexicon.maxMatch(array, 0, array.length).contains(overlayHit));
+        try {
+            Assert.assertTrue(cjkLexicon.putOverlayWord("途虎养车", TokenType.CN));
+            List<Hit<TokenType>> maxHits = cjkLexicon.maxMatch(array, 0, array.length);
+            List<Hit<TokenType>> fullHits = cjkLexicon.fullMatch(array, 0, array.length);
+            System.out.println("overlay maxMatch: " + maxHits + ", fullMatch: " + fullHits);
+            Assert.assertTrue(maxHits.contains(overlayHit));
+            Assert.assertTrue(fullHits.contains(overlayHit));
+            Assert.assertTrue(Hits.isSorted(fullHits));
+            //词库中的词依然可以匹配到
+            Assert.assertTrue(maxHits.contains(new Hit<>(7, 9, TokenType.CN)));
+            Assert.assertTrue(cjkLexicon.removeOverlayWord("途虎养车"));
+            Assert.assertFalse(cjkLexicon.maxMatch(array, 0, array.length).contains(overlayHit));
+            Assert.assertFalse(cjkLexicon.fullMatch(array, 0, array.length).contains(overlayHit));
+        } finally {
+            cjkLexicon.setOverlayWords(null);
+        }
+    }
+
+    @Test
+    public void probMatchTest() throws Exception {
+        System.out.println("probSegment");
+        runSegment(new Function<String, List<Hit<TokenType>>>() {
+            @Override
+            public List<Hit<TokenType>> apply(String text) {
+                return cjkLexicon.probMatch(text.toCharArray(), 0, text.length());
+            }
+        });
+        Path lexiconPath = Files.createTempFile("cjk-lexicon", ".txt");
+        try {
+            Files.write(lexiconPath, Arrays.asList("研究 c 100", "究生命 c", "生命 c 100", "研"), StandardCharsets.UTF_8);
+            CjkLexicon lexicon = new CjkLexicon(RootNodeType.NORMAL, lexiconPath);
+            char[] array = "研究生命".toCharArray();
+            //逆向最大匹配局部贪心: 研, 究生命
+            Assert.assertEquals(Arrays.asList(new Hit<>(0, 1, TokenType.CN), new Hit<>(1, 4, TokenType.CN)),
+                    lexicon.maxMatch(array, 0, array.length));
+            //最大概率: 研究, 生命
+            Assert.assertEquals(Arrays.asList(new Hit<>(0, 2, TokenType.CN), new Hit<>(2, 4, TokenType.CN)),
+                    lexicon.probMatch(array, 0, array.length));
+            //有字符映射并且off不为0时, 词权重依然根据映射之后的词查询
+            char[] offArray = "大學研究生命".toCharArray();
+            Assert.assertEquals(Arrays.asList(new Hit<>(2, 4, TokenType.CN), new Hit<>(4, 6, TokenType.CN)),
+                    lexicon.probMatch(offArray, 2, 4, SegmentFilters.charMapping()));
+            //用户词库参与同一个词图, 相同的词以用户词库为准
+            lexicon.putOverlayWord("生命", TokenType.UNKNOWN);
+            List<Hit<TokenType>> hits = lexicon.probMatch(array, 0, array.length);
+            Assert.assertEquals(Arrays.asList(new Hit<>(0, 2, TokenType.CN), new Hit<>(2, 4, TokenType.CN)), hits);
+            Assert.assertEquals(TokenType.UNKNOWN, hits.get(1).getValue());
+        } finally {
+            Files.deleteIfExists(lexiconPath);
+        }
+    }
+
+    @Test
+    public void charMappingTest() {
+        String text = "大連理工大學六十年校慶, 北京的大學";
+        char[] array = text.toCharArray();
+        char[] filtered = text.toCharArray();
+        SegmentFilters.textFilter().textFilter(filtered, 0, filtered.length);
+        CharMapping mapping = SegmentFilters.charMapping();
+        List<Hit<TokenType>> hits = cjkLexicon.maxMatch(array, 0, array.length, mapping);
+        System.out.println("charMapping maxMatch: " + Hits.valueOf(filtered, hits));
+        Assert.assertEquals(cjkLexicon.maxMatch(filtered, 0, filtered.length), hits);
+        Assert.assertEquals(cjkLexicon.minMatch(filtered, 0, filtered.length), cjkLexicon.minMatch(array, 0, array.length, mapping));
+        Assert.assertEquals(cjkLexicon.fullMatch(filtered, 0, filtered.length), cjkLexicon.fullMatch(array, 0, array.length, mapping));
+        Assert.assertEquals(cjkLexicon.probMatch(filtered, 0, filtered.length), cjkLexicon.probMatch(array, 0, array.length, mapping));
+        //原文本没有修改
+        Assert.assertEquals(text, new String(array));
+        Assert.assertNotEquals(cjkLexicon.maxMatch(array, 0, array.length), hits);
+    }
+
+    @Test
+    public void hitStatsTest() throws Exception {
+        Path lexiconPath = Files.createTempFile("cjk-lexicon", ".txt");
+        Path dumpPath = Files.createTempFile("cjk-lexicon-hits", ".txt");
+        try {
+            Files.write(lexiconPath, Arrays.asList("研究 c 100", "究生命 c", "生命 c 100", "研", "未用"), StandardCharsets.UTF_8);
+            CjkLexicon lexicon = new CjkLexicon(RootNodeType.NORMAL, lexiconPath);
+            Assert.assertNull(lexicon.getHitStats());
+            char[] array = "研究生命".toCharArray();
+            lexicon.maxMatch(array, 0, array.length);
+            LexiconHitStats stats = lexicon.enableHitStats();
+            Assert.assertSame(stats, lexicon.enableHitStats());
+            Assert.assertEquals(5, stats.getTermCount());
+            //研, 究生命
+            lexicon.maxMatch(array, 0, array.length);
+            //研, 研究, 究生命, 生命
+            lexicon.fullMatch(array, 0, array.length);
+            //研究, 生命
+            lexicon.probMatch(array, 0, array.length);
+            //用户词库中的词不在统计中
+            lexicon.putOverlayWord("命令", TokenType.CN);
+            char[] overlayArray = "命令".toCharArray();
+            lexicon.maxMatch(overlayArray, 0, overlayArray.length);
+
+            LexiconHitStats.Snapshot snapshot = stats.snapshot();
+            Assert.assertEquals(3, snapshot.getHitCount(CjkAnalyzer.Type.MAX));
+            Assert.assertEquals(1, snapshot.getMissCount(CjkAnalyzer.Type.MAX));
+            Assert.assertEquals(2, snapshot.getUsedTermCount(CjkAnalyzer.Type.MAX));
+            Assert.assertEquals(4, snapshot.getHitCount(CjkAnalyzer.Type.FULL));
+            Assert.assertEquals(4, snapshot.getUsedTermCount(CjkAnalyzer.Type.FULL));
+            Assert.assertEquals(2, snapshot.getUsedTermCount(CjkAnalyzer.Type.PROB));
+            Assert.assertEquals(0, snapshot.getHitCount(CjkAnalyzer.Type.MIN));
+            Assert.assertEquals(Collections.singletonList("未用"), snapshot.getUnusedTerms());
+            List<Map.Entry<String, Long>> top = stats.topN(10);
+            System.out.println("hit stats topN: " + top);
+            Assert.assertEquals(4, top.size());
+            for (Map.Entry<String, Long> e : top) {
+                Assert.assertEquals(2L, e.getValue().longValue());
+            }
+
+            stats.dump(dumpPath, 2);
+            List<String> lines = Files.readAllLines(dumpPath, StandardCharsets.UTF_8);
+            System.out.println("hit stats dump: " + lines);
+            Assert.assertEquals(1 + CjkAnalyzer.Type.values().length + 2, lines.size());
+            Assert.assertTrue(lines.get(lines.size() - 1).endsWith("\t2"));
+
+            stats.reset();
+            Assert.assertEquals(5, stats.snapshot().getUnusedTermCount());
+            Assert.assertSame(stats, lexicon.disableHitStats());
+            Assert.assertNull(lexicon.getHitStats());
+        } finally {
+            Files.deleteIfExists(lexiconPath);
+            Files.deleteIfExists(dumpPath);
+        }
+    }
+
+    @Test
+    public void lexiconDeltaTest() throws Exception {
+        Path lexiconPath = Files.createTempFile("cjk-lexicon", ".txt");
+        try {
+            Files.write(lexiconPath, Arrays.asList("研究", "生命"), StandardCharsets.UTF_8);
+            CjkLexicon master = new CjkLexicon(RootNodeType.NORMAL, lexiconPath);
+            CjkLexicon slave = new CjkLexicon(RootNodeType.NORMAL, lexiconPath);
+            Map<String, TokenType> words = new HashMap<>();
+            words.put("生命力", TokenType.CN);
+            words.put("生命周期", TokenType.UNKNOWN);
+            words.put("研究生", null);
+            LexiconDelta delta = LexiconDelta.delta(0, 1, words, Collections.singletonList("研究生"));
+            Assert.assertTrue(master.applyOverlayDelta(delta));
+            String data = delta.encodeToString();
+            Assert.assertTrue(data.matches("[A-Za-z0-9_-]+"));
+            LexiconDelta decoded = LexiconDelta.decode(data);
+            System.out.println("lexicon delta: " + decoded + ", encode length: " + data.length());
+            Assert.assertEquals(delta.getPuts(), decoded.getPuts());
+            Assert.assertEquals(TokenType.CN, decoded.getPuts().get("研究生"));
+            Assert.assertTrue(decoded.getRemoves().isEmpty());
+            Assert.assertTrue(slave.applyOverlayDelta(decoded));
+            Assert.assertEquals(master.getOverlayWords(), slave.getOverlayWords());
+            Assert.assertEquals(1, slave.getOverlayVersion());
+            char[] array = "研究生命周期".toCharArray();
+            Assert.assertEquals(master.maxMatch(array, 0, array.length), slave.maxMatch(array, 0, array.length));
+
+            //版本不连续的增量被拒绝
+            LexiconDelta gap = LexiconDelta.delta(2, 3, null, Collections.singletonList("生命力"));
+            Assert.assertFalse(slave.applyOverlayDelta(LexiconDelta.decode(gap.encode())));
+            Assert.assertTrue(slave.getOverlayWords().containsKey("生命力"));
+            //快照整体替换
+            Assert.assertTrue(master.applyOverlayDelta(LexiconDelta.delta(1, 3, null, Collections.singletonList("生命力"))));
+            Assert.assertTrue(slave.applyOverlayDelta(LexiconDelta.decode(master.overlaySnapshot().encodeToString())));
+            Assert.assertEquals(3, slave.getOverlayVersion());
+            Assert.assertEquals(master.getOverlayWords(), slave.getOverlayWords());
+            Assert.assertFalse(slave.getOverlayWords().containsKey("生命力"));
+        } finally {
+            Files.deleteIfExists(lexiconPath);
+        }
+    }
 }
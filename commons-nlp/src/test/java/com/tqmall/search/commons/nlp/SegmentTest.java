@@ -3,14 +3,25 @@ package com.tqmall.search.commons.nlp;
 import com.tqmall.search.commons.analyzer.AsciiAnalyzer;
 import com.tqmall.search.commons.analyzer.CjkAnalyzer;
 import com.tqmall.search.commons.analyzer.CjkLexicon;
+import com.tqmall.search.commons.analyzer.SynonymDictionary;
+import com.tqmall.search.commons.analyzer.TokenGraph;
+import com.tqmall.search.commons.analyzer.TokenType;
 import com.tqmall.search.commons.lang.Supplier;
+import com.tqmall.search.commons.match.CharSlice;
+import com.tqmall.search.commons.match.Hit;
 import com.tqmall.search.commons.match.Hits;
+import com.tqmall.search.commons.metrics.SegmentMetrics;
 import com.tqmall.search.commons.trie.RootNodeType;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by xing on 16/3/14.
@@ -66,4 +77,113 @@ public class SegmentTest {
             System.out.println("minSegment: " + Hits.valueOf(array, minSegment.match(array, 0, array.length)));
         }
     }
+
+    @Test
+    public void keyViewTest() {
+        String text = "大連理工大学六十年校庆, 500人不是参加华中科技大学";
+        char[] array = text.toCharArray();
+        List<Hit<TokenType>> hits = maxSegment.match(array, 0, array.length);
+        Map<String, Integer> countMap = new HashMap<>();
+        Map<CharSlice, Integer> sliceCountMap = new HashMap<>();
+        for (Hits.InHit<TokenType> inHit : Hits.valueOf(array, hits)) {
+            String key = inHit.getKey();
+            Assert.assertEquals(key.hashCode(), inHit.getKeyView().hashCode());
+            Assert.assertTrue(inHit.getKeyView().contentEquals(key));
+            //equals只认CharSlice, 与String保持对称
+            Assert.assertFalse(inHit.getKeyView().equals(key));
+            Assert.assertEquals(0, inHit.getKeyView().compareContent(key));
+            countMap.put(key, countMap.containsKey(key) ? countMap.get(key) + 1 : 1);
+            CharSlice sliceKey = CharSlice.copyOf(key);
+            Assert.assertEquals(inHit.getKeyView(), sliceKey);
+            sliceCountMap.put(sliceKey, sliceCountMap.containsKey(sliceKey) ? sliceCountMap.get(sliceKey) + 1 : 1);
+        }
+        //通过同一个视图对象查询, 不创建String
+        CharSlice view = new CharSlice();
+        StringBuilder sb = new StringBuilder();
+        for (Hit<TokenType> hit : hits) {
+            CharSlice key = hit.keyView(array, view);
+            Assert.assertEquals(key.lookup(countMap), sliceCountMap.get(key));
+            Assert.assertNotNull(sliceCountMap.get(key));
+            key.appendTo(sb).append('|');
+        }
+        System.out.println("keyView: " + sb);
+        Assert.assertTrue(sliceCountMap.containsKey(new CharSlice("大学x".toCharArray(), 0, 2)));
+        Assert.assertNotNull(new CharSlice("大学x".toCharArray(), 0, 2).lookup(countMap));
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        Supplier<CjkLexicon> cjkLexicon = CjkLexicon.createAsyncSupplier(RootNodeType.CJK,
+                NlpUtils.getPathOfClass(SegmentTest.class, "/segment.txt"));
+        Segment segment = Segment.build("metrics")
+                .segmentFilter(SegmentFilters.hitsFilter())
+                .cjkSegmentType(CjkAnalyzer.Type.MAX)
+                .metrics(true)
+                .create(cjkLexicon);
+        Assert.assertNull(maxSegment.getMetrics());
+        SegmentMetrics metrics = segment.getMetrics();
+        Assert.assertNotNull(metrics);
+        char[] array = "Xing-Wang0.5元, 大連理工大学六十年校庆".toCharArray();
+        int hitCount = 0;
+        for (int i = 0; i < 10; i++) {
+            hitCount += segment.match(array, 0, array.length).size();
+        }
+        Assert.assertEquals(10L, metrics.getMatchCount());
+        Assert.assertEquals(10L * array.length, metrics.getCharCount());
+        Assert.assertEquals(hitCount, metrics.getHitCount());
+        Assert.assertEquals(10L, metrics.getStageHistogram(SegmentMetrics.Stage.CJK).getCount());
+        Assert.assertEquals(10L, metrics.getStageHistogram(SegmentMetrics.Stage.HITS_FILTER).getCount());
+        Assert.assertTrue(metrics.getMatchP99Nanos() >= metrics.getMatchHistogram().getPercentile(0.5));
+        ObjectName objectName = new ObjectName(SegmentMetrics.JMX_DOMAIN + ":type=SegmentMetrics,name=" + ObjectName.quote("metrics"));
+        Assert.assertEquals(10L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "MatchCount"));
+        System.out.println(metrics);
+        Assert.assertEquals(objectName, metrics.getObjectName());
+        //同名的不替换已经注册的, 添加后缀
+        SegmentMetrics duplicate = new SegmentMetrics("metrics").register();
+        Assert.assertNotEquals(objectName, duplicate.getObjectName());
+        Assert.assertEquals(10L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "MatchCount"));
+        duplicate.unregister();
+        metrics.reset();
+        Assert.assertEquals(0L, metrics.getMatchCount());
+        metrics.unregister();
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    }
+
+    @Test
+    public void synonymTest() {
+        SynonymDictionary dictionary = SynonymDictionary.build()
+                .addGroup("机油", "润滑油")
+                .addGroup("北京大学", "北大")
+                .addGroup("理工", "工科")
+                .create();
+        Supplier<CjkLexicon> cjkLexicon = CjkLexicon.createAsyncSupplier(RootNodeType.CJK,
+                NlpUtils.getPathOfClass(SegmentTest.class, "/segment.txt"));
+        Segment segment = Segment.build("synonym")
+                .segmentFilter(SegmentFilters.textFilter())
+                .cjkSegmentType(CjkAnalyzer.Type.MAX)
+                .synonymDictionary(dictionary)
+                .create(cjkLexicon);
+        String text = "北京大学买機油, 大连理工大学";
+        char[] array = text.toCharArray();
+        TokenGraph graph = segment.tokenGraph(array, 0, array.length);
+        System.out.println("tokenGraph: " + graph);
+        List<Hit<TokenType>> hits = segment.match(text);
+        int synonymCount = 0;
+        for (int i = 0; i < graph.size(); i++) {
+            if (!graph.isSynonym(i)) continue;
+            synonymCount++;
+            String term = graph.getTerm(i).toString();
+            String source = text.substring(graph.getStart(i), graph.getEnd(i));
+            if (term.equals("北大")) {
+                Assert.assertEquals("北京大学", source);
+                Assert.assertEquals(0, graph.getPosition(i));
+            } else {
+                Assert.assertEquals("润滑油", term);
+                Assert.assertEquals("機油", source);
+            }
+        }
+        //"理工"在"大连理工大学"中间, 与分词边界不对齐, 不扩展
+        Assert.assertEquals(2, synonymCount);
+        Assert.assertEquals(hits.size() + synonymCount, graph.size());
+    }
 }